@@ -0,0 +1,50 @@
+-- =====================================================
+-- DORPAY Accounting System - Hot-Path Index Migration
+-- Secondary indexes for the filters used by the DAO queries
+-- =====================================================
+-- The application creates these automatically on startup (DatabaseUtil.initializeDatabase).
+-- Run this script manually only for databases managed outside the application.
+-- Re-running it fails with "Duplicate key name" for indexes that already exist; that is safe to ignore.
+--
+-- After applying, verify the plans with:
+--   java utils.QueryPlanCheck
+-- =====================================================
+
+USE accounting_system;
+
+-- Student lists, payments, payables and the dashboard all filter belong by school year and status
+ALTER TABLE belong ADD INDEX idx_belong_school_year_status (school_year_id, status);
+
+-- Active/deactivated student filters
+ALTER TABLE student ADD INDEX idx_student_status (status);
+
+-- Duplicate checks on add/import (StudentDAO.resolveIdentities) match the normalized full name
+ALTER TABLE student ADD COLUMN name_key VARCHAR(310)
+    GENERATED ALWAYS AS (LOWER(COALESCE(NULLIF(CONCAT_WS(' ',
+        NULLIF(TRIM(first_name), ''), NULLIF(TRIM(middle_name), ''), NULLIF(TRIM(last_name), '')), ''),
+        TRIM(fullname)))) STORED;
+ALTER TABLE student ADD INDEX idx_student_name_key (name_key);
+
+-- Notifications and the overdue sweeper range-scan due dates
+ALTER TABLE duedate ADD INDEX idx_duedate_due_date (due_date);
+
+-- Overdue count and status-filtered reads
+ALTER TABLE student_payables ADD INDEX idx_payables_status (status);
+
+-- Overdue sweeper: join from duedate to open payables
+ALTER TABLE student_payables ADD INDEX idx_payables_duedate_status (duedate_id, status);
+
+-- Change tracking for the local snapshot cache (SnapshotStore): students changed since a time
+-- (the updated_at columns themselves are added by DatabaseUtil.initializeDatabase)
+ALTER TABLE student ADD INDEX idx_student_updated_at (updated_at);
+ALTER TABLE belong ADD INDEX idx_belong_school_year_updated_at (school_year_id, updated_at);
+ALTER TABLE student_payables ADD INDEX idx_payables_updated_at (updated_at);
+
+-- Amount range filters and top payers on the encrypted amounts, through their range tags
+-- (the *_tag columns are added by DatabaseUtil.initializeDatabase)
+ALTER TABLE student_payables ADD INDEX idx_payables_amount_paid_tag (amount_paid_tag);
+ALTER TABLE student_payables ADD INDEX idx_payables_remaining_tag (remaining_balance_tag);
+
+-- =====================================================
+-- END OF SCRIPT
+-- =====================================================
@@ -174,6 +174,8 @@ DELIMITER ;
 -- =====================================================
 
 -- View for student payment summary
+-- Set-based: payables are pre-aggregated once per belong in a derived table instead of
+-- calling calculate_remaining_balance/determine_payment_status for every output row
 DROP VIEW IF EXISTS v_student_payment_summary;
 CREATE VIEW v_student_payment_summary AS
 SELECT 
@@ -191,22 +193,36 @@ SELECT
         ELSE 'Unknown'
     END AS semester_name,
     COALESCE(sem.first_sem_amount, 0) + COALESCE(sem.second_sem_amount, 0) + COALESCE(sem.summer_sem_amount, 0) AS total_payable,
-    COALESCE(SUM(sp.amount_paid), 0) AS total_paid,
-    calculate_remaining_balance(b.belong_id) AS remaining_balance,
-    determine_payment_status(b.belong_id) AS payment_status,
-    MAX(d.due_date) AS due_date,
-    MAX(sp.payable_id) AS latest_payable_id
+    COALESCE(pa.total_paid, 0) AS total_paid,
+    GREATEST(COALESCE(sem.first_sem_amount, 0) + COALESCE(sem.second_sem_amount, 0) + COALESCE(sem.summer_sem_amount, 0) - COALESCE(pa.total_paid, 0), 0.00) AS remaining_balance,
+    CASE
+        WHEN COALESCE(pa.total_paid, 0) >= COALESCE(sem.first_sem_amount, 0) + COALESCE(sem.second_sem_amount, 0) + COALESCE(sem.summer_sem_amount, 0) - 0.01 THEN 'PAID'
+        WHEN pa.first_due_date IS NOT NULL AND pa.first_due_date < CURDATE() THEN 'OVERDUE'
+        WHEN COALESCE(pa.total_paid, 0) > 0 THEN 'PARTIAL'
+        ELSE 'UNPAID'
+    END AS payment_status,
+    pa.due_date,
+    pa.latest_payable_id
 FROM student s
 INNER JOIN belong b ON s.student_id = b.student_id
 INNER JOIN school_year sy ON b.school_year_id = sy.school_year_id
 INNER JOIN semester sem ON b.semester_id = sem.semester_id
-LEFT JOIN student_payables sp ON b.belong_id = sp.belong_id
-LEFT JOIN duedate d ON sp.duedate_id = d.duedate_id
+LEFT JOIN (
+    SELECT 
+        sp.belong_id,
+        SUM(sp.amount_paid) AS total_paid,
+        MIN(d.due_date) AS first_due_date,
+        MAX(d.due_date) AS due_date,
+        MAX(sp.payable_id) AS latest_payable_id
+    FROM student_payables sp
+    LEFT JOIN duedate d ON sp.duedate_id = d.duedate_id
+    GROUP BY sp.belong_id
+) pa ON b.belong_id = pa.belong_id
 WHERE COALESCE(s.status, 'active') = 'active'
-  AND COALESCE(b.status, 'active') = 'active'
-GROUP BY s.student_id, s.student_number, s.major, s.year, sy.year_range, b.belong_id, sem.semester_id;
+  AND COALESCE(b.status, 'active') = 'active';
 
 -- View for overdue payments
+-- Set-based: amount paid per belong comes from one grouped derived table
 DROP VIEW IF EXISTS v_overdue_payments;
 CREATE VIEW v_overdue_payments AS
 SELECT 
@@ -216,16 +232,21 @@ SELECT
     sy.year_range AS school_year,
     b.belong_id,
     sp.payable_id,
-    calculate_remaining_balance(b.belong_id) AS remaining_balance,
+    GREATEST(COALESCE(sem.first_sem_amount, 0) + COALESCE(sem.second_sem_amount, 0) + COALESCE(sem.summer_sem_amount, 0) - COALESCE(pa.total_paid, 0), 0.00) AS remaining_balance,
     d.due_date,
     DATEDIFF(CURDATE(), d.due_date) AS days_overdue
 FROM student s
 INNER JOIN belong b ON s.student_id = b.student_id
 INNER JOIN school_year sy ON b.school_year_id = sy.school_year_id
+LEFT JOIN semester sem ON b.semester_id = sem.semester_id
 INNER JOIN student_payables sp ON b.belong_id = sp.belong_id
-LEFT JOIN duedate d ON sp.duedate_id = d.duedate_id
-WHERE d.due_date IS NOT NULL
-  AND d.due_date < CURDATE()
+INNER JOIN duedate d ON sp.duedate_id = d.duedate_id
+LEFT JOIN (
+    SELECT belong_id, SUM(amount_paid) AS total_paid
+    FROM student_payables
+    GROUP BY belong_id
+) pa ON b.belong_id = pa.belong_id
+WHERE d.due_date < CURDATE()
   AND sp.status != 'PAID'
   AND COALESCE(s.status, 'active') = 'active'
   AND COALESCE(b.status, 'active') = 'active';
@@ -297,8 +318,8 @@ SELECT
     COUNT(DISTINCT CASE WHEN sp.amount_paid > 0 THEN s.student_id END) AS students_who_paid,
     -- Total students enrolled
     COUNT(DISTINCT s.student_id) AS total_students_enrolled,
-    -- Overdue payments count
-    COUNT(DISTINCT CASE WHEN d.due_date IS NOT NULL AND d.due_date < CURDATE() AND sp.status != 'PAID' THEN sp.payable_id END) AS overdue_payments_count
+    -- Overdue payments count (status maintained by OverdueStatusSweeper)
+    COUNT(DISTINCT CASE WHEN sp.status = 'OVERDUE' THEN sp.payable_id END) AS overdue_payments_count
 FROM student s
 INNER JOIN belong b ON s.student_id = b.student_id
 INNER JOIN school_year sy ON b.school_year_id = sy.school_year_id
@@ -967,7 +988,8 @@ BEGIN
         -- Update existing payable - use the found payable_id to ensure we update the correct one
         UPDATE student_payables
         SET downpayment_amount = p_amount,
-            remaining_balance = p_amount
+            remaining_balance = p_amount,
+            version = version + 1
         WHERE payable_id = v_existing_payable_id;
         SET p_result = 'UPDATED';
     ELSE
@@ -1122,318 +1144,11 @@ BEGIN
 END //
 DELIMITER ;
 
--- Procedure to get payments with filters
-DELIMITER //
-DROP PROCEDURE IF EXISTS sp_get_payments//
-CREATE PROCEDURE sp_get_payments(
-    IN p_school_year_id INT,
-    IN p_semester VARCHAR(20),
-    IN p_search_term VARCHAR(255),
-    IN p_year VARCHAR(20),
-    IN p_program VARCHAR(100)
-)
-BEGIN
-    SELECT DISTINCT
-        s.student_id,
-        s.student_number,
-        COALESCE(CONCAT_WS(' ', s.first_name, s.middle_name, s.last_name), s.fullname) AS student_name,
-        COALESCE(MAX(CASE WHEN sem.first_sem_amount > 0 AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL) THEN sem.first_sem_amount ELSE 0 END), 0) AS first_sem_amount,
-        COALESCE(MAX(CASE WHEN sem.second_sem_amount > 0 AND (sem.first_sem_amount = 0 OR sem.first_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL) THEN sem.second_sem_amount ELSE 0 END), 0) AS second_sem_amount,
-        COALESCE(MAX(CASE WHEN sem.summer_sem_amount > 0 AND (sem.first_sem_amount = 0 OR sem.first_sem_amount IS NULL) AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL) THEN sem.summer_sem_amount ELSE 0 END), 0) AS summer_sem_amount,
-        COALESCE(SUM(sem.first_sem_amount + sem.second_sem_amount + sem.summer_sem_amount), 0) AS total_payable,
-        COALESCE(SUM(sp.downpayment_amount), 0) AS total_downpayment,
-        COALESCE(SUM(sp.amount_paid), 0) AS amount_paid,
-        MAX(d.due_date) AS due_date,
-        calculate_payment_status(COALESCE(SUM(sp.amount_paid), 0), COALESCE(SUM(sem.first_sem_amount + sem.second_sem_amount + sem.summer_sem_amount), 0)) AS payment_status
-    FROM student s
-    INNER JOIN belong b ON s.student_id = b.student_id
-    LEFT JOIN school_year sy ON b.school_year_id = sy.school_year_id
-    LEFT JOIN semester sem ON b.semester_id = sem.semester_id
-    INNER JOIN student_payables sp ON b.belong_id = sp.belong_id AND sp.downpayment_amount > 0
-    LEFT JOIN duedate d ON sp.duedate_id = d.duedate_id
-    WHERE COALESCE(s.status, 'active') = 'active'
-      AND COALESCE(b.status, 'active') = 'active'
-      -- School year filter
-      AND (p_school_year_id IS NULL OR b.school_year_id = p_school_year_id)
-      -- Semester filter
-      AND (p_semester IS NULL OR p_semester = '' OR
-           (CASE 
-              WHEN sem.first_sem_amount > 0 AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL) THEN '1st Sem'
-              WHEN sem.second_sem_amount > 0 AND (sem.first_sem_amount = 0 OR sem.first_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL) THEN '2nd Sem'
-              WHEN sem.summer_sem_amount > 0 AND (sem.first_sem_amount = 0 OR sem.first_sem_amount IS NULL) AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL) THEN 'Summer Sem'
-              ELSE NULL
-            END = p_semester))
-      -- Search filter
-      AND (p_search_term IS NULL OR p_search_term = '' OR 
-           s.student_number LIKE CONCAT('%', p_search_term, '%') OR
-           COALESCE(CONCAT_WS(' ', s.first_name, s.middle_name, s.last_name), s.fullname) LIKE CONCAT('%', p_search_term, '%'))
-      -- Year filter
-      AND (p_year IS NULL OR p_year = '' OR s.year = p_year)
-      -- Program filter
-      AND (p_program IS NULL OR p_program = '' OR s.major = p_program)
-    GROUP BY s.student_id, s.student_number, s.first_name, s.middle_name, s.last_name, s.fullname
-    ORDER BY s.student_id DESC;
-END //
-DELIMITER ;
-
--- Procedure to save (add/update) payment
-DELIMITER //
-DROP PROCEDURE IF EXISTS sp_save_payment//
-CREATE PROCEDURE sp_save_payment(
-    IN p_student_id INT,
-    IN p_school_year_id INT,
-    IN p_downpayment DECIMAL(10,2),
-    IN p_amount_paid DECIMAL(10,2),
-    IN p_due_date DATE,
-    IN p_status VARCHAR(20),
-    OUT p_result VARCHAR(50)
-)
-BEGIN
-    DECLARE v_belong_id INT;
-    DECLARE v_payable_id INT;
-    DECLARE v_duedate_id INT;
-    DECLARE v_current_amount_paid DECIMAL(10,2) DEFAULT 0;
-    DECLARE v_current_downpayment DECIMAL(10,2) DEFAULT 0;
-    DECLARE v_total_payable DECIMAL(10,2) DEFAULT 0;
-    DECLARE v_remaining_balance DECIMAL(10,2) DEFAULT 0;
-    DECLARE v_amount_paid DECIMAL(10,2); -- Local variable to cap amount_paid
-    
-    -- Cursor variables
-    DECLARE done INT DEFAULT FALSE;
-    DECLARE cur_payable_id INT;
-    DECLARE cur_belong_id INT;
-    DECLARE cur_downpayment DECIMAL(10,2);
-    DECLARE cur_total_payable DECIMAL(10,2);
-    DECLARE total_payable_sum DECIMAL(10,2) DEFAULT 0;
-    
-    -- Loop calculation variables
-    DECLARE proportional_amount DECIMAL(10,2);
-    DECLARE prop_remaining DECIMAL(10,2);
-    DECLARE prop_status VARCHAR(20);
-    
-    -- Cursor declaration (must be before handlers)
-    DECLARE payable_cursor CURSOR FOR
-        SELECT sp.payable_id, sp.belong_id, sp.downpayment_amount,
-               COALESCE(SUM(sem.first_sem_amount + sem.second_sem_amount + sem.summer_sem_amount), 0) as semester_total
-        FROM student_payables sp
-        INNER JOIN belong b ON sp.belong_id = b.belong_id
-        INNER JOIN semester sem ON b.semester_id = sem.semester_id
-        WHERE b.student_id = p_student_id
-          AND (p_school_year_id IS NULL OR b.school_year_id = p_school_year_id)
-          AND COALESCE(b.status, 'active') = 'active'
-        GROUP BY sp.payable_id, sp.belong_id, sp.downpayment_amount;
-    
-    -- Handlers (must be after cursor declaration)
-    DECLARE CONTINUE HANDLER FOR NOT FOUND SET done = TRUE;
-    
-    DECLARE EXIT HANDLER FOR SQLEXCEPTION
-    BEGIN
-        ROLLBACK;
-        SET p_result = 'ERROR';
-    END;
-    
-    START TRANSACTION;
-    
-    -- Get total payable from all semesters for this student
-    SELECT COALESCE(SUM(sem.first_sem_amount + sem.second_sem_amount + sem.summer_sem_amount), 0) INTO v_total_payable
-    FROM belong b
-    INNER JOIN semester sem ON b.semester_id = sem.semester_id
-    WHERE b.student_id = p_student_id
-      AND (p_school_year_id IS NULL OR b.school_year_id = p_school_year_id)
-      AND COALESCE(b.status, 'active') = 'active';
-    
-    -- Cap amount_paid at total_payable to prevent any excess (even 0.01)
-    SET v_amount_paid = p_amount_paid;
-    IF v_amount_paid > v_total_payable THEN
-        SET v_amount_paid = v_total_payable;
-    END IF;
-    
-    IF v_total_payable <= 0 THEN
-        SET p_result = 'NO_PAYABLES';
-        ROLLBACK;
-    ELSE
-        -- First, calculate total of all payables
-        SELECT COALESCE(SUM(sp.downpayment_amount), 0) INTO total_payable_sum
-        FROM student_payables sp
-        INNER JOIN belong b ON sp.belong_id = b.belong_id
-        WHERE b.student_id = p_student_id
-          AND (p_school_year_id IS NULL OR b.school_year_id = p_school_year_id)
-          AND COALESCE(b.status, 'active') = 'active';
-        
-        -- If no payables exist, create one for the first belong record
-        IF total_payable_sum = 0 THEN
-            SELECT b.belong_id INTO v_belong_id
-            FROM belong b
-            WHERE b.student_id = p_student_id
-              AND (p_school_year_id IS NULL OR b.school_year_id = p_school_year_id)
-              AND COALESCE(b.status, 'active') = 'active'
-            LIMIT 1;
-            
-            IF v_belong_id IS NOT NULL THEN
-                -- Get semester amount for this belong
-                SELECT COALESCE(SUM(sem.first_sem_amount + sem.second_sem_amount + sem.summer_sem_amount), 0) INTO v_total_payable
-                FROM belong b
-                INNER JOIN semester sem ON b.semester_id = sem.semester_id
-                WHERE b.belong_id = v_belong_id;
-                
-                SET v_current_downpayment = IF(p_downpayment > 0, p_downpayment, v_total_payable);
-                SET v_remaining_balance = GREATEST(v_total_payable - v_amount_paid, 0.00);
-                
-                -- Insert new payable
-                INSERT INTO student_payables (belong_id, downpayment_amount, amount_paid, remaining_balance, status)
-                VALUES (v_belong_id, v_current_downpayment, v_amount_paid, v_remaining_balance, p_status);
-                SET v_payable_id = LAST_INSERT_ID();
-                SET p_result = 'CREATED';
-            ELSE
-                SET p_result = 'NO_BELONG_RECORD';
-                ROLLBACK;
-            END IF;
-        ELSE
-            -- Update all existing payables proportionally
-            OPEN payable_cursor;
-            
-            read_loop: LOOP
-                FETCH payable_cursor INTO cur_payable_id, cur_belong_id, cur_downpayment, cur_total_payable;
-                IF done THEN
-                    LEAVE read_loop;
-                END IF;
-                
-                -- Calculate proportional amount_paid for this payable
-                IF total_payable_sum > 0 THEN
-                    SET proportional_amount = (cur_downpayment / total_payable_sum) * v_amount_paid;
-                ELSE
-                    SET proportional_amount = v_amount_paid;
-                END IF;
-                
-                -- Calculate remaining balance
-                SET prop_remaining = GREATEST(cur_downpayment - proportional_amount, 0.00);
-                
-                -- Determine status for this payable
-                IF ABS(proportional_amount - cur_downpayment) < 0.01 OR proportional_amount >= cur_downpayment THEN
-                    SET prop_status = 'PAID';
-                ELSEIF proportional_amount > 0 THEN
-                    SET prop_status = 'PARTIAL';
-                ELSE
-                    SET prop_status = 'UNPAID';
-                END IF;
-                
-                -- Update this payable
-                UPDATE student_payables
-                SET amount_paid = proportional_amount,
-                    remaining_balance = prop_remaining,
-                    status = prop_status
-                WHERE payable_id = cur_payable_id;
-                
-                -- Use first payable for due date handling
-                IF v_payable_id IS NULL THEN
-                    SET v_payable_id = cur_payable_id;
-                END IF;
-            END LOOP;
-            
-            CLOSE payable_cursor;
-            SET p_result = 'UPDATED';
-        END IF;
-        
-        -- Handle due date
-        IF p_due_date IS NOT NULL AND p_status != 'Paid' THEN
-            -- Check if duedate exists
-            SELECT duedate_id INTO v_duedate_id
-            FROM student_payables
-            WHERE payable_id = v_payable_id;
-            
-            IF v_duedate_id IS NULL THEN
-                -- Create new duedate
-                INSERT INTO duedate (due_date)
-                VALUES (p_due_date);
-                SET v_duedate_id = LAST_INSERT_ID();
-                
-                -- Update payable with duedate_id
-                UPDATE student_payables
-                SET duedate_id = v_duedate_id
-                WHERE payable_id = v_payable_id;
-            ELSE
-                -- Update existing duedate
-                UPDATE duedate
-                SET due_date = p_due_date
-                WHERE duedate_id = v_duedate_id;
-            END IF;
-        ELSEIF p_status = 'Paid' THEN
-            -- Remove due date if paid
-            UPDATE student_payables
-            SET duedate_id = NULL
-            WHERE payable_id = v_payable_id;
-        END IF;
-        
-        COMMIT;
-    END IF;
-END //
-DELIMITER ;
-
--- Procedure to delete payment (reset amount_paid to 0)
-DELIMITER //
-DROP PROCEDURE IF EXISTS sp_delete_payment//
-CREATE PROCEDURE sp_delete_payment(
-    IN p_student_id INT,
-    IN p_school_year_id INT,
-    OUT p_result VARCHAR(50)
-)
-BEGIN
-    -- All DECLARE statements must be at the beginning
-    DECLARE v_deleted_count INT DEFAULT 0;
-    DECLARE v_total_payable DECIMAL(10,2);
-    DECLARE v_payable_id INT;
-    DECLARE done INT DEFAULT FALSE;
-    
-    DECLARE cur CURSOR FOR
-        SELECT sp.payable_id, 
-               COALESCE(SUM(sem.first_sem_amount + sem.second_sem_amount + sem.summer_sem_amount), 0) AS total
-        FROM student_payables sp
-        INNER JOIN belong b ON sp.belong_id = b.belong_id
-        INNER JOIN semester sem ON b.semester_id = sem.semester_id
-        WHERE b.student_id = p_student_id
-          AND (p_school_year_id IS NULL OR b.school_year_id = p_school_year_id)
-        GROUP BY sp.payable_id;
-    
-    DECLARE CONTINUE HANDLER FOR NOT FOUND SET done = TRUE;
-    
-    DECLARE EXIT HANDLER FOR SQLEXCEPTION
-    BEGIN
-        ROLLBACK;
-        SET p_result = 'ERROR';
-    END;
-    
-    START TRANSACTION;
-    
-    OPEN cur;
-    
-    read_loop: LOOP
-        FETCH cur INTO v_payable_id, v_total_payable;
-        IF done THEN
-            LEAVE read_loop;
-        END IF;
-        
-        -- Reset amount_paid to 0, recalculate remaining_balance
-        UPDATE student_payables
-        SET amount_paid = 0,
-            remaining_balance = v_total_payable,
-            status = 'UNPAID',
-            duedate_id = NULL
-        WHERE payable_id = v_payable_id;
-        
-        SET v_deleted_count = v_deleted_count + 1;
-    END LOOP;
-    
-    CLOSE cur;
-    
-    IF v_deleted_count > 0 THEN
-        SET p_result = 'DELETED';
-    ELSE
-        SET p_result = 'NOT_FOUND';
-    END IF;
-    
-    COMMIT;
-END //
-DELIMITER ;
+-- Payments are listed, saved and reset by PaymentDAO directly: amounts are encrypted and
+-- postings are version-checked, which procedures cannot do. Drop the old payment procedures.
+DROP PROCEDURE IF EXISTS sp_get_payments;
+DROP PROCEDURE IF EXISTS sp_save_payment;
+DROP PROCEDURE IF EXISTS sp_delete_payment;
 
 -- Procedure to get payment statistics
 DELIMITER //
@@ -19,6 +19,14 @@ public class AccountingSystem extends Application {
                 utils.PasswordMigration.migratePasswords();
                 // Encrypt existing payable amounts for security
                 utils.PayableEncryptionMigration.migratePayableAmounts();
+                // Mark payables past their due date as OVERDUE now and every hour
+                utils.OverdueStatusSweeper.start();
+                // Post payments taken while the database was unreachable
+                utils.OfflinePostingQueue.start();
+                // Pick up payments and students posted on other workstations
+                utils.ChangeLogPoller.start();
+                // Read-only HTTP API for other campus systems, only when -Dreadapi.port is set
+                utils.ReadApiServer.startIfConfigured();
             } catch (Exception dbEx) {
                 System.err.println("Database initialization error: " + dbEx.getMessage());
                 dbEx.printStackTrace();
@@ -124,6 +132,10 @@ public class AccountingSystem extends Application {
     
     @Override
     public void stop() {
+        utils.OverdueStatusSweeper.stop();
+        utils.ReadApiServer.stop();
+        utils.ChangeLogPoller.stop();
+        utils.OfflinePostingQueue.stop();
         DatabaseUtil.closeConnection();
     }
 
@@ -0,0 +1,295 @@
+package accountingsystem;
+
+import dao.CollectionRollupDAO;
+import dao.PaymentDAO;
+import dao.PromissoryNoteDAO;
+import dao.SchoolYearDAO;
+import dao.TopPayersDAO;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import models.PaymentView;
+import models.PromissoryNoteView;
+import models.SchoolYear;
+import utils.DatabaseUtil;
+
+/**
+ * Headless entry point for the heavy jobs, so they can be scheduled overnight (cron, Task Scheduler)
+ * instead of running from the UI on a clerk's workstation. The JavaFX toolkit is never started.
+ *
+ *   java accountingsystem.BatchRunner <job> [arguments]
+ *
+ * Jobs:
+ *   migrate                                        schema, password and payable encryption migrations
+ *   reencrypt [--rescan]                           re-encrypt amounts with the current key after a key
+ *                                                  rotation, resuming from the last run's checkpoints
+ *                                                  (see utils.PayableEncryptionMigration)
+ *   sweep-overdue                                  mark payables past their due date OVERDUE
+ *   refresh-summaries                              rebuild dashboard cards and collection rollups, and
+ *                                                  drop the top payers boards (rebuilt on next use)
+ *   export-ledger <school year> [file.csv]         per-student, per-semester balances of a school year
+ *                                                  (deactivated students included, marked in the last column)
+ *   overdue-notices <school year> [dir] [days]     promissory note for every overdue student,
+ *                                                  payment agreed within [days] (default 30)
+ *   compact-changelog                              delete old change_log rows (see utils.ChangeLogPoller)
+ *   nightly                                        migrate, sweep-overdue, refresh-summaries and compact-changelog
+ *
+ * The school year is its range, e.g. 2025-2026. Worker threads default to the number of
+ * processors; override with -Dbatch.workers=N. Each job prints its timing; the exit status is
+ * non-zero if any job failed.
+ */
+public class BatchRunner {
+
+    private static final int WORKERS = Math.max(1, Integer.getInteger("batch.workers",
+                                                   Runtime.getRuntime().availableProcessors()));
+    private static final int DEFAULT_AGREED_DAYS = 30;
+
+    /** A job returns the number of items it processed, or -1 on failure */
+    private interface Job {
+        long run() throws Exception;
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            usage();
+            System.exit(2);
+        }
+        // Jobs run DAOs on worker threads, which must not share the UI's single connection
+        DatabaseUtil.useConnectionPerCall();
+        boolean ok;
+        try {
+            ok = run(args[0], args);
+        } finally {
+            DatabaseUtil.closeConnection();
+        }
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static boolean run(String job, String[] args) {
+        switch (job) {
+            case "migrate":
+                return timed(job, BatchRunner::migrate);
+            case "reencrypt":
+                boolean rescan = args.length > 1 && "--rescan".equals(args[1]);
+                return timed(job, () -> utils.PayableEncryptionMigration.reencrypt(rescan));
+            case "sweep-overdue":
+                return timed(job, () -> utils.OverdueStatusSweeper.sweep());
+            case "refresh-summaries":
+                return timed(job, BatchRunner::refreshSummaries);
+            case "compact-changelog":
+                return timed(job, () -> utils.ChangeLogPoller.compact());
+            case "export-ledger":
+                if (args.length < 2) {
+                    break;
+                }
+                File ledgerFile = new File(args.length > 2 ? args[2]
+                    : "Ledger_" + args[1].replace("-", "_") + "_" + LocalDate.now() + ".csv");
+                return timed(job, () -> exportLedger(args[1], ledgerFile));
+            case "overdue-notices":
+                if (args.length < 2) {
+                    break;
+                }
+                File noticeDir = new File(args.length > 2 ? args[2] : "notices_" + LocalDate.now());
+                int agreedDays = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_AGREED_DAYS;
+                return timed(job, () -> generateOverdueNotices(args[1], noticeDir, agreedDays));
+            case "nightly":
+                // Non-short-circuit so one failed step does not skip the others
+                return timed("migrate", BatchRunner::migrate) &
+                       timed("sweep-overdue", () -> utils.OverdueStatusSweeper.sweep()) &
+                       timed("refresh-summaries", BatchRunner::refreshSummaries) &
+                       timed("compact-changelog", () -> utils.ChangeLogPoller.compact());
+            default:
+                System.err.println("Unknown job: " + job);
+        }
+        usage();
+        return false;
+    }
+
+    /**
+     * Run a job and print how long it took and its throughput
+     */
+    private static boolean timed(String name, Job job) {
+        System.out.println("[" + name + "] started " + java.time.LocalDateTime.now().withNano(0));
+        long start = System.nanoTime();
+        long items;
+        try {
+            items = job.run();
+        } catch (Exception e) {
+            System.err.println("[" + name + "] failed: " + e.getMessage());
+            e.printStackTrace();
+            items = -1;
+        }
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        if (items < 0) {
+            System.err.println(String.format("[%s] FAILED after %.2f s", name, seconds));
+            return false;
+        }
+        System.out.println(String.format("[%s] done in %.2f s: %d item(s), %.1f/s",
+                                         name, seconds, items, seconds > 0 ? items / seconds : (double) items));
+        return true;
+    }
+
+    private static long migrate() {
+        DatabaseUtil.initializeDatabase();
+        utils.PasswordMigration.migratePasswords();
+        return utils.PayableEncryptionMigration.migratePayableAmounts();
+    }
+
+    /**
+     * Rebuild dashboard_summary and collection_rollup for every school year
+     */
+    private static long refreshSummaries() {
+        CollectionRollupDAO rollupDAO = new CollectionRollupDAO();
+        TopPayersDAO topPayersDAO = new TopPayersDAO();
+        long refreshed = 0;
+        boolean failed = false;
+        for (SchoolYear sy : new SchoolYearDAO().getAllSchoolYears()) {
+            utils.FinancialSnapshot.invalidate(sy.getSchoolYearId());
+            utils.DashboardSummary.refresh(sy.getSchoolYearId());
+            topPayersDAO.clear(sy.getSchoolYearId());
+            if (rollupDAO.rebuild(sy.getSchoolYearId())) {
+                refreshed++;
+            } else {
+                failed = true;
+            }
+        }
+        return failed ? -1 : refreshed;
+    }
+
+    /**
+     * Write the per-student, per-semester balances of a school year as CSV.
+     * Rows are streamed from the database and decrypted on WORKERS threads, so memory stays
+     * flat however large the school year is.
+     */
+    private static long exportLedger(String yearRange, File file) throws IOException {
+        SchoolYear sy = findSchoolYear(yearRange);
+        if (sy == null) {
+            return -1;
+        }
+        long rows;
+        try (BufferedWriter out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            out.write("Student ID,Student Name,Program,Year Level,Semester,Total Amount,Down Payment," +
+                      "Amount Paid,Remaining Balance,Due Date,Status,Enrollment");
+            out.newLine();
+            rows = new PaymentDAO().streamSemesterPaymentRows(sy.getSchoolYearId(), WORKERS, chunk -> {
+                try {
+                    for (PaymentView view : chunk) {
+                        out.write(String.join(",",
+                            csv(view.getStudentNumber()),
+                            csv(view.getStudentName()),
+                            csv(view.getProgram()),
+                            csv(view.getYearLevel()),
+                            csv(semesterName(view)),
+                            String.format("%.2f", view.getTotalAmount()),
+                            String.format("%.2f", view.getDownPayment()),
+                            String.format("%.2f", view.getAmountPaid()),
+                            String.format("%.2f", Math.max(0, view.getTotalAmount() - view.getAmountPaid())),
+                            view.getDueDate() != null ? view.getDueDate().toString() : "",
+                            csv(view.getStatus()),
+                            view.isActive() ? "Active" : "Deactivated"));
+                        out.newLine();
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        if (rows >= 0) {
+            System.out.println("Ledger written to " + file.getAbsolutePath());
+        }
+        return rows;
+    }
+
+    /**
+     * Generate a promissory note for every student with an overdue balance, WORKERS at a time
+     */
+    private static long generateOverdueNotices(String yearRange, File dir, int agreedDays) throws Exception {
+        SchoolYear sy = findSchoolYear(yearRange);
+        if (sy == null) {
+            return -1;
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            System.err.println("Cannot create " + dir.getAbsolutePath());
+            return -1;
+        }
+        List<PromissoryNoteView> students = new PromissoryNoteDAO().getStudentsForPromissoryNotes(sy.getSchoolYearId());
+        LocalDate agreedDate = LocalDate.now().plusDays(agreedDays);
+
+        ExecutorService pool = Executors.newFixedThreadPool(WORKERS);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (PromissoryNoteView student : students) {
+                results.add(pool.submit(() -> {
+                    // No stage: the generator only writes to the temp directory
+                    File note = utils.WordDocumentGenerator.generatePromissoryNoteFile(student, agreedDate, null);
+                    if (note == null) {
+                        return false;
+                    }
+                    Files.move(note.toPath(), new File(dir, note.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    return true;
+                }));
+            }
+            long generated = 0;
+            for (Future<Boolean> result : results) {
+                if (result.get()) {
+                    generated++;
+                }
+            }
+            System.out.println(generated + " of " + students.size() + " notice(s) written to " + dir.getAbsolutePath());
+            return generated == students.size() ? generated : -1;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static SchoolYear findSchoolYear(String yearRange) {
+        SchoolYear sy = new SchoolYearDAO().getSchoolYearByRange(yearRange);
+        if (sy == null) {
+            System.err.println("School year not found: " + yearRange);
+        }
+        return sy;
+    }
+
+    /** Semester of a row from which amount is set, same rule as the SQL CASE */
+    private static String semesterName(PaymentView view) {
+        boolean first = view.getFirstSemAmount() > 0;
+        boolean second = view.getSecondSemAmount() > 0;
+        boolean summer = view.getSummerSemAmount() > 0;
+        if (first && !second && !summer) return "1st Sem";
+        if (second && !first && !summer) return "2nd Sem";
+        if (summer && !first && !second) return "Summer Sem";
+        return "";
+    }
+
+    private static String csv(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    private static void usage() {
+        System.err.println("Usage: java accountingsystem.BatchRunner <job> [arguments]");
+        System.err.println("  migrate");
+        System.err.println("  reencrypt [--rescan]");
+        System.err.println("  sweep-overdue");
+        System.err.println("  refresh-summaries");
+        System.err.println("  compact-changelog");
+        System.err.println("  export-ledger <school year> [file.csv]");
+        System.err.println("  overdue-notices <school year> [dir] [days]");
+        System.err.println("  nightly");
+    }
+}
@@ -1,17 +1,29 @@
 package controllers;
 
 import dao.SchoolYearDAO;
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
+import javafx.scene.Node;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.ComboBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableView;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 import models.SchoolYear;
+import utils.ChangeLogPoller;
 import utils.SessionManager;
+import utils.SessionPrefetcher;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
     /**
      * Base controller with common navigation methods
@@ -19,6 +31,30 @@ import java.util.List;
      */
 public class BaseController {
     
+    /** Page on screen; reloaded when another workstation changes its school year's data */
+    private static BaseController currentPage = null;
+    /** Changes arriving within this delay of each other reload the page once */
+    private static final Duration EXTERNAL_CHANGE_DELAY = Duration.seconds(3);
+    private static boolean externalReloadPending = false;
+    
+    static {
+        ChangeLogPoller.addListener(changes -> Platform.runLater(() -> {
+            if (externalReloadPending || !changes.affects(SessionManager.getSelectedSchoolYearId())) {
+                return;
+            }
+            externalReloadPending = true;
+            PauseTransition delay = new PauseTransition(EXTERNAL_CHANGE_DELAY);
+            delay.setOnFinished(e -> {
+                externalReloadPending = false;
+                BaseController page = currentPage;
+                if (page != null && SessionManager.isLoggedIn()) {
+                    page.onExternalChange();
+                }
+            });
+            delay.play();
+        }));
+    }
+    
     /**
      * Setup sidebar button hover effects
      */
@@ -48,6 +84,7 @@ public class BaseController {
      * Setup school year dropdown - loads only active school years from database, newest first, and syncs with SessionManager
      */
     protected void setupSchoolYearDropdown(ComboBox<String> yearComboBox) {
+        currentPage = this;
         SchoolYearDAO schoolYearDAO = new SchoolYearDAO();
         List<SchoolYear> schoolYears = schoolYearDAO.getActiveSchoolYears();
         
@@ -82,6 +119,10 @@ public class BaseController {
             }
         }
         
+        // Warm the other pages' data for this school year in the background
+        SessionPrefetcher.prefetch(SessionManager.getSelectedSchoolYearId(),
+                                   utils.SemesterUtil.getSemesterByCurrentMonth());
+        
         // Add listener to update SessionManager when selection changes
         yearComboBox.setOnAction(e -> {
             String selectedRange = yearComboBox.getValue();
@@ -89,6 +130,7 @@ public class BaseController {
                 SchoolYear sy = schoolYearDAO.getSchoolYearByRange(selectedRange);
                 if (sy != null) {
                     SessionManager.setSelectedSchoolYearId(sy.getSchoolYearId());
+                    SessionPrefetcher.prefetch(sy.getSchoolYearId(), utils.SemesterUtil.getSemesterByCurrentMonth());
                     // Reload current page data with new year
                     onSchoolYearChanged();
                 }
@@ -96,6 +138,61 @@ public class BaseController {
         });
     }
     
+    /**
+     * Show a dataset from the session prefetcher in a table. Data already loaded is applied at once;
+     * data still loading or invalidated by a write is applied when ready, with the table disabled
+     * and showing "Refreshing..." meanwhile. Only the latest request for a table is applied.
+     */
+    protected <T> void showPrefetched(TableView<?> table, CompletableFuture<T> data, Consumer<T> apply) {
+        if (data.isDone() && !data.isCompletedExceptionally()) {
+            finishRefreshing(table);
+            apply.accept(data.join());
+            return;
+        }
+        if (!table.getProperties().containsKey(PENDING_LOAD)) {
+            table.getProperties().put(SAVED_PLACEHOLDER, table.getPlaceholder());
+            table.setPlaceholder(new Label("Refreshing..."));
+            table.setDisable(true);
+        }
+        table.getProperties().put(PENDING_LOAD, data);
+        data.whenComplete((value, error) -> Platform.runLater(() -> {
+            if (table.getProperties().get(PENDING_LOAD) != data) {
+                return; // Superseded by a newer load
+            }
+            finishRefreshing(table);
+            if (error == null) {
+                apply.accept(value);
+            } else {
+                showAlert(Alert.AlertType.ERROR, "Error", "Failed to load data. Please try again.");
+            }
+        }));
+    }
+    
+    /**
+     * As showPrefetched, but when the table is still empty and the data is not loaded yet, it is first
+     * filled from provisional (e.g. the local SnapshotStore copy) and stays disabled until the data arrives
+     */
+    protected <T> void showPrefetched(TableView<?> table, CompletableFuture<T> data, Consumer<T> apply,
+                                      Supplier<T> provisional) {
+        if (!data.isDone() && table.getItems().isEmpty()) {
+            T cached = provisional.get();
+            if (cached != null) {
+                apply.accept(cached);
+            }
+        }
+        showPrefetched(table, data, apply);
+    }
+    
+    private static final String PENDING_LOAD = "prefetch.pending";
+    private static final String SAVED_PLACEHOLDER = "prefetch.placeholder";
+    
+    private void finishRefreshing(TableView<?> table) {
+        if (table.getProperties().remove(PENDING_LOAD) != null) {
+            table.setPlaceholder((Node) table.getProperties().remove(SAVED_PLACEHOLDER));
+            table.setDisable(false);
+        }
+    }
+    
     /**
      * Override this method in controllers to reload data when school year changes
      */
@@ -103,6 +200,30 @@ public class BaseController {
         // Override in subclasses to reload data
     }
     
+    /**
+     * Called on the FX thread when another workstation changed data of the selected school year.
+     * Reloads like a school year change by default; paged pages override it to refresh in place,
+     * keeping the page, the search and the selected row.
+     */
+    protected void onExternalChange() {
+        onSchoolYearChanged();
+    }
+    
+    /**
+     * Selects again the row whose key matches the one selected before a refresh, if it is still on the page
+     */
+    protected <T> void reselect(TableView<T> table, Object key, Function<T, ?> keyOf) {
+        if (key == null) {
+            return;
+        }
+        for (T item : table.getItems()) {
+            if (key.equals(keyOf.apply(item))) {
+                table.getSelectionModel().select(item);
+                return;
+            }
+        }
+    }
+    
     protected void navigateToPage(String fxmlFile, String title, Button currentButton) {
         try {
             java.net.URL resource = getClass().getClassLoader().getResource("views/" + fxmlFile);
@@ -135,6 +256,8 @@ public class BaseController {
             
             FXMLLoader loader = new FXMLLoader(resource);
             Parent root = loader.load();
+            Object controller = loader.getController();
+            currentPage = controller instanceof BaseController ? (BaseController) controller : null;
             
             // Get screen dimensions
             javafx.stage.Screen screen = javafx.stage.Screen.getPrimary();
@@ -18,6 +18,8 @@ import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.stage.Stage;
 import models.Payment;
 import models.PaymentView;
+import utils.DashboardSummary;
+import utils.FinancialSnapshot;
 import utils.SessionManager;
 
 import java.text.DecimalFormat;
@@ -153,19 +155,30 @@ public class DashboardController extends BaseController {
         Integer schoolYearId = SessionManager.getSelectedSchoolYearId();
         String semester = getSelectedSemester();
         
-        // Total Payments - filtered by school year and semester (uses view)
-        double totalPayments = paymentDAO.getTotalPayments(schoolYearId, semester);
+        // All four cards from one materialized dashboard_summary row
+        DashboardSummary.Summary summary = schoolYearId != null ? DashboardSummary.get(schoolYearId, semester) : null;
+        if (summary != null) {
+            totalPaymentsLabel.setText(currencyFormat.format(summary.totalCollected));
+            totalPaymentsSubLabel.setText("Over " + summary.studentsWhoPaid + " students paid");
+            totalStudentsLabel.setText(String.valueOf(summary.totalStudents));
+            overduePaymentsLabel.setText(String.valueOf(summary.overdueCount));
+            return;
+        }
+        
+        // Total Payments and students who paid - from the decrypted in-memory snapshot
+        FinancialSnapshot snapshot = FinancialSnapshot.forSchoolYear(schoolYearId);
+        long[] rows = snapshot.filterActive(semester, null, null, null);
+        double totalPayments = snapshot.totals(rows)[1];
         totalPaymentsLabel.setText(currencyFormat.format(totalPayments));
         
-        // Count students who paid - filtered by school year and semester (uses view)
-        int studentsWhoPaid = studentDAO.getStudentsWhoPaidCount(schoolYearId, semester);
+        int studentsWhoPaid = snapshot.countStudentsWhoPaid(rows);
         totalPaymentsSubLabel.setText("Over " + studentsWhoPaid + " students paid");
         
         // Total Students - filtered by school year and semester (uses view)
         int totalStudents = studentDAO.getTotalStudents(schoolYearId, semester);
         totalStudentsLabel.setText(String.valueOf(totalStudents));
         
-        // Overdue Payments - filtered by school year and semester (uses view)
+        // Overdue Payments - filtered by school year and semester
         int overdueCount = studentDAO.getOverdueCount(schoolYearId, semester);
         overduePaymentsLabel.setText(String.valueOf(overdueCount));
     }
@@ -175,13 +188,11 @@ public class DashboardController extends BaseController {
         Integer schoolYearId = SessionManager.getSelectedSchoolYearId();
         String semester = getSelectedSemester();
         
-        // Configure Y-axis to show 0 to 100k
-        amountAxis.setAutoRanging(false);
-        amountAxis.setLowerBound(0);
-        amountAxis.setUpperBound(100000);
-        amountAxis.setTickUnit(10000);
+        // Scale the Y-axis to the data
+        amountAxis.setAutoRanging(true);
+        amountAxis.setForceZeroInRange(true);
         
-        // Get actual monthly payment data from database
+        // Monthly collections from the rollups, outstanding balances by due month
         java.util.Map<String, double[]> monthlyData = paymentDAO.getMonthlyPaymentData(schoolYearId, semester);
         
         // Create series for Paid and Unpaid
@@ -211,18 +222,30 @@ public class DashboardController extends BaseController {
         paymentsChart.getData().addAll(paidSeries, unpaidSeries);
         
         // Update chart labels - filtered by school year and semester
-        double total = paymentDAO.getTotalPayments(schoolYearId, semester);
+        FinancialSnapshot snapshot = FinancialSnapshot.forSchoolYear(schoolYearId);
+        double total = snapshot.totals(snapshot.filterActive(semester, null, null, null))[1];
         if (total > 0) {
             chartTotalLabel.setText("P" + (int)(total / 1000) + "k");
         } else {
             chartTotalLabel.setText("P0");
         }
         
-        // Only show change percentage if there's actual data
-        if (hasData) {
-            chartChangeLabel.setText("↑ 5% than last month");
-        } else {
+        // Month-over-month change in collections
+        double[] monthOverMonth = paymentDAO.getMonthOverMonthCollections(schoolYearId, semester);
+        double thisMonth = monthOverMonth[0];
+        double lastMonth = monthOverMonth[1];
+        if (!hasData) {
             chartChangeLabel.setText("No data available");
+        } else if (lastMonth > 0) {
+            double change = (thisMonth - lastMonth) / lastMonth * 100;
+            chartChangeLabel.setText((change >= 0 ? "↑ " : "↓ ") + Math.round(Math.abs(change)) + "% than last month");
+            chartChangeLabel.setTextFill(javafx.scene.paint.Color.web(change >= 0 ? "#4CAF50" : "#F44336"));
+        } else if (thisMonth > 0) {
+            chartChangeLabel.setText("No collections last month");
+            chartChangeLabel.setTextFill(javafx.scene.paint.Color.web("#4CAF50"));
+        } else {
+            chartChangeLabel.setText("No collections this month");
+            chartChangeLabel.setTextFill(javafx.scene.paint.Color.web("#333"));
         }
     }
 
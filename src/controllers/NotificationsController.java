@@ -114,9 +114,10 @@ public class NotificationsController extends BaseController {
     }
     
     private void loadNotifications(boolean within7Days) {
-        List<PaymentView> notifications = paymentDAO.getNotifications(currentSchoolYearId, within7Days);
-        notificationsList.clear();
-        notificationsList.addAll(notifications);
+        showPrefetched(notificationsTable, utils.SessionPrefetcher.notifications(currentSchoolYearId, within7Days), notifications -> {
+            notificationsList.clear();
+            notificationsList.addAll(notifications);
+        });
     }
     
     // Navigation methods
@@ -1,28 +1,45 @@
 package controllers;
 
+import dao.FeeScheduleDAO;
 import dao.PayableDAO;
 import dao.SchoolYearDAO;
 import dao.StudentDAO;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
+import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
+import javafx.scene.control.ButtonType;
 import javafx.scene.control.ComboBox;
+import javafx.scene.control.Dialog;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
 import javafx.scene.control.TextField;
 import javafx.scene.control.cell.PropertyValueFactory;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.VBox;
 import javafx.scene.text.Text;
 import javafx.scene.control.TextFormatter;
+import javafx.stage.Modality;
+import javafx.stage.Stage;
 import java.util.function.UnaryOperator;
+import models.FeeSchedule;
 import models.StudentPayableView;
 import models.Student;
 import models.SchoolYear;
+import utils.DatabaseUtil;
+import utils.FeeScheduleCache;
+import utils.SessionPrefetcher;
+import utils.StudentSearchIndex;
 
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 public class PayablesController extends BaseController {
@@ -70,6 +87,7 @@ public class PayablesController extends BaseController {
     @FXML private Button logoutBtn;
     
     private PayableDAO payableDAO;
+    private FeeScheduleDAO feeScheduleDAO;
     private StudentDAO studentDAO;
     private SchoolYearDAO schoolYearDAO;
     private ObservableList<StudentPayableView> payablesList;
@@ -85,6 +103,7 @@ public class PayablesController extends BaseController {
     @FXML
     public void initialize() {
         payableDAO = new PayableDAO();
+        feeScheduleDAO = new FeeScheduleDAO();
         studentDAO = new StudentDAO();
         schoolYearDAO = new SchoolYearDAO();
         payablesList = FXCollections.observableArrayList();
@@ -169,6 +188,7 @@ public class PayablesController extends BaseController {
             semesterComboBoxHeader.setValue(autoSemester);
             semesterComboBoxHeader.setOnAction(e -> {
                 currentPage = 1;
+                SessionPrefetcher.prefetch(utils.SessionManager.getSelectedSchoolYearId(), getSelectedSemester());
                 loadPayables();
             });
         }
@@ -212,8 +232,25 @@ public class PayablesController extends BaseController {
         currentSchoolYearId = schoolYearId;
         String semester = getSelectedSemester();
         
-        List<StudentPayableView> payables = payableDAO.getAllStudentPayables(schoolYearId, semester);
+        showPrefetched(payablesTable, SessionPrefetcher.payables(schoolYearId, semester), this::showPayables);
+    }
+    
+    @Override
+    protected void onExternalChange() {
+        // Refresh in place: showPayables re-applies the search and filters, the page and selected row are kept
+        StudentPayableView selected = payablesTable.getSelectionModel().getSelectedItem();
+        Integer selectedStudentId = selected != null ? selected.getStudentId() : null;
+        Integer schoolYearId = utils.SessionManager.getSelectedSchoolYearId();
+        currentSchoolYearId = schoolYearId;
+        String semester = getSelectedSemester();
         
+        showPrefetched(payablesTable, SessionPrefetcher.payables(schoolYearId, semester), payables -> {
+            showPayables(payables);
+            reselect(payablesTable, selectedStudentId, StudentPayableView::getStudentId);
+        });
+    }
+    
+    private void showPayables(List<StudentPayableView> payables) {
         // Apply search and filters
         String searchTerm = searchField.getText().trim().toLowerCase();
         String yearFilter = yearFilterCombo.getValue();
@@ -221,12 +258,14 @@ public class PayablesController extends BaseController {
         
         if (!searchTerm.isEmpty() || (yearFilter != null && !yearFilter.equals("All")) || 
             (majorFilter != null && !majorFilter.equals("All"))) {
+            // Search the in-memory index for the school year instead of scanning every row's name
+            Set<Integer> studentIds = searchTerm.isEmpty() ? null :
+                StudentSearchIndex.search(utils.SessionManager.getSelectedSchoolYearId(), searchTerm, null, null);
             payables = payables.stream()
                 .filter(p -> {
                     boolean matches = true;
-                    if (!searchTerm.isEmpty()) {
-                        matches = matches && (p.getStudentNumber().toLowerCase().contains(searchTerm) ||
-                                            p.getStudentName().toLowerCase().contains(searchTerm));
+                    if (studentIds != null) {
+                        matches = matches && studentIds.contains(p.getStudentId());
                     }
                     if (yearFilter != null && !yearFilter.equals("All")) {
                         matches = matches && yearFilter.equals(p.getYear());
@@ -319,11 +358,11 @@ public class PayablesController extends BaseController {
                         amount = existingPayable.getSummerSemAmount();
                     }
                     
-                    // Set amount field - blank if 0, otherwise show the amount
+                    // Set amount field - the scheduled fee if there is no amount yet, otherwise show the amount
                     if (amount > 0) {
                         semesterAmountField.setText(String.format("%.2f", amount));
                     } else {
-                        semesterAmountField.clear();
+                        showScheduledFee(student, schoolYearId, semester);
                     }
                     
                     if (existingPayable.getDueDate() != null) {
@@ -346,8 +385,8 @@ public class PayablesController extends BaseController {
                         deleteBtn.setDisable(true);
                     }
                 } else {
-                    // No payable exists, enable Add button
-                    semesterAmountField.setText("0.00");
+                    // No payable exists, enable Add button and propose the scheduled fee
+                    showScheduledFee(student, schoolYearId, semester);
                     LocalDate dueDate = LocalDate.now().plusMonths(2);
                     DateTimeFormatter formatter = DateTimeFormatter.ofPattern("MM/dd/yyyy");
                     dueDateField.setText(dueDate.format(formatter));
@@ -378,6 +417,18 @@ public class PayablesController extends BaseController {
         }
     }
     
+    /**
+     * Fill the amount field with the fee scheduled for the student's program and year level
+     */
+    private void showScheduledFee(Student student, Integer schoolYearId, String semester) {
+        FeeSchedule fee = FeeScheduleCache.lookup(schoolYearId, semester, student.getMajor(), student.getYear());
+        if (fee != null) {
+            semesterAmountField.setText(String.format("%.2f", fee.getAmount()));
+        } else {
+            semesterAmountField.setText("0.00");
+        }
+    }
+    
     private void populateForm(StudentPayableView payable) {
         studentIdField.setText(payable.getStudentNumber());
         fullnameField.setText(payable.getStudentName());
@@ -446,7 +497,14 @@ public class PayablesController extends BaseController {
                 summerSem = amount;
             }
             
-            if (payableDAO.saveStudentPayable(student.getStudentId(), schoolYearId, firstSem, secondSem, summerSem, semester)) {
+            // Assign by reference when the amount is the scheduled fee (or becomes it)
+            FeeSchedule fee = FeeScheduleCache.lookup(schoolYearId, semester, student.getMajor(), student.getYear());
+            if (fee == null) {
+                fee = offerFeeSchedule(student, schoolYearId, semester, amount);
+            }
+            Integer feeId = fee != null && Math.abs(fee.getAmount() - amount) < 0.01 ? fee.getFeeId() : null;
+            
+            if (payableDAO.saveStudentPayable(student.getStudentId(), schoolYearId, firstSem, secondSem, summerSem, semester, feeId)) {
                 showAlert(Alert.AlertType.INFORMATION, "Success", 
                     "Payable added successfully for " + semester + "!");
                 clearForm();
@@ -458,6 +516,147 @@ public class PayablesController extends BaseController {
         }
     }
     
+    /**
+     * Ask whether an amount entered by hand should become the scheduled fee for the student's cohort
+     * @return The saved fee, or null if declined or not saved
+     */
+    private FeeSchedule offerFeeSchedule(Student student, int schoolYearId, String semester, double amount) {
+        String program = student.getMajor() != null ? student.getMajor() : "";
+        String yearLevel = student.getYear() != null ? student.getYear() : "";
+        Alert confirm = new Alert(Alert.AlertType.CONFIRMATION);
+        confirm.setTitle("Fee Schedule");
+        confirm.setHeaderText("No fee is scheduled for " + (program.isEmpty() ? "this program" : program) +
+                              (yearLevel.isEmpty() ? "" : " year " + yearLevel) + " in " + semester + ".");
+        confirm.setContentText(String.format("Use P%.2f as the scheduled fee for these students?", amount));
+        if (confirm.showAndWait().filter(ButtonType.OK::equals).isPresent()) {
+            FeeSchedule fee = new FeeSchedule(schoolYearId, semester, program, yearLevel, amount);
+            if (feeScheduleDAO.saveFee(fee) < 0) {
+                showAlert(Alert.AlertType.ERROR, "Error", "Failed to save the scheduled fee!");
+                return null;
+            }
+            return fee;
+        }
+        return null;
+    }
+    
+    /**
+     * Set the selected term's scheduled fee for a program/year-level cohort and assign it, by reference,
+     * to the whole cohort in one run (students already assigned the fee are re-assigned the new amount)
+     */
+    @FXML
+    private void handleAssignCohort() {
+        Integer schoolYearId = utils.SessionManager.getSelectedSchoolYearId();
+        if (schoolYearId == null) {
+            showAlert(Alert.AlertType.ERROR, "Error", "Please select a School Year!");
+            return;
+        }
+        String semester = getSelectedSemester();
+        
+        ComboBox<String> programCombo = new ComboBox<>();
+        programCombo.getItems().add("All");
+        programCombo.getItems().addAll(studentDAO.getAllMajors());
+        programCombo.setValue("All");
+        ComboBox<String> yearCombo = new ComboBox<>();
+        yearCombo.getItems().add("All");
+        yearCombo.getItems().addAll(studentDAO.getAllYears());
+        yearCombo.setValue("All");
+        TextField amountField = new TextField();
+        amountField.setPromptText("Amount");
+        
+        // Propose the scheduled fee for the chosen cohort
+        Runnable showFee = () -> {
+            FeeSchedule fee = FeeScheduleCache.lookup(schoolYearId, semester, cohortValue(programCombo), cohortValue(yearCombo));
+            amountField.setText(fee != null ? String.format("%.2f", fee.getAmount()) : "");
+        };
+        programCombo.setOnAction(e -> showFee.run());
+        yearCombo.setOnAction(e -> showFee.run());
+        showFee.run();
+        
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(10);
+        grid.addRow(0, new Label("Program:"), programCombo);
+        grid.addRow(1, new Label("Year Level:"), yearCombo);
+        grid.addRow(2, new Label("Amount:"), amountField);
+        
+        Dialog<ButtonType> dialog = new Dialog<>();
+        dialog.setTitle("Assign Fee to Cohort");
+        dialog.setHeaderText("Set the " + semester + " fee of a program and year level and assign it to every active student");
+        dialog.getDialogPane().setContent(grid);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+        if (!dialog.showAndWait().filter(ButtonType.OK::equals).isPresent()) {
+            return;
+        }
+        
+        double amount = parseAmount(amountField.getText());
+        if (amount <= 0) {
+            showAlert(Alert.AlertType.WARNING, "Validation Error", "Amount must be greater than 0!");
+            return;
+        }
+        String program = cohortValue(programCombo);
+        String yearLevel = cohortValue(yearCombo);
+        
+        // Progress window while the assignment runs in the background
+        ProgressBar progressBar = new ProgressBar(0);
+        progressBar.setPrefWidth(320);
+        Label progressLabel = new Label("Preparing...");
+        VBox progressBox = new VBox(10, progressLabel, progressBar);
+        progressBox.setStyle("-fx-padding: 20;");
+        Stage progressStage = new Stage();
+        progressStage.initModality(Modality.APPLICATION_MODAL);
+        progressStage.initOwner(addBtn.getScene().getWindow());
+        progressStage.setTitle("Assigning " + semester + " Fee");
+        progressStage.setScene(new Scene(progressBox));
+        
+        Task<PayableDAO.CohortAssignResult> task = new Task<>() {
+            @Override
+            protected PayableDAO.CohortAssignResult call() {
+                // The schedule holds the cohort's amount; the payables are assigned from it
+                int feeId = feeScheduleDAO.saveFee(new FeeSchedule(schoolYearId, semester, program, yearLevel, amount));
+                if (feeId < 0) {
+                    throw new IllegalStateException("the scheduled fee could not be saved");
+                }
+                return payableDAO.assignCohortFee(schoolYearId, semester, program, yearLevel, amount, feeId,
+                    (done, total, rowsPerSecond) -> {
+                        updateProgress(done, total);
+                        updateMessage(String.format("%d of %d students (%.0f rows/sec)", done, total, rowsPerSecond));
+                    });
+            }
+        };
+        progressBar.progressProperty().bind(task.progressProperty());
+        task.messageProperty().addListener((obs, oldMessage, message) -> progressLabel.setText(message));
+        task.setOnSucceeded(e -> {
+            progressStage.close();
+            PayableDAO.CohortAssignResult result = task.getValue();
+            String summary = String.format("%d students: %d payables created, %d updated in %.1f s (%.0f rows/sec)",
+                                           result.students, result.created, result.updated,
+                                           result.elapsedMillis / 1000.0, result.getRowsPerSecond());
+            if (result.completed) {
+                showAlert(Alert.AlertType.INFORMATION, "Success", summary);
+            } else {
+                showAlert(Alert.AlertType.ERROR, "Error", "Fee assignment stopped before finishing. " + summary +
+                          (result.failure != null ? "\n\n" + result.failure : ""));
+            }
+            currentPage = 1;
+            loadPayables();
+        });
+        task.setOnFailed(e -> {
+            progressStage.close();
+            showAlert(Alert.AlertType.ERROR, "Error", "Failed to assign the fee: " + task.getException().getMessage());
+        });
+        
+        progressStage.show();
+        // The worker runs beside the UI thread, which keeps the shared connection to itself
+        Thread worker = new Thread(DatabaseUtil.withOwnConnections(task), "cohort-fee-assignment");
+        worker.setDaemon(true);
+        worker.start();
+    }
+    
+    private String cohortValue(ComboBox<String> combo) {
+        String value = combo.getValue();
+        return value == null || "All".equals(value) ? "" : value;
+    }
+    
     @FXML
     private void handleUpdate() {
         if (selectedPayable == null && studentIdField.getText().trim().isEmpty()) {
@@ -499,7 +698,10 @@ public class PayablesController extends BaseController {
                 summerSem = amount;
             }
             
-            if (payableDAO.updateStudentPayable(student.getStudentId(), schoolYearId, firstSem, secondSem, summerSem, semester)) {
+            FeeSchedule fee = FeeScheduleCache.lookup(schoolYearId, semester, student.getMajor(), student.getYear());
+            Integer feeId = fee != null && Math.abs(fee.getAmount() - amount) < 0.01 ? fee.getFeeId() : null;
+            
+            if (payableDAO.saveStudentPayable(student.getStudentId(), schoolYearId, firstSem, secondSem, summerSem, semester, feeId)) {
                 showAlert(Alert.AlertType.INFORMATION, "Success", 
                     "Payable updated successfully for " + semester + "!");
                 clearForm();
@@ -22,11 +22,14 @@ import java.util.function.UnaryOperator;
 import models.PaymentView;
 import models.Student;
 import models.SchoolYear;
+import utils.SessionPrefetcher;
+import utils.StudentSearchIndex;
 
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.List;
+import java.util.Set;
 
 public class PaymentsController extends BaseController {
     
@@ -97,6 +100,7 @@ public class PaymentsController extends BaseController {
     private int currentPage = 1;
     private static final int PAGE_SIZE = 10;
     private int totalPayments = 0;
+    private boolean searchActive = false; // Table shows handleSearch results rather than all payments
     
     @FXML
     public void initialize() {
@@ -250,6 +254,7 @@ public class PaymentsController extends BaseController {
             semesterComboBoxHeader.setValue(autoSemester);
             semesterComboBoxHeader.setOnAction(e -> {
                 updateTableColumnVisibility();
+                SessionPrefetcher.prefetch(utils.SessionManager.getSelectedSchoolYearId(), getSelectedSemester());
                 loadPayments();
                 // Update payables field if a payment is selected
                 if (selectedPayment != null) {
@@ -372,26 +377,64 @@ public class PaymentsController extends BaseController {
     }
     
     private void loadPayments() {
+        loadPayments(false);
+    }
+    
+    /**
+     * Loads all payments of the selected school year and semester; keepPlace stays on the current
+     * page and keeps the selected row instead of going back to the first page
+     */
+    private void loadPayments(boolean keepPlace) {
+        searchActive = false;
+        Integer selectedStudentId = selectedStudentId();
+        
         // Always get the latest school year from SessionManager
         Integer schoolYearId = utils.SessionManager.getSelectedSchoolYearId();
         currentSchoolYearId = schoolYearId; // Keep in sync
         String semester = getSelectedSemester();
-        List<PaymentView> payments = paymentDAO.getAllPaymentViews(schoolYearId, semester);
-        
-        // Store all payments for pagination
-        allPaymentsList.clear();
-        allPaymentsList.addAll(payments);
-        totalPayments = allPaymentsList.size();
-        
-        // Reset to first page
-        currentPage = 1;
-        
-        // Apply pagination
-        updatePagination();
+        showPrefetched(paymentsTable, SessionPrefetcher.payments(schoolYearId, semester), payments -> {
+            // Store all payments for pagination
+            allPaymentsList.clear();
+            allPaymentsList.addAll(payments);
+            totalPayments = allPaymentsList.size();
+            
+            // Reset to first page
+            if (!keepPlace) {
+                currentPage = 1;
+            }
+            
+            // Apply pagination
+            updatePagination();
+            if (keepPlace) {
+                reselect(paymentsTable, selectedStudentId, PaymentView::getStudentId);
+            }
+        }, () -> utils.SnapshotStore.cachedPayments(schoolYearId, semester));
+    }
+    
+    @Override
+    protected void onExternalChange() {
+        // Refresh in place: same page, same search, same selected row
+        if (searchActive) {
+            searchPayments(true);
+        } else {
+            loadPayments(true);
+        }
+    }
+    
+    private Integer selectedStudentId() {
+        PaymentView selected = paymentsTable.getSelectionModel().getSelectedItem();
+        return selected != null ? selected.getStudentId() : null;
     }
     
     @FXML
     private void handleSearch() {
+        searchPayments(false);
+    }
+    
+    private void searchPayments(boolean keepPlace) {
+        searchActive = true;
+        Integer selectedStudentId = selectedStudentId();
+        
         String searchTerm = searchField.getText();
         String year = yearFilterCombo.getValue();
         String major = majorFilterCombo.getValue();
@@ -407,27 +450,30 @@ public class PaymentsController extends BaseController {
             major = null;
         }
         
-        // Search with school year filter
-        List<Student> students = studentDAO.searchStudents(searchTerm, year, major, schoolYearId);
-        List<Integer> studentIds = students.stream()
-            .map(Student::getStudentId)
-            .toList();
+        // Search the in-memory index for the school year (no LIKE query per keystroke)
+        Set<Integer> studentIds = StudentSearchIndex.search(schoolYearId, searchTerm, year, major);
         
-        // Filter payments list by student IDs
+        // Filter payments list by student IDs, once the list is loaded (off the FX thread)
         // Always get the latest school year from SessionManager
         Integer currentYearId = utils.SessionManager.getSelectedSchoolYearId();
         currentSchoolYearId = currentYearId; // Keep in sync
-        allPaymentsList.clear();
-        List<PaymentView> allPayments = paymentDAO.getAllPaymentViews(currentYearId, semester);
-        for (PaymentView payment : allPayments) {
-            if (studentIds.contains(payment.getStudentId())) {
-                allPaymentsList.add(payment);
+        showPrefetched(paymentsTable, SessionPrefetcher.payments(currentYearId, semester), allPayments -> {
+            allPaymentsList.clear();
+            for (PaymentView payment : allPayments) {
+                if (studentIds.contains(payment.getStudentId())) {
+                    allPaymentsList.add(payment);
+                }
             }
-        }
-        
-        totalPayments = allPaymentsList.size();
-        currentPage = 1; // Reset to first page
-        updatePagination();
+            
+            totalPayments = allPaymentsList.size();
+            if (!keepPlace) {
+                currentPage = 1; // Reset to first page
+            }
+            updatePagination();
+            if (keepPlace) {
+                reselect(paymentsTable, selectedStudentId, PaymentView::getStudentId);
+            }
+        });
     }
     
     @FXML
@@ -714,6 +760,10 @@ public class PaymentsController extends BaseController {
         
         // Fetch existing payment record to get current amounts and total
         PaymentView existingPayment = paymentDAO.getPaymentView(student.getStudentId(), schoolYearId);
+        if (existingPayment == null && !utils.OfflinePostingQueue.isDatabaseReachable()) {
+            // Database down: go by the row on screen; the posting is queued below
+            existingPayment = selectedPayment;
+        }
         if (existingPayment == null) {
             showAlert(Alert.AlertType.ERROR, "Error", "Could not retrieve payment information for this student!");
             return;
@@ -775,10 +825,40 @@ public class PaymentsController extends BaseController {
             status = "UNPAID";
         }
         
-        if (paymentDAO.savePayment(student.getStudentId(), schoolYearId, 0.0, finalAmountPaid, dueDate, status)) {
+        // ADD mode posts the increment so a payment posted meanwhile at another window is not overwritten;
+        // UPDATE mode is checked against the version of the row the total was entered from
+        // The posting is queued under the same key if the write fails, so it cannot be applied twice
+        String postingKey = utils.OfflinePostingQueue.newKey();
+        boolean saved;
+        if (isAddMode) {
+            saved = paymentDAO.postPayment(student.getStudentId(), schoolYearId, enteredAmount, dueDate, postingKey);
+        } else {
+            boolean shown = selectedPayment != null && selectedPayment.getStudentId() == student.getStudentId();
+            PaymentDAO.PostingResult result = paymentDAO.savePayment(student.getStudentId(), schoolYearId, finalAmountPaid,
+                dueDate, status, postingKey,
+                shown ? selectedPayment.getVersion() : existingPayment.getVersion(),
+                shown ? getSelectedSemester() : null);
+            if (result.status == PaymentDAO.PostingResult.Status.CONFLICT) {
+                showChangedElsewhere();
+                return;
+            }
+            saved = result.status != PaymentDAO.PostingResult.Status.FAILED;
+        }
+        String queuedReference = null;
+        if (!saved && !utils.OfflinePostingQueue.isDatabaseReachable()) {
+            queuedReference = isAddMode
+                              ? utils.OfflinePostingQueue.enqueuePost(postingKey, student.getStudentId(), schoolYearId, enteredAmount, dueDate)
+                              : utils.OfflinePostingQueue.enqueueSave(postingKey, student.getStudentId(), schoolYearId, finalAmountPaid,
+                                                                      dueDate, status, currentAmountPaid);
+            saved = queuedReference != null;
+        }
+        if (saved) {
             String successMessage = isAddMode ? 
                 String.format("Added P%.2f to payment. New total: P%.2f", enteredAmount, finalAmountPaid) :
                 String.format("Payment updated successfully! New total: P%.2f", finalAmountPaid);
+            if (queuedReference != null) {
+                successMessage = queuedMessage(queuedReference);
+            }
             showAlert(Alert.AlertType.INFORMATION, "Success", successMessage);
             clearForm();
             selectedPayment = null;
@@ -827,6 +907,10 @@ public class PaymentsController extends BaseController {
         
         // Fetch existing payment record to get current amounts and total
         PaymentView existingPayment = paymentDAO.getPaymentView(student.getStudentId(), schoolYearId);
+        if (existingPayment == null && !utils.OfflinePostingQueue.isDatabaseReachable()) {
+            // Database down: go by the row on screen; the posting is queued below
+            existingPayment = selectedPayment;
+        }
         if (existingPayment == null) {
             showAlert(Alert.AlertType.ERROR, "Error", "Could not retrieve payment information for this student!");
             return;
@@ -883,8 +967,17 @@ public class PaymentsController extends BaseController {
             status = "UNPAID";
         }
         
-        if (paymentDAO.savePayment(student.getStudentId(), schoolYearId, 0.0, totalAmountPaid, dueDate, status)) {
-            showAlert(Alert.AlertType.INFORMATION, "Success", "Payment added successfully!");
+        // Post the increment; the DAO adds it to the amount paid as of the write
+        String postingKey = utils.OfflinePostingQueue.newKey();
+        boolean saved = paymentDAO.postPayment(student.getStudentId(), schoolYearId, amountToAdd, dueDate, postingKey);
+        String queuedReference = null;
+        if (!saved && !utils.OfflinePostingQueue.isDatabaseReachable()) {
+            queuedReference = utils.OfflinePostingQueue.enqueuePost(postingKey, student.getStudentId(), schoolYearId, amountToAdd, dueDate);
+            saved = queuedReference != null;
+        }
+        if (saved) {
+            showAlert(Alert.AlertType.INFORMATION, "Success",
+                      queuedReference != null ? queuedMessage(queuedReference) : "Payment added successfully!");
             clearForm();
             selectedPayment = null;
             paymentsTable.getSelectionModel().clearSelection();
@@ -905,6 +998,14 @@ public class PaymentsController extends BaseController {
         }
     }
     
+    /**
+     * Message for a posting that went to the offline queue
+     */
+    private String queuedMessage(String reference) {
+        return "The database cannot be reached. The payment was saved on this computer and will be posted " +
+               "automatically when the connection returns.\n\nReference: " + reference;
+    }
+    
     @FXML
     private void handleUpdate() {
         if (selectedPayment == null) {
@@ -970,8 +1071,23 @@ public class PaymentsController extends BaseController {
         Integer schoolYearId = utils.SessionManager.getSelectedSchoolYearId();
         currentSchoolYearId = schoolYearId; // Keep in sync
         
-        if (paymentDAO.savePayment(selectedPayment.getStudentId(), schoolYearId, 0.0, finalAmountPaid, dueDate, status)) {
-            showAlert(Alert.AlertType.INFORMATION, "Success", "Payment updated successfully!");
+        String postingKey = utils.OfflinePostingQueue.newKey();
+        PaymentDAO.PostingResult result = paymentDAO.savePayment(selectedPayment.getStudentId(), schoolYearId, finalAmountPaid,
+            dueDate, status, postingKey, selectedPayment.getVersion(), getSelectedSemester());
+        if (result.status == PaymentDAO.PostingResult.Status.CONFLICT) {
+            showChangedElsewhere();
+            return;
+        }
+        boolean saved = result.status != PaymentDAO.PostingResult.Status.FAILED;
+        String queuedReference = null;
+        if (!saved && !utils.OfflinePostingQueue.isDatabaseReachable()) {
+            queuedReference = utils.OfflinePostingQueue.enqueueSave(postingKey, selectedPayment.getStudentId(), schoolYearId,
+                                                                    finalAmountPaid, dueDate, status, previousAmountPaid);
+            saved = queuedReference != null;
+        }
+        if (saved) {
+            showAlert(Alert.AlertType.INFORMATION, "Success",
+                      queuedReference != null ? queuedMessage(queuedReference) : "Payment updated successfully!");
             clearForm();
             selectedPayment = null;
             paymentsTable.getSelectionModel().clearSelection();
@@ -992,6 +1108,19 @@ public class PaymentsController extends BaseController {
         }
     }
     
+    /**
+     * An UPDATE was refused because the row changed at another window after it was loaded
+     */
+    private void showChangedElsewhere() {
+        showAlert(Alert.AlertType.WARNING, "Payment Changed",
+                  "This payment was changed at another window since it was loaded. " +
+                  "The list has been reloaded; please check the amount and update again.");
+        clearForm();
+        selectedPayment = null;
+        paymentsTable.getSelectionModel().clearSelection();
+        loadPayments();
+    }
+    
     @FXML
     private void handleDelete() {
         if (selectedPayment == null) {
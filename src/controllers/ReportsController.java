@@ -16,6 +16,7 @@ import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import models.PaymentView;
 import models.SchoolYear;
+import utils.FinancialSnapshot;
 import utils.SemesterUtil;
 import utils.SessionManager;
 
@@ -31,6 +32,7 @@ public class ReportsController extends BaseController {
     private static ObservableList<PaymentView> cachedReportsList = null;
     private static Integer cachedSchoolYearId = null;
     private static String cachedSemester = null;
+    private static long cachedSnapshotVersion = -1;
     
     @FXML private TableView<PaymentView> reportsTable;
     @FXML private TableColumn<PaymentView, String> studentIdCol;
@@ -227,7 +229,7 @@ public class ReportsController extends BaseController {
     }
     
     /**
-     * Verify if current filters match cached filters, reload if they don't
+     * Verify if current filters match cached filters and payments have not changed, reload if they don't
      */
     private void verifyAndReloadIfNeeded() {
         // Get selected school year
@@ -254,8 +256,8 @@ public class ReportsController extends BaseController {
                                  (cachedSemester != null && semester != null && cachedSemester.equals(semester));
         boolean filtersMatch = schoolYearMatches && semesterMatches;
         
-        if (!filtersMatch) {
-            // Filters changed, reload
+        if (!filtersMatch || cachedSnapshotVersion != FinancialSnapshot.getVersion()) {
+            // Filters or payment data changed, reload
             loadReports();
         }
     }
@@ -278,37 +280,24 @@ public class ReportsController extends BaseController {
             semester = null;
         }
         
-        // Check if we can use cached data (same filters)
-        boolean schoolYearMatches = (cachedSchoolYearId == null && schoolYearId == null) || 
-                                   (cachedSchoolYearId != null && schoolYearId != null && cachedSchoolYearId.equals(schoolYearId));
-        boolean semesterMatches = (cachedSemester == null && semester == null) || 
-                                 (cachedSemester != null && semester != null && cachedSemester.equals(semester));
-        boolean useCache = (cachedReportsList != null && !cachedReportsList.isEmpty() && 
-                           schoolYearMatches && semesterMatches);
+        // Filter the in-memory snapshot instead of re-querying for every filter change.
+        // The snapshot picks up payment changes itself, so there is no need to reuse the cached list here.
+        FinancialSnapshot snapshot = FinancialSnapshot.forSchoolYear(schoolYearId);
+        List<PaymentView> payments = snapshot.toPaymentViews(snapshot.filter(semester, null, null, null));
         
-        if (useCache) {
-            // Use cached data - update the observable list
-            reportsList.setAll(cachedReportsList);
-            totalLabel.setText(String.valueOf(reportsList.size()));
-            // Force table refresh
-            reportsTable.refresh();
-        } else {
-            // Load fresh data
-            List<PaymentView> payments = paymentDAO.getAllPaymentViews(schoolYearId, semester);
-            
-            // Update the observable list
-            reportsList.setAll(payments);
-            
-            // Update cache with a new observable list
-            cachedReportsList = FXCollections.observableArrayList(payments);
-            cachedSchoolYearId = schoolYearId;
-            cachedSemester = semester;
-            
-            // Update total
-            totalLabel.setText(String.valueOf(reportsList.size()));
-            // Force table refresh
-            reportsTable.refresh();
-        }
+        // Update the observable list
+        reportsList.setAll(payments);
+        
+        // Update cache with a new observable list
+        cachedReportsList = FXCollections.observableArrayList(payments);
+        cachedSchoolYearId = schoolYearId;
+        cachedSemester = semester;
+        cachedSnapshotVersion = FinancialSnapshot.getVersion();
+        
+        // Update total
+        totalLabel.setText(String.valueOf(reportsList.size()));
+        // Force table refresh
+        reportsTable.refresh();
     }
     
     @FXML
@@ -8,6 +8,7 @@ import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
+import javafx.scene.layout.GridPane;
 import javafx.scene.text.Text;
 import javafx.stage.Stage;
 import models.SchoolYear;
@@ -328,6 +329,117 @@ public class SchoolYearsController extends BaseController {
         });
     }
     
+    /**
+     * Copy the active enrollments of one school year and term into the next,
+     * after showing a dry-run count of what would change
+     */
+    @FXML
+    private void handleRollover() {
+        List<SchoolYear> schoolYears = schoolYearDAO.getActiveSchoolYears();
+        if (schoolYears.isEmpty()) {
+            showAlert(Alert.AlertType.WARNING, "Warning", "Please add a school year first!");
+            return;
+        }
+
+        // Newest first: default to rolling the previous school year's 2nd Sem into the newest 1st Sem
+        ComboBox<String> fromYearCombo = new ComboBox<>();
+        ComboBox<String> toYearCombo = new ComboBox<>();
+        for (SchoolYear sy : schoolYears) {
+            fromYearCombo.getItems().add(sy.getYearRange());
+            toYearCombo.getItems().add(sy.getYearRange());
+        }
+        fromYearCombo.setValue(selectedSchoolYear != null && selectedSchoolYear.isActive()
+            ? selectedSchoolYear.getYearRange()
+            : schoolYears.get(Math.min(1, schoolYears.size() - 1)).getYearRange());
+        toYearCombo.setValue(schoolYears.get(0).getYearRange());
+        ComboBox<String> fromSemesterCombo = new ComboBox<>();
+        fromSemesterCombo.getItems().addAll("1st Sem", "2nd Sem", "Summer Sem");
+        fromSemesterCombo.setValue("2nd Sem");
+        ComboBox<String> toSemesterCombo = new ComboBox<>();
+        toSemesterCombo.getItems().addAll("1st Sem", "2nd Sem", "Summer Sem");
+        toSemesterCombo.setValue("1st Sem");
+        CheckBox promoteCheck = new CheckBox("Promote year levels (4th Year students are not carried over)");
+        promoteCheck.setSelected(!fromYearCombo.getValue().equals(toYearCombo.getValue()));
+
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(10);
+        grid.addRow(0, new Label("From:"), fromYearCombo, fromSemesterCombo);
+        grid.addRow(1, new Label("To:"), toYearCombo, toSemesterCombo);
+        grid.add(promoteCheck, 0, 2, 3, 1);
+
+        Dialog<ButtonType> dialog = new Dialog<>();
+        dialog.setTitle("Roll Over Enrollments");
+        dialog.setHeaderText("Enroll the active students of one term in the next");
+        dialog.getDialogPane().setContent(grid);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+        if (!dialog.showAndWait().filter(ButtonType.OK::equals).isPresent()) {
+            return;
+        }
+
+        SchoolYear fromYear = schoolYearDAO.getSchoolYearByRange(fromYearCombo.getValue());
+        SchoolYear toYear = schoolYearDAO.getSchoolYearByRange(toYearCombo.getValue());
+        String fromSemester = fromSemesterCombo.getValue();
+        String toSemester = toSemesterCombo.getValue();
+        boolean promote = promoteCheck.isSelected();
+        if (fromYear == null || toYear == null) {
+            showAlert(Alert.AlertType.ERROR, "Error", "School year not found!");
+            return;
+        }
+        if (fromYear.getSchoolYearId() == toYear.getSchoolYearId() && fromSemester.equals(toSemester)) {
+            showAlert(Alert.AlertType.WARNING, "Validation Error", "From and To must be different terms!");
+            return;
+        }
+
+        SchoolYearDAO.RolloverResult preview = schoolYearDAO.previewRollover(
+            fromYear.getSchoolYearId(), fromSemester, toYear.getSchoolYearId(), toSemester, promote);
+        if (preview == null) {
+            showAlert(Alert.AlertType.ERROR, "Error", "Failed to preview the rollover!");
+            return;
+        }
+        if (preview.getEnrolled() == 0) {
+            showAlert(Alert.AlertType.INFORMATION, "Roll Over Enrollments",
+                "No students to roll over: " + preview.getSourceStudents() + " active in " +
+                fromYear.getYearRange() + " " + fromSemester + ", " + preview.getAlreadyEnrolled() +
+                " already enrolled in " + toYear.getYearRange() + " " + toSemester + ".");
+            return;
+        }
+
+        StringBuilder summary = new StringBuilder();
+        summary.append(preview.getSourceStudents()).append(" active student(s) in ")
+               .append(fromYear.getYearRange()).append(" ").append(fromSemester).append("\n");
+        summary.append(preview.getAlreadyEnrolled()).append(" already enrolled in ")
+               .append(toYear.getYearRange()).append(" ").append(toSemester).append("\n");
+        if (promote) {
+            summary.append(preview.getGraduating()).append(" in 4th Year, not carried over\n");
+        }
+        summary.append("\n").append(preview.getEnrolled()).append(" student(s) will be enrolled");
+        if (promote) {
+            summary.append(" and moved up one year level");
+        }
+        summary.append(".");
+
+        Alert confirmAlert = new Alert(Alert.AlertType.CONFIRMATION);
+        confirmAlert.setTitle("Confirm Roll Over");
+        confirmAlert.setHeaderText("Roll Over " + fromYear.getYearRange() + " " + fromSemester +
+                                   " to " + toYear.getYearRange() + " " + toSemester);
+        confirmAlert.setContentText(summary.toString());
+
+        confirmAlert.showAndWait().ifPresent(response -> {
+            if (response == ButtonType.OK) {
+                SchoolYearDAO.RolloverResult result = schoolYearDAO.rolloverEnrollments(
+                    fromYear.getSchoolYearId(), fromSemester, toYear.getSchoolYearId(), toSemester, promote);
+                if (result != null) {
+                    showAlert(Alert.AlertType.INFORMATION, "Success", String.format(
+                        "%d student(s) enrolled in %s %s (%.1f s).", result.getEnrolled(),
+                        toYear.getYearRange(), toSemester, result.getElapsedMillis() / 1000.0));
+                } else {
+                    showAlert(Alert.AlertType.ERROR, "Error", "Failed to roll over enrollments! No changes were made.");
+                }
+            }
+        });
+    }
+
     @FXML
     private void handleClear() {
         clearForm();
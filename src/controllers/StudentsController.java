@@ -83,6 +83,28 @@ public class StudentsController extends BaseController {
     private static final int PAGE_SIZE = 10;
     private int totalStudents = 0;
     
+    // Set while the table shows a search; its pages are read from the server one at a time
+    private StudentSearch activeSearch = null;
+    
+    /** Filters of the search on screen */
+    private static class StudentSearch {
+        final String searchTerm;
+        final String year;
+        final String major;
+        final Integer schoolYearId;
+        final String status;
+        final String semester;
+        
+        StudentSearch(String searchTerm, String year, String major, Integer schoolYearId, String status, String semester) {
+            this.searchTerm = searchTerm;
+            this.year = year;
+            this.major = major;
+            this.schoolYearId = schoolYearId;
+            this.status = status;
+            this.semester = semester;
+        }
+    }
+    
     @FXML
     public void initialize() {
         studentDAO = new StudentDAO();
@@ -321,6 +343,17 @@ public class StudentsController extends BaseController {
     }
     
     private void loadStudents() {
+        loadStudents(false);
+    }
+    
+    /**
+     * Loads the students of the selected school year, status and semester; keepSelection selects the
+     * previously selected student again once the list is shown
+     */
+    private void loadStudents(boolean keepSelection) {
+        activeSearch = null;
+        Integer selectedStudentId = selectedStudentId();
+        
         // Refresh school year cache in case new school years were added
         loadSchoolYearCache();
         
@@ -358,23 +391,43 @@ public class StudentsController extends BaseController {
         
         // Get students with semester filter applied at SQL level for better performance and accuracy
         // The SQL query now handles all filtering, so no Java-side filtering is needed
-        List<Student> students;
-        if (schoolYearId != null) {
-            students = studentDAO.getAllStudents(schoolYearId, status, semester);
-        } else {
-            students = studentDAO.getAllStudents(null, status, semester);
+        final String statusFilter = status;
+        showPrefetched(studentsTable, utils.SessionPrefetcher.students(schoolYearId, statusFilter, semester), students -> {
+            // Store all students for pagination
+            allStudentsList.clear();
+            allStudentsList.addAll(students);
+            totalStudents = allStudentsList.size();
+            
+            // Update total students label
+            totalStudentsLabel.setText("(Total: " + totalStudents + ")");
+            
+            // Apply pagination
+            updatePagination();
+            if (keepSelection) {
+                reselect(studentsTable, selectedStudentId, Student::getStudentId);
+            }
+        }, () -> utils.SnapshotStore.cachedStudents(schoolYearId, statusFilter, semester));
+    }
+    
+    @Override
+    protected void onExternalChange() {
+        // Refresh in place: same page, same search, same selected row
+        if (activeSearch == null) {
+            loadStudents(true);
+            return;
         }
-        
-        // Store all students for pagination
-        allStudentsList.clear();
-        allStudentsList.addAll(students);
-        totalStudents = allStudentsList.size();
-        
-        // Update total students label
+        Integer selectedStudentId = selectedStudentId();
+        StudentSearch search = activeSearch;
+        totalStudents = Math.max(studentDAO.countStudentSearch(search.searchTerm, search.year, search.major,
+                search.schoolYearId, search.status, search.semester), 0);
         totalStudentsLabel.setText("(Total: " + totalStudents + ")");
-        
-        // Apply pagination
         updatePagination();
+        reselect(studentsTable, selectedStudentId, Student::getStudentId);
+    }
+    
+    private Integer selectedStudentId() {
+        Student selected = studentsTable.getSelectionModel().getSelectedItem();
+        return selected != null ? selected.getStudentId() : null;
     }
     
     private void loadSchoolYears() {
@@ -438,6 +491,10 @@ public class StudentsController extends BaseController {
             semesterComboBoxHeader.getItems().addAll("1st Sem", "2nd Sem", "Summer Sem");
             // Auto-select will be done in autoSelectSemester() method
             semesterComboBoxHeader.setOnAction(e -> {
+                String selectedSemester = semesterComboBoxHeader.getValue();
+                if (selectedSemester != null && !selectedSemester.equals("Select Semester")) {
+                    utils.SessionPrefetcher.prefetch(utils.SessionManager.getSelectedSchoolYearId(), selectedSemester);
+                }
                 loadStudents();
             });
         }
@@ -576,13 +633,10 @@ public class StudentsController extends BaseController {
             semester = null; // Show all semesters
         }
         
-        // Search with school year, status, and semester filter
-        List<Student> students = studentDAO.searchStudents(searchTerm, year, major, schoolYearId, status, semester);
-        
-        // Store all students for pagination
-        allStudentsList.clear();
-        allStudentsList.addAll(students);
-        totalStudents = allStudentsList.size();
+        // Search with school year, status, and semester filter; only the total and the
+        // page on screen are read (ranked by relevance when the FULLTEXT index exists)
+        activeSearch = new StudentSearch(searchTerm, year, major, schoolYearId, status, semester);
+        totalStudents = Math.max(studentDAO.countStudentSearch(searchTerm, year, major, schoolYearId, status, semester), 0);
         
         // Reset to first page when searching
         currentPage = 1;
@@ -666,14 +720,12 @@ public class StudentsController extends BaseController {
             Student student = createStudentFromForm();
             student.setStatus("active"); // New students are always active
             
+            // All duplicate checks below come from one resolver round-trip
+            StudentDAO.IdentityMatch match = studentDAO.resolveIdentity(student);
+            
             // First check: Check if student with same name already exists in the same semester and school year
             if (student.getSchoolYearId() != null && student.getSemester() != null && !student.getSemester().trim().isEmpty()) {
-                if (studentDAO.fullNameExistsForSchoolYearAndSemester(
-                        student.getFirstName(),
-                        student.getMiddleName(),
-                        student.getLastName(),
-                        student.getSchoolYearId(),
-                        student.getSemester())) {
+                if (match.isNameInTerm()) {
                     String yearRange = "this school year";
                     if (student.getSchoolYearId() != null) {
                         SchoolYear sy = schoolYearDAO.getSchoolYearById(student.getSchoolYearId());
@@ -696,10 +748,7 @@ public class StudentsController extends BaseController {
             
             // Second check: Check if student ID already exists in the same semester and school year
             if (student.getSchoolYearId() != null && student.getSemester() != null && !student.getSemester().trim().isEmpty()) {
-                if (studentDAO.studentIdExistsInSemesterAndSchoolYear(
-                        student.getStudentNumber(),
-                        student.getSchoolYearId(),
-                        student.getSemester())) {
+                if (match.isIdInTerm()) {
                     // Get the existing student to show their information
                     Student existingStudent = studentDAO.getStudentByStudentIdInSemesterAndSchoolYear(
                             student.getStudentNumber(),
@@ -736,15 +785,7 @@ public class StudentsController extends BaseController {
             }
             
             // Check if student exists but is deactivated
-            if (studentDAO.studentExistsDeactivated(
-                    student.getStudentNumber(),
-                    student.getFirstName(),
-                    student.getMiddleName(),
-                    student.getLastName(),
-                    student.getYear(),
-                    student.getMajor(),
-                    student.getSchoolYearId(),
-                    student.getSemester())) {
+            if (match.isDeactivatedInTerm()) {
                 String yearRange = "this school year";
                 if (student.getSchoolYearId() != null) {
                     SchoolYear sy = schoolYearDAO.getSchoolYearById(student.getSchoolYearId());
@@ -1159,6 +1200,8 @@ public class StudentsController extends BaseController {
             int skipCount = 0;
             int errorCount = 0;
             java.util.List<String> errors = new java.util.ArrayList<>();
+            java.util.List<Student> pendingStudents = new java.util.ArrayList<>();
+            java.util.List<Integer> pendingRows = new java.util.ArrayList<>();
             
             // Get current school year and semester from form/header
             Integer defaultSchoolYearId = utils.SessionManager.getSelectedSchoolYearId();
@@ -1262,13 +1305,6 @@ public class StudentsController extends BaseController {
                         continue;
                     }
                     
-                    // Check if student already exists
-                    if (studentDAO.studentIdExists(studentId)) {
-                        skipCount++;
-                        errors.add("Row " + rowNum + ": Student ID " + studentId + " already exists");
-                        continue;
-                    }
-                    
                     // Create student object
                     Student student = new Student();
                     student.setStudentNumber(studentId);
@@ -1292,13 +1328,9 @@ public class StudentsController extends BaseController {
                         student.setSchoolYearId(defaultSchoolYearId);
                     }
                     
-                    // Add student
-                    if (studentDAO.addStudent(student)) {
-                        successCount++;
-                    } else {
-                        errorCount++;
-                        errors.add("Row " + rowNum + ": Failed to add student " + studentId);
-                    }
+                    // Duplicate checks and inserts run once the whole sheet is read
+                    pendingStudents.add(student);
+                    pendingRows.add(rowNum);
                     
                 } catch (Exception e) {
                     errorCount++;
@@ -1306,6 +1338,11 @@ public class StudentsController extends BaseController {
                 }
             }
             
+            int[] imported = addImportedStudents(pendingStudents, pendingRows, errors);
+            successCount += imported[0];
+            skipCount += imported[1];
+            errorCount += imported[2];
+            
             // Close resources
             java.lang.reflect.Method closeMethod = workbookClass.getMethod("close");
             closeMethod.invoke(workbook);
@@ -1394,6 +1431,8 @@ public class StudentsController extends BaseController {
         int skipCount = 0;
         int errorCount = 0;
         java.util.List<String> errors = new java.util.ArrayList<>();
+        java.util.List<Student> pendingStudents = new java.util.ArrayList<>();
+        java.util.List<Integer> pendingRows = new java.util.ArrayList<>();
 
         Integer defaultSchoolYearId = utils.SessionManager.getSelectedSchoolYearId();
         String defaultSemester = getSelectedSemester();
@@ -1489,12 +1528,6 @@ public class StudentsController extends BaseController {
                         continue;
                     }
 
-                    if (studentDAO.studentIdExists(studentId)) {
-                        skipCount++;
-                        errors.add("Row " + rowNum + ": Student ID " + studentId + " already exists");
-                        continue;
-                    }
-
                     models.Student student = new models.Student();
                     student.setStudentNumber(studentId);
                     student.setFirstName(firstName);
@@ -1516,12 +1549,8 @@ public class StudentsController extends BaseController {
                         student.setSchoolYearId(defaultSchoolYearId);
                     }
 
-                    if (studentDAO.addStudent(student)) {
-                        successCount++;
-                    } else {
-                        errorCount++;
-                        errors.add("Row " + rowNum + ": Failed to add student " + studentId);
-                    }
+                    pendingStudents.add(student);
+                    pendingRows.add(rowNum);
 
                 } catch (Exception ex) {
                     errorCount++;
@@ -1532,6 +1561,11 @@ public class StudentsController extends BaseController {
 
         zip.close();
 
+        int[] imported = addImportedStudents(pendingStudents, pendingRows, errors);
+        successCount += imported[0];
+        skipCount += imported[1];
+        errorCount += imported[2];
+
         StringBuilder message = new StringBuilder();
         message.append("Import completed!\n\n");
         message.append("Successfully imported: ").append(successCount).append(" student(s)\n");
@@ -1550,6 +1584,36 @@ public class StudentsController extends BaseController {
         loadStudents();
     }
 
+    /**
+     * Add the rows read by an import, skipping student IDs that are already in use.
+     * Existing IDs for the whole file are resolved in one batch instead of one query per row;
+     * an ID repeated within the file is only added the first time.
+     *
+     * @return {added, skipped, failed}
+     */
+    private int[] addImportedStudents(java.util.List<Student> students, java.util.List<Integer> rowNumbers,
+                                      java.util.List<String> errors) {
+        int[] counts = new int[3];
+        java.util.List<StudentDAO.IdentityMatch> matches = studentDAO.resolveIdentities(students);
+        java.util.Set<String> seenIds = new java.util.HashSet<>();
+        for (int i = 0; i < students.size(); i++) {
+            Student student = students.get(i);
+            String studentId = student.getStudentNumber();
+            if (matches.get(i).isIdExists() || !seenIds.add(studentId.toLowerCase())) {
+                counts[1]++;
+                errors.add("Row " + rowNumbers.get(i) + ": Student ID " + studentId + " already exists");
+                continue;
+            }
+            if (studentDAO.addStudent(student)) {
+                counts[0]++;
+            } else {
+                counts[2]++;
+                errors.add("Row " + rowNumbers.get(i) + ": Failed to add student " + studentId);
+            }
+        }
+        return counts;
+    }
+
     @FXML
     private void handleClear() {
         clearForm();
@@ -1587,9 +1651,15 @@ public class StudentsController extends BaseController {
         
         // Get students for current page
         studentList.clear();
-        for (int i = startIndex; i < endIndex; i++) {
-            if (i < allStudentsList.size()) {
-                studentList.add(allStudentsList.get(i));
+        if (activeSearch != null) {
+            StudentSearch search = activeSearch;
+            studentList.addAll(studentDAO.searchStudentsPage(search.searchTerm, search.year, search.major,
+                    search.schoolYearId, search.status, search.semester, currentPage, PAGE_SIZE));
+        } else {
+            for (int i = startIndex; i < endIndex; i++) {
+                if (i < allStudentsList.size()) {
+                    studentList.add(allStudentsList.get(i));
+                }
             }
         }
         
@@ -0,0 +1,249 @@
+package dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import utils.DatabaseUtil;
+import utils.Log;
+import utils.PayableEncryptionUtil;
+
+/**
+ * Daily, weekly and monthly collection totals per school year and semester (collection_rollup).
+ * PaymentLedgerDAO adds every PAYMENT/ADJUSTMENT entry to its buckets inside the posting
+ * transaction, so chart and period queries read a handful of primary-key rows no matter
+ * how much payment history exists. Totals are encrypted like every other amount, since a DAY
+ * bucket with one entry would otherwise show a single payment; a posting decrypts, adds to and
+ * re-encrypts its buckets under their row locks.
+ */
+public class CollectionRollupDAO {
+
+    public static final String DAY = "DAY";
+    public static final String WEEK = "WEEK";
+    public static final String MONTH = "MONTH";
+    public static final String ALL_SEMESTERS = "All Semesters";
+
+    /**
+     * Add a posted amount to the day, week and month buckets of its semester and of "All Semesters"
+     */
+    public void recordPosting(Connection conn, int schoolYearId, String semester, LocalDate postedOn, double amount) throws SQLException {
+        String selectSql = "SELECT collected FROM collection_rollup " +
+                          "WHERE school_year_id = ? AND bucket_type = ? AND semester = ? AND bucket_start = ? FOR UPDATE";
+        String upsertSql = "INSERT INTO collection_rollup (school_year_id, bucket_type, semester, bucket_start, collected, entry_count) " +
+                          "VALUES (?, ?, ?, ?, ?, 1) " +
+                          "ON DUPLICATE KEY UPDATE collected = VALUES(collected), entry_count = entry_count + 1";
+
+        String[] semesters = semester != null && !ALL_SEMESTERS.equals(semester)
+                             ? new String[]{semester, ALL_SEMESTERS} : new String[]{ALL_SEMESTERS};
+        try (PreparedStatement select = conn.prepareStatement(selectSql);
+             PreparedStatement upsert = conn.prepareStatement(upsertSql)) {
+            for (String bucketType : new String[]{DAY, WEEK, MONTH}) {
+                for (String key : semesters) {
+                    java.sql.Date start = java.sql.Date.valueOf(bucketStart(bucketType, postedOn));
+                    select.setInt(1, schoolYearId);
+                    select.setString(2, bucketType);
+                    select.setString(3, key);
+                    select.setDate(4, start);
+                    double collected = 0;
+                    try (ResultSet rs = select.executeQuery()) {
+                        if (rs.next()) {
+                            collected = PayableEncryptionUtil.decryptAmountForWrite(rs.getString("collected"), null);
+                        }
+                    }
+
+                    upsert.setInt(1, schoolYearId);
+                    upsert.setString(2, bucketType);
+                    upsert.setString(3, key);
+                    upsert.setDate(4, start);
+                    upsert.setString(5, PayableEncryptionUtil.encryptAmount(collected + amount));
+                    upsert.addBatch();
+                }
+            }
+            upsert.executeBatch();
+        }
+    }
+
+    /**
+     * First day of the bucket containing a date (weeks start on Monday)
+     */
+    public static LocalDate bucketStart(String bucketType, LocalDate date) {
+        if (WEEK.equals(bucketType)) {
+            return date.with(DayOfWeek.MONDAY);
+        } else if (MONTH.equals(bucketType)) {
+            return date.withDayOfMonth(1);
+        }
+        return date;
+    }
+
+    /**
+     * Collected amount per bucket between two dates (inclusive), oldest first.
+     * Buckets without collections are omitted.
+     */
+    public Map<LocalDate, Double> getCollections(Integer schoolYearId, String semester, String bucketType,
+                                                 LocalDate from, LocalDate to) {
+        Map<LocalDate, Double> buckets = new LinkedHashMap<>();
+        // One row per school year and bucket; summed here because the totals are encrypted
+        String sql = "SELECT bucket_start, collected " +
+                    "FROM collection_rollup " +
+                    "WHERE bucket_type = ? AND semester = ? " +
+                    (schoolYearId != null ? "AND school_year_id = ? " : "") +
+                    "AND bucket_start BETWEEN ? AND ? " +
+                    "ORDER BY bucket_start";
+
+        try (Connection conn = DatabaseUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            int paramIndex = 1;
+            pstmt.setString(paramIndex++, bucketType);
+            pstmt.setString(paramIndex++, semesterKey(semester));
+            if (schoolYearId != null) {
+                pstmt.setInt(paramIndex++, schoolYearId);
+            }
+            pstmt.setDate(paramIndex++, java.sql.Date.valueOf(bucketStart(bucketType, from)));
+            pstmt.setDate(paramIndex++, java.sql.Date.valueOf(to));
+
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                buckets.merge(rs.getDate("bucket_start").toLocalDate(),
+                              PayableEncryptionUtil.decryptAmount(rs.getString("collected")), Double::sum);
+            }
+        } catch (SQLException e) {
+            Log.error("Error getting collection rollups", e);
+        }
+
+        return buckets;
+    }
+
+    /**
+     * Collections per calendar month (index 0 = January) for the chart
+     *
+     * @return Amounts per month, or null when nothing has been collected for the filter
+     */
+    public double[] getMonthlyCollections(Integer schoolYearId, String semester) {
+        String sql = "SELECT MONTH(bucket_start) as month_number, collected " +
+                    "FROM collection_rollup " +
+                    "WHERE bucket_type = 'MONTH' AND semester = ? " +
+                    (schoolYearId != null ? "AND school_year_id = ? " : "");
+
+        double[] months = new double[12];
+        boolean found = false;
+        try (Connection conn = DatabaseUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, semesterKey(semester));
+            if (schoolYearId != null) {
+                pstmt.setInt(2, schoolYearId);
+            }
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                months[rs.getInt("month_number") - 1] += PayableEncryptionUtil.decryptAmount(rs.getString("collected"));
+                found = true;
+            }
+        } catch (SQLException e) {
+            Log.error("Error getting monthly collections", e);
+            return null;
+        }
+
+        return found ? months : null;
+    }
+
+    /**
+     * Collections of a month and of the month before it: {thisMonth, lastMonth}
+     */
+    public double[] getMonthOverMonth(Integer schoolYearId, String semester, YearMonth month) {
+        Map<LocalDate, Double> buckets = getCollections(schoolYearId, semester, MONTH,
+                                                        month.minusMonths(1).atDay(1), month.atDay(1));
+        return new double[]{
+            buckets.getOrDefault(month.atDay(1), 0.0),
+            buckets.getOrDefault(month.minusMonths(1).atDay(1), 0.0)
+        };
+    }
+
+    /**
+     * Recompute a school year's buckets from the payment ledger
+     */
+    public boolean rebuild(int schoolYearId) {
+        String ledgerSql = "SELECT t.student_id, t.amount, DATE(t.posted_at) as posted_on, " +
+                          "CASE " +
+                          "  WHEN sem.first_sem_amount > 0 AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL) THEN '1st Sem' " +
+                          "  WHEN sem.second_sem_amount > 0 AND (sem.first_sem_amount = 0 OR sem.first_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL) THEN '2nd Sem' " +
+                          "  WHEN sem.summer_sem_amount > 0 AND (sem.first_sem_amount = 0 OR sem.first_sem_amount IS NULL) AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL) THEN 'Summer Sem' " +
+                          "  ELSE NULL " +
+                          "END as semester_name " +
+                          "FROM payment_transaction t " +
+                          "INNER JOIN belong b ON t.belong_id = b.belong_id " +
+                          "LEFT JOIN semester sem ON b.semester_id = sem.semester_id " +
+                          "WHERE t.school_year_id = ? AND t.entry_type IN ('PAYMENT', 'ADJUSTMENT')";
+        String insertSql = "INSERT INTO collection_rollup (school_year_id, bucket_type, semester, bucket_start, collected, entry_count) " +
+                          "VALUES (?, ?, ?, ?, ?, ?)";
+
+        try (Connection conn = DatabaseUtil.getConnection()) {
+            conn.setAutoCommit(false);
+
+            try {
+                // bucket key -> {collected, count}
+                Map<String, double[]> buckets = new HashMap<>();
+                try (PreparedStatement pstmt = conn.prepareStatement(ledgerSql)) {
+                    pstmt.setInt(1, schoolYearId);
+                    ResultSet rs = pstmt.executeQuery();
+                    while (rs.next()) {
+                        double amount = PayableEncryptionUtil.decryptAmountForWrite(rs.getString("amount"), rs.getInt("student_id"));
+                        LocalDate postedOn = rs.getDate("posted_on").toLocalDate();
+                        String semester = rs.getString("semester_name");
+                        for (String bucketType : new String[]{DAY, WEEK, MONTH}) {
+                            LocalDate start = bucketStart(bucketType, postedOn);
+                            addToBucket(buckets, bucketType + "|" + ALL_SEMESTERS + "|" + start, amount);
+                            if (semester != null) {
+                                addToBucket(buckets, bucketType + "|" + semester + "|" + start, amount);
+                            }
+                        }
+                    }
+                }
+
+                try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM collection_rollup WHERE school_year_id = ?")) {
+                    pstmt.setInt(1, schoolYearId);
+                    pstmt.executeUpdate();
+                }
+
+                try (PreparedStatement pstmt = conn.prepareStatement(insertSql)) {
+                    for (Map.Entry<String, double[]> entry : buckets.entrySet()) {
+                        String[] key = entry.getKey().split("\\|");
+                        pstmt.setInt(1, schoolYearId);
+                        pstmt.setString(2, key[0]);
+                        pstmt.setString(3, key[1]);
+                        pstmt.setDate(4, java.sql.Date.valueOf(LocalDate.parse(key[2])));
+                        pstmt.setString(5, PayableEncryptionUtil.encryptAmount(entry.getValue()[0]));
+                        pstmt.setInt(6, (int) entry.getValue()[1]);
+                        pstmt.addBatch();
+                    }
+                    pstmt.executeBatch();
+                }
+
+                conn.commit();
+                return true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            Log.error("Error rebuilding collection rollups", e);
+            return false;
+        }
+    }
+
+    private static void addToBucket(Map<String, double[]> buckets, String key, double amount) {
+        double[] bucket = buckets.computeIfAbsent(key, k -> new double[2]);
+        bucket[0] += amount;
+        bucket[1]++;
+    }
+
+    private static String semesterKey(String semester) {
+        return semester != null ? semester : ALL_SEMESTERS;
+    }
+}
@@ -0,0 +1,104 @@
+package dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import models.FeeSchedule;
+import utils.DatabaseUtil;
+import utils.Log;
+import utils.PayableEncryptionUtil;
+
+/**
+ * Fee schedule: one amount per school year, term, program and year level (fee_schedule).
+ * Amounts are stored encrypted like the payables assigned from them.
+ * Reads for payable entry go through utils.FeeScheduleCache; writes here invalidate it.
+ */
+public class FeeScheduleDAO {
+
+    /**
+     * All scheduled fees of a school year
+     */
+    public List<FeeSchedule> getFeeSchedules(int schoolYearId) {
+        List<FeeSchedule> fees = new ArrayList<>();
+        String sql = "SELECT fee_id, school_year_id, semester, program, year_level, amount " +
+                    "FROM fee_schedule WHERE school_year_id = ? " +
+                    "ORDER BY semester, program, year_level";
+
+        try (Connection conn = DatabaseUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, schoolYearId);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                FeeSchedule fee = new FeeSchedule();
+                fee.setFeeId(rs.getInt("fee_id"));
+                fee.setSchoolYearId(rs.getInt("school_year_id"));
+                fee.setSemester(rs.getString("semester"));
+                fee.setProgram(rs.getString("program"));
+                fee.setYearLevel(rs.getString("year_level"));
+                fee.setAmount(PayableEncryptionUtil.decryptAmount(rs.getString("amount")));
+                fees.add(fee);
+            }
+        } catch (SQLException e) {
+            Log.error("Error getting fee schedule", e);
+        }
+
+        return fees;
+    }
+
+    /**
+     * Add a scheduled fee, or change the amount of the existing one for the same
+     * school year, term, program and year level
+     *
+     * @return The fee_id, or -1 on failure
+     */
+    public int saveFee(FeeSchedule fee) {
+        String sql = "INSERT INTO fee_schedule (school_year_id, semester, program, year_level, amount) " +
+                    "VALUES (?, ?, ?, ?, ?) " +
+                    "ON DUPLICATE KEY UPDATE fee_id = LAST_INSERT_ID(fee_id), amount = VALUES(amount)";
+
+        try (Connection conn = DatabaseUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS)) {
+            pstmt.setInt(1, fee.getSchoolYearId());
+            pstmt.setString(2, fee.getSemester());
+            pstmt.setString(3, normalize(fee.getProgram()));
+            pstmt.setString(4, normalize(fee.getYearLevel()));
+            pstmt.setString(5, PayableEncryptionUtil.encryptAmount(fee.getAmount()));
+            pstmt.executeUpdate();
+
+            ResultSet rs = pstmt.getGeneratedKeys();
+            if (rs.next()) {
+                fee.setFeeId(rs.getInt(1));
+            }
+            utils.FeeScheduleCache.invalidate(fee.getSchoolYearId());
+            return fee.getFeeId();
+        } catch (SQLException e) {
+            Log.error("Error saving scheduled fee", e);
+            return -1;
+        }
+    }
+
+    /**
+     * Remove a scheduled fee; enrollments assigned to it keep their payable amounts
+     */
+    public boolean deleteFee(int feeId, int schoolYearId) {
+        String sql = "DELETE FROM fee_schedule WHERE fee_id = ?";
+
+        try (Connection conn = DatabaseUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, feeId);
+            boolean deleted = pstmt.executeUpdate() > 0;
+            utils.FeeScheduleCache.invalidate(schoolYearId);
+            return deleted;
+        } catch (SQLException e) {
+            Log.error("Error deleting scheduled fee", e);
+            return false;
+        }
+    }
+
+    private static String normalize(String value) {
+        return value != null ? value.trim() : "";
+    }
+}
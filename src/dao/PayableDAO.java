@@ -9,6 +9,7 @@ import java.util.ArrayList;
 import java.util.List;
 import models.StudentPayableView;
 import utils.DatabaseUtil;
+import utils.Log;
 import utils.PayableEncryptionUtil;
 
 public class PayableDAO {
@@ -25,7 +26,7 @@ public class PayableDAO {
             return getAllStudentPayablesUsingProcedure(schoolYearId, semester, null, null, null);
         } catch (Exception e) {
             // Fallback to direct query
-            System.err.println("Warning: Could not use sp_get_student_payables procedure, falling back to direct query: " + e.getMessage());
+            Log.warn("Could not use sp_get_student_payables procedure, falling back to direct query", e);
         }
         
         List<StudentPayableView> payables = new ArrayList<>();
@@ -91,7 +92,7 @@ public class PayableDAO {
                             downpayment = PayableEncryptionUtil.decryptAmount(encryptedAmount, rs.getInt("student_id"));
                         }
                     } catch (Exception e) {
-                        System.err.println("Error decrypting downpayment_amount: " + e.getMessage());
+                        Log.warn("Error decrypting downpayment_amount", e);
                         downpayment = 0;
                     }
                     String semName = rs.getString("semester_name");
@@ -125,8 +126,7 @@ public class PayableDAO {
                 }
             }
         } catch (SQLException e) {
-            System.err.println("Error getting student payables: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error getting student payables", e);
         }
         
         return payables;
@@ -152,6 +152,60 @@ public class PayableDAO {
      * Tries to use stored procedure first, falls back to direct query
      */
     public boolean saveStudentPayable(int studentId, Integer schoolYearId, double firstSem, double secondSem, double summerSem, String semester) {
+        return saveStudentPayable(studentId, schoolYearId, firstSem, secondSem, summerSem, semester, null);
+    }
+    
+    /**
+     * Add or update payable amounts for a student and record which scheduled fee they came from
+     *
+     * @param feeId fee_schedule entry the amount was taken from, or null for an amount entered by hand
+     */
+    public boolean saveStudentPayable(int studentId, Integer schoolYearId, double firstSem, double secondSem, double summerSem,
+                                      String semester, Integer feeId) {
+        boolean saved = writeStudentPayable(studentId, schoolYearId, firstSem, secondSem, summerSem, semester);
+        if (saved) {
+            if (schoolYearId != null && semester != null && !semester.isEmpty()) {
+                linkFee(studentId, schoolYearId, semester, feeId);
+            }
+            utils.FinancialSnapshot.onPaymentChanged(schoolYearId, studentId);
+        }
+        return saved;
+    }
+    
+    /**
+     * Point the student's enrollment for a term at its scheduled fee (or clear the link)
+     */
+    private void linkFee(int studentId, int schoolYearId, String semester, Integer feeId) {
+        String sql = "UPDATE belong b " +
+                    "INNER JOIN semester sem ON b.semester_id = sem.semester_id " +
+                    "SET b.fee_id = ? " +
+                    "WHERE b.student_id = ? AND b.school_year_id = ? " +
+                    "AND COALESCE(b.status, 'active') = 'active' " +
+                    "AND (" + semesterCondition(semester) + ")";
+        
+        try (Connection conn = DatabaseUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setObject(1, feeId, java.sql.Types.INTEGER);
+            pstmt.setInt(2, studentId);
+            pstmt.setInt(3, schoolYearId);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            Log.error("Error linking scheduled fee", e);
+        }
+    }
+    
+    static String semesterCondition(String semester) {
+        if ("1st Sem".equals(semester)) {
+            return "sem.first_sem_amount > 0 AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL)";
+        } else if ("2nd Sem".equals(semester)) {
+            return "sem.second_sem_amount > 0 AND (sem.first_sem_amount = 0 OR sem.first_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL)";
+        } else if ("Summer Sem".equals(semester)) {
+            return "sem.summer_sem_amount > 0 AND (sem.first_sem_amount = 0 OR sem.first_sem_amount IS NULL) AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL)";
+        }
+        return "1 = 0";
+    }
+    
+    private boolean writeStudentPayable(int studentId, Integer schoolYearId, double firstSem, double secondSem, double summerSem, String semester) {
         // Try using stored procedure first
         try {
             double amount = 0;
@@ -170,7 +224,7 @@ public class PayableDAO {
             }
         } catch (Exception e) {
             // Fallback to direct query
-            System.err.println("Warning: Could not use sp_save_student_payable procedure, falling back to direct query: " + e.getMessage());
+            Log.warn("Could not use sp_save_student_payable procedure, falling back to direct query", e);
         }
         
         try (Connection conn = DatabaseUtil.getConnection()) {
@@ -235,8 +289,7 @@ public class PayableDAO {
                 conn.setAutoCommit(true);
             }
         } catch (SQLException e) {
-            System.err.println("Error saving student payable: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error saving student payable", e);
             return false;
         }
     }
@@ -262,12 +315,20 @@ public class PayableDAO {
      * Tries to use stored procedure first, falls back to direct query
      */
     public boolean deleteStudentPayable(int studentId, Integer schoolYearId, String semester) {
+        boolean deleted = removeStudentPayable(studentId, schoolYearId, semester);
+        if (deleted) {
+            utils.FinancialSnapshot.onPaymentChanged(schoolYearId, studentId);
+        }
+        return deleted;
+    }
+    
+    private boolean removeStudentPayable(int studentId, Integer schoolYearId, String semester) {
         // Try using stored procedure first
         try {
             return deleteStudentPayableUsingProcedure(studentId, schoolYearId, semester);
         } catch (Exception e) {
             // Fallback to direct query
-            System.err.println("Warning: Could not use sp_delete_student_payable procedure, falling back to direct query: " + e.getMessage());
+            Log.warn("Could not use sp_delete_student_payable procedure, falling back to direct query", e);
         }
         
         try (Connection conn = DatabaseUtil.getConnection()) {
@@ -318,8 +379,7 @@ public class PayableDAO {
                 conn.setAutoCommit(true);
             }
         } catch (SQLException e) {
-            System.err.println("Error deleting student payable: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error deleting student payable", e);
             return false;
         }
     }
@@ -365,15 +425,429 @@ public class PayableDAO {
                 }
             }
         } catch (SQLException e) {
-            System.err.println("Error checking if student has payable: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error checking if student has payable", e);
         }
         
         return false;
     }
     
+    /**
+     * Receives the progress of assignCohortFee after every committed chunk
+     */
+    public interface CohortProgressListener {
+        void onProgress(int done, int total, double rowsPerSecond);
+    }
+    
+    /**
+     * Outcome of assignCohortFee
+     */
+    public static class CohortAssignResult {
+        public int students;
+        public int created;
+        public int updated;
+        public long elapsedMillis;
+        public boolean completed;
+        /** Why the run stopped, when it did not complete */
+        public String failure;
+        
+        public double getRowsPerSecond() {
+            return elapsedMillis > 0 ? (created + updated) * 1000.0 / elapsedMillis : 0;
+        }
+    }
+    
+    /**
+     * Assign the same fee for a term to every active student of a program/year-level cohort
+     * enrolled in the school year. Students without a payable for the term get a belong, due date
+     * and payable; existing payables get the new amount with their remaining balance recomputed.
+     * 
+     * Amounts are encrypted in parallel and each chunk of COHORT_CHUNK_SIZE students is written with
+     * batched statements in its own transaction on a dedicated connection. If a chunk fails it is
+     * rolled back and the run stops with the reason in CohortAssignResult.failure; assigning again
+     * updates the students already done.
+     *
+     * @param program Program to match, or null/empty for all programs
+     * @param yearLevel Year level to match, or null/empty for all year levels
+     * @param feeId fee_schedule entry the amount comes from, or null; students whose enrollment for the
+     *              term references it are included even if they have left the cohort
+     * @param listener Progress callback, may be null; called on the calling thread
+     */
+    public CohortAssignResult assignCohortFee(int schoolYearId, String semester, String program, String yearLevel,
+                                              double amount, Integer feeId, CohortProgressListener listener) {
+        CohortAssignResult result = new CohortAssignResult();
+        long started = System.nanoTime();
+        
+        try (Connection conn = DatabaseUtil.openBatchConnection()) {
+            conn.setAutoCommit(false);
+            
+            try {
+                int semesterId;
+                if ("1st Sem".equals(semester)) {
+                    semesterId = getOrCreateSemester(conn, amount, 0, 0);
+                } else if ("2nd Sem".equals(semester)) {
+                    semesterId = getOrCreateSemester(conn, 0, amount, 0);
+                } else if ("Summer Sem".equals(semester)) {
+                    semesterId = getOrCreateSemester(conn, 0, 0, amount);
+                } else {
+                    return result;
+                }
+                conn.commit();
+                
+                List<CohortMember> cohort = loadCohort(conn, schoolYearId, semester, program, yearLevel, feeId);
+                result.students = cohort.size();
+                
+                for (int from = 0; from < cohort.size(); from += COHORT_CHUNK_SIZE) {
+                    List<CohortMember> chunk = cohort.subList(from, Math.min(from + COHORT_CHUNK_SIZE, cohort.size()));
+                    writeCohortChunk(conn, chunk, schoolYearId, semesterId, amount, feeId, result);
+                    conn.commit();
+                    
+                    if (listener != null) {
+                        double seconds = (System.nanoTime() - started) / 1_000_000_000.0;
+                        listener.onProgress(from + chunk.size(), cohort.size(), (from + chunk.size()) / seconds);
+                    }
+                }
+                result.completed = true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            Log.error("Error assigning cohort fee", e);
+            result.failure = e.getMessage();
+        } finally {
+            result.elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+            if (result.created + result.updated > 0) {
+                utils.FinancialSnapshot.invalidate(schoolYearId);
+            }
+        }
+        
+        return result;
+    }
+    
     // ========== Private Helper Methods ==========
     
+    /** Students per transaction in assignCohortFee */
+    private static final int COHORT_CHUNK_SIZE = 500;
+    
+    /**
+     * A student of a cohort assignment; payableId is -1 until the student has a payable for the term
+     */
+    private static class CohortMember {
+        final int studentId;
+        int belongId = -1;
+        int payableId = -1;
+        String amountPaid;
+        String status;
+        
+        // Computed before writing
+        String encryptedDownpayment;
+        String encryptedAmountPaid;
+        String encryptedRemaining;
+        int amountPaidTag;
+        int remainingTag;
+        String newStatus;
+        boolean unreadable; // amount_paid could not be decrypted
+        
+        CohortMember(int studentId) {
+            this.studentId = studentId;
+        }
+    }
+    
+    /**
+     * Active students of the cohort or assigned the scheduled fee, with their existing payable for the term if any
+     */
+    private List<CohortMember> loadCohort(Connection conn, int schoolYearId, String semester,
+                                          String program, String yearLevel, Integer feeId) throws SQLException {
+        boolean byProgram = program != null && !program.trim().isEmpty();
+        boolean byYear = yearLevel != null && !yearLevel.trim().isEmpty();
+        String sql = "SELECT s.student_id, p.belong_id, p.payable_id, p.amount_paid, p.status " +
+                    "FROM student s " +
+                    "LEFT JOIN (" +
+                    "  SELECT b.student_id, b.belong_id, sp.payable_id, sp.amount_paid, sp.status " +
+                    "  FROM student_payables sp " +
+                    "  INNER JOIN belong b ON sp.belong_id = b.belong_id " +
+                    "  INNER JOIN semester sem ON b.semester_id = sem.semester_id " +
+                    "  WHERE b.school_year_id = ? AND COALESCE(b.status, 'active') = 'active' " +
+                    "  AND (" + semesterCondition(semester) + ")" +
+                    ") p ON p.student_id = s.student_id " +
+                    "WHERE COALESCE(s.status, 'active') = 'active' " +
+                    "AND (s.school_year_id = ? OR EXISTS (" +
+                    "  SELECT 1 FROM belong eb WHERE eb.student_id = s.student_id AND eb.school_year_id = ? " +
+                    "  AND COALESCE(eb.status, 'active') = 'active')) " +
+                    "AND ((1 = 1 " +
+                    (byProgram ? "AND s.major = ? " : "") +
+                    (byYear ? "AND s.year = ? " : "") +
+                    ")" +
+                    (feeId != null ? " OR EXISTS (SELECT 1 FROM belong fb WHERE fb.student_id = s.student_id " +
+                                     "AND fb.school_year_id = ? AND fb.fee_id = ? AND COALESCE(fb.status, 'active') = 'active')" : "") +
+                    ") " +
+                    "ORDER BY s.student_id";
+        
+        java.util.Map<Integer, CohortMember> members = new java.util.LinkedHashMap<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            int paramIndex = 1;
+            pstmt.setInt(paramIndex++, schoolYearId);
+            pstmt.setInt(paramIndex++, schoolYearId);
+            pstmt.setInt(paramIndex++, schoolYearId);
+            if (byProgram) {
+                pstmt.setString(paramIndex++, program.trim());
+            }
+            if (byYear) {
+                pstmt.setString(paramIndex++, yearLevel.trim());
+            }
+            if (feeId != null) {
+                pstmt.setInt(paramIndex++, schoolYearId);
+                pstmt.setInt(paramIndex++, feeId);
+            }
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                int studentId = rs.getInt("student_id");
+                if (members.containsKey(studentId)) {
+                    continue; // Several payables for the term: update the first one
+                }
+                CohortMember member = new CohortMember(studentId);
+                int payableId = rs.getInt("payable_id");
+                if (!rs.wasNull()) {
+                    member.payableId = payableId;
+                    member.belongId = rs.getInt("belong_id");
+                    member.amountPaid = rs.getString("amount_paid");
+                    member.status = rs.getString("status");
+                }
+                members.put(studentId, member);
+            }
+        }
+        return new ArrayList<>(members.values());
+    }
+    
+    /**
+     * Write one chunk of a cohort assignment inside the caller's transaction
+     */
+    private void writeCohortChunk(Connection conn, List<CohortMember> chunk, int schoolYearId, int semesterId,
+                                  double amount, Integer feeId, CohortAssignResult result) throws SQLException {
+        checkBelongCollisions(conn, chunk, schoolYearId, semesterId);
+        
+        // Enrollment rows for students without a payable; reactivates a deactivated one for the same fee
+        List<CohortMember> missing = new ArrayList<>();
+        for (CohortMember member : chunk) {
+            if (member.payableId == -1) {
+                missing.add(member);
+            }
+        }
+        if (!missing.isEmpty()) {
+            String upsertBelongSql = "INSERT INTO belong (student_id, school_year_id, semester_id, status, fee_id) " +
+                                    "VALUES (?, ?, ?, 'active', ?) " +
+                                    "ON DUPLICATE KEY UPDATE status = 'active', fee_id = VALUES(fee_id)";
+            try (PreparedStatement pstmt = conn.prepareStatement(upsertBelongSql)) {
+                for (CohortMember member : missing) {
+                    pstmt.setInt(1, member.studentId);
+                    pstmt.setInt(2, schoolYearId);
+                    pstmt.setInt(3, semesterId);
+                    pstmt.setObject(4, feeId, java.sql.Types.INTEGER);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+            
+            // Resolve the belong ids; a reactivated belong may still carry its old payable
+            java.util.Map<Integer, CohortMember> byStudent = new java.util.HashMap<>();
+            StringBuilder placeholders = new StringBuilder();
+            for (CohortMember member : missing) {
+                byStudent.put(member.studentId, member);
+                placeholders.append(placeholders.length() == 0 ? "?" : ", ?");
+            }
+            String belongSql = "SELECT b.student_id, b.belong_id, sp.payable_id, sp.amount_paid, sp.status " +
+                              "FROM belong b " +
+                              "LEFT JOIN student_payables sp ON sp.belong_id = b.belong_id " +
+                              "WHERE b.school_year_id = ? AND b.semester_id = ? AND b.student_id IN (" + placeholders + ")";
+            try (PreparedStatement pstmt = conn.prepareStatement(belongSql)) {
+                int paramIndex = 1;
+                pstmt.setInt(paramIndex++, schoolYearId);
+                pstmt.setInt(paramIndex++, semesterId);
+                for (CohortMember member : missing) {
+                    pstmt.setInt(paramIndex++, member.studentId);
+                }
+                ResultSet rs = pstmt.executeQuery();
+                while (rs.next()) {
+                    CohortMember member = byStudent.get(rs.getInt("student_id"));
+                    member.belongId = rs.getInt("belong_id");
+                    int payableId = rs.getInt("payable_id");
+                    if (!rs.wasNull() && member.payableId == -1) {
+                        member.payableId = payableId;
+                        member.amountPaid = rs.getString("amount_paid");
+                        member.status = rs.getString("status");
+                    }
+                }
+            }
+        }
+        
+        // Encryption is per student key and dominates the cost, so spread it over all cores
+        chunk.parallelStream().forEach(member -> {
+            member.encryptedDownpayment = PayableEncryptionUtil.encryptAmount(amount, member.studentId);
+            double paid = 0;
+            if (member.payableId != -1 && member.amountPaid != null && !member.amountPaid.isEmpty()) {
+                try {
+                    paid = PayableEncryptionUtil.decryptAmountForWrite(member.amountPaid, member.studentId);
+                } catch (SQLException e) {
+                    member.unreadable = true;
+                    return;
+                }
+            } else {
+                member.encryptedAmountPaid = PayableEncryptionUtil.encryptAmount(0.0, member.studentId);
+            }
+            member.encryptedRemaining = PayableEncryptionUtil.encryptAmount(Math.max(amount - paid, 0), member.studentId);
+            member.amountPaidTag = PayableEncryptionUtil.rangeTag(paid);
+            member.remainingTag = PayableEncryptionUtil.rangeTag(Math.max(amount - paid, 0));
+            if (paid > 0 && (paid >= amount || Math.abs(paid - amount) < 0.01)) {
+                member.newStatus = "PAID";
+            } else if ("PAID".equals(member.status) || member.status == null) {
+                member.newStatus = paid > 0 ? "PARTIAL" : "UNPAID";
+            } else {
+                member.newStatus = member.status; // Keep PARTIAL/UNPAID/OVERDUE
+            }
+        });
+        
+        // Never rewrite a balance from an amount paid this workstation cannot read (missing payable.previousKey)
+        List<String> unreadable = new ArrayList<>();
+        for (CohortMember member : chunk) {
+            if (member.unreadable) {
+                unreadable.add(String.valueOf(member.studentId));
+            }
+        }
+        if (!unreadable.isEmpty()) {
+            throw new SQLException("Cannot decrypt the amount paid (check payable.previousKey) of student " +
+                                   String.join(", student ", unreadable));
+        }
+        
+        List<CohortMember> inserts = new ArrayList<>();
+        List<CohortMember> updates = new ArrayList<>();
+        for (CohortMember member : chunk) {
+            if (member.payableId == -1) {
+                inserts.add(member);
+            } else {
+                updates.add(member);
+            }
+        }
+        
+        if (!inserts.isEmpty()) {
+            // One due date row per payable, 2 months from today
+            java.sql.Date dueDate = java.sql.Date.valueOf(LocalDate.now().plusMonths(2));
+            int[] duedateIds = new int[inserts.size()];
+            try (PreparedStatement pstmt = conn.prepareStatement("INSERT INTO duedate (due_date) VALUES (?)",
+                                                                 PreparedStatement.RETURN_GENERATED_KEYS)) {
+                for (int i = 0; i < inserts.size(); i++) {
+                    pstmt.setDate(1, dueDate);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+                ResultSet rs = pstmt.getGeneratedKeys();
+                for (int i = 0; i < duedateIds.length && rs.next(); i++) {
+                    duedateIds[i] = rs.getInt(1);
+                }
+            }
+            
+            String insertSql = "INSERT INTO student_payables (belong_id, downpayment_amount, amount_paid, remaining_balance, status, duedate_id, " +
+                              "amount_paid_tag, remaining_balance_tag) " +
+                              "VALUES (?, ?, ?, ?, 'UNPAID', ?, ?, ?)";
+            try (PreparedStatement pstmt = conn.prepareStatement(insertSql)) {
+                for (int i = 0; i < inserts.size(); i++) {
+                    CohortMember member = inserts.get(i);
+                    pstmt.setInt(1, member.belongId);
+                    pstmt.setString(2, member.encryptedDownpayment);
+                    pstmt.setString(3, member.encryptedAmountPaid);
+                    pstmt.setString(4, member.encryptedRemaining);
+                    if (duedateIds[i] > 0) {
+                        pstmt.setInt(5, duedateIds[i]);
+                    } else {
+                        pstmt.setNull(5, java.sql.Types.INTEGER);
+                    }
+                    pstmt.setInt(6, member.amountPaidTag);
+                    pstmt.setInt(7, member.remainingTag);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+            result.created += inserts.size();
+        }
+        
+        if (!updates.isEmpty()) {
+            String updateSql = "UPDATE student_payables SET downpayment_amount = ?, remaining_balance = ?, status = ?, " +
+                              "amount_paid_tag = ?, remaining_balance_tag = ?, version = version + 1 " +
+                              "WHERE payable_id = ?";
+            try (PreparedStatement pstmt = conn.prepareStatement(updateSql)) {
+                for (CohortMember member : updates) {
+                    pstmt.setString(1, member.encryptedDownpayment);
+                    pstmt.setString(2, member.encryptedRemaining);
+                    pstmt.setString(3, member.newStatus);
+                    pstmt.setInt(4, member.amountPaidTag);
+                    pstmt.setInt(5, member.remainingTag);
+                    pstmt.setInt(6, member.payableId);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+            
+            // Move the enrollment to the semester row carrying the new amount (totals are read from it).
+            // checkBelongCollisions made sure no other enrollment of the student is on that row.
+            String belongSql = "UPDATE belong SET semester_id = ?, fee_id = ? WHERE belong_id = ?";
+            try (PreparedStatement pstmt = conn.prepareStatement(belongSql)) {
+                for (CohortMember member : updates) {
+                    pstmt.setInt(1, semesterId);
+                    pstmt.setObject(2, feeId, java.sql.Types.INTEGER);
+                    pstmt.setInt(3, member.belongId);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+            result.updated += updates.size();
+        }
+    }
+    
+    /**
+     * Fail the chunk if a student with a payable for the term already has another enrollment on the
+     * semester row the fee moves them to: unique_belong would refuse the move, and the payable would
+     * then carry the new amount while the enrollment still points at the old one
+     */
+    private void checkBelongCollisions(Connection conn, List<CohortMember> chunk, int schoolYearId,
+                                       int semesterId) throws SQLException {
+        java.util.Map<Integer, Integer> belongByStudent = new java.util.HashMap<>();
+        StringBuilder placeholders = new StringBuilder();
+        for (CohortMember member : chunk) {
+            if (member.payableId != -1) {
+                belongByStudent.put(member.studentId, member.belongId);
+                placeholders.append(placeholders.length() == 0 ? "?" : ", ?");
+            }
+        }
+        if (belongByStudent.isEmpty()) {
+            return;
+        }
+        
+        String sql = "SELECT b.student_id, b.belong_id FROM belong b " +
+                    "WHERE b.school_year_id = ? AND b.semester_id = ? AND b.student_id IN (" + placeholders + ")";
+        List<String> collisions = new ArrayList<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            int paramIndex = 1;
+            pstmt.setInt(paramIndex++, schoolYearId);
+            pstmt.setInt(paramIndex++, semesterId);
+            for (CohortMember member : chunk) {
+                if (member.payableId != -1) {
+                    pstmt.setInt(paramIndex++, member.studentId);
+                }
+            }
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                int studentId = rs.getInt("student_id");
+                if (rs.getInt("belong_id") != belongByStudent.get(studentId)) {
+                    collisions.add(studentId + " (enrollment " + rs.getInt("belong_id") + ")");
+                }
+            }
+        }
+        if (!collisions.isEmpty()) {
+            throw new SQLException("Another enrollment of these students is already on the new fee's semester row; " +
+                                   "resolve the duplicates first: student " + String.join(", student ", collisions));
+        }
+    }
+    
     /**
      * Get all student payables using stored procedure
      */
@@ -684,12 +1158,14 @@ public class PayableDAO {
             String encryptedRemaining = PayableEncryptionUtil.encryptAmount(amount, studentId);
             
             // Update payable with encrypted amounts and due date
-            String updateSql = "UPDATE student_payables SET downpayment_amount = ?, remaining_balance = ?, duedate_id = ? WHERE payable_id = ?";
+            String updateSql = "UPDATE student_payables SET downpayment_amount = ?, remaining_balance = ?, duedate_id = ?, " +
+                              "remaining_balance_tag = ?, version = version + 1 WHERE payable_id = ?";
             try (PreparedStatement updateStmt = conn.prepareStatement(updateSql)) {
                 updateStmt.setString(1, encryptedDownpayment);
                 updateStmt.setString(2, encryptedRemaining);
                 updateStmt.setInt(3, duedateId);
-                updateStmt.setInt(4, payableId);
+                updateStmt.setInt(4, PayableEncryptionUtil.rangeTag(amount));
+                updateStmt.setInt(5, payableId);
                 updateStmt.executeUpdate();
             }
         } else {
@@ -714,13 +1190,16 @@ public class PayableDAO {
             String encryptedRemaining = PayableEncryptionUtil.encryptAmount(amount, studentId);
             
             // Insert new payable with encrypted amounts and due date
-            String insertSql = "INSERT INTO student_payables (belong_id, downpayment_amount, amount_paid, remaining_balance, status, duedate_id) VALUES (?, ?, ?, ?, 'UNPAID', ?)";
+            String insertSql = "INSERT INTO student_payables (belong_id, downpayment_amount, amount_paid, remaining_balance, status, duedate_id, " +
+                              "amount_paid_tag, remaining_balance_tag) VALUES (?, ?, ?, ?, 'UNPAID', ?, ?, ?)";
             try (PreparedStatement insertStmt = conn.prepareStatement(insertSql)) {
                 insertStmt.setInt(1, belongId);
                 insertStmt.setString(2, encryptedDownpayment);
                 insertStmt.setString(3, encryptedAmountPaid);
                 insertStmt.setString(4, encryptedRemaining);
                 insertStmt.setInt(5, duedateId);
+                insertStmt.setInt(6, PayableEncryptionUtil.rangeTag(0.0));
+                insertStmt.setInt(7, PayableEncryptionUtil.rangeTag(amount));
                 insertStmt.executeUpdate();
             }
         }
@@ -5,14 +5,27 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import models.PaymentView;
+import utils.ContentionMetrics;
 import utils.DatabaseUtil;
+import utils.Log;
 import utils.PayableEncryptionUtil;
+import utils.SessionManager;
 
 public class PaymentDAO {
     
+    // Attempts per posting before giving up on version conflicts, deadlocks and lock wait timeouts
+    private static final int MAX_POSTING_ATTEMPTS = 5;
+    /** Student ids per IN list when re-reading changed rows */
+    private static final int ID_CHUNK = 1000;
+    
+    private final PaymentLedgerDAO ledgerDAO = new PaymentLedgerDAO();
+    private final CollectionRollupDAO rollupDAO = new CollectionRollupDAO();
+    private final TopPayersDAO topPayersDAO = new TopPayersDAO();
+    
     /**
      * Get all payment views with student and payable information
      */
@@ -21,19 +34,55 @@ public class PaymentDAO {
     }
     
     /**
-     * Get all payment views with student and payable information, filtered by semester
-     * Tries to use stored procedure first, falls back to direct query
+     * Get all payment views with student and payable information, filtered by semester.
+     * Rows carry the payables version they were read at (see savePayment).
      */
     public List<PaymentView> getAllPaymentViews(Integer schoolYearId, String semester) {
-        // Try using stored procedure first
-        try {
-            return getAllPaymentViewsUsingProcedure(schoolYearId, semester, null, null, null);
-        } catch (Exception e) {
-            // Fallback to direct query
-            System.err.println("Warning: Could not use sp_get_payments procedure, falling back to direct query: " + e.getMessage());
-        }
+        return queryPaymentViews(paymentViewsSql(schoolYearId, semester), schoolYearId, null, "Error getting payment views");
+    }
+    
+    /**
+     * Rows of getAllPaymentViews(schoolYearId, semester) for the given students only,
+     * used to bring a cached copy of the list up to date (see utils.SnapshotStore)
+     */
+    public List<PaymentView> getAllPaymentViews(Integer schoolYearId, String semester,
+                                                java.util.Collection<Integer> studentIds) {
         List<PaymentView> payments = new ArrayList<>();
-        
+        List<Integer> ids = new ArrayList<>(studentIds);
+        for (int from = 0; from < ids.size(); from += ID_CHUNK) {
+            List<Integer> chunk = ids.subList(from, Math.min(ids.size(), from + ID_CHUNK));
+            String sql = "SELECT * FROM (" + paymentViewsSql(schoolYearId, semester) + ") listed " +
+                         "WHERE listed.student_id IN (" + String.join(",", java.util.Collections.nCopies(chunk.size(), "?")) + ")";
+            payments.addAll(queryPaymentViews(sql, schoolYearId, chunk, "Error getting changed payment views"));
+        }
+        return payments;
+    }
+    
+    /**
+     * Number of rows getAllPaymentViews(schoolYearId, semester) returns, counted on the server
+     * @return The count, or -1 on error
+     */
+    public int countAllPaymentViews(Integer schoolYearId, String semester) {
+        String sql = "SELECT COUNT(*) FROM (" + paymentViewsSql(schoolYearId, semester) + ") listed";
+        try (Connection conn = DatabaseUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            if (schoolYearId != null) {
+                pstmt.setInt(1, schoolYearId);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        } catch (SQLException e) {
+            Log.error("Error counting payment views", e);
+            return -1;
+        }
+    }
+    
+    /**
+     * Direct query behind getAllPaymentViews; takes the school year id as its only parameter (when not null).
+     * Also EXPLAINed by utils.QueryPlanCheck.
+     */
+    public String paymentViewsSql(Integer schoolYearId, String semester) {
         String sql = "SELECT " +
                     "s.student_id, " +
                     "s.student_number, " +
@@ -44,7 +93,7 @@ public class PaymentDAO {
                     "GROUP_CONCAT(sp.downpayment_amount SEPARATOR '||') as downpayment_amounts, " +
                     "GROUP_CONCAT(sp.amount_paid SEPARATOR '||') as amount_paid_values, " +
                     "MAX(d.due_date) as due_date, " +
-                    "MAX(sp.status) as status " +
+                    "COALESCE(SUM(sp.version + 1), 0) as payables_version " +
                     "FROM student s " +
                     "INNER JOIN belong b ON s.student_id = b.student_id " +
                     "LEFT JOIN semester sem ON b.semester_id = sem.semester_id " +
@@ -56,19 +105,55 @@ public class PaymentDAO {
             sql += "AND b.school_year_id = ? ";
         }
         
-        // Filter by semester if provided
-        if (semester != null && !semester.isEmpty() && !"All Semesters".equals(semester)) {
-            if ("1st Sem".equals(semester)) {
-                sql += "AND sem.first_sem_amount > 0 AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL) ";
-            } else if ("2nd Sem".equals(semester)) {
-                sql += "AND sem.second_sem_amount > 0 AND (sem.first_sem_amount = 0 OR sem.first_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL) ";
-            } else if ("Summer Sem".equals(semester)) {
-                sql += "AND sem.summer_sem_amount > 0 AND (sem.first_sem_amount = 0 OR sem.first_sem_amount IS NULL) AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL) ";
-            }
-        }
+        sql += semesterFilterSql(semester);
         
         sql += "GROUP BY s.student_id, s.student_number, s.fullname " +
                "ORDER BY s.student_id DESC";
+        return sql;
+    }
+    
+    /**
+     * Conditions on the semester alias "sem" that keep the given semester's rows; empty for all semesters
+     */
+    private static String semesterFilterSql(String semester) {
+        if ("1st Sem".equals(semester)) {
+            return "AND sem.first_sem_amount > 0 AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL) ";
+        } else if ("2nd Sem".equals(semester)) {
+            return "AND sem.second_sem_amount > 0 AND (sem.first_sem_amount = 0 OR sem.first_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL) ";
+        } else if ("Summer Sem".equals(semester)) {
+            return "AND sem.summer_sem_amount > 0 AND (sem.first_sem_amount = 0 OR sem.first_sem_amount IS NULL) AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL) ";
+        }
+        return "";
+    }
+    
+    /**
+     * Version token of a student's payables as listed for the semester: the sum of their versions plus
+     * one per payable, so an update, a new payable or a removed one all change it.
+     * Counts the same rows as the payables_version column of paymentViewsSql (and of getPaymentView
+     * for a null semester).
+     */
+    private long payablesVersion(Connection conn, int studentId, Integer schoolYearId, String semester) throws SQLException {
+        String sql = "SELECT COALESCE(SUM(sp.version + 1), 0) as payables_version " +
+                     "FROM belong b " +
+                     "LEFT JOIN semester sem ON b.semester_id = sem.semester_id " +
+                     "INNER JOIN student_payables sp ON b.belong_id = sp.belong_id " +
+                     "WHERE b.student_id = ? " +
+                     (schoolYearId != null ? "AND b.school_year_id = ? " : "") +
+                     semesterFilterSql(semester);
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            int paramIndex = 1;
+            pstmt.setInt(paramIndex++, studentId);
+            if (schoolYearId != null) {
+                pstmt.setInt(paramIndex++, schoolYearId);
+            }
+            ResultSet rs = pstmt.executeQuery();
+            return rs.next() ? rs.getLong("payables_version") : 0;
+        }
+    }
+    
+    private List<PaymentView> queryPaymentViews(String sql, Integer schoolYearId, List<Integer> studentIds,
+                                                String errorMessage) {
+        List<PaymentView> payments = new ArrayList<>();
         
         try (Connection conn = DatabaseUtil.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
@@ -77,82 +162,279 @@ public class PaymentDAO {
             if (schoolYearId != null) {
                 pstmt.setInt(paramIndex++, schoolYearId);
             }
+            if (studentIds != null) {
+                for (Integer studentId : studentIds) {
+                    pstmt.setInt(paramIndex++, studentId);
+                }
+            }
             
             ResultSet rs = pstmt.executeQuery();
             
             while (rs.next()) {
-                PaymentView view = new PaymentView();
-                view.setStudentId(rs.getInt("student_id"));
-                view.setStudentNumber(rs.getString("student_number"));
-                view.setStudentName(rs.getString("fullname"));
-                view.setFirstSemAmount(rs.getDouble("first_sem"));
-                view.setSecondSemAmount(rs.getDouble("second_sem"));
-                view.setSummerSemAmount(rs.getDouble("summer_sem"));
-                
-                double total = view.getFirstSemAmount() + view.getSecondSemAmount() + view.getSummerSemAmount();
-                view.setTotalAmount(total);
-                
-                // Decrypt and sum downpayment amounts
-                double totalDownPayment = 0;
-                try {
-                    String downpaymentAmountsStr = rs.getString("downpayment_amounts");
-                    if (downpaymentAmountsStr != null && !downpaymentAmountsStr.isEmpty()) {
-                        String[] amounts = downpaymentAmountsStr.split("\\|\\|");
-                        int studentId = rs.getInt("student_id");
-                        for (String amount : amounts) {
-                            if (amount != null && !amount.trim().isEmpty()) {
-                                totalDownPayment += PayableEncryptionUtil.decryptAmount(amount, studentId);
-                            }
-                        }
+                payments.add(readPaymentView(rs));
+            }
+        } catch (SQLException e) {
+            Log.error(errorMessage, e);
+        }
+        
+        return payments;
+    }
+    
+    private PaymentView readPaymentView(ResultSet rs) throws SQLException {
+        PaymentView view = new PaymentView();
+        view.setStudentId(rs.getInt("student_id"));
+        view.setVersion(rs.getLong("payables_version"));
+        view.setStudentNumber(rs.getString("student_number"));
+        view.setStudentName(rs.getString("fullname"));
+        view.setFirstSemAmount(rs.getDouble("first_sem"));
+        view.setSecondSemAmount(rs.getDouble("second_sem"));
+        view.setSummerSemAmount(rs.getDouble("summer_sem"));
+        
+        double total = view.getFirstSemAmount() + view.getSecondSemAmount() + view.getSummerSemAmount();
+        view.setTotalAmount(total);
+        
+        // Decrypt and sum downpayment amounts
+        double totalDownPayment = 0;
+        try {
+            String downpaymentAmountsStr = rs.getString("downpayment_amounts");
+            if (downpaymentAmountsStr != null && !downpaymentAmountsStr.isEmpty()) {
+                String[] amounts = downpaymentAmountsStr.split("\\|\\|");
+                int studentId = rs.getInt("student_id");
+                for (String amount : amounts) {
+                    if (amount != null && !amount.trim().isEmpty()) {
+                        totalDownPayment += PayableEncryptionUtil.decryptAmount(amount, studentId);
                     }
-                } catch (Exception e) {
-                    System.err.println("Error decrypting downpayment amounts: " + e.getMessage());
                 }
-                view.setDownPayment(totalDownPayment > 0 ? totalDownPayment : 0);
-                
-                // Decrypt and sum amount_paid values
-                double totalAmountPaid = 0;
-                try {
-                    String amountPaidValuesStr = rs.getString("amount_paid_values");
-                    if (amountPaidValuesStr != null && !amountPaidValuesStr.isEmpty()) {
-                        String[] amounts = amountPaidValuesStr.split("\\|\\|");
-                        int studentId = rs.getInt("student_id");
-                        for (String amount : amounts) {
-                            if (amount != null && !amount.trim().isEmpty()) {
-                                totalAmountPaid += PayableEncryptionUtil.decryptAmount(amount, studentId);
-                            }
-                        }
+            }
+        } catch (Exception e) {
+            Log.warn("Error decrypting downpayment amounts", e);
+        }
+        view.setDownPayment(totalDownPayment > 0 ? totalDownPayment : 0);
+        
+        // Decrypt and sum amount_paid values
+        double totalAmountPaid = 0;
+        try {
+            String amountPaidValuesStr = rs.getString("amount_paid_values");
+            if (amountPaidValuesStr != null && !amountPaidValuesStr.isEmpty()) {
+                String[] amounts = amountPaidValuesStr.split("\\|\\|");
+                int studentId = rs.getInt("student_id");
+                for (String amount : amounts) {
+                    if (amount != null && !amount.trim().isEmpty()) {
+                        totalAmountPaid += PayableEncryptionUtil.decryptAmount(amount, studentId);
                     }
-                } catch (Exception e) {
-                    System.err.println("Error decrypting amount_paid values: " + e.getMessage());
-                }
-                view.setAmountPaid(totalAmountPaid);
-                
-                java.sql.Date dueDateSql = rs.getDate("due_date");
-                if (dueDateSql != null) {
-                    view.setDueDate(dueDateSql.toLocalDate());
                 }
-                
-                // Always recalculate status based on current amount paid vs total of all semesters
-                // Status should be dynamically calculated, not stored
-                if (Math.abs(view.getAmountPaid() - view.getTotalAmount()) < 0.01 || view.getAmountPaid() >= view.getTotalAmount()) {
-                    view.setStatus("Paid");
-                    // Clear due date when fully paid
-                    view.setDueDate(null);
-                } else if (view.getAmountPaid() > 0) {
-                    view.setStatus("Partial");
-                } else {
-                    view.setStatus("UNPAID");
+            }
+        } catch (Exception e) {
+            Log.warn("Error decrypting amount_paid values", e);
+        }
+        view.setAmountPaid(totalAmountPaid);
+        
+        java.sql.Date dueDateSql = rs.getDate("due_date");
+        if (dueDateSql != null) {
+            view.setDueDate(dueDateSql.toLocalDate());
+        }
+        
+        // Always recalculate status based on current amount paid vs total of all semesters
+        // Status should be dynamically calculated, not stored
+        if (Math.abs(view.getAmountPaid() - view.getTotalAmount()) < 0.01 || view.getAmountPaid() >= view.getTotalAmount()) {
+            view.setStatus("Paid");
+            // Clear due date when fully paid
+            view.setDueDate(null);
+        } else if (view.getAmountPaid() > 0) {
+            view.setStatus("Partial");
+        } else {
+            view.setStatus("UNPAID");
+        }
+        
+        return view;
+    }
+    
+    /**
+     * Get payment rows per student and semester (one row per belong semester) for the financial snapshot.
+     * Amounts are decrypted here; status is computed per semester row. Deactivated students and
+     * enrollments are included, with active unset.
+     * @param studentIds Limit to these students (one query for all of them), or null for all students in the school year
+     * @return The rows, or null on error
+     */
+    public List<PaymentView> getSemesterPaymentRows(Integer schoolYearId, java.util.Collection<Integer> studentIds) {
+        List<PaymentView> rows = new ArrayList<>();
+        if (studentIds != null && studentIds.isEmpty()) {
+            return rows;
+        }
+        
+        try (Connection conn = DatabaseUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(semesterPaymentRowsSql(schoolYearId,
+                     studentIds != null ? studentIds.size() : 0))) {
+            
+            int paramIndex = 1;
+            if (schoolYearId != null) {
+                pstmt.setInt(paramIndex++, schoolYearId);
+            }
+            if (studentIds != null) {
+                for (Integer studentId : studentIds) {
+                    pstmt.setInt(paramIndex++, studentId);
                 }
-                
-                payments.add(view);
+            }
+            
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                PaymentView view = readSemesterPaymentRow(rs);
+                finishSemesterPaymentRow(view, rs.getString("downpayment_amounts"), rs.getString("amount_paid_values"));
+                rows.add(view);
             }
         } catch (SQLException e) {
-            System.err.println("Error getting payment views: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error getting semester payment rows", e);
+            return null;
         }
         
-        return payments;
+        return rows;
+    }
+    
+    /**
+     * Same rows as getSemesterPaymentRows for a whole school year, without holding them all in memory.
+     * Reads through a streaming cursor on its own connection; each chunk of rows is decrypted on a
+     * pool of workers while the next one is read, and handed to the sink in query order.
+     * Meant for headless jobs (accountingsystem.BatchRunner) over large school years.
+     *
+     * @param workers Decryption threads
+     * @param sink Receives decrypted chunks in order, on the calling thread
+     * @return Number of rows streamed, or -1 on failure
+     */
+    public long streamSemesterPaymentRows(Integer schoolYearId, int workers,
+                                          java.util.function.Consumer<List<PaymentView>> sink) {
+        final int chunkSize = 2000;
+        java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(Math.max(1, workers));
+        // Bounded so a slow sink holds the reader back instead of buffering the whole result
+        java.util.ArrayDeque<java.util.concurrent.Future<List<PaymentView>>> pending = new java.util.ArrayDeque<>();
+        long count = 0;
+        
+        try (Connection conn = DatabaseUtil.openConnection();
+             PreparedStatement pstmt = conn.prepareStatement(semesterPaymentRowsSql(schoolYearId, 0),
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            // Connector/J streams row by row with this fetch size instead of buffering the result set
+            pstmt.setFetchSize(Integer.MIN_VALUE);
+            if (schoolYearId != null) {
+                pstmt.setInt(1, schoolYearId);
+            }
+            
+            try (ResultSet rs = pstmt.executeQuery()) {
+                List<PaymentView> views = new ArrayList<>(chunkSize);
+                List<String[]> encrypted = new ArrayList<>(chunkSize);
+                while (rs.next()) {
+                    views.add(readSemesterPaymentRow(rs));
+                    encrypted.add(new String[] {rs.getString("downpayment_amounts"), rs.getString("amount_paid_values")});
+                    count++;
+                    if (views.size() == chunkSize) {
+                        pending.add(pool.submit(decryptChunk(views, encrypted)));
+                        views = new ArrayList<>(chunkSize);
+                        encrypted = new ArrayList<>(chunkSize);
+                        while (pending.size() > workers * 2) {
+                            sink.accept(pending.poll().get());
+                        }
+                    }
+                }
+                if (!views.isEmpty()) {
+                    pending.add(pool.submit(decryptChunk(views, encrypted)));
+                }
+            }
+            while (!pending.isEmpty()) {
+                sink.accept(pending.poll().get());
+            }
+            return count;
+        } catch (SQLException | java.util.concurrent.ExecutionException e) {
+            Log.error("Error streaming semester payment rows", e);
+            return -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    private java.util.concurrent.Callable<List<PaymentView>> decryptChunk(List<PaymentView> views, List<String[]> encrypted) {
+        return () -> {
+            for (int i = 0; i < views.size(); i++) {
+                finishSemesterPaymentRow(views.get(i), encrypted.get(i)[0], encrypted.get(i)[1]);
+            }
+            return views;
+        };
+    }
+    
+    /**
+     * @param studentCount Number of student id parameters after the school year, 0 for all students
+     */
+    private static String semesterPaymentRowsSql(Integer schoolYearId, int studentCount) {
+        String sql = "SELECT " +
+                    "s.student_id, " +
+                    "s.student_number, " +
+                    "s.fullname, " +
+                    "s.major, " +
+                    "s.year, " +
+                    "COALESCE(MAX(sem.first_sem_amount), 0) as first_sem, " +
+                    "COALESCE(MAX(sem.second_sem_amount), 0) as second_sem, " +
+                    "COALESCE(MAX(sem.summer_sem_amount), 0) as summer_sem, " +
+                    "GROUP_CONCAT(sp.downpayment_amount SEPARATOR '||') as downpayment_amounts, " +
+                    "GROUP_CONCAT(sp.amount_paid SEPARATOR '||') as amount_paid_values, " +
+                    "MAX(d.due_date) as due_date, " +
+                    "MAX(COALESCE(s.status, 'active') = 'active' AND COALESCE(b.status, 'active') = 'active') as active " +
+                    "FROM student s " +
+                    "INNER JOIN belong b ON s.student_id = b.student_id " +
+                    "INNER JOIN semester sem ON b.semester_id = sem.semester_id " +
+                    "INNER JOIN student_payables sp ON b.belong_id = sp.belong_id " +
+                    "LEFT JOIN duedate d ON sp.duedate_id = d.duedate_id " +
+                    "WHERE 1=1 ";
+        
+        if (schoolYearId != null) {
+            sql += "AND b.school_year_id = ? ";
+        }
+        if (studentCount > 0) {
+            sql += "AND s.student_id IN (" + String.join(",", java.util.Collections.nCopies(studentCount, "?")) + ") ";
+        }
+        
+        sql += "GROUP BY s.student_id, s.student_number, s.fullname, s.major, s.year, b.semester_id " +
+               "ORDER BY s.student_id DESC";
+        return sql;
+    }
+    
+    /**
+     * Plain columns of a semester payment row; amounts are still encrypted in the result set
+     */
+    private static PaymentView readSemesterPaymentRow(ResultSet rs) throws SQLException {
+        PaymentView view = new PaymentView();
+        view.setStudentId(rs.getInt("student_id"));
+        view.setStudentNumber(rs.getString("student_number"));
+        view.setStudentName(rs.getString("fullname"));
+        view.setProgram(rs.getString("major"));
+        view.setYearLevel(rs.getString("year"));
+        view.setFirstSemAmount(rs.getDouble("first_sem"));
+        view.setSecondSemAmount(rs.getDouble("second_sem"));
+        view.setSummerSemAmount(rs.getDouble("summer_sem"));
+        view.setTotalAmount(view.getFirstSemAmount() + view.getSecondSemAmount() + view.getSummerSemAmount());
+        view.setActive(rs.getBoolean("active"));
+        
+        java.sql.Date dueDateSql = rs.getDate("due_date");
+        if (dueDateSql != null) {
+            view.setDueDate(dueDateSql.toLocalDate());
+        }
+        return view;
+    }
+    
+    /**
+     * Decrypt the amounts of a semester payment row and set its status
+     */
+    private void finishSemesterPaymentRow(PaymentView view, String downpaymentAmounts, String amountPaidValues) {
+        view.setDownPayment(sumEncryptedAmounts(downpaymentAmounts, view.getStudentId()));
+        view.setAmountPaid(sumEncryptedAmounts(amountPaidValues, view.getStudentId()));
+        
+        if (Math.abs(view.getAmountPaid() - view.getTotalAmount()) < 0.01 || view.getAmountPaid() >= view.getTotalAmount()) {
+            view.setStatus("Paid");
+            view.setDueDate(null);
+        } else if (view.getAmountPaid() > 0) {
+            view.setStatus("Partial");
+        } else {
+            view.setStatus("UNPAID");
+        }
     }
     
     /**
@@ -169,7 +451,7 @@ public class PaymentDAO {
                     "GROUP_CONCAT(sp.downpayment_amount SEPARATOR '||') as downpayment_amounts, " +
                     "GROUP_CONCAT(sp.amount_paid SEPARATOR '||') as amount_paid_values, " +
                     "MAX(d.due_date) as due_date, " +
-                    "MAX(sp.status) as status " +
+                    "COALESCE(SUM(sp.version + 1), 0) as payables_version " +
                     "FROM student s " +
                     "LEFT JOIN belong b ON s.student_id = b.student_id " +
                     (schoolYearId != null ? "AND b.school_year_id = ? " : "") +
@@ -193,6 +475,7 @@ public class PaymentDAO {
             if (rs.next()) {
                 PaymentView view = new PaymentView();
                 view.setStudentId(rs.getInt("student_id"));
+                view.setVersion(rs.getLong("payables_version"));
                 view.setStudentNumber(rs.getString("student_number"));
                 view.setStudentName(rs.getString("fullname"));
                 view.setFirstSemAmount(rs.getDouble("first_sem"));
@@ -215,7 +498,7 @@ public class PaymentDAO {
                         }
                     }
                 } catch (Exception e) {
-                    System.err.println("Error decrypting downpayment amounts: " + e.getMessage());
+                    Log.warn("Error decrypting downpayment amounts", e);
                 }
                 view.setDownPayment(totalDownPayment > 0 ? totalDownPayment : 0);
                 
@@ -232,7 +515,7 @@ public class PaymentDAO {
                         }
                     }
                 } catch (Exception e) {
-                    System.err.println("Error decrypting amount_paid values: " + e.getMessage());
+                    Log.warn("Error decrypting amount_paid values", e);
                 }
                 view.setAmountPaid(totalAmountPaid);
                 
@@ -256,8 +539,7 @@ public class PaymentDAO {
                 return view;
             }
         } catch (SQLException e) {
-            System.err.println("Error getting payment view: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error getting payment view", e);
         }
         
         return null;
@@ -267,28 +549,232 @@ public class PaymentDAO {
      * Add or update payment for a student
      * This updates the downpayment_amount and amount_paid in student_payables and creates/updates due date
      * amountPaid is the total accumulated amount (not the increment)
-     * Tries to use stored procedure first, falls back to direct query
+     * Writes are version-checked and retried on conflicts (see writePaymentAttempt)
      */
     public boolean savePayment(int studentId, Integer schoolYearId, double downPayment, double amountPaid, LocalDate dueDate, String status) {
-        // Try using stored procedure first
-        try {
-            return savePaymentUsingProcedure(studentId, schoolYearId, downPayment, amountPaid, dueDate, status);
-        } catch (Exception e) {
-            // Fallback to direct query
-            System.err.println("Warning: Could not use sp_save_payment procedure, falling back to direct query: " + e.getMessage());
+        return savePayment(studentId, schoolYearId, downPayment, amountPaid, dueDate, status, null);
+    }
+    
+    /**
+     * savePayment under an idempotency key
+     *
+     * @param idempotencyKey Key the posting is queued under if this write fails (see OfflinePostingQueue.newKey),
+     *                       claimed in the write's transaction; null for none
+     */
+    public boolean savePayment(int studentId, Integer schoolYearId, double downPayment, double amountPaid, LocalDate dueDate,
+                               String status, String idempotencyKey) {
+        boolean saved = writePayment(studentId, schoolYearId, downPayment, amountPaid, false, dueDate, status, idempotencyKey);
+        if (saved) {
+            afterPaymentChange(studentId, schoolYearId);
+        }
+        return saved;
+    }
+    
+    /**
+     * Post a payment of the given amount on top of what the student has already paid.
+     * The new total is computed from the amount_paid read inside the posting transaction, so two
+     * cashiers posting for the same student at once both count; the total is capped at the payables
+     * and the status is derived from it.
+     *
+     * @param dueDate Due date to set while the student still has a balance
+     */
+    public boolean postPayment(int studentId, Integer schoolYearId, double amount, LocalDate dueDate) {
+        return postPayment(studentId, schoolYearId, amount, dueDate, null);
+    }
+    
+    /**
+     * postPayment under an idempotency key
+     *
+     * @param idempotencyKey Key the posting is queued under if this write fails (see OfflinePostingQueue.newKey),
+     *                       claimed in the write's transaction; null for none
+     */
+    public boolean postPayment(int studentId, Integer schoolYearId, double amount, LocalDate dueDate, String idempotencyKey) {
+        boolean saved = writePayment(studentId, schoolYearId, 0.0, amount, true, dueDate, null, idempotencyKey);
+        if (saved) {
+            afterPaymentChange(studentId, schoolYearId);
+        }
+        return saved;
+    }
+    
+    /**
+     * savePayment checked against the payables the cashier saw.
+     * The student's payables version (see PaymentView.getVersion) is read again under the student's lock,
+     * and the save is not applied if it differs from expectedVersion: the amount entered was computed from
+     * a row that another window has changed since, so the cashier has to reload it instead of overwriting.
+     * Not retried on such a conflict.
+     *
+     * @param expectedVersion Version of the row the amount was entered against; -1 skips the check
+     * @param semester Semester the row was listed under (getAllPaymentViews), null for getPaymentView
+     * @return APPLIED (or DUPLICATE for an already claimed key), CONFLICT with the reason, or FAILED
+     */
+    public PostingResult savePayment(int studentId, Integer schoolYearId, double amountPaid, LocalDate dueDate,
+                                     String status, String idempotencyKey, long expectedVersion, String semester) {
+        PostingCheck check = new PostingCheck(false, Double.NaN, expectedVersion, semester, null, null);
+        withPostingRetry("saving payment",
+                         () -> writePaymentAttempt(studentId, schoolYearId, 0.0, amountPaid, false, dueDate, status,
+                                                   idempotencyKey, check));
+        if (check.result == null) {
+            return new PostingResult(PostingResult.Status.FAILED, null);
+        }
+        if (check.result.status == PostingResult.Status.CONFLICT) {
+            Log.warn("Payment of student " + studentId + " not saved: " + check.result.detail);
+        } else if (check.result.status == PostingResult.Status.APPLIED) {
+            afterPaymentChange(studentId, schoolYearId);
+        }
+        return check.result;
+    }
+    
+    /**
+     * Outcome of a checked posting: a replay of one recorded by utils.OfflinePostingQueue, or a
+     * version-checked savePayment
+     */
+    public static class PostingResult {
+        public enum Status { APPLIED, DUPLICATE, CONFLICT, FAILED }
+        
+        public final Status status;
+        /** Why a CONFLICT was not applied */
+        public final String detail;
+        
+        PostingResult(Status status, String detail) {
+            this.status = status;
+            this.detail = detail;
+        }
+    }
+    
+    /** Checks threaded through one posting's attempts */
+    private static class PostingCheck {
+        /** Replaying a queued posting (see replayPayment) */
+        final boolean replayed;
+        /** Amount paid the cashier saw for a non-incremental replayed save */
+        final double expectedAmountPaid;
+        /** Payables version the cashier saw and the semester it was listed under; -1 for none */
+        final long expectedVersion;
+        final String semester;
+        /** Who took the posting and when, for its ledger entry; null for the current user, now */
+        final String cashier;
+        final LocalDateTime queuedAt;
+        PostingResult result = null;
+        
+        PostingCheck(boolean replayed, double expectedAmountPaid, long expectedVersion, String semester,
+                     String cashier, LocalDateTime queuedAt) {
+            this.replayed = replayed;
+            this.expectedAmountPaid = expectedAmountPaid;
+            this.expectedVersion = expectedVersion;
+            this.semester = semester;
+            this.cashier = cashier;
+            this.queuedAt = queuedAt;
+        }
+    }
+    
+    /**
+     * Apply a posting that was queued while the database was unreachable.
+     * The idempotency key is recorded in posting_receipt in the posting's own transaction, so a posting
+     * replayed again after a lost commit acknowledgement (of the replay, or of the online attempt that
+     * was made under the same key before it was queued) is reported as DUPLICATE instead of applied twice.
+     * The ledger entry carries the cashier who took the posting and the time it was queued.
+     * A save whose student's amount paid changed since the cashier saw it, or an increment larger than the
+     * remaining balance, is not applied and comes back as CONFLICT.
+     *
+     * @param increment true for postPayment (amount is added), false for savePayment (amount is the new total)
+     * @param expectedAmountPaid amount paid shown to the cashier; checked for saves only
+     */
+    public PostingResult replayPayment(String idempotencyKey, int studentId, Integer schoolYearId, double amount,
+                                       boolean increment, LocalDate dueDate, String status, double expectedAmountPaid,
+                                       String cashier, LocalDateTime queuedAt) {
+        PostingCheck replay = new PostingCheck(true, expectedAmountPaid, -1, null, cashier, queuedAt);
+        withPostingRetry("replaying queued payment",
+                         () -> writePaymentAttempt(studentId, schoolYearId, 0.0, amount, increment, dueDate, status,
+                                                   idempotencyKey, replay));
+        if (replay.result == null) {
+            return new PostingResult(PostingResult.Status.FAILED, null);
+        }
+        if (replay.result.status == PostingResult.Status.APPLIED) {
+            afterPaymentChange(studentId, schoolYearId);
+        }
+        return replay.result;
+    }
+    
+    private boolean writePayment(int studentId, Integer schoolYearId, double downPayment, double amount, boolean increment,
+                                 LocalDate dueDate, String status, String idempotencyKey) {
+        return withPostingRetry("saving payment",
+                                () -> writePaymentAttempt(studentId, schoolYearId, downPayment, amount, increment, dueDate, status,
+                                                          idempotencyKey, null));
+    }
+    
+    /**
+     * Record a posting's idempotency key
+     * @return false if the key was already recorded (the posting was applied before)
+     */
+    private boolean claimIdempotencyKey(Connection conn, String idempotencyKey, int studentId, Integer schoolYearId) throws SQLException {
+        String sql = "INSERT INTO posting_receipt (idempotency_key, student_id, school_year_id) VALUES (?, ?, ?)";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, idempotencyKey);
+            pstmt.setInt(2, studentId);
+            if (schoolYearId != null) {
+                pstmt.setInt(3, schoolYearId);
+            } else {
+                pstmt.setNull(3, java.sql.Types.INTEGER);
+            }
+            pstmt.executeUpdate();
+            return true;
+        } catch (java.sql.SQLIntegrityConstraintViolationException e) {
+            return false;
         }
+    }
+    
+    /**
+     * One read-compute-write pass of a payment posting.
+     * Payables are updated with "WHERE version = ?" against the version read at the start, and a newly
+     * created payable bumps its belong row's version the same way, so a concurrent posting for the same
+     * student makes this attempt fail with a VersionConflictException instead of overwriting it.
+     * The ledger entries are written in the same transaction, under the student's lock (see PaymentLedgerDAO).
+     *
+     * @param idempotencyKey Claimed in this transaction when set; an already claimed key applies nothing
+     * @param check Set for a replay (see replayPayment) or a version-checked save; receives the outcome
+     */
+    private boolean writePaymentAttempt(int studentId, Integer schoolYearId, double downPayment, double amountPaid,
+                                        boolean increment, LocalDate dueDate, String status,
+                                        String idempotencyKey, PostingCheck check) throws SQLException {
         try (Connection conn = DatabaseUtil.getConnection()) {
             conn.setAutoCommit(false);
             
             try {
+                ledgerDAO.lockStudent(conn, studentId);
+                if (idempotencyKey != null && !claimIdempotencyKey(conn, idempotencyKey, studentId, schoolYearId)) {
+                    conn.rollback();
+                    if (check != null) {
+                        check.result = new PostingResult(PostingResult.Status.DUPLICATE, null);
+                    }
+                    return true;
+                }
+                
+                if (check != null && check.expectedVersion >= 0) {
+                    long version = payablesVersion(conn, studentId, schoolYearId, check.semester);
+                    if (version != check.expectedVersion) {
+                        conn.rollback();
+                        check.result = new PostingResult(PostingResult.Status.CONFLICT,
+                                                         "the payables were changed at another window since they were loaded");
+                        return false;
+                    }
+                }
+                
+                // A replayed posting is entered under its cashier and dated when it was taken
+                String cashier = check != null && check.cashier != null ? check.cashier : SessionManager.getCurrentUsername();
+                LocalDateTime postedAt = check != null && check.queuedAt != null ? check.queuedAt : LocalDateTime.now();
+                
+                // Running balances from the ledger; this write posts its own amount against them
+                java.util.Map<Integer, PaymentLedgerDAO.BelongBalance> balances =
+                    ledgerDAO.openBalances(conn, studentId, schoolYearId, cashier, postedAt);
+                
                 // Get all belong records for this student and school year
-                String getBelongSql = "SELECT b.belong_id, sp.payable_id " +
+                String getBelongSql = "SELECT b.belong_id, b.version as belong_version, sp.payable_id " +
                                       "FROM belong b " +
                                       "LEFT JOIN student_payables sp ON b.belong_id = sp.belong_id " +
                                       "WHERE b.student_id = ? " +
                                       (schoolYearId != null ? "AND b.school_year_id = ? " : "");
                 
                 List<Integer> belongIds = new ArrayList<>();
+                java.util.Map<Integer, Integer> belongVersions = new java.util.HashMap<>();
                 try (PreparedStatement pstmt = conn.prepareStatement(getBelongSql)) {
                     int paramIndex = 1;
                     pstmt.setInt(paramIndex++, studentId);
@@ -299,10 +785,15 @@ public class PaymentDAO {
                     ResultSet rs = pstmt.executeQuery();
                     while (rs.next()) {
                         belongIds.add(rs.getInt("belong_id"));
+                        belongVersions.put(rs.getInt("belong_id"), rs.getInt("belong_version"));
                     }
                 }
                 
                 if (belongIds.isEmpty()) {
+                    conn.rollback();
+                    if (check != null) {
+                        check.result = new PostingResult(PostingResult.Status.CONFLICT, "student has no enrollment in the school year");
+                    }
                     return false; // No payables found for this student
                 }
                 
@@ -326,15 +817,10 @@ public class PaymentDAO {
                     }
                 }
                 
-                // Cap amount_paid at totalPayable to prevent any excess (even 0.01)
-                if (amountPaid > totalPayable) {
-                    amountPaid = totalPayable;
-                }
-                
                 // Update ALL payable records for this student in this school year
                 // Distribute the amount_paid proportionally or update all with the same amount
                 // For now, we'll update all payables with the same amount_paid (total divided by count)
-                String getPayablesSql = "SELECT sp.payable_id, sp.belong_id, sp.downpayment_amount, sp.amount_paid, b.student_id " +
+                String getPayablesSql = "SELECT sp.payable_id, sp.belong_id, sp.downpayment_amount, sp.version, b.student_id " +
                                        "FROM student_payables sp " +
                                        "INNER JOIN belong b ON sp.belong_id = b.belong_id " +
                                        "WHERE b.student_id = ? " +
@@ -344,6 +830,8 @@ public class PaymentDAO {
                 List<Integer> payableIds = new ArrayList<>();
                 List<Integer> belongIdsForPayables = new ArrayList<>();
                 List<Double> payableAmounts = new ArrayList<>();
+                List<Integer> payableVersions = new ArrayList<>();
+                double currentAmountPaid = 0;
                 
                 try (PreparedStatement pstmt = conn.prepareStatement(getPayablesSql)) {
                     int paramIndex = 1;
@@ -355,17 +843,50 @@ public class PaymentDAO {
                     while (rs.next()) {
                         payableIds.add(rs.getInt("payable_id"));
                         belongIdsForPayables.add(rs.getInt("belong_id"));
-                        // Decrypt downpayment from encrypted VARCHAR column
-                        double downpayment = 0;
-                        try {
-                            String encrypted = rs.getString("downpayment_amount");
-                            if (encrypted != null && !encrypted.isEmpty()) {
-                                downpayment = PayableEncryptionUtil.decryptAmount(encrypted, rs.getInt("student_id"));
-                            }
-                        } catch (Exception e) {
-                            System.err.println("Error decrypting downpayment_amount: " + e.getMessage());
-                        }
-                        payableAmounts.add(downpayment);
+                        // Decrypt downpayment from encrypted VARCHAR column; an unreadable amount fails the write
+                        payableAmounts.add(PayableEncryptionUtil.decryptAmountForWrite(rs.getString("downpayment_amount"), rs.getInt("student_id")));
+                        payableVersions.add(rs.getInt("version"));
+                    }
+                }
+                
+                // Amount paid so far: the running balances of the belongs holding the payables
+                for (Integer belongId : new java.util.HashSet<>(belongIdsForPayables)) {
+                    currentAmountPaid += paidToDate(balances, belongId);
+                }
+                
+                if (check != null && check.replayed) {
+                    // Queued postings were keyed against what the cashier saw; report changes instead of guessing
+                    String conflict = null;
+                    if (!increment && Math.abs(currentAmountPaid - check.expectedAmountPaid) >= 0.01) {
+                        conflict = String.format("amount paid is now P%.2f, the cashier saw P%.2f",
+                                                 currentAmountPaid, check.expectedAmountPaid);
+                    } else if (increment && currentAmountPaid + amountPaid > totalPayable + 0.01) {
+                        conflict = String.format("P%.2f exceeds the remaining balance of P%.2f",
+                                                 amountPaid, Math.max(totalPayable - currentAmountPaid, 0));
+                    }
+                    if (conflict != null) {
+                        conn.rollback();
+                        check.result = new PostingResult(PostingResult.Status.CONFLICT, conflict);
+                        return false;
+                    }
+                }
+                
+                if (increment) {
+                    amountPaid += currentAmountPaid;
+                }
+                
+                // Cap amount_paid at totalPayable to prevent any excess (even 0.01)
+                if (amountPaid > totalPayable) {
+                    amountPaid = totalPayable;
+                }
+                
+                if (increment) {
+                    if (Math.abs(amountPaid - totalPayable) < 0.01 || amountPaid >= totalPayable) {
+                        status = "Paid";
+                    } else if (amountPaid > 0) {
+                        status = "Partial";
+                    } else {
+                        status = "UNPAID";
                     }
                 }
                 
@@ -386,43 +907,57 @@ public class PaymentDAO {
                         }
                     }
                     
+                    // Claim the belong row first so two postings cannot both create its payable
+                    bumpBelongVersion(conn, firstBelongId, belongVersions.get(firstBelongId));
+                    
                     // Create new payable with encrypted amounts
                     double remainingBalance = Math.max(semesterAmount - amountPaid, 0);
                     String encryptedDownpayment = PayableEncryptionUtil.encryptAmount(semesterAmount, studentId);
                     String encryptedAmountPaid = PayableEncryptionUtil.encryptAmount(amountPaid, studentId);
                     String encryptedRemaining = PayableEncryptionUtil.encryptAmount(remainingBalance, studentId);
-                    String insertPayableSql = "INSERT INTO student_payables (belong_id, downpayment_amount, amount_paid, remaining_balance, status) VALUES (?, ?, ?, ?, ?)";
+                    String insertPayableSql = "INSERT INTO student_payables (belong_id, downpayment_amount, amount_paid, remaining_balance, status, " +
+                                              "amount_paid_tag, remaining_balance_tag) VALUES (?, ?, ?, ?, ?, ?, ?)";
                     try (PreparedStatement pstmt = conn.prepareStatement(insertPayableSql, PreparedStatement.RETURN_GENERATED_KEYS)) {
                         pstmt.setInt(1, firstBelongId);
                         pstmt.setString(2, encryptedDownpayment);
                         pstmt.setString(3, encryptedAmountPaid);
                         pstmt.setString(4, encryptedRemaining);
                         pstmt.setString(5, status);
+                        pstmt.setInt(6, PayableEncryptionUtil.rangeTag(amountPaid));
+                        pstmt.setInt(7, PayableEncryptionUtil.rangeTag(remainingBalance));
                         pstmt.executeUpdate();
                         ResultSet rs = pstmt.getGeneratedKeys();
                         if (rs.next()) {
                             payableIds.add(rs.getInt(1));
                             belongIdsForPayables.add(firstBelongId);
                             payableAmounts.add(semesterAmount);
+                            payableVersions.add(0);
                         }
                     }
                 }
                 
-                // Update all existing payables with the new amount_paid
-                // Distribute proportionally based on each payable's downpayment_amount
-                double totalPayableAmount = payableAmounts.stream().mapToDouble(Double::doubleValue).sum();
+                // New running balance of each belong, then amount_paid of every payable as its projection:
+                // the belong's amount split over its payables by downpayment_amount
+                java.util.Map<Integer, Double> belongDue = new java.util.LinkedHashMap<>();
+                java.util.Map<Integer, Integer> belongPayables = new java.util.HashMap<>();
+                for (int i = 0; i < payableIds.size(); i++) {
+                    belongDue.merge(belongIdsForPayables.get(i), payableAmounts.get(i), Double::sum);
+                    belongPayables.merge(belongIdsForPayables.get(i), 1, Integer::sum);
+                }
+                java.util.Map<Integer, Double> newPaid = allocatePayment(belongDue, balances, amountPaid, currentAmountPaid, increment);
                 
                 for (int i = 0; i < payableIds.size(); i++) {
                     int payableId = payableIds.get(i);
+                    int belongId = belongIdsForPayables.get(i);
                     double payableAmount = payableAmounts.get(i);
                     
                     // Calculate proportional amount_paid for this payable
-                    double proportionalAmountPaid = 0;
-                    if (totalPayableAmount > 0) {
-                        proportionalAmountPaid = (payableAmount / totalPayableAmount) * amountPaid;
+                    double proportionalAmountPaid;
+                    if (belongDue.get(belongId) > 0) {
+                        proportionalAmountPaid = newPaid.get(belongId) * payableAmount / belongDue.get(belongId);
                     } else {
                         // If no total, distribute equally
-                        proportionalAmountPaid = amountPaid / payableIds.size();
+                        proportionalAmountPaid = newPaid.get(belongId) / belongPayables.get(belongId);
                     }
                     
                     // Calculate remaining balance for this payable
@@ -442,13 +977,20 @@ public class PaymentDAO {
                     String encryptedAmountPaid = PayableEncryptionUtil.encryptAmount(proportionalAmountPaid, studentId);
                     String encryptedRemaining = PayableEncryptionUtil.encryptAmount(remainingBalance, studentId);
                     
-                    String updatePayableSql = "UPDATE student_payables SET amount_paid = ?, remaining_balance = ?, status = ? WHERE payable_id = ?";
+                    String updatePayableSql = "UPDATE student_payables SET amount_paid = ?, remaining_balance = ?, status = ?, " +
+                                             "amount_paid_tag = ?, remaining_balance_tag = ?, version = version + 1 " +
+                                             "WHERE payable_id = ? AND version = ?";
                     try (PreparedStatement pstmt = conn.prepareStatement(updatePayableSql)) {
                         pstmt.setString(1, encryptedAmountPaid);
                         pstmt.setString(2, encryptedRemaining);
                         pstmt.setString(3, payableStatus);
-                        pstmt.setInt(4, payableId);
-                        pstmt.executeUpdate();
+                        pstmt.setInt(4, PayableEncryptionUtil.rangeTag(proportionalAmountPaid));
+                        pstmt.setInt(5, PayableEncryptionUtil.rangeTag(remainingBalance));
+                        pstmt.setInt(6, payableId);
+                        pstmt.setInt(7, payableVersions.get(i));
+                        if (pstmt.executeUpdate() == 0) {
+                            throw new ContentionMetrics.VersionConflictException("Payable " + payableId + " was changed by another posting");
+                        }
                     }
                 }
                 
@@ -508,7 +1050,12 @@ public class PaymentDAO {
                     }
                 }
                 
+                // The posting's own ledger entries, in the same transaction
+                recordTopPayers(conn, studentId, ledgerDAO.post(conn, studentId, balances, newPaid, cashier, postedAt));
                 conn.commit();
+                if (check != null) {
+                    check.result = new PostingResult(PostingResult.Status.APPLIED, null);
+                }
                 return true;
             } catch (SQLException e) {
                 conn.rollback();
@@ -516,10 +1063,101 @@ public class PaymentDAO {
             } finally {
                 conn.setAutoCommit(true);
             }
-        } catch (SQLException e) {
-            System.err.println("Error saving payment: " + e.getMessage());
-            e.printStackTrace();
-            return false;
+        }
+    }
+    
+    /**
+     * New running balance of each belong holding payables. A posting (increment) spreads its own amount over
+     * the belongs' remaining balances, so each belong's entry holds its part of that amount; a new total is
+     * spread over the belongs by amount due.
+     *
+     * @param belongDue Amount due per belong (sum of its payables' downpayment_amount)
+     * @param amountPaid New total amount paid of the student, already capped at the total payable
+     */
+    private java.util.Map<Integer, Double> allocatePayment(java.util.Map<Integer, Double> belongDue,
+                                                           java.util.Map<Integer, PaymentLedgerDAO.BelongBalance> balances,
+                                                           double amountPaid, double currentAmountPaid, boolean increment) {
+        java.util.Map<Integer, Double> newPaid = new java.util.LinkedHashMap<>();
+        java.util.Map<Integer, Double> weights = new java.util.LinkedHashMap<>();
+        for (java.util.Map.Entry<Integer, Double> due : belongDue.entrySet()) {
+            double paid = increment ? paidToDate(balances, due.getKey()) : 0;
+            newPaid.put(due.getKey(), paid);
+            weights.put(due.getKey(), increment ? Math.max(due.getValue() - paid, 0) : due.getValue());
+        }
+        
+        double toSpread = increment ? amountPaid - currentAmountPaid : amountPaid;
+        double totalWeight = weights.values().stream().mapToDouble(Double::doubleValue).sum();
+        for (java.util.Map.Entry<Integer, Double> weight : weights.entrySet()) {
+            double share = totalWeight > 0 ? weight.getValue() / totalWeight : 1.0 / weights.size();
+            newPaid.merge(weight.getKey(), toSpread * share, Double::sum);
+        }
+        return newPaid;
+    }
+    
+    private static double paidToDate(java.util.Map<Integer, PaymentLedgerDAO.BelongBalance> balances, int belongId) {
+        PaymentLedgerDAO.BelongBalance balance = balances.get(belongId);
+        return balance != null ? balance.getPaidToDate() : 0;
+    }
+    
+    /**
+     * Compare-and-set bump of a belong row's version
+     *
+     * @throws ContentionMetrics.VersionConflictException if the row changed since expectedVersion was read
+     */
+    private void bumpBelongVersion(Connection conn, int belongId, int expectedVersion) throws SQLException {
+        String sql = "UPDATE belong SET version = version + 1 WHERE belong_id = ? AND version = ?";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, belongId);
+            pstmt.setInt(2, expectedVersion);
+            if (pstmt.executeUpdate() == 0) {
+                throw new ContentionMetrics.VersionConflictException("Enrollment " + belongId + " was changed by another posting");
+            }
+        }
+    }
+    
+    /**
+     * A single transactional attempt of a payment write; throws SQLException to signal failure
+     */
+    private interface PostingAttempt {
+        boolean run() throws SQLException;
+    }
+    
+    /**
+     * Run a posting attempt, retrying with jittered exponential backoff when it loses a version check,
+     * is chosen as a deadlock victim or times out waiting for a row lock.
+     * Other errors are logged and fail the posting right away.
+     */
+    private boolean withPostingRetry(String operation, PostingAttempt attempt) {
+        long started = System.nanoTime();
+        for (int attemptNumber = 1; ; attemptNumber++) {
+            try {
+                boolean result = attempt.run();
+                if (result) {
+                    ContentionMetrics.recordCommit(attemptNumber, System.nanoTime() - started);
+                }
+                return result;
+            } catch (SQLException e) {
+                String contention = ContentionMetrics.classify(e);
+                if (contention == null) {
+                    ContentionMetrics.recordFailure();
+                    Log.error("Error " + operation, e);
+                    return false;
+                }
+                if (attemptNumber >= MAX_POSTING_ATTEMPTS) {
+                    ContentionMetrics.recordExhausted();
+                    Log.error("Error " + operation + ": gave up after " + attemptNumber + " attempts (" + contention + ")");
+                    return false;
+                }
+                ContentionMetrics.recordRetry(contention);
+                try {
+                    long maxDelayMillis = 10L << attemptNumber;
+                    Thread.sleep(java.util.concurrent.ThreadLocalRandom.current().nextLong(maxDelayMillis / 2, maxDelayMillis + 1));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    ContentionMetrics.recordFailure();
+                    return false;
+                }
+            }
         }
     }
     
@@ -527,22 +1165,54 @@ public class PaymentDAO {
      * Delete payment (reset amount_paid to 0)
      * IMPORTANT: This only affects amount_paid in student_payables table.
      * It does NOT modify payables in the semester table (first_sem_amount, second_sem_amount, summer_sem_amount).
-     * Tries to use stored procedure first, falls back to direct query
+     * Version-checked and retried like the other postings (see writePaymentResetAttempt)
      */
     public boolean deletePayment(int studentId, Integer schoolYearId) {
-        // Try using stored procedure first
-        try {
-            return deletePaymentUsingProcedure(studentId, schoolYearId);
-        } catch (Exception e) {
-            // Fallback to direct query
-            System.err.println("Warning: Could not use sp_delete_payment procedure, falling back to direct query: " + e.getMessage());
+        boolean deleted = writePaymentReset(studentId, schoolYearId);
+        if (deleted) {
+            afterPaymentChange(studentId, schoolYearId);
+        }
+        return deleted;
+    }
+    
+    /**
+     * Notify in-memory caches of a committed payment write
+     */
+    private void afterPaymentChange(int studentId, Integer schoolYearId) {
+        utils.FinancialSnapshot.onPaymentChanged(schoolYearId, studentId);
+    }
+    
+    /**
+     * Pass a student's new totals (see PaymentLedgerDAO.post) to the top payers boards,
+     * in the posting's transaction
+     */
+    private void recordTopPayers(Connection conn, int studentId,
+                                 java.util.Map<Integer, java.util.Map<String, Double>> totals) throws SQLException {
+        for (java.util.Map.Entry<Integer, java.util.Map<String, Double>> entry : totals.entrySet()) {
+            topPayersDAO.recordTotals(conn, studentId, entry.getKey(), entry.getValue());
         }
+    }
+    
+    private boolean writePaymentReset(int studentId, Integer schoolYearId) {
+        return withPostingRetry("deleting payment", () -> writePaymentResetAttempt(studentId, schoolYearId));
+    }
+    
+    /**
+     * One pass of a payment reset; payables are updated with "WHERE version = ?" like writePaymentAttempt
+     */
+    private boolean writePaymentResetAttempt(int studentId, Integer schoolYearId) throws SQLException {
         try (Connection conn = DatabaseUtil.getConnection()) {
             conn.setAutoCommit(false);
             
             try {
+                ledgerDAO.lockStudent(conn, studentId);
+                String cashier = SessionManager.getCurrentUsername();
+                LocalDateTime postedAt = LocalDateTime.now();
+                java.util.Map<Integer, PaymentLedgerDAO.BelongBalance> balances =
+                    ledgerDAO.openBalances(conn, studentId, schoolYearId, cashier, postedAt);
+                
                 // Get all belong records for this student and school year
-                String getBelongSql = "SELECT b.belong_id, sp.payable_id, sem.first_sem_amount, sem.second_sem_amount, sem.summer_sem_amount " +
+                String getBelongSql = "SELECT b.belong_id, sp.payable_id, sp.version, sem.first_sem_amount, sem.second_sem_amount, sem.summer_sem_amount " +
                                       "FROM belong b " +
                                       "LEFT JOIN student_payables sp ON b.belong_id = sp.belong_id " +
                                       "LEFT JOIN semester sem ON b.semester_id = sem.semester_id " +
@@ -550,7 +1220,9 @@ public class PaymentDAO {
                                       (schoolYearId != null ? "AND b.school_year_id = ? " : "");
                 
                 List<Integer> payableIds = new ArrayList<>();
+                List<Integer> payableVersions = new ArrayList<>();
                 List<Double> totalPayables = new ArrayList<>();
+                java.util.Map<Integer, Double> newPaid = new java.util.HashMap<>();
                 
                 try (PreparedStatement pstmt = conn.prepareStatement(getBelongSql)) {
                     int paramIndex = 1;
@@ -564,6 +1236,8 @@ public class PaymentDAO {
                         int payableId = rs.getInt("payable_id");
                         if (payableId > 0) {
                             payableIds.add(payableId);
+                            payableVersions.add(rs.getInt("version"));
+                            newPaid.put(rs.getInt("belong_id"), 0.0);
                             
                             // Calculate total payables from semester amounts
                             double firstSem = rs.getDouble("first_sem_amount");
@@ -596,17 +1270,27 @@ public class PaymentDAO {
                                       "SET amount_paid = ?, " +
                                       "    remaining_balance = ?, " +
                                       "    status = 'UNPAID', " +
-                                      "    duedate_id = NULL " +
-                                      "WHERE payable_id = ?";
+                                      "    duedate_id = NULL, " +
+                                      "    amount_paid_tag = ?, " +
+                                      "    remaining_balance_tag = ?, " +
+                                      "    version = version + 1 " +
+                                      "WHERE payable_id = ? AND version = ?";
                     
                     try (PreparedStatement pstmt = conn.prepareStatement(updateSql)) {
                         pstmt.setString(1, encryptedAmountPaid);
                         pstmt.setString(2, encryptedRemaining);
-                        pstmt.setInt(3, payableId);
-                        pstmt.executeUpdate();
+                        pstmt.setInt(3, PayableEncryptionUtil.rangeTag(0.0));
+                        pstmt.setInt(4, PayableEncryptionUtil.rangeTag(totalPayable));
+                        pstmt.setInt(5, payableId);
+                        pstmt.setInt(6, payableVersions.get(i));
+                        if (pstmt.executeUpdate() == 0) {
+                            throw new ContentionMetrics.VersionConflictException("Payable " + payableId + " was changed by another posting");
+                        }
                     }
                 }
                 
+                // Each belong's running balance goes back to zero with an ADJUSTMENT entry
+                recordTopPayers(conn, studentId, ledgerDAO.post(conn, studentId, balances, newPaid, cashier, postedAt));
                 conn.commit();
                 return true;
             } catch (SQLException e) {
@@ -615,10 +1299,6 @@ public class PaymentDAO {
             } finally {
                 conn.setAutoCommit(true);
             }
-        } catch (SQLException e) {
-            System.err.println("Error deleting payment: " + e.getMessage());
-            e.printStackTrace();
-            return false;
         }
     }
     
@@ -631,9 +1311,16 @@ public class PaymentDAO {
     }
     
     /**
-     * Get total payments using dashboard summary view (more efficient)
+     * Get total payments from the materialized dashboard summary (view for all school years)
      */
     public double getTotalPayments(Integer schoolYearId, String semester) {
+        if (schoolYearId != null) {
+            utils.DashboardSummary.Summary summary = utils.DashboardSummary.get(schoolYearId, semester);
+            if (summary != null) {
+                return summary.totalCollected;
+            }
+        }
+        
         // Try using view first
         try {
             return getTotalPaymentsFromView(schoolYearId, semester);
@@ -675,8 +1362,7 @@ public class PaymentDAO {
                 return rs.getDouble("total");
             }
         } catch (SQLException e) {
-            System.err.println("Error getting total payments: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error getting total payments", e);
         }
         
         return 0.0;
@@ -732,9 +1418,15 @@ public class PaymentDAO {
     }
     
     /**
-     * Get latest payments using view (more efficient)
+     * Get latest payments from the payment ledger, by posting date
+     * Falls back to the view when the ledger has no payments yet
      */
     public List<models.Payment> getLatestPayments(int limit, Integer schoolYearId, String semester) {
+        List<models.Payment> posted = ledgerDAO.getLatestPayments(limit, schoolYearId, semester);
+        if (!posted.isEmpty()) {
+            return posted;
+        }
+        
         // Try using view first
         try {
             return getLatestPaymentsFromView(limit, schoolYearId, semester);
@@ -807,8 +1499,7 @@ public class PaymentDAO {
                 payments.add(payment);
             }
         } catch (SQLException e) {
-            System.err.println("Error getting latest payments: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error getting latest payments", e);
         }
         
         return payments;
@@ -887,7 +1578,9 @@ public class PaymentDAO {
     }
     
     /**
-     * Get top payers using the database view (more efficient)
+     * Get top payers using the database view
+     * Note: the view sums the encrypted amount_paid column, so its totals and order are not
+     * meaningful; getTopPayers ranks on decrypted amounts instead.
      */
     public List<models.Payment> getTopPayersUsingView(int limit, Integer schoolYearId, String semester) {
         List<models.Payment> topPayers = new ArrayList<>();
@@ -927,80 +1620,165 @@ public class PaymentDAO {
                 topPayers.add(payment);
             }
         } catch (SQLException e) {
-            System.err.println("Error getting top payers from view: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error getting top payers from view", e);
         }
         
         return topPayers;
     }
     
+    /**
+     * Top payers by total amount paid.
+     * For a school year, read from its maintained top payers board (see TopPayersDAO), built from
+     * a full ranking on first use; otherwise, or when the board cannot answer, rank the payables.
+     */
     public List<models.Payment> getTopPayers(int limit, Integer schoolYearId, String semester) {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        
+        if (schoolYearId != null && limit <= TopPayersDAO.CAPACITY) {
+            TopPayersDAO.Board board = topPayersDAO.load(schoolYearId, semester);
+            if (board == null && topPayersDAO.rebuild(schoolYearId, semester,
+                    conn -> rankPayers(conn, TopPayersDAO.CAPACITY + 1, schoolYearId, semester, false))) {
+                board = topPayersDAO.load(schoolYearId, semester);
+            }
+            // Inactive students are skipped, so a board may hold fewer rankable entries than asked for
+            if (board != null && (board.complete || board.ranked.size() >= limit)) {
+                return new ArrayList<>(board.ranked.subList(0, Math.min(limit, board.ranked.size())));
+            }
+        }
+        
+        List<models.Payment> topPayers = rankPayers(limit, schoolYearId, semester, true);
+        return topPayers != null ? topPayers : new ArrayList<>();
+    }
+    
+    /**
+     * Rank students by total amount paid, straight from the payables.
+     * Amounts are encrypted, so they cannot be summed or sorted in SQL. The range tags of amount_paid
+     * (see PayableEncryptionUtil.rangeTag) bound each student's total from below and above; only the
+     * students whose upper bound reaches the limit-th best lower bound are decrypted and ranked.
+     * @param activeOnly Skip deactivated students and enrollments
+     * @return Up to limit students, highest first, or null on error
+     */
+    private List<models.Payment> rankPayers(int limit, Integer schoolYearId, String semester, boolean activeOnly) {
+        try (Connection conn = DatabaseUtil.getConnection()) {
+            return rankPayers(conn, limit, schoolYearId, semester, activeOnly);
+        } catch (SQLException e) {
+            Log.error("Error getting top payers", e);
+            return null;
+        }
+    }
+    
+    /**
+     * rankPayers on the caller's connection (and transaction)
+     */
+    private List<models.Payment> rankPayers(Connection conn, int limit, Integer schoolYearId, String semester,
+                                            boolean activeOnly) throws SQLException {
         List<models.Payment> topPayers = new ArrayList<>();
         
-        // Try using view first, fallback to direct query
-        try {
-            topPayers = getTopPayersUsingView(limit, schoolYearId, semester);
-            if (!topPayers.isEmpty()) {
-                return topPayers;
+        String from = rankPayersFrom(schoolYearId, semester, activeOnly);
+        
+        // Pass 1: per-student bounds from the tags, nothing decrypted
+        java.util.Map<Integer, double[]> bounds = new java.util.HashMap<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(payerBoundsSql(schoolYearId, semester, activeOnly))) {
+            if (schoolYearId != null) {
+                pstmt.setInt(1, schoolYearId);
+            }
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                int tag = rs.getInt("amount_paid_tag");
+                boolean untagged = rs.wasNull();
+                double[] bound = bounds.computeIfAbsent(rs.getInt("student_id"), id -> new double[2]);
+                bound[0] += untagged ? 0 : PayableEncryptionUtil.tagLowerBound(tag);
+                bound[1] += untagged ? Double.POSITIVE_INFINITY : PayableEncryptionUtil.tagUpperBound(tag);
             }
-        } catch (Exception e) {
-            // Fallback to direct query
         }
         
-        String sql = "SELECT " +
-                    "s.student_id, " +
-                    "s.student_number, " +
-                    "s.fullname, " +
-                    "SUM(sp.amount_paid) as total_amount " +
-                    "FROM student_payables sp " +
-                    "JOIN belong b ON sp.belong_id = b.belong_id " +
-                    "JOIN student s ON b.student_id = s.student_id " +
-                    "LEFT JOIN semester sem ON b.semester_id = sem.semester_id " +
-                    "WHERE sp.amount_paid > 0 ";
+        double threshold = 0;
+        if (bounds.size() > limit) {
+            double[] lowers = bounds.values().stream().mapToDouble(bound -> bound[0]).sorted().toArray();
+            threshold = lowers[lowers.length - limit];
+        }
+        List<Integer> candidates = new ArrayList<>();
+        for (java.util.Map.Entry<Integer, double[]> entry : bounds.entrySet()) {
+            if (entry.getValue()[1] >= threshold) {
+                candidates.add(entry.getKey());
+            }
+        }
+        
+        // Pass 2: decrypt the candidates' amounts
+        for (int start = 0; start < candidates.size(); start += ID_CHUNK) {
+            List<Integer> chunk = candidates.subList(start, Math.min(candidates.size(), start + ID_CHUNK));
+            String sql = "SELECT s.student_id, s.student_number, s.fullname, " +
+                         "GROUP_CONCAT(sp.amount_paid SEPARATOR '||') AS amount_paid_values " + from +
+                         "AND b.student_id IN (" + String.join(",", java.util.Collections.nCopies(chunk.size(), "?")) + ") " +
+                         "GROUP BY s.student_id, s.student_number, s.fullname";
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                int paramIndex = 1;
+                if (schoolYearId != null) {
+                    pstmt.setInt(paramIndex++, schoolYearId);
+                }
+                for (Integer studentId : chunk) {
+                    pstmt.setInt(paramIndex++, studentId);
+                }
+                ResultSet rs = pstmt.executeQuery();
+                while (rs.next()) {
+                    int studentId = rs.getInt("student_id");
+                    double total = sumEncryptedAmounts(rs.getString("amount_paid_values"), studentId);
+                    if (total <= 0) {
+                        continue;
+                    }
+                    models.Payment payment = new models.Payment();
+                    payment.setStudentId(studentId);
+                    payment.setStudentIdStr(rs.getString("student_number"));
+                    payment.setStudentName(rs.getString("fullname"));
+                    payment.setAmount(total);
+                    topPayers.add(payment);
+                }
+            }
+        }
+        
+        topPayers.sort((a, b) -> Double.compare(b.getAmount(), a.getAmount()));
+        return topPayers.size() > limit ? new ArrayList<>(topPayers.subList(0, limit)) : topPayers;
+    }
+    
+    /**
+     * First pass of rankPayers: the amount_paid range tag of every paid payable; takes the
+     * school year id as its only parameter (when not null). Also EXPLAINed by utils.QueryPlanCheck.
+     */
+    public String payerBoundsSql(Integer schoolYearId, String semester, boolean activeOnly) {
+        return "SELECT b.student_id, sp.amount_paid_tag " + rankPayersFrom(schoolYearId, semester, activeOnly);
+    }
+    
+    private String rankPayersFrom(Integer schoolYearId, String semester, boolean activeOnly) {
+        String from = "FROM student_payables sp " +
+                      "JOIN belong b ON sp.belong_id = b.belong_id " +
+                      "JOIN student s ON b.student_id = s.student_id " +
+                      "LEFT JOIN semester sem ON b.semester_id = sem.semester_id " +
+                      // Untagged rows (not yet migrated) may be paid too
+                      "WHERE (sp.amount_paid_tag > 0 OR sp.amount_paid_tag IS NULL) ";
+        
+        if (activeOnly) {
+            from += "AND COALESCE(s.status, 'active') = 'active' " +
+                    "AND COALESCE(b.status, 'active') = 'active' ";
+        }
         
         if (schoolYearId != null) {
-            sql += "AND b.school_year_id = ? ";
+            from += "AND b.school_year_id = ? ";
         }
         
         if (semester != null) {
             // Match semester based on which amount is set
             if ("1st Sem".equals(semester)) {
-                sql += "AND sem.first_sem_amount > 0 AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL) ";
+                from += "AND sem.first_sem_amount > 0 AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL) ";
             } else if ("2nd Sem".equals(semester)) {
-                sql += "AND sem.second_sem_amount > 0 AND (sem.first_sem_amount = 0 OR sem.first_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL) ";
+                from += "AND sem.second_sem_amount > 0 AND (sem.first_sem_amount = 0 OR sem.first_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL) ";
             } else if ("Summer Sem".equals(semester)) {
-                sql += "AND sem.summer_sem_amount > 0 AND (sem.first_sem_amount = 0 OR sem.first_sem_amount IS NULL) AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL) ";
-            }
-        }
-        
-        sql += "GROUP BY s.student_id, s.student_number, s.fullname " +
-               "ORDER BY total_amount DESC " +
-               "LIMIT ?";
-        
-        try (Connection conn = DatabaseUtil.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            int paramIndex = 1;
-            if (schoolYearId != null) {
-                pstmt.setInt(paramIndex++, schoolYearId);
-            }
-            pstmt.setInt(paramIndex, limit);
-            ResultSet rs = pstmt.executeQuery();
-            
-            while (rs.next()) {
-                models.Payment payment = new models.Payment();
-                payment.setStudentId(rs.getInt("student_id"));
-                payment.setStudentIdStr(rs.getString("student_number"));
-                payment.setStudentName(rs.getString("fullname"));
-                payment.setAmount(rs.getDouble("total_amount"));
-                topPayers.add(payment);
+                from += "AND sem.summer_sem_amount > 0 AND (sem.first_sem_amount = 0 OR sem.first_sem_amount IS NULL) AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL) ";
             }
-        } catch (SQLException e) {
-            System.err.println("Error getting top payers: " + e.getMessage());
-            e.printStackTrace();
         }
         
-        return topPayers;
+        return from;
     }
     
     /**
@@ -1012,36 +1790,7 @@ public class PaymentDAO {
     public List<PaymentView> getNotifications(Integer schoolYearId, boolean within7Days) {
         List<PaymentView> notifications = new ArrayList<>();
         
-        String sql = "SELECT " +
-                    "s.student_id, " +
-                    "s.student_number, " +
-                    "s.fullname, " +
-                    "COALESCE(MAX(CASE WHEN sem.first_sem_amount > 0 AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL) THEN sem.first_sem_amount ELSE 0 END), 0) as first_sem, " +
-                    "COALESCE(MAX(CASE WHEN sem.second_sem_amount > 0 AND (sem.first_sem_amount = 0 OR sem.first_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL) THEN sem.second_sem_amount ELSE 0 END), 0) as second_sem, " +
-                    "COALESCE(MAX(CASE WHEN sem.summer_sem_amount > 0 AND (sem.first_sem_amount = 0 OR sem.first_sem_amount IS NULL) AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL) THEN sem.summer_sem_amount ELSE 0 END), 0) as summer_sem, " +
-                    "GROUP_CONCAT(sp.downpayment_amount SEPARATOR '||') as downpayment_amounts, " +
-                    "GROUP_CONCAT(sp.amount_paid SEPARATOR '||') as amount_paid_values, " +
-                    "MAX(d.due_date) as due_date, " +
-                    "MAX(sp.status) as status " +
-                    "FROM student s " +
-                    "LEFT JOIN belong b ON s.student_id = b.student_id " +
-                    (schoolYearId != null ? "AND b.school_year_id = ? " : "") +
-                    "LEFT JOIN semester sem ON b.semester_id = sem.semester_id " +
-                    "LEFT JOIN student_payables sp ON b.belong_id = sp.belong_id " +
-                    "LEFT JOIN duedate d ON sp.duedate_id = d.duedate_id " +
-                    "WHERE d.due_date IS NOT NULL " +
-                    "AND (sp.status IS NULL OR sp.status != 'Paid') "; // Exclude paid students
-        
-        if (within7Days) {
-            // Get due dates that are today or within 7 days (today - 7 days to today + 7 days)
-            // This includes overdue dates and upcoming dates
-            sql += "AND d.due_date >= DATE_SUB(CURDATE(), INTERVAL 7 DAY) " +
-                   "AND d.due_date <= DATE_ADD(CURDATE(), INTERVAL 7 DAY) ";
-        }
-        
-        sql += "GROUP BY s.student_id, s.student_number, s.fullname " +
-               "HAVING COALESCE(SUM(sp.amount_paid), 0) < COALESCE(SUM(sem.first_sem_amount + sem.second_sem_amount + sem.summer_sem_amount), 0) " + // Exclude fully paid
-               "ORDER BY d.due_date ASC";
+        String sql = notificationsSql(schoolYearId, within7Days);
         
         try (Connection conn = DatabaseUtil.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
@@ -1055,7 +1804,8 @@ public class PaymentDAO {
             
             while (rs.next()) {
                 PaymentView view = new PaymentView();
-                view.setStudentId(rs.getInt("student_id"));
+                int studentId = rs.getInt("student_id");
+                view.setStudentId(studentId);
                 view.setStudentNumber(rs.getString("student_number"));
                 view.setStudentName(rs.getString("fullname"));
                 view.setFirstSemAmount(rs.getDouble("first_sem"));
@@ -1065,10 +1815,14 @@ public class PaymentDAO {
                 double total = view.getFirstSemAmount() + view.getSecondSemAmount() + view.getSummerSemAmount();
                 view.setTotalAmount(total);
                 
-                double totalDownPayment = rs.getDouble("total_downpayment");
-                view.setDownPayment(totalDownPayment > 0 ? totalDownPayment : 0);
+                // Amounts are encrypted, so they are summed here instead of in SQL
+                view.setDownPayment(sumEncryptedAmounts(rs.getString("downpayment_amounts"), studentId));
+                view.setAmountPaid(sumEncryptedAmounts(rs.getString("amount_paid_values"), studentId));
                 
-                view.setAmountPaid(rs.getDouble("amount_paid"));
+                if (view.getAmountPaid() >= view.getTotalAmount() - 0.01 && view.getTotalAmount() > 0) {
+                    // Fully paid but status not yet updated; not a notification
+                    continue;
+                }
                 
                 java.sql.Date dueDateSql = rs.getDate("due_date");
                 if (dueDateSql != null) {
@@ -1089,13 +1843,70 @@ public class PaymentDAO {
                 notifications.add(view);
             }
         } catch (SQLException e) {
-            System.err.println("Error getting notifications: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error getting notifications", e);
         }
         
         return notifications;
     }
     
+    /**
+     * Query behind getNotifications; takes the school year id as its only parameter (when not null).
+     * Also EXPLAINed by utils.QueryPlanCheck.
+     */
+    public String notificationsSql(Integer schoolYearId, boolean within7Days) {
+        String sql = "SELECT " +
+                    "s.student_id, " +
+                    "s.student_number, " +
+                    "s.fullname, " +
+                    "COALESCE(MAX(CASE WHEN sem.first_sem_amount > 0 AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL) THEN sem.first_sem_amount ELSE 0 END), 0) as first_sem, " +
+                    "COALESCE(MAX(CASE WHEN sem.second_sem_amount > 0 AND (sem.first_sem_amount = 0 OR sem.first_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL) THEN sem.second_sem_amount ELSE 0 END), 0) as second_sem, " +
+                    "COALESCE(MAX(CASE WHEN sem.summer_sem_amount > 0 AND (sem.first_sem_amount = 0 OR sem.first_sem_amount IS NULL) AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL) THEN sem.summer_sem_amount ELSE 0 END), 0) as summer_sem, " +
+                    "GROUP_CONCAT(sp.downpayment_amount SEPARATOR '||') as downpayment_amounts, " +
+                    "GROUP_CONCAT(sp.amount_paid SEPARATOR '||') as amount_paid_values, " +
+                    "MAX(d.due_date) as due_date " +
+                    "FROM student s " +
+                    "INNER JOIN belong b ON s.student_id = b.student_id " +
+                    "LEFT JOIN semester sem ON b.semester_id = sem.semester_id " +
+                    "INNER JOIN student_payables sp ON b.belong_id = sp.belong_id " +
+                    "INNER JOIN duedate d ON sp.duedate_id = d.duedate_id " +
+                    // Persisted status (kept current by OverdueStatusSweeper) excludes paid payables via the index
+                    "WHERE sp.status IN ('UNPAID', 'PARTIAL', 'OVERDUE') ";
+        
+        if (schoolYearId != null) {
+            sql += "AND b.school_year_id = ? ";
+        }
+        
+        if (within7Days) {
+            // Get due dates that are today or within 7 days (today - 7 days to today + 7 days)
+            // This includes overdue dates and upcoming dates
+            sql += "AND d.due_date >= DATE_SUB(CURDATE(), INTERVAL 7 DAY) " +
+                   "AND d.due_date <= DATE_ADD(CURDATE(), INTERVAL 7 DAY) ";
+        }
+        
+        // Skip students with nothing left to pay, using the remaining balance range tags (0 = zero)
+        sql += "GROUP BY s.student_id, s.student_number, s.fullname " +
+               "HAVING SUM(sp.remaining_balance_tag IS NULL OR sp.remaining_balance_tag > 0) > 0 " +
+               "ORDER BY due_date ASC";
+        
+        return sql;
+    }
+    
+    /**
+     * Decrypt and sum a GROUP_CONCAT of encrypted amounts separated by ||
+     */
+    private double sumEncryptedAmounts(String concatenated, int studentId) {
+        double sum = 0;
+        if (concatenated == null || concatenated.isEmpty()) {
+            return sum;
+        }
+        for (String amount : concatenated.split("\\|\\|")) {
+            if (amount != null && !amount.trim().isEmpty()) {
+                sum += PayableEncryptionUtil.decryptAmount(amount, studentId);
+            }
+        }
+        return sum;
+    }
+    
     /**
      * Get monthly payment data for chart
      * Returns a map with month names as keys and arrays [paidAmount, unpaidAmount] as values
@@ -1105,9 +1916,31 @@ public class PaymentDAO {
     }
     
     /**
-     * Get monthly payment data using view (more efficient)
+     * Collections of the current month and the month before: {thisMonth, lastMonth}
+     */
+    public double[] getMonthOverMonthCollections(Integer schoolYearId, String semester) {
+        return rollupDAO.getMonthOverMonth(schoolYearId, semester, java.time.YearMonth.now());
+    }
+    
+    /**
+     * Get monthly payment data: collections by actual payment month from the collection rollups,
+     * outstanding balances by due-date month from the in-memory snapshot
+     * Falls back to the view when nothing has been posted to the ledger yet
      */
     public java.util.Map<String, double[]> getMonthlyPaymentData(Integer schoolYearId, String semester) {
+        double[] collected = rollupDAO.getMonthlyCollections(schoolYearId, semester);
+        if (collected != null) {
+            utils.FinancialSnapshot snapshot = utils.FinancialSnapshot.forSchoolYear(schoolYearId);
+            double[] outstanding = snapshot.remainingByDueMonth(snapshot.filterActive(semester, null, null, null));
+            
+            java.util.Map<String, double[]> monthlyData = new java.util.HashMap<>();
+            String[] months = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+            for (int i = 0; i < months.length; i++) {
+                monthlyData.put(months[i], new double[]{collected[i], outstanding[i]});
+            }
+            return monthlyData;
+        }
+        
         // Try using view first
         try {
             return getMonthlyPaymentDataFromView(schoolYearId, semester);
@@ -1172,8 +2005,7 @@ public class PaymentDAO {
                 }
             }
         } catch (SQLException e) {
-            System.err.println("Error getting monthly payment data: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error getting monthly payment data", e);
         }
         
         return monthlyData;
@@ -1297,8 +2129,7 @@ public class PaymentDAO {
                 reports.add(report);
             }
         } catch (SQLException e) {
-            System.err.println("Error getting students who paid: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error getting students who paid", e);
         }
         
         return reports;
@@ -1333,123 +2164,12 @@ public class PaymentDAO {
                 return rs.getDouble("total_paid");
             }
         } catch (SQLException e) {
-            System.err.println("Error getting total paid amount: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error getting total paid amount", e);
         }
         
         return 0.0;
     }
     
-    /**
-     * Get all payment views using stored procedure
-     */
-    private List<PaymentView> getAllPaymentViewsUsingProcedure(
-            Integer schoolYearId, String semester, String searchTerm, String year, String program) {
-        List<PaymentView> payments = new ArrayList<>();
-        
-        try (Connection conn = DatabaseUtil.getConnection();
-             java.sql.CallableStatement cstmt = conn.prepareCall("{CALL sp_get_payments(?, ?, ?, ?, ?)}")) {
-            
-            cstmt.setObject(1, schoolYearId);
-            cstmt.setString(2, semester);
-            cstmt.setString(3, searchTerm);
-            cstmt.setString(4, year);
-            cstmt.setString(5, program);
-            
-            ResultSet rs = cstmt.executeQuery();
-            while (rs.next()) {
-                PaymentView view = new PaymentView();
-                view.setStudentId(rs.getInt("student_id"));
-                view.setStudentNumber(rs.getString("student_number"));
-                view.setStudentName(rs.getString("student_name"));
-                view.setFirstSemAmount(rs.getDouble("first_sem_amount"));
-                view.setSecondSemAmount(rs.getDouble("second_sem_amount"));
-                view.setSummerSemAmount(rs.getDouble("summer_sem_amount"));
-                
-                double total = view.getFirstSemAmount() + view.getSecondSemAmount() + view.getSummerSemAmount();
-                view.setTotalAmount(total);
-                
-                double totalDownPayment = rs.getDouble("total_downpayment");
-                view.setDownPayment(totalDownPayment > 0 ? totalDownPayment : 0);
-                
-                view.setAmountPaid(rs.getDouble("amount_paid"));
-                
-                java.sql.Date dueDateSql = rs.getDate("due_date");
-                if (dueDateSql != null) {
-                    view.setDueDate(dueDateSql.toLocalDate());
-                }
-                
-                // Always recalculate status based on current amount paid vs total of all semesters
-                // Status should be dynamically calculated, not stored
-                if (Math.abs(view.getAmountPaid() - view.getTotalAmount()) < 0.01 || view.getAmountPaid() >= view.getTotalAmount()) {
-                    view.setStatus("Paid");
-                    // Clear due date when fully paid
-                    view.setDueDate(null);
-                } else if (view.getAmountPaid() > 0) {
-                    view.setStatus("Partial");
-                } else {
-                    view.setStatus("UNPAID");
-                }
-                
-                payments.add(view);
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException("Error getting payment views from procedure", e);
-        }
-        
-        return payments;
-    }
-    
-    /**
-     * Save payment using stored procedure
-     */
-    private boolean savePaymentUsingProcedure(
-            int studentId, Integer schoolYearId, double downPayment, double amountPaid, 
-            LocalDate dueDate, String status) {
-        try (Connection conn = DatabaseUtil.getConnection();
-             java.sql.CallableStatement cstmt = conn.prepareCall("{CALL sp_save_payment(?, ?, ?, ?, ?, ?, ?)}")) {
-            
-            cstmt.setInt(1, studentId);
-            cstmt.setObject(2, schoolYearId);
-            cstmt.setDouble(3, downPayment);
-            cstmt.setDouble(4, amountPaid);
-            if (dueDate != null) {
-                cstmt.setDate(5, java.sql.Date.valueOf(dueDate));
-            } else {
-                cstmt.setNull(5, java.sql.Types.DATE);
-            }
-            cstmt.setString(6, status);
-            cstmt.registerOutParameter(7, java.sql.Types.VARCHAR);
-            
-            cstmt.executeUpdate();
-            
-            String result = cstmt.getString(7);
-            return "CREATED".equals(result) || "UPDATED".equals(result);
-        } catch (SQLException e) {
-            throw new RuntimeException("Error saving payment from procedure", e);
-        }
-    }
-    
-    /**
-     * Delete payment using stored procedure
-     */
-    private boolean deletePaymentUsingProcedure(int studentId, Integer schoolYearId) {
-        try (Connection conn = DatabaseUtil.getConnection();
-             java.sql.CallableStatement cstmt = conn.prepareCall("{CALL sp_delete_payment(?, ?, ?)}")) {
-            
-            cstmt.setInt(1, studentId);
-            cstmt.setObject(2, schoolYearId);
-            cstmt.registerOutParameter(3, java.sql.Types.VARCHAR);
-            
-            cstmt.executeUpdate();
-            
-            String result = cstmt.getString(3);
-            return "DELETED".equals(result);
-        } catch (SQLException e) {
-            throw new RuntimeException("Error deleting payment from procedure", e);
-        }
-    }
-    
     /**
      * Get payment statistics using stored procedure
      */
@@ -1481,8 +2201,7 @@ public class PaymentDAO {
                 callback.accept(stats);
             }
         } catch (SQLException e) {
-            System.err.println("Error getting payment statistics from procedure: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error getting payment statistics from procedure", e);
         }
     }
     
@@ -0,0 +1,329 @@
+package dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import models.PaymentTransaction;
+import utils.DatabaseUtil;
+import utils.Log;
+import utils.PayableEncryptionUtil;
+
+/**
+ * Append-only payment ledger (payment_transaction), the record payment writes post to.
+ * Every posting appends an entry per belong for its own amount, carrying the running paid-to-date,
+ * remaining balance and status continued from the belong's previous entry, so the latest entry
+ * answers balance/status without recomputing. PaymentDAO starts each write from those balances
+ * (openBalances) and writes student_payables.amount_paid as their projection. Entries are written
+ * inside the payment write's own transaction, under a lock on the student row, and commit or roll
+ * back with it. Collections are dated by posted_at and added to the
+ * collection_rollup buckets in the same transaction, where PaymentDAO also passes the student's
+ * new totals to the top payers boards (TopPayersDAO).
+ * Entries are never updated or deleted; resets and corrections are negative ADJUSTMENT entries.
+ */
+public class PaymentLedgerDAO {
+
+    private final CollectionRollupDAO rollupDAO = new CollectionRollupDAO();
+
+    /**
+     * Lock a student's row so payment writes for the student, and their ledger entries, run one at a time.
+     * Take it before the transaction's first plain read, so those reads see the previous writer's commit.
+     */
+    public void lockStudent(Connection conn, int studentId) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT student_id FROM student WHERE student_id = ? FOR UPDATE")) {
+            pstmt.setInt(1, studentId);
+            pstmt.executeQuery();
+        }
+    }
+
+    /**
+     * Balance of one of a student's belongs, carried from its latest ledger entry
+     */
+    public static class BelongBalance {
+        public final int belongId;
+        public final int schoolYearId;
+        public final String semester; // null when the semester row is ambiguous
+        public final double totalPayable;
+        double paidToDate;
+        boolean changed;
+
+        BelongBalance(int belongId, int schoolYearId, String semester, double totalPayable, double paidToDate) {
+            this.belongId = belongId;
+            this.schoolYearId = schoolYearId;
+            this.semester = semester;
+            this.totalPayable = totalPayable;
+            this.paidToDate = paidToDate;
+        }
+
+        public double getPaidToDate() {
+            return paidToDate;
+        }
+    }
+
+    /**
+     * Running balances of a student's belongs (of one school year, or all when null) before a posting, inside the
+     * caller's transaction (which must hold lockStudent). Each belong's paid-to-date is its latest entry's (see
+     * getLatestEntries). A belong with no entries yet gets an OPENING entry for what was paid before the ledger
+     * existed; one whose student_payables.amount_paid was changed outside PaymentDAO gets an ADJUSTMENT for the
+     * drift, so the posting's own entries hold exactly its amount.
+     */
+    public Map<Integer, BelongBalance> openBalances(Connection conn, int studentId, Integer schoolYearId,
+                                                    String cashier, LocalDateTime postedAt) throws SQLException {
+        String balancesSql = "SELECT b.belong_id, b.school_year_id, " +
+                            "COALESCE(sem.first_sem_amount, 0) + COALESCE(sem.second_sem_amount, 0) + COALESCE(sem.summer_sem_amount, 0) as total_payable, " +
+                            "CASE " +
+                            "  WHEN sem.first_sem_amount > 0 AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL) THEN '1st Sem' " +
+                            "  WHEN sem.second_sem_amount > 0 AND (sem.first_sem_amount = 0 OR sem.first_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL) THEN '2nd Sem' " +
+                            "  WHEN sem.summer_sem_amount > 0 AND (sem.first_sem_amount = 0 OR sem.first_sem_amount IS NULL) AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL) THEN 'Summer Sem' " +
+                            "  ELSE NULL " +
+                            "END as semester_name, " +
+                            "GROUP_CONCAT(sp.amount_paid SEPARATOR '||') as amount_paid_values " +
+                            "FROM belong b " +
+                            "LEFT JOIN semester sem ON b.semester_id = sem.semester_id " +
+                            "LEFT JOIN student_payables sp ON b.belong_id = sp.belong_id " +
+                            "WHERE b.student_id = ? " +
+                            (schoolYearId != null ? "AND b.school_year_id = ? " : "") +
+                            "GROUP BY b.belong_id, b.school_year_id, sem.semester_id, " +
+                            "sem.first_sem_amount, sem.second_sem_amount, sem.summer_sem_amount";
+
+        Map<Integer, BelongBalance> balances = new HashMap<>();
+        Map<Integer, PaymentTransaction> latest = getLatestEntries(conn, studentId);
+
+        try (PreparedStatement pstmt = conn.prepareStatement(balancesSql)) {
+            int paramIndex = 1;
+            pstmt.setInt(paramIndex++, studentId);
+            if (schoolYearId != null) {
+                pstmt.setInt(paramIndex++, schoolYearId);
+            }
+
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                int belongId = rs.getInt("belong_id");
+                PaymentTransaction entry = latest.get(belongId);
+                BelongBalance balance = new BelongBalance(belongId, rs.getInt("school_year_id"), rs.getString("semester_name"),
+                                                          rs.getDouble("total_payable"), entry != null ? entry.getPaidToDate() : 0);
+                balances.put(belongId, balance);
+
+                double projected = sumEncryptedAmounts(rs.getString("amount_paid_values"), studentId);
+                if (entry == null && projected > 0) {
+                    appendEntry(conn, studentId, balance, "OPENING", projected, postedAt, cashier);
+                } else if (entry != null && Math.abs(projected - entry.getPaidToDate()) >= 0.005) {
+                    appendEntry(conn, studentId, balance, "ADJUSTMENT", projected - entry.getPaidToDate(), postedAt, cashier);
+                }
+            }
+        }
+        return balances;
+    }
+
+    /**
+     * Append a posting's entries: for each belong in newPaid, an entry for the change from its running
+     * balance (PAYMENT when money came in, ADJUSTMENT when it went down), dated postedAt and added to the
+     * collection buckets. The caller then writes student_payables.amount_paid as the projection of newPaid.
+     *
+     * @param balances From openBalances in the same transaction; updated to the new running balances
+     * @return Amount paid per semester and for "All Semesters" of each school year that got an entry
+     */
+    public Map<Integer, Map<String, Double>> post(Connection conn, int studentId, Map<Integer, BelongBalance> balances,
+                                                  Map<Integer, Double> newPaid, String cashier,
+                                                  LocalDateTime postedAt) throws SQLException {
+        for (Map.Entry<Integer, Double> paid : newPaid.entrySet()) {
+            BelongBalance balance = balances.get(paid.getKey());
+            if (balance == null) {
+                throw new SQLException("Enrollment " + paid.getKey() + " has no semester row to post against");
+            }
+            double amount = paid.getValue() - balance.paidToDate;
+            if (Math.abs(amount) >= 0.005) {
+                appendEntry(conn, studentId, balance, amount > 0 ? "PAYMENT" : "ADJUSTMENT", amount, postedAt, cashier);
+            }
+        }
+
+        // Amount paid per school year, per semester and for all semesters
+        Set<Integer> changedSchoolYears = new HashSet<>();
+        for (BelongBalance balance : balances.values()) {
+            if (balance.changed) {
+                changedSchoolYears.add(balance.schoolYearId);
+            }
+        }
+        Map<Integer, Map<String, Double>> totals = new HashMap<>();
+        for (BelongBalance balance : balances.values()) {
+            if (changedSchoolYears.contains(balance.schoolYearId)) {
+                Map<String, Double> yearTotals = totals.computeIfAbsent(balance.schoolYearId, id -> new HashMap<>());
+                yearTotals.merge(CollectionRollupDAO.ALL_SEMESTERS, balance.paidToDate, Double::sum);
+                if (balance.semester != null) {
+                    yearTotals.merge(balance.semester, balance.paidToDate, Double::sum);
+                }
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * Status of a payable or belong with the amount paid against its total
+     */
+    public static String statusFor(double paidToDate, double totalPayable) {
+        if (paidToDate > 0 && (paidToDate >= totalPayable || Math.abs(totalPayable - paidToDate) < 0.01)) {
+            return "PAID";
+        } else if (paidToDate > 0) {
+            return "PARTIAL";
+        }
+        return "UNPAID";
+    }
+
+    /**
+     * Latest entry of each of the student's belongs: its running paid-to-date, balance and status
+     * (the last_id lookup walks idx_txn_student_belong)
+     */
+    public Map<Integer, PaymentTransaction> getLatestEntries(Connection conn, int studentId) throws SQLException {
+        String sql = "SELECT t.* " +
+                    "FROM payment_transaction t " +
+                    "INNER JOIN (" +
+                    "  SELECT belong_id, MAX(transaction_id) as last_id " +
+                    "  FROM payment_transaction WHERE student_id = ? GROUP BY belong_id" +
+                    ") last ON t.transaction_id = last.last_id";
+
+        Map<Integer, PaymentTransaction> entries = new HashMap<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, studentId);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                PaymentTransaction entry = new PaymentTransaction();
+                entry.setTransactionId(rs.getInt("transaction_id"));
+                entry.setStudentId(studentId);
+                entry.setBelongId(rs.getInt("belong_id"));
+                entry.setSchoolYearId(rs.getInt("school_year_id"));
+                entry.setEntryType(rs.getString("entry_type"));
+                // Postings continue from these balances, so an unreadable one fails the write
+                entry.setAmount(PayableEncryptionUtil.decryptAmountForWrite(rs.getString("amount"), studentId));
+                entry.setPaidToDate(PayableEncryptionUtil.decryptAmountForWrite(rs.getString("paid_to_date"), studentId));
+                entry.setBalanceAfter(PayableEncryptionUtil.decryptAmountForWrite(rs.getString("balance_after"), studentId));
+                entry.setStatus(rs.getString("status"));
+                entry.setPostedAt(rs.getTimestamp("posted_at").toLocalDateTime());
+                entry.setCashier(rs.getString("cashier"));
+                entries.put(entry.getBelongId(), entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Append an entry continuing the belong's running balance
+     */
+    private void appendEntry(Connection conn, int studentId, BelongBalance balance, String entryType, double amount,
+                             LocalDateTime postedAt, String cashier) throws SQLException {
+        double paidToDate = balance.paidToDate + amount;
+        if ("OPENING".equals(entryType)) {
+            paidToDate = amount;
+        }
+        insertEntry(conn, studentId, balance.belongId, balance.schoolYearId, entryType, amount, paidToDate,
+                    balance.totalPayable, postedAt, cashier);
+        balance.paidToDate = paidToDate;
+        balance.changed = true;
+        if (!"OPENING".equals(entryType)) {
+            // OPENING entries have no real payment date, so they stay out of the collection buckets
+            rollupDAO.recordPosting(conn, balance.schoolYearId, balance.semester, postedAt.toLocalDate(), amount);
+        }
+    }
+
+    private void insertEntry(Connection conn, int studentId, int belongId, int schoolYearId, String entryType,
+                             double amount, double paidToDate, double totalPayable, LocalDateTime postedAt,
+                             String cashier) throws SQLException {
+        double balance = Math.max(totalPayable - paidToDate, 0);
+        String status = statusFor(paidToDate, totalPayable);
+
+        String sql = "INSERT INTO payment_transaction (student_id, belong_id, school_year_id, entry_type, amount, " +
+                    "paid_to_date, balance_after, status, posted_at, cashier) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, studentId);
+            pstmt.setInt(2, belongId);
+            pstmt.setInt(3, schoolYearId);
+            pstmt.setString(4, entryType);
+            pstmt.setString(5, PayableEncryptionUtil.encryptAmount(amount, studentId));
+            pstmt.setString(6, PayableEncryptionUtil.encryptAmount(paidToDate, studentId));
+            pstmt.setString(7, PayableEncryptionUtil.encryptAmount(balance, studentId));
+            pstmt.setString(8, status);
+            pstmt.setTimestamp(9, java.sql.Timestamp.valueOf(postedAt));
+            pstmt.setString(10, cashier);
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Most recent PAYMENT entries, newest first (walks the school year index backwards)
+     */
+    public List<models.Payment> getLatestPayments(int limit, Integer schoolYearId, String semester) {
+        List<models.Payment> payments = new ArrayList<>();
+
+        String sql = "SELECT t.transaction_id, t.student_id, t.amount, t.posted_at, t.status, " +
+                    "s.student_number, s.fullname " +
+                    "FROM payment_transaction t " +
+                    "INNER JOIN student s ON t.student_id = s.student_id " +
+                    "INNER JOIN belong b ON t.belong_id = b.belong_id " +
+                    "LEFT JOIN semester sem ON b.semester_id = sem.semester_id " +
+                    "WHERE t.entry_type = 'PAYMENT' ";
+
+        if (schoolYearId != null) {
+            sql += "AND t.school_year_id = ? ";
+        }
+        sql += semesterCondition(semester);
+        sql += "ORDER BY t.transaction_id DESC LIMIT ?";
+
+        try (Connection conn = DatabaseUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            int paramIndex = 1;
+            if (schoolYearId != null) {
+                pstmt.setInt(paramIndex++, schoolYearId);
+            }
+            pstmt.setInt(paramIndex, limit);
+
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                int studentId = rs.getInt("student_id");
+                models.Payment payment = new models.Payment();
+                payment.setId(rs.getInt("transaction_id"));
+                payment.setStudentId(studentId);
+                payment.setAmount(PayableEncryptionUtil.decryptAmount(rs.getString("amount"), studentId));
+                payment.setPaymentDate(rs.getTimestamp("posted_at").toLocalDateTime().toLocalDate());
+                payment.setStatus(rs.getString("status"));
+                payment.setNotes(String.format("OR-%08d", rs.getInt("transaction_id")));
+                payment.setStudentIdStr(rs.getString("student_number"));
+                payment.setStudentName(rs.getString("fullname"));
+                payments.add(payment);
+            }
+        } catch (SQLException e) {
+            Log.error("Error getting latest payments from ledger", e);
+        }
+
+        return payments;
+    }
+
+    private String semesterCondition(String semester) {
+        // Match semester based on which amount is set
+        if ("1st Sem".equals(semester)) {
+            return "AND sem.first_sem_amount > 0 AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL) ";
+        } else if ("2nd Sem".equals(semester)) {
+            return "AND sem.second_sem_amount > 0 AND (sem.first_sem_amount = 0 OR sem.first_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL) ";
+        } else if ("Summer Sem".equals(semester)) {
+            return "AND sem.summer_sem_amount > 0 AND (sem.first_sem_amount = 0 OR sem.first_sem_amount IS NULL) AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL) ";
+        }
+        return "";
+    }
+
+    private double sumEncryptedAmounts(String concatenated, int studentId) throws SQLException {
+        double total = 0;
+        if (concatenated != null && !concatenated.isEmpty()) {
+            for (String value : concatenated.split("\\|\\|")) {
+                if (!value.isEmpty()) {
+                    total += PayableEncryptionUtil.decryptAmountForWrite(value, studentId);
+                }
+            }
+        }
+        return total;
+    }
+}
@@ -8,6 +8,7 @@ import models.AcademicYearSemesterBalance;
 import models.PromissoryNote;
 import models.PromissoryNoteView;
 import utils.DatabaseUtil;
+import utils.Log;
 import utils.PayableEncryptionUtil;
 
 public class PromissoryNoteDAO {
@@ -82,12 +83,7 @@ public class PromissoryNoteDAO {
                 pstmt.setInt(paramIndex++, schoolYearId);
             }
             
-            System.out.println("=== PROMISSORY NOTES QUERY ===");
-            System.out.println("SQL: " + sql);
-            if (schoolYearId != null) {
-                System.out.println("School Year ID: " + schoolYearId);
-            }
-            System.out.println("Semester: " + semester);
+            Log.debug("Promissory notes query (school year " + schoolYearId + ", semester " + semester + "): " + sql);
             
             ResultSet rs = pstmt.executeQuery();
             int count = 0;
@@ -140,7 +136,7 @@ public class PromissoryNoteDAO {
                         }
                     }
                 } catch (Exception e) {
-                    System.err.println("Error decrypting amounts in PromissoryNoteDAO: " + e.getMessage());
+                    Log.warn("Error decrypting amounts in PromissoryNoteDAO", e);
                 }
                 
                 // Filter out records with zero remaining balance (since we can't filter in SQL)
@@ -185,22 +181,21 @@ public class PromissoryNoteDAO {
                 // Only add if not fully paid and has due date
                 if (view.getDueDate() != null && view.getRemainingBalance() > 0) {
                     students.add(view);
-                    System.out.println("Added student: " + view.getStudentNumber() + " - " + view.getStudentName() + 
-                                     ", Due: " + view.getDueDate() + ", Balance: " + view.getRemainingBalance() + 
-                                     ", Status: " + view.getStatus());
-                } else {
-                    System.out.println("Skipped student: " + view.getStudentNumber() + " - " + view.getStudentName() + 
-                                     " (Due: " + view.getDueDate() + ", Balance: " + view.getRemainingBalance() + ")");
+                    if (Log.isDebugEnabled()) {
+                        Log.debug("Added student: " + view.getStudentNumber() + " - " + view.getStudentName() + 
+                                  ", Due: " + view.getDueDate() + ", Balance: " + view.getRemainingBalance() + 
+                                  ", Status: " + view.getStatus());
+                    }
+                } else if (Log.isDebugEnabled()) {
+                    Log.debug("Skipped student: " + view.getStudentNumber() + " - " + view.getStudentName() + 
+                              " (Due: " + view.getDueDate() + ", Balance: " + view.getRemainingBalance() + ")");
                 }
             }
             
-            System.out.println("Total students found: " + count);
-            System.out.println("Total students added: " + students.size());
-            System.out.println("=============================");
+            Log.debug("Promissory notes: " + count + " student(s) found, " + students.size() + " added");
             
         } catch (SQLException e) {
-            System.err.println("Error getting students for promissory notes: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error getting students for promissory notes", e);
         }
         
         return students;
@@ -229,8 +224,7 @@ public class PromissoryNoteDAO {
             int rowsAffected = pstmt.executeUpdate();
             return rowsAffected > 0;
         } catch (SQLException e) {
-            System.err.println("Error saving promissory note: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error saving promissory note", e);
             return false;
         }
     }
@@ -292,7 +286,7 @@ public class PromissoryNoteDAO {
                         }
                     }
                 } catch (Exception e) {
-                    System.err.println("Error decrypting amount_paid in getUnpaidBalancesByAcademicYearAndSemester: " + e.getMessage());
+                    Log.warn("Error decrypting amount_paid in getUnpaidBalancesByAcademicYearAndSemester", e);
                 }
                 double amount = totalSemesterAmount - totalAmountPaid;
                 
@@ -320,8 +314,7 @@ public class PromissoryNoteDAO {
                 }
             }
         } catch (SQLException e) {
-            System.err.println("Error getting unpaid balances by academic year and semester: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error getting unpaid balances by academic year and semester", e);
         }
         
         return balances;
@@ -359,8 +352,7 @@ public class PromissoryNoteDAO {
                 notes.add(note);
             }
         } catch (SQLException e) {
-            System.err.println("Error getting promissory notes: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error getting promissory notes", e);
         }
         
         return notes;
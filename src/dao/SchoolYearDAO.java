@@ -4,10 +4,12 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
 import models.SchoolYear;
 import utils.DatabaseUtil;
+import utils.Log;
 
 public class SchoolYearDAO {
     
@@ -33,8 +35,7 @@ public class SchoolYearDAO {
                 schoolYears.add(sy);
             }
         } catch (SQLException e) {
-            System.err.println("Error getting all school years: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error getting all school years", e);
         }
         
         return schoolYears;
@@ -76,8 +77,7 @@ public class SchoolYearDAO {
                     }
                 }
             } catch (SQLException e2) {
-                System.err.println("Error getting active school years: " + e2.getMessage());
-                e2.printStackTrace();
+                Log.error("Error getting active school years", e2);
             }
         }
         
@@ -105,8 +105,7 @@ public class SchoolYearDAO {
                 return sy;
             }
         } catch (SQLException e) {
-            System.err.println("Error getting school year by ID: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error getting school year by ID", e);
         }
         
         return null;
@@ -133,8 +132,7 @@ public class SchoolYearDAO {
                 return sy;
             }
         } catch (SQLException e) {
-            System.err.println("Error getting school year by range: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error getting school year by range", e);
         }
         
         return null;
@@ -162,8 +160,7 @@ public class SchoolYearDAO {
                     return rowsAffected > 0;
                 }
             } catch (SQLException e2) {
-                System.err.println("Error adding school year: " + e2.getMessage());
-                e2.printStackTrace();
+                Log.error("Error adding school year", e2);
                 return false;
             }
         }
@@ -193,8 +190,7 @@ public class SchoolYearDAO {
                     return rowsAffected > 0;
                 }
             } catch (SQLException e2) {
-                System.err.println("Error updating school year: " + e2.getMessage());
-                e2.printStackTrace();
+                Log.error("Error updating school year", e2);
                 return false;
             }
         }
@@ -210,8 +206,7 @@ public class SchoolYearDAO {
             int rowsAffected = pstmt.executeUpdate();
             return rowsAffected > 0;
         } catch (SQLException e) {
-            System.err.println("Error deleting school year: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error deleting school year", e);
             return false;
         }
     }
@@ -238,11 +233,174 @@ public class SchoolYearDAO {
                 return rs.getInt("count") > 0;
             }
         } catch (SQLException e) {
-            System.err.println("Error checking if school year has students: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error checking if school year has students", e);
         }
         
         return false;
     }
+
+    /**
+     * Counts of a (dry-run or executed) enrollment rollover
+     */
+    public static class RolloverResult {
+        private final int sourceStudents;
+        private final int alreadyEnrolled;
+        private final int graduating;
+        private final int enrolled;
+        private final long elapsedMillis;
+
+        RolloverResult(int sourceStudents, int alreadyEnrolled, int graduating, int enrolled, long elapsedMillis) {
+            this.sourceStudents = sourceStudents;
+            this.alreadyEnrolled = alreadyEnrolled;
+            this.graduating = graduating;
+            this.enrolled = enrolled;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /** Active students actively enrolled in the source term */
+        public int getSourceStudents() { return sourceStudents; }
+        /** Source students already actively enrolled in the target term (left alone) */
+        public int getAlreadyEnrolled() { return alreadyEnrolled; }
+        /** Source students in 4th Year; not carried over when promoting */
+        public int getGraduating() { return graduating; }
+        /** Students enrolled in the target term (or that would be, for a dry run) */
+        public int getEnrolled() { return enrolled; }
+        public long getElapsedMillis() { return elapsedMillis; }
+    }
+
+    /**
+     * Dry run of rolloverEnrollments: same selection and counts, nothing is written
+     *
+     * @return The counts, or null on failure
+     */
+    public RolloverResult previewRollover(int fromSchoolYearId, String fromSemester,
+                                          int toSchoolYearId, String toSemester, boolean promote) {
+        return rollover(fromSchoolYearId, fromSemester, toSchoolYearId, toSemester, promote, true);
+    }
+
+    /**
+     * Copy the active enrollments of one school year and term into another.
+     * Every active student with an active belong row in the source term gets one in the target term
+     * (an inactive one there is reactivated); students already active in the target term are left alone.
+     * With promote, year levels move up one (1st to 2nd, 2nd to 3rd, 3rd to 4th) and 4th Year
+     * students are not carried over.
+     * Runs as a few set-based statements in one transaction instead of a loop per student.
+     *
+     * @return The counts, or null on failure (nothing is written then)
+     */
+    public RolloverResult rolloverEnrollments(int fromSchoolYearId, String fromSemester,
+                                              int toSchoolYearId, String toSemester, boolean promote) {
+        RolloverResult result = rollover(fromSchoolYearId, fromSemester, toSchoolYearId, toSemester, promote, false);
+        if (result != null && result.getEnrolled() > 0) {
+            // Promotion changes year levels shown in every school year
+            utils.FinancialSnapshot.invalidate(promote ? null : toSchoolYearId);
+            utils.StudentSearchIndex.invalidate(promote ? null : toSchoolYearId);
+        }
+        return result;
+    }
+
+    private RolloverResult rollover(int fromSchoolYearId, String fromSemester, int toSchoolYearId,
+                                    String toSemester, boolean promote, boolean dryRun) {
+        if (fromSchoolYearId == toSchoolYearId && fromSemester != null && fromSemester.equals(toSemester)) {
+            Log.error("Error rolling over enrollments: source and target term are the same");
+            return null;
+        }
+        long start = System.currentTimeMillis();
+
+        try (Connection conn = DatabaseUtil.getConnection()) {
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("DROP TEMPORARY TABLE IF EXISTS rollover_candidate");
+                stmt.execute("CREATE TEMPORARY TABLE rollover_candidate (" +
+                            "student_id INT PRIMARY KEY," +
+                            "year VARCHAR(50)," +
+                            "enrolled TINYINT NOT NULL DEFAULT 0" +
+                            ") ENGINE=MEMORY");
+
+                // Active students actively enrolled in the source term
+                String sourceSql = "INSERT IGNORE INTO rollover_candidate (student_id, year) " +
+                                  "SELECT s.student_id, s.year FROM student s " +
+                                  "INNER JOIN belong b ON s.student_id = b.student_id " +
+                                  "INNER JOIN semester sem ON b.semester_id = sem.semester_id " +
+                                  "WHERE b.school_year_id = ? AND COALESCE(b.status, 'active') = 'active' " +
+                                  "AND COALESCE(s.status, 'active') = 'active' " +
+                                  "AND " + PayableDAO.semesterCondition(fromSemester);
+                try (PreparedStatement pstmt = conn.prepareStatement(sourceSql)) {
+                    pstmt.setInt(1, fromSchoolYearId);
+                    pstmt.executeUpdate();
+                }
+
+                // Flag the ones already active in the target term
+                String targetSql = "UPDATE rollover_candidate r " +
+                                  "INNER JOIN belong b ON r.student_id = b.student_id " +
+                                  "INNER JOIN semester sem ON b.semester_id = sem.semester_id " +
+                                  "SET r.enrolled = 1 " +
+                                  "WHERE b.school_year_id = ? AND COALESCE(b.status, 'active') = 'active' " +
+                                  "AND " + PayableDAO.semesterCondition(toSemester);
+                try (PreparedStatement pstmt = conn.prepareStatement(targetSql)) {
+                    pstmt.setInt(1, toSchoolYearId);
+                    pstmt.executeUpdate();
+                }
+
+                String carriedOver = "enrolled = 0" + (promote ? " AND COALESCE(year, '') <> '4th Year'" : "");
+                int sourceStudents = 0;
+                int alreadyEnrolled = 0;
+                int graduating = 0;
+                int toEnroll = 0;
+                try (ResultSet rs = stmt.executeQuery(
+                        "SELECT COUNT(*), COALESCE(SUM(enrolled), 0), " +
+                        "COALESCE(SUM(COALESCE(year, '') = '4th Year'), 0), " +
+                        "COALESCE(SUM(" + carriedOver + "), 0) FROM rollover_candidate")) {
+                    if (rs.next()) {
+                        sourceStudents = rs.getInt(1);
+                        alreadyEnrolled = rs.getInt(2);
+                        graduating = rs.getInt(3);
+                        toEnroll = rs.getInt(4);
+                    }
+                }
+
+                if (!dryRun && toEnroll > 0) {
+                    int semesterId = new StudentDAO().getOrCreateSemester(conn, toSemester);
+                    String insertSql = "INSERT INTO belong (student_id, school_year_id, semester_id, status) " +
+                                      "SELECT student_id, ?, ?, 'active' FROM rollover_candidate " +
+                                      "WHERE " + carriedOver + " " +
+                                      "ON DUPLICATE KEY UPDATE status = 'active', version = version + 1";
+                    try (PreparedStatement pstmt = conn.prepareStatement(insertSql)) {
+                        pstmt.setInt(1, toSchoolYearId);
+                        pstmt.setInt(2, semesterId);
+                        pstmt.executeUpdate();
+                    }
+
+                    if (promote) {
+                        stmt.executeUpdate("UPDATE student s " +
+                                          "INNER JOIN rollover_candidate r ON s.student_id = r.student_id " +
+                                          "SET s.year = CASE s.year " +
+                                          "  WHEN '1st Year' THEN '2nd Year' " +
+                                          "  WHEN '2nd Year' THEN '3rd Year' " +
+                                          "  WHEN '3rd Year' THEN '4th Year' " +
+                                          "  ELSE s.year END " +
+                                          "WHERE r.enrolled = 0 AND COALESCE(r.year, '') <> '4th Year'");
+                    }
+                }
+
+                stmt.execute("DROP TEMPORARY TABLE IF EXISTS rollover_candidate");
+                if (dryRun) {
+                    conn.rollback();
+                } else {
+                    conn.commit();
+                }
+                return new RolloverResult(sourceStudents, alreadyEnrolled, graduating, toEnroll,
+                                          System.currentTimeMillis() - start);
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            Log.error("Error rolling over enrollments", e);
+            return null;
+        }
+    }
 }
 
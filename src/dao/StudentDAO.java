@@ -2,6 +2,8 @@ package dao;
 
 import models.Student;
 import utils.DatabaseUtil;
+import utils.Log;
+import utils.StudentSearchIndex;
 
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
@@ -13,6 +15,15 @@ import java.util.List;
 
 public class StudentDAO {
     
+    /** Columns covered by the ft_student_search FULLTEXT index (same order as the index definition) */
+    private static final String STUDENT_SEARCH_COLUMNS = "s.student_number, s.first_name, s.middle_name, s.last_name, s.fullname";
+    
+    /** Student ids per IN list when re-reading changed rows */
+    private static final int ID_CHUNK = 1000;
+    
+    /** Cached result of the FULLTEXT index check; null until the index is found */
+    private static volatile Boolean studentSearchIndexExists = null;
+    
     /**
      * Check if a column exists in the student table
      */
@@ -39,20 +50,106 @@ public class StudentDAO {
     }
     
     /**
-     * Get all students using stored procedure (more efficient)
+     * Get all students with the direct query, the same one the delta and count reads of
+     * utils.SnapshotStore are built from (sp_get_students filters differently)
      */
     public List<Student> getAllStudents(Integer schoolYearId, String status, String semester) {
-        // Try using stored procedure first
-        try {
-            return getAllStudentsUsingProcedure(schoolYearId, status, semester, null, null, null);
-        } catch (Exception e) {
-            // Fallback to direct query
-            System.err.println("Warning: Could not use sp_get_students procedure, falling back to direct query: " + e.getMessage());
-        }
-        
+        List<Object> params = new ArrayList<>();
+        String sql = allStudentsSql(schoolYearId, status, semester, params);
+        return queryStudents(sql, params, "Error getting all students");
+    }
+    
+    /**
+     * Active students of a school year for utils.StudentSearchIndex
+     */
+    public List<Student> getSearchableStudents(Integer schoolYearId) {
+        List<Object> params = new ArrayList<>();
+        String sql = allStudentsSql(schoolYearId, null, null, params);
+        return queryStudents(sql, params, "Error loading students for search");
+    }
+    
+    /**
+     * Rows of getAllStudents(schoolYearId, status, semester) for the given students only,
+     * used to bring a cached copy of the list up to date (see utils.SnapshotStore)
+     */
+    public List<Student> getAllStudents(Integer schoolYearId, String status, String semester,
+                                        java.util.Collection<Integer> studentIds) {
         List<Student> students = new ArrayList<>();
-        String sql;
+        List<Integer> ids = new ArrayList<>(studentIds);
+        for (int from = 0; from < ids.size(); from += ID_CHUNK) {
+            List<Integer> chunk = ids.subList(from, Math.min(ids.size(), from + ID_CHUNK));
+            List<Object> params = new ArrayList<>();
+            String sql = "SELECT * FROM (" + allStudentsSql(schoolYearId, status, semester, params) + ") listed " +
+                         "WHERE listed.student_id IN (" + String.join(",", java.util.Collections.nCopies(chunk.size(), "?")) + ")";
+            params.addAll(chunk);
+            students.addAll(queryStudents(sql, params, "Error getting changed students"));
+        }
+        return students;
+    }
+    
+    /**
+     * Number of rows getAllStudents(schoolYearId, status, semester) returns, counted on the server
+     * @return The count, or -1 on error
+     */
+    public int countAllStudents(Integer schoolYearId, String status, String semester) {
         List<Object> params = new ArrayList<>();
+        String sql = "SELECT COUNT(*) FROM (" + allStudentsSql(schoolYearId, status, semester, params) + ") listed";
+        try (Connection conn = DatabaseUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < params.size(); i++) {
+                pstmt.setObject(i + 1, params.get(i));
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        } catch (SQLException e) {
+            Log.error("Error counting students", e);
+            return -1;
+        }
+    }
+    
+    /**
+     * Students of a school year whose student, enrollment or payable rows changed at or after the
+     * given server time (updated_at columns; deleting a payable touches its belong row)
+     * @return The student ids, or null on error
+     */
+    public java.util.Set<Integer> getStudentIdsChangedSince(int schoolYearId, java.sql.Timestamp since) {
+        String sql = "SELECT s.student_id FROM student s " +
+                     "WHERE s.updated_at >= ? AND (s.school_year_id = ? OR EXISTS " +
+                     "(SELECT 1 FROM belong b WHERE b.student_id = s.student_id AND b.school_year_id = ?)) " +
+                     "UNION " +
+                     "SELECT b.student_id FROM belong b WHERE b.school_year_id = ? AND b.updated_at >= ? " +
+                     "UNION " +
+                     "SELECT b.student_id FROM student_payables sp " +
+                     "INNER JOIN belong b ON b.belong_id = sp.belong_id " +
+                     "WHERE b.school_year_id = ? AND sp.updated_at >= ?";
+        java.util.Set<Integer> changed = new java.util.HashSet<>();
+        try (Connection conn = DatabaseUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setTimestamp(1, since);
+            pstmt.setInt(2, schoolYearId);
+            pstmt.setInt(3, schoolYearId);
+            pstmt.setInt(4, schoolYearId);
+            pstmt.setTimestamp(5, since);
+            pstmt.setInt(6, schoolYearId);
+            pstmt.setTimestamp(7, since);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    changed.add(rs.getInt(1));
+                }
+            }
+            return changed;
+        } catch (SQLException e) {
+            Log.error("Error getting changed students", e);
+            return null;
+        }
+    }
+    
+    /**
+     * Direct query behind getAllStudents; appends its parameters to params
+     */
+    private String allStudentsSql(Integer schoolYearId, String status, String semester, List<Object> params) {
+        String sql;
         
         if (schoolYearId != null) {
             // If semester is specified, use INNER JOIN to only get students with belong records for that semester
@@ -170,7 +267,11 @@ public class StudentDAO {
         }
         
         sql += " ORDER BY s.student_id DESC";
-        
+        return sql;
+    }
+    
+    private List<Student> queryStudents(String sql, List<Object> params, String errorMessage) {
+        List<Student> students = new ArrayList<>();
         try (Connection conn = DatabaseUtil.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             
@@ -190,68 +291,7 @@ public class StudentDAO {
                 }
             }
         } catch (SQLException e) {
-            System.err.println("Error getting all students: " + e.getMessage());
-            e.printStackTrace();
-        }
-        
-        return students;
-    }
-    
-    /**
-     * Get all students using stored procedure
-     */
-    private List<Student> getAllStudentsUsingProcedure(
-            Integer schoolYearId, String status, String semester, 
-            String searchTerm, String year, String major) {
-        List<Student> students = new ArrayList<>();
-        // Use a Set to track student IDs we've already added to prevent duplicates
-        java.util.Set<Integer> addedStudentIds = new java.util.HashSet<>();
-        
-        try (Connection conn = DatabaseUtil.getConnection();
-             java.sql.CallableStatement cstmt = conn.prepareCall("{CALL sp_get_students(?, ?, ?, ?, ?, ?)}")) {
-            
-            cstmt.setObject(1, schoolYearId);
-            cstmt.setString(2, status);
-            cstmt.setString(3, semester);
-            cstmt.setString(4, searchTerm);
-            cstmt.setString(5, year);
-            cstmt.setString(6, major);
-            
-            ResultSet rs = cstmt.executeQuery();
-            while (rs.next()) {
-                int studentId = rs.getInt("student_id");
-                
-                // Only add if we haven't seen this student_id before
-                if (!addedStudentIds.contains(studentId)) {
-                    Student student = new Student();
-                    student.setStudentId(studentId);
-                    student.setStudentNumber(rs.getString("student_number"));
-                    student.setFirstName(rs.getString("first_name"));
-                    student.setMiddleName(rs.getString("middle_name"));
-                    student.setLastName(rs.getString("last_name"));
-                    // Fullname is auto-generated from first/middle/last name, so we don't set it directly
-                    student.setMajor(rs.getString("major"));
-                    student.setYear(rs.getString("year"));
-                    student.setStatus(rs.getString("student_status"));
-                    
-                    // Set semester from result
-                    String semesterName = rs.getString("semester_name");
-                    if (semesterName != null && !semesterName.isEmpty()) {
-                        student.setSemester(semesterName);
-                    }
-                    
-                    // Set school year ID
-                    Integer syId = rs.getInt("school_year_id");
-                    if (!rs.wasNull()) {
-                        student.setSchoolYearId(syId);
-                    }
-                    
-                    students.add(student);
-                    addedStudentIds.add(studentId);
-                }
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException("Error getting students from procedure", e);
+            Log.error(errorMessage, e);
         }
         
         return students;
@@ -375,9 +415,173 @@ public class StudentDAO {
     }
     
     public List<Student> searchStudents(String searchTerm, String year, String major, Integer schoolYearId, String status, String semester) {
+        return runStudentSearch(searchTerm, year, major, schoolYearId, status, semester, 0, 0, true);
+    }
+    
+    /**
+     * Search one page of students, ranked by FULLTEXT relevance when the search index exists
+     * @param page 1-based page number
+     */
+    public List<Student> searchStudentsPage(String searchTerm, String year, String major, Integer schoolYearId,
+                                            String status, String semester, int page, int pageSize) {
+        int offset = Math.max(page - 1, 0) * pageSize;
+        return runStudentSearch(searchTerm, year, major, schoolYearId, status, semester, offset, pageSize, true);
+    }
+    
+    /**
+     * Number of students searchStudents(searchTerm, year, major, schoolYearId, status, semester) finds,
+     * counted on the server (the total for searchStudentsPage)
+     * @return The count, or -1 on error
+     */
+    public int countStudentSearch(String searchTerm, String year, String major, Integer schoolYearId,
+                                  String status, String semester) {
+        return countStudentSearch(searchTerm, year, major, schoolYearId, status, semester, true);
+    }
+    
+    private int countStudentSearch(String searchTerm, String year, String major, Integer schoolYearId,
+                                   String status, String semester, boolean useFulltext) {
+        String fulltextQuery = useFulltext ? fulltextQueryFor(searchTerm) : null;
+        List<Object> params = new ArrayList<>();
+        String sql = "SELECT COUNT(*) FROM (" +
+                     studentSearchSql(searchTerm, fulltextQuery, year, major, schoolYearId, status, semester, params) +
+                     ") matched";
+        
+        try (Connection conn = DatabaseUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < params.size(); i++) {
+                pstmt.setObject(i + 1, params.get(i));
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        } catch (SQLException e) {
+            if (fulltextQuery != null) {
+                Log.warn("FULLTEXT student search failed, falling back to LIKE search", e);
+                studentSearchIndexExists = null;
+                return countStudentSearch(searchTerm, year, major, schoolYearId, status, semester, false);
+            }
+            Log.error("Error counting students", e);
+            return -1;
+        }
+    }
+    
+    /**
+     * Check whether the ft_student_search FULLTEXT index has been built.
+     * Only a positive answer is cached, so a missing index or a failed check is looked up again
+     * on the next search; a FULLTEXT query that fails clears the cache.
+     */
+    private boolean hasStudentSearchIndex() {
+        Boolean exists = studentSearchIndexExists;
+        if (exists != null) {
+            return exists;
+        }
+        String sql = "SELECT COUNT(*) FROM information_schema.STATISTICS " +
+                     "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'student' AND INDEX_NAME = 'ft_student_search'";
+        try (Connection conn = DatabaseUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql);
+             ResultSet rs = pstmt.executeQuery()) {
+            if (rs.next() && rs.getInt(1) > 0) {
+                studentSearchIndexExists = true;
+                return true;
+            }
+        } catch (SQLException e) {
+            Log.warn("Could not check for the student FULLTEXT index", e);
+        }
+        return false;
+    }
+    
+    /**
+     * The FULLTEXT query for a search term, or null when the LIKE search must be used
+     */
+    private String fulltextQueryFor(String searchTerm) {
+        if (searchTerm != null && !searchTerm.trim().isEmpty() && hasStudentSearchIndex()) {
+            return toFulltextQuery(searchTerm);
+        }
+        return null;
+    }
+    
+    /**
+     * Build a boolean-mode FULLTEXT query where every word is required and prefix-matched.
+     * Returns null when a word is shorter than the InnoDB minimum token size (3),
+     * since FULLTEXT cannot find it and the LIKE search must be used instead.
+     */
+    private String toFulltextQuery(String searchTerm) {
+        StringBuilder query = new StringBuilder();
+        for (String word : searchTerm.trim().split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (word.length() < 3) {
+                return null;
+            }
+            if (query.length() > 0) {
+                query.append(' ');
+            }
+            query.append('+').append(word).append('*');
+        }
+        return query.length() > 0 ? query.toString() : null;
+    }
+    
+    private List<Student> runStudentSearch(String searchTerm, String year, String major, Integer schoolYearId,
+                                           String status, String semester, int offset, int limit,
+                                           boolean useFulltext) {
         List<Student> students = new ArrayList<>();
-        StringBuilder sql;
+        String fulltextQuery = useFulltext ? fulltextQueryFor(searchTerm) : null;
         List<Object> params = new ArrayList<>();
+        StringBuilder sql = new StringBuilder(
+                studentSearchSql(searchTerm, fulltextQuery, year, major, schoolYearId, status, semester, params));
+        
+        if (fulltextQuery != null) {
+            sql.append(" ORDER BY relevance DESC, s.student_id DESC");
+        } else {
+            sql.append(" ORDER BY s.student_id DESC");
+        }
+        
+        if (limit > 0) {
+            sql.append(" LIMIT ? OFFSET ?");
+            params.add(limit);
+            params.add(offset);
+        }
+        
+        try (Connection conn = DatabaseUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql.toString())) {
+            
+            for (int i = 0; i < params.size(); i++) {
+                pstmt.setObject(i + 1, params.get(i));
+            }
+            
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                Student student = mapResultSetToStudent(rs);
+                students.add(student);
+            }
+        } catch (SQLException e) {
+            if (fulltextQuery != null) {
+                // Index dropped or unusable; answer with the LIKE search and check the index again next time
+                Log.warn("FULLTEXT student search failed, falling back to LIKE search", e);
+                studentSearchIndexExists = null;
+                return runStudentSearch(searchTerm, year, major, schoolYearId, status, semester, offset, limit, false);
+            }
+            Log.error("Error searching students", e);
+        }
+        
+        return students;
+    }
+    
+    /**
+     * The filtered student search, without ordering or paging
+     * @param fulltextQuery FULLTEXT query for the search term, or null to match it with LIKE
+     */
+    private String studentSearchSql(String searchTerm, String fulltextQuery, String year, String major,
+                                    Integer schoolYearId, String status, String semester, List<Object> params) {
+        StringBuilder sql;
+        
+        // With the FULLTEXT index, relevance is selected for ordering; its parameter comes first
+        String studentColumns = "s.*, ";
+        if (fulltextQuery != null) {
+            studentColumns += "MATCH(" + STUDENT_SEARCH_COLUMNS + ") AGAINST (? IN BOOLEAN MODE) AS relevance, ";
+            params.add(fulltextQuery);
+        }
         
         if (schoolYearId != null) {
             // If semester is specified, use INNER JOIN to only get students with belong records for that semester
@@ -385,7 +589,7 @@ public class StudentDAO {
             if (semester != null && !semester.trim().isEmpty()) {
                 // Use LEFT JOIN to show all students, but filter by semester for those who have belong records
                 // This shows: 1) Students enrolled in the selected semester, 2) Students without belong records yet
-                sql = new StringBuilder("SELECT DISTINCT s.*, COALESCE(b.school_year_id, s.school_year_id) as belong_school_year_id, " +
+                sql = new StringBuilder("SELECT DISTINCT " + studentColumns + "COALESCE(b.school_year_id, s.school_year_id) as belong_school_year_id, " +
                         "COALESCE(b.status, 'active') as belong_status, " +
                         "CASE " +
                         "  WHEN sem.first_sem_amount > 0 AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL) THEN '1st Sem' " +
@@ -420,7 +624,7 @@ public class StudentDAO {
                 }
             } else {
                 // Use LEFT JOIN when no semester filter to include all students
-                sql = new StringBuilder("SELECT DISTINCT s.*, COALESCE(b.school_year_id, s.school_year_id) as belong_school_year_id, " +
+                sql = new StringBuilder("SELECT DISTINCT " + studentColumns + "COALESCE(b.school_year_id, s.school_year_id) as belong_school_year_id, " +
                         "COALESCE(b.status, 'active') as belong_status, " +
                         "CASE " +
                         "  WHEN sem.first_sem_amount > 0 AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL) THEN '1st Sem' " +
@@ -446,7 +650,7 @@ public class StudentDAO {
                 }
             }
         } else {
-            sql = new StringBuilder("SELECT s.*, " +
+            sql = new StringBuilder("SELECT " + studentColumns +
                     "COALESCE(b.status, 'active') as belong_status, " +
                     "CASE " +
                     "  WHEN sem.first_sem_amount > 0 AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL) THEN '1st Sem' " +
@@ -469,7 +673,11 @@ public class StudentDAO {
             }
         }
         
-        if (searchTerm != null && !searchTerm.trim().isEmpty()) {
+        if (fulltextQuery != null) {
+            // Use the FULLTEXT index
+            sql.append(" AND MATCH(" + STUDENT_SEARCH_COLUMNS + ") AGAINST (? IN BOOLEAN MODE)");
+            params.add(fulltextQuery);
+        } else if (searchTerm != null && !searchTerm.trim().isEmpty()) {
             // Search across student_number and concatenated name fields
             sql.append(" AND (s.student_number LIKE ? OR " +
                       "CONCAT(COALESCE(s.first_name, ''), ' ', COALESCE(s.middle_name, ''), ' ', COALESCE(s.last_name, '')) LIKE ? OR " +
@@ -505,26 +713,7 @@ public class StudentDAO {
         // Note: When schoolYearId is not null and semester is specified, 
         // the semester filter is already applied in the WHERE clause above using INNER JOIN
         
-        sql.append(" ORDER BY s.student_id DESC");
-        
-        try (Connection conn = DatabaseUtil.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql.toString())) {
-            
-            for (int i = 0; i < params.size(); i++) {
-                pstmt.setObject(i + 1, params.get(i));
-            }
-            
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                Student student = mapResultSetToStudent(rs);
-                students.add(student);
-            }
-        } catch (SQLException e) {
-            System.err.println("Error searching students: " + e.getMessage());
-            e.printStackTrace();
-        }
-        
-        return students;
+        return sql.toString();
     }
     
     public Student getStudentById(int studentId) {
@@ -540,8 +729,7 @@ public class StudentDAO {
                 return mapResultSetToStudent(rs);
             }
         } catch (SQLException e) {
-            System.err.println("Error getting student by ID: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error getting student by ID", e);
         }
         
         return null;
@@ -560,8 +748,7 @@ public class StudentDAO {
                 return mapResultSetToStudent(rs);
             }
         } catch (SQLException e) {
-            System.err.println("Error getting student by number: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error getting student by number", e);
         }
         
         return null;
@@ -589,8 +776,7 @@ public class StudentDAO {
                     return rs.getInt("count") > 0;
                 }
             } catch (SQLException e) {
-                System.err.println("Error checking if student exists: " + e.getMessage());
-                e.printStackTrace();
+                Log.error("Error checking if student exists", e);
             }
             return false;
         }
@@ -625,8 +811,7 @@ public class StudentDAO {
                 return rs.getInt("count") > 0;
             }
         } catch (SQLException e) {
-            System.err.println("Error checking if student exists in school year: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error checking if student exists in school year", e);
         }
         
         return false;
@@ -651,8 +836,7 @@ public class StudentDAO {
                     return rs.getInt("count") > 0;
                 }
             } catch (SQLException e) {
-                System.err.println("Error checking if student name exists: " + e.getMessage());
-                e.printStackTrace();
+                Log.error("Error checking if student name exists", e);
             }
             return false;
         }
@@ -683,8 +867,7 @@ public class StudentDAO {
                 return rs.getInt("count") > 0;
             }
         } catch (SQLException e) {
-            System.err.println("Error checking if student name exists in school year: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error checking if student name exists in school year", e);
         }
 
         return false;
@@ -709,8 +892,7 @@ public class StudentDAO {
                 return rs.getInt("count") > 0;
             }
         } catch (SQLException e) {
-            System.err.println("Error checking if student ID exists: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error checking if student ID exists", e);
         }
         
         return false;
@@ -735,8 +917,7 @@ public class StudentDAO {
                 return rs.getInt("count") > 0;
             }
         } catch (SQLException e) {
-            System.err.println("Error checking if student ID exists for another student: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error checking if student ID exists for another student", e);
         }
         
         return false;
@@ -777,8 +958,7 @@ public class StudentDAO {
                 return rs.getInt("count") > 0;
             }
         } catch (SQLException e) {
-            System.err.println("Error checking if full name exists for another student: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error checking if full name exists for another student", e);
         }
         
         return false;
@@ -839,8 +1019,7 @@ public class StudentDAO {
                 }
             }
         } catch (SQLException e) {
-            System.err.println("Error checking if full name exists for school year and semester: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error checking if full name exists for school year and semester", e);
         }
         
         return false;
@@ -882,8 +1061,7 @@ public class StudentDAO {
                 }
             }
         } catch (SQLException e) {
-            System.err.println("Error checking if student ID exists in semester and school year: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error checking if student ID exists in semester and school year", e);
         }
         
         return false;
@@ -927,8 +1105,7 @@ public class StudentDAO {
                 }
             }
         } catch (SQLException e) {
-            System.err.println("Error checking if student ID exists in semester and school year for another student: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error checking if student ID exists in semester and school year for another student", e);
         }
         
         return false;
@@ -969,8 +1146,7 @@ public class StudentDAO {
                 }
             }
         } catch (SQLException e) {
-            System.err.println("Error getting student by student ID in semester and school year: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error getting student by student ID in semester and school year", e);
         }
         
         return null;
@@ -994,8 +1170,7 @@ public class StudentDAO {
                 return mapResultSetToStudent(rs);
             }
         } catch (SQLException e) {
-            System.err.println("Error getting student by student ID: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error getting student by student ID", e);
         }
         
         return null;
@@ -1042,8 +1217,7 @@ public class StudentDAO {
                 }
             }
         } catch (SQLException e) {
-            System.err.println("Error checking if student exists by full name and ID: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error checking if student exists by full name and ID", e);
         }
         
         return false;
@@ -1090,8 +1264,7 @@ public class StudentDAO {
                 }
             }
         } catch (SQLException e) {
-            System.err.println("Error getting student by full name and ID: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error getting student by full name and ID", e);
         }
         
         return null;
@@ -1154,8 +1327,7 @@ public class StudentDAO {
                 }
             }
         } catch (SQLException e) {
-            System.err.println("Error checking if student exists with year, program, and semester: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error checking if student exists with year, program, and semester", e);
         }
         
         return false;
@@ -1218,23 +1390,206 @@ public class StudentDAO {
                 }
             }
         } catch (SQLException e) {
-            System.err.println("Error checking if student exists deactivated: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error checking if student exists deactivated", e);
         }
         
         return false;
     }
     
+    /**
+     * How a candidate student relates to existing records, most blocking first
+     */
+    public enum IdentityStatus {
+        /** Same full name already actively enrolled in the candidate's school year and semester */
+        NAME_IN_TERM,
+        /** Same student ID already actively enrolled in the candidate's school year and semester */
+        ID_IN_TERM,
+        /** Same student ID, name, year and program enrolled in that semester but deactivated */
+        DEACTIVATED_IN_TERM,
+        /** Student ID belongs to an active student enrolled elsewhere */
+        ID_EXISTS,
+        /** No existing record matches */
+        NEW
+    }
+
+    /**
+     * Result of resolveIdentities for one candidate
+     */
+    public static class IdentityMatch {
+        static final IdentityMatch NONE = new IdentityMatch(null, false, false, false);
+
+        private final Integer existingStudentId;
+        private final boolean idInTerm;
+        private final boolean nameInTerm;
+        private final boolean deactivatedInTerm;
+
+        IdentityMatch(Integer existingStudentId, boolean idInTerm, boolean nameInTerm, boolean deactivatedInTerm) {
+            this.existingStudentId = existingStudentId;
+            this.idInTerm = idInTerm;
+            this.nameInTerm = nameInTerm;
+            this.deactivatedInTerm = deactivatedInTerm;
+        }
+
+        /** student_id of the active student using the candidate's student ID, or null */
+        public Integer getExistingStudentId() { return existingStudentId; }
+        public boolean isIdExists() { return existingStudentId != null; }
+        public boolean isIdInTerm() { return idInTerm; }
+        public boolean isNameInTerm() { return nameInTerm; }
+        public boolean isDeactivatedInTerm() { return deactivatedInTerm; }
+
+        public IdentityStatus getStatus() {
+            if (nameInTerm) return IdentityStatus.NAME_IN_TERM;
+            if (idInTerm) return IdentityStatus.ID_IN_TERM;
+            if (deactivatedInTerm) return IdentityStatus.DEACTIVATED_IN_TERM;
+            if (existingStudentId != null) return IdentityStatus.ID_EXISTS;
+            return IdentityStatus.NEW;
+        }
+    }
+
+    /** Candidates per multi-row INSERT into the identity_candidate temporary table */
+    private static final int IDENTITY_CHUNK_SIZE = 500;
+
+    /**
+     * resolveIdentities for a single student (add form validation)
+     */
+    public IdentityMatch resolveIdentity(Student candidate) {
+        return resolveIdentities(java.util.Collections.singletonList(candidate)).get(0);
+    }
+
+    /**
+     * Classify a batch of candidate students against existing records in one pass.
+     * Does the work of studentIdExists, studentIdExistsInSemesterAndSchoolYear,
+     * fullNameExistsForSchoolYearAndSemester and studentExistsDeactivated for every candidate:
+     * the candidates go into a temporary table and a single query joins them against student
+     * (student_number and the indexed name_key) and belong, instead of 4+ queries per student.
+     * Each candidate is checked against its own school year and semester.
+     *
+     * @return One match per candidate, in the same order (all NEW if the check fails)
+     */
+    public List<IdentityMatch> resolveIdentities(List<Student> candidates) {
+        List<IdentityMatch> matches = new ArrayList<>(candidates.size());
+        for (int i = 0; i < candidates.size(); i++) {
+            matches.add(IdentityMatch.NONE);
+        }
+        if (candidates.isEmpty()) {
+            return matches;
+        }
+
+        String inTerm = "AND b.school_year_id = c.school_year_id AND (" +
+                        "(c.semester = '1st Sem' AND " + PayableDAO.semesterCondition("1st Sem") + ") OR " +
+                        "(c.semester = '2nd Sem' AND " + PayableDAO.semesterCondition("2nd Sem") + ") OR " +
+                        "(c.semester = 'Summer Sem' AND " + PayableDAO.semesterCondition("Summer Sem") + ")) ";
+        String enrollment = "FROM student s " +
+                           "INNER JOIN belong b ON s.student_id = b.student_id " +
+                           "INNER JOIN semester sem ON b.semester_id = sem.semester_id ";
+        String sql = "SELECT c.idx, " +
+                    "(SELECT MIN(s.student_id) FROM student s WHERE s.student_number = c.student_number " +
+                    " AND COALESCE(s.status, 'active') = 'active') AS existing_id, " +
+                    "EXISTS (SELECT 1 " + enrollment +
+                    " WHERE s.student_number = c.student_number " + inTerm +
+                    " AND COALESCE(s.status, 'active') = 'active' AND COALESCE(b.status, 'active') = 'active') AS id_in_term, " +
+                    "EXISTS (SELECT 1 " + enrollment +
+                    " WHERE c.name_key <> '' AND s.name_key = c.name_key " + inTerm +
+                    " AND COALESCE(s.status, 'active') = 'active' AND COALESCE(b.status, 'active') = 'active') AS name_in_term, " +
+                    "EXISTS (SELECT 1 " + enrollment +
+                    " WHERE s.student_number = c.student_number AND s.name_key = c.name_key " +
+                    " AND COALESCE(s.year, '') = c.year AND COALESCE(s.major, '') = c.major " + inTerm +
+                    " AND COALESCE(b.status, 'active') = 'deactivated') AS deactivated_in_term " +
+                    "FROM identity_candidate c";
+
+        try (Connection conn = DatabaseUtil.getConnection();
+             java.sql.Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TEMPORARY TABLE IF EXISTS identity_candidate");
+            stmt.execute("CREATE TEMPORARY TABLE identity_candidate (" +
+                        "idx INT PRIMARY KEY," +
+                        "student_number VARCHAR(50)," +
+                        "name_key VARCHAR(310)," +
+                        "year VARCHAR(20)," +
+                        "major VARCHAR(100)," +
+                        "school_year_id INT," +
+                        "semester VARCHAR(20)" +
+                        ") ENGINE=MEMORY DEFAULT CHARSET=utf8mb4");
+            try {
+                for (int start = 0; start < candidates.size(); start += IDENTITY_CHUNK_SIZE) {
+                    int end = Math.min(start + IDENTITY_CHUNK_SIZE, candidates.size());
+                    StringBuilder insert = new StringBuilder("INSERT INTO identity_candidate VALUES ");
+                    for (int i = start; i < end; i++) {
+                        insert.append(i > start ? ", " : "").append("(?, ?, ?, ?, ?, ?, ?)");
+                    }
+                    try (PreparedStatement pstmt = conn.prepareStatement(insert.toString())) {
+                        int p = 1;
+                        for (int i = start; i < end; i++) {
+                            Student candidate = candidates.get(i);
+                            pstmt.setInt(p++, i);
+                            pstmt.setString(p++, candidate.getStudentNumber() != null ? candidate.getStudentNumber().trim() : "");
+                            pstmt.setString(p++, nameKey(candidate));
+                            pstmt.setString(p++, candidate.getYear() != null ? candidate.getYear() : "");
+                            pstmt.setString(p++, candidate.getMajor() != null ? candidate.getMajor() : "");
+                            pstmt.setObject(p++, candidate.getSchoolYearId(), java.sql.Types.INTEGER);
+                            pstmt.setString(p++, candidate.getSemester());
+                        }
+                        pstmt.executeUpdate();
+                    }
+                }
+
+                try (ResultSet rs = stmt.executeQuery(sql)) {
+                    while (rs.next()) {
+                        int existingId = rs.getInt("existing_id");
+                        matches.set(rs.getInt("idx"), new IdentityMatch(
+                            rs.wasNull() ? null : existingId,
+                            rs.getBoolean("id_in_term"),
+                            rs.getBoolean("name_in_term"),
+                            rs.getBoolean("deactivated_in_term")));
+                    }
+                }
+            } finally {
+                stmt.execute("DROP TEMPORARY TABLE IF EXISTS identity_candidate");
+            }
+        } catch (SQLException e) {
+            Log.error("Error resolving student identities", e);
+        }
+
+        return matches;
+    }
+
+    /**
+     * Same normalization as the student.name_key column: trimmed non-empty
+     * first, middle and last name joined by single spaces, lower case
+     */
+    private static String nameKey(Student student) {
+        StringBuilder key = new StringBuilder();
+        for (String part : new String[] {student.getFirstName(), student.getMiddleName(), student.getLastName()}) {
+            if (part != null && !part.trim().isEmpty()) {
+                if (key.length() > 0) key.append(" ");
+                key.append(part.trim());
+            }
+        }
+        if (key.length() == 0 && student.getFullname() != null) {
+            key.append(student.getFullname().trim());
+        }
+        return key.toString().toLowerCase();
+    }
+
     /**
      * Add student using stored procedure (more efficient)
      */
     public boolean addStudent(Student student) {
+        boolean added = insertStudent(student);
+        if (added) {
+            // New rows have no id here; let the search index rebuild for that school year
+            StudentSearchIndex.invalidate(student.getSchoolYearId());
+            utils.DashboardSummary.markDirty(student.getSchoolYearId());
+        }
+        return added;
+    }
+    
+    private boolean insertStudent(Student student) {
         // Try using stored procedure first
         try {
             return addStudentUsingProcedure(student);
         } catch (Exception e) {
             // Fallback to direct query
-            System.err.println("Warning: Could not use sp_add_student procedure, falling back to direct query: " + e.getMessage());
+            Log.warn("Could not use sp_add_student procedure, falling back to direct query", e);
         }
         
         // Support both old schema (fullname, dep, college) and new schema (first_name, middle_name, last_name)
@@ -1279,7 +1634,7 @@ public class StudentDAO {
                         // Ensure school year and semester are provided for the new enrollment
                         if (student.getSchoolYearId() == null || student.getSemester() == null || student.getSemester().trim().isEmpty()) {
                         conn.rollback();
-                            System.err.println("Error: School year or semester missing for additional enrollment.");
+                            Log.error("School year or semester missing for additional enrollment.");
                             return false;
                         }
 
@@ -1297,7 +1652,7 @@ public class StudentDAO {
                                 if ("active".equalsIgnoreCase(status)) {
                                     // Already active in this year+semester -> block
                                     conn.rollback();
-                                    System.err.println("Error: Duplicate enrollment for same school year and semester.");
+                                    Log.error("Duplicate enrollment for same school year and semester.");
                         return false;
                                 } else {
                                     // Reactivate existing belong record
@@ -1408,8 +1763,7 @@ public class StudentDAO {
                 conn.setAutoCommit(true);
             }
         } catch (SQLException e) {
-            System.err.println("Error adding student: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error adding student", e);
             return false;
         }
     }
@@ -1418,7 +1772,7 @@ public class StudentDAO {
      * Get or create a semester based on the semester name (1st Sem, 2nd Sem, Summer Sem)
      * Creates a semester record with the appropriate amount set (> 0) for the selected semester
      */
-    private int getOrCreateSemester(Connection conn, String semester) throws SQLException {
+    int getOrCreateSemester(Connection conn, String semester) throws SQLException {
         if (semester == null || semester.trim().isEmpty()) {
             // If no semester specified, use default (all zeros)
             return getOrCreateDefaultSemester(conn);
@@ -1499,12 +1853,20 @@ public class StudentDAO {
      * Update student using stored procedure (more efficient)
      */
     public boolean updateStudent(Student student) {
+        boolean updated = writeStudentUpdate(student);
+        if (updated) {
+            StudentSearchIndex.upsert(student);
+        }
+        return updated;
+    }
+    
+    private boolean writeStudentUpdate(Student student) {
         // Try using stored procedure first
         try {
             return updateStudentUsingProcedure(student);
         } catch (Exception e) {
             // Fallback to direct query
-            System.err.println("Warning: Could not use sp_update_student procedure, falling back to direct query: " + e.getMessage());
+            Log.warn("Could not use sp_update_student procedure, falling back to direct query", e);
         }
         
         // Support both old schema (fullname, dep, college) and new schema (first_name, middle_name, last_name)
@@ -1578,8 +1940,7 @@ public class StudentDAO {
                 conn.setAutoCommit(true);
             }
         } catch (SQLException e) {
-            System.err.println("Error updating student: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error updating student", e);
             return false;
         }
     }
@@ -1690,8 +2051,7 @@ public class StudentDAO {
                 conn.setAutoCommit(true);
             }
         } catch (SQLException e) {
-            System.err.println("Error syncing belong records: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error syncing belong records", e);
         }
         
         return count;
@@ -1727,7 +2087,7 @@ public class StudentDAO {
             }
             
             if (semesterId == -1) {
-                System.err.println("Error: Could not find belong record with semester: " + semester);
+                Log.error("Could not find belong record with semester: " + semester);
                 return false;
             }
             
@@ -1740,11 +2100,14 @@ public class StudentDAO {
                 pstmt.setInt(2, schoolYearId);
                 pstmt.setInt(3, semesterId);
                 int rowsAffected = pstmt.executeUpdate();
+                if (rowsAffected > 0) {
+                    StudentSearchIndex.invalidate(schoolYearId);
+                    utils.FinancialSnapshot.onPaymentChanged(schoolYearId, studentId);
+                }
                 return rowsAffected > 0;
             }
         } catch (SQLException e) {
-            System.err.println("Error deactivating belong record: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error deactivating belong record", e);
             return false;
         }
     }
@@ -1792,12 +2155,21 @@ public class StudentDAO {
      * Deactivate student using stored procedure (more efficient)
      */
     public boolean deactivateStudent(int studentId) {
+        boolean deactivated = writeStudentDeactivation(studentId);
+        if (deactivated) {
+            StudentSearchIndex.remove(studentId);
+            utils.FinancialSnapshot.onPaymentChanged(null, studentId);
+        }
+        return deactivated;
+    }
+    
+    private boolean writeStudentDeactivation(int studentId) {
         // Try using stored procedure first
         try {
             return deactivateStudentUsingProcedure(studentId);
         } catch (Exception e) {
             // Fallback to direct query
-            System.err.println("Warning: Could not use sp_deactivate_student procedure, falling back to direct query: " + e.getMessage());
+            Log.warn("Could not use sp_deactivate_student procedure, falling back to direct query", e);
         }
         
         if (!columnExists("status")) {
@@ -1815,8 +2187,7 @@ public class StudentDAO {
             int rowsAffected = pstmt.executeUpdate();
             return rowsAffected > 0;
         } catch (SQLException e) {
-            System.err.println("Error deactivating student: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error deactivating student", e);
             return false;
         }
     }
@@ -1931,8 +2302,7 @@ public class StudentDAO {
                 studentIds.add(rs.getInt("student_id"));
             }
         } catch (SQLException e) {
-            System.err.println("Error finding matching students: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error finding matching students", e);
         }
         
         return studentIds;
@@ -1965,10 +2335,14 @@ public class StudentDAO {
                 pstmt.setInt(i + 1, studentIds.get(i));
             }
             
-            return pstmt.executeUpdate();
+            int rowsAffected = pstmt.executeUpdate();
+            for (Integer studentId : studentIds) {
+                StudentSearchIndex.remove(studentId);
+                utils.FinancialSnapshot.onPaymentChanged(null, studentId);
+            }
+            return rowsAffected;
         } catch (SQLException e) {
-            System.err.println("Error deactivating students: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error deactivating students", e);
             return 0;
         }
     }
@@ -2003,7 +2377,7 @@ public class StudentDAO {
             }
             
             if (semesterId == -1) {
-                System.err.println("Error: Could not find belong record with semester: " + semester);
+                Log.error("Could not find belong record with semester: " + semester);
                 return false;
             }
             
@@ -2016,11 +2390,14 @@ public class StudentDAO {
                 pstmt.setInt(2, schoolYearId);
                 pstmt.setInt(3, semesterId);
                 int rowsAffected = pstmt.executeUpdate();
+                if (rowsAffected > 0) {
+                    StudentSearchIndex.invalidate(schoolYearId);
+                    utils.FinancialSnapshot.onPaymentChanged(schoolYearId, studentId);
+                }
                 return rowsAffected > 0;
             }
         } catch (SQLException e) {
-            System.err.println("Error reactivating belong record: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error reactivating belong record", e);
             return false;
         }
     }
@@ -2033,12 +2410,21 @@ public class StudentDAO {
      * Reactivate student using stored procedure (more efficient)
      */
     public boolean reactivateStudent(int studentId) {
+        boolean reactivated = writeStudentReactivation(studentId);
+        if (reactivated) {
+            StudentSearchIndex.invalidate(null);
+            utils.FinancialSnapshot.onPaymentChanged(null, studentId);
+        }
+        return reactivated;
+    }
+    
+    private boolean writeStudentReactivation(int studentId) {
         // Try using stored procedure first
         try {
             return reactivateStudentUsingProcedure(studentId);
         } catch (Exception e) {
             // Fallback to direct query
-            System.err.println("Warning: Could not use sp_reactivate_student procedure, falling back to direct query: " + e.getMessage());
+            Log.warn("Could not use sp_reactivate_student procedure, falling back to direct query", e);
         }
         
         if (!columnExists("status")) {
@@ -2055,8 +2441,7 @@ public class StudentDAO {
             int rowsAffected = pstmt.executeUpdate();
             return rowsAffected > 0;
         } catch (SQLException e) {
-            System.err.println("Error reactivating student: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error reactivating student", e);
             return false;
         }
     }
@@ -2078,9 +2463,17 @@ public class StudentDAO {
     }
     
     /**
-     * Get total students using dashboard summary view (more efficient)
+     * Get total students from the materialized dashboard summary (view for all school years)
      */
     public int getTotalStudents(Integer schoolYearId, String semester) {
+        // Materialized summary for a single school year
+        if (schoolYearId != null) {
+            utils.DashboardSummary.Summary summary = utils.DashboardSummary.get(schoolYearId, semester);
+            if (summary != null) {
+                return summary.totalStudents;
+            }
+        }
+        
         // Try using view first
         try {
             return getTotalStudentsFromView(schoolYearId, semester);
@@ -2088,6 +2481,32 @@ public class StudentDAO {
             // Fallback to direct query
         }
         
+        String sql = totalStudentsSql(schoolYearId, semester);
+        
+        try (Connection conn = DatabaseUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            
+            int paramIndex = 1;
+            if (schoolYearId != null) {
+                pstmt.setInt(paramIndex++, schoolYearId);
+            }
+            
+            ResultSet rs = pstmt.executeQuery();
+            if (rs.next()) {
+                return rs.getInt("total");
+            }
+        } catch (SQLException e) {
+            Log.error("Error getting total students", e);
+        }
+        
+        return 0;
+    }
+    
+    /**
+     * Direct query behind getTotalStudents; takes the school year id as its only parameter (when not null).
+     * Also EXPLAINed by utils.QueryPlanCheck.
+     */
+    public String totalStudentsSql(Integer schoolYearId, String semester) {
         String sql = "SELECT COUNT(DISTINCT s.student_id) as total " +
                   "FROM student s " +
                   "JOIN belong b ON s.student_id = b.student_id " +
@@ -2109,24 +2528,7 @@ public class StudentDAO {
             }
         }
         
-        try (Connection conn = DatabaseUtil.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            int paramIndex = 1;
-            if (schoolYearId != null) {
-                pstmt.setInt(paramIndex++, schoolYearId);
-            }
-            
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                return rs.getInt("total");
-            }
-        } catch (SQLException e) {
-            System.err.println("Error getting total students: " + e.getMessage());
-            e.printStackTrace();
-        }
-        
-        return 0;
+        return sql;
     }
     
     /**
@@ -2175,38 +2577,18 @@ public class StudentDAO {
     }
     
     /**
-     * Get overdue count using dashboard summary view (more efficient)
+     * Count students with an overdue payable, using the persisted status kept current by OverdueStatusSweeper
      */
     public int getOverdueCount(Integer schoolYearId, String semester) {
-        // Try using view first
-        try {
-            return getOverdueCountFromView(schoolYearId, semester);
-        } catch (Exception e) {
-            // Fallback to direct query
-        }
-        
-        String sql = "SELECT COUNT(DISTINCT s.student_id) as overdue_count " +
-                     "FROM student s " +
-                     "JOIN belong b ON s.student_id = b.student_id " +
-                     "JOIN student_payables sp ON b.belong_id = sp.belong_id " +
-                     "LEFT JOIN semester sem ON b.semester_id = sem.semester_id " +
-                     "WHERE sp.status = 'OVERDUE'";
-        
         if (schoolYearId != null) {
-            sql += " AND b.school_year_id = ?";
-        }
-        
-        if (semester != null) {
-            // Match semester based on which amount is set
-            if ("1st Sem".equals(semester)) {
-                sql += " AND sem.first_sem_amount > 0 AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL)";
-            } else if ("2nd Sem".equals(semester)) {
-                sql += " AND sem.second_sem_amount > 0 AND (sem.first_sem_amount = 0 OR sem.first_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL)";
-            } else if ("Summer Sem".equals(semester)) {
-                sql += " AND sem.summer_sem_amount > 0 AND (sem.first_sem_amount = 0 OR sem.first_sem_amount IS NULL) AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL)";
+            utils.DashboardSummary.Summary summary = utils.DashboardSummary.get(schoolYearId, semester);
+            if (summary != null) {
+                return summary.overdueCount;
             }
         }
         
+        String sql = overdueCountSql(schoolYearId, semester);
+        
         try (Connection conn = DatabaseUtil.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             
@@ -2220,54 +2602,55 @@ public class StudentDAO {
                 return rs.getInt("overdue_count");
             }
         } catch (SQLException e) {
-            System.err.println("Error getting overdue count: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error getting overdue count", e);
         }
         
         return 0;
     }
     
     /**
-     * Get overdue count from dashboard summary view
+     * Query behind getOverdueCount; takes the school year id as its only parameter (when not null).
+     * Also EXPLAINed by utils.QueryPlanCheck.
      */
-    private int getOverdueCountFromView(Integer schoolYearId, String semester) {
-        String sql = "SELECT SUM(overdue_payments_count) as overdue_count " +
-                    "FROM v_dashboard_summary WHERE 1=1";
+    public String overdueCountSql(Integer schoolYearId, String semester) {
+        String sql = "SELECT COUNT(DISTINCT b.student_id) as overdue_count " +
+                     "FROM student_payables sp " +
+                     "JOIN belong b ON sp.belong_id = b.belong_id " +
+                     "JOIN student s ON b.student_id = s.student_id " +
+                     "LEFT JOIN semester sem ON b.semester_id = sem.semester_id " +
+                     "WHERE sp.status = 'OVERDUE' " +
+                     "AND COALESCE(s.status, 'active') = 'active' " +
+                     "AND COALESCE(b.status, 'active') = 'active'";
         
         if (schoolYearId != null) {
-            sql += " AND school_year_id = ?";
-        }
-        
-        if (semester != null && !"All Semesters".equals(semester)) {
-            sql += " AND semester_name = ?";
+            sql += " AND b.school_year_id = ?";
         }
         
-        try (Connection conn = DatabaseUtil.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            int paramIndex = 1;
-            if (schoolYearId != null) {
-                pstmt.setInt(paramIndex++, schoolYearId);
-            }
-            if (semester != null && !"All Semesters".equals(semester)) {
-                pstmt.setString(paramIndex++, semester);
-            }
-            
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                return rs.getInt("overdue_count");
+        if (semester != null) {
+            // Match semester based on which amount is set
+            if ("1st Sem".equals(semester)) {
+                sql += " AND sem.first_sem_amount > 0 AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL)";
+            } else if ("2nd Sem".equals(semester)) {
+                sql += " AND sem.second_sem_amount > 0 AND (sem.first_sem_amount = 0 OR sem.first_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL)";
+            } else if ("Summer Sem".equals(semester)) {
+                sql += " AND sem.summer_sem_amount > 0 AND (sem.first_sem_amount = 0 OR sem.first_sem_amount IS NULL) AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL)";
             }
-        } catch (SQLException e) {
-            throw new RuntimeException("Error getting overdue count from view", e);
         }
         
-        return 0;
+        return sql;
     }
     
     /**
-     * Get students who paid count from dashboard summary view
+     * Get students who paid count from the materialized dashboard summary (view for all school years)
      */
     public int getStudentsWhoPaidCount(Integer schoolYearId, String semester) {
+        if (schoolYearId != null) {
+            utils.DashboardSummary.Summary summary = utils.DashboardSummary.get(schoolYearId, semester);
+            if (summary != null) {
+                return summary.studentsWhoPaid;
+            }
+        }
+        
         String sql = "SELECT SUM(students_who_paid) as count " +
                     "FROM v_dashboard_summary WHERE 1=1";
         
@@ -2295,8 +2678,7 @@ public class StudentDAO {
                 return rs.getInt("count");
             }
         } catch (SQLException e) {
-            System.err.println("Error getting students who paid count: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error getting students who paid count", e);
         }
         
         return 0;
@@ -2314,8 +2696,7 @@ public class StudentDAO {
                 majors.add(rs.getString("major"));
             }
         } catch (SQLException e) {
-            System.err.println("Error getting majors: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error getting majors", e);
         }
         
         return majors;
@@ -2333,8 +2714,7 @@ public class StudentDAO {
                 years.add(rs.getString("year"));
             }
         } catch (SQLException e) {
-            System.err.println("Error getting years: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error getting years", e);
         }
         
         return years;
@@ -0,0 +1,301 @@
+package dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import utils.DatabaseUtil;
+import utils.Log;
+import utils.PayableEncryptionUtil;
+
+/**
+ * Top payers per school year and semester (top_payer_board, top_payer), so the dashboard and
+ * reports read at most CAPACITY rows instead of ranking every paid payable.
+ * A board holds the CAPACITY students who paid the most, and a floor: no student off the board
+ * has paid more than the floor. PaymentDAO passes the new totals of every student whose amount
+ * paid changed, inside the posting's transaction; the student is updated or admitted, and an
+ * admission past CAPACITY evicts the lowest entry into the floor. An entry that dropped below the
+ * floor may have been overtaken from off the board, so only entries at or above it are ranked.
+ * PaymentDAO builds a board on first use, ranking in the same transaction that claims the board
+ * row, so no posting can commit between the ranking and the board. refresh-summaries drops the
+ * boards and the next use rebuilds them. Totals are encrypted like every other per-student amount.
+ */
+public class TopPayersDAO {
+
+    /** Students kept per board; requests for more rank the payables directly */
+    public static final int CAPACITY = 50;
+
+    private static final double ZERO = 0.005;
+
+    /** The rankable entries of a board */
+    public static class Board {
+        /** Active students at or above the floor, highest first */
+        public final List<models.Payment> ranked;
+        /** Set when every student who paid anything is on the board (floor is zero) */
+        public final boolean complete;
+
+        Board(List<models.Payment> ranked, boolean complete) {
+            this.ranked = ranked;
+            this.complete = complete;
+        }
+    }
+
+    /**
+     * Load a board
+     * @return The board, or null if it has not been built (or could not be read)
+     */
+    public Board load(int schoolYearId, String semester) {
+        String key = semesterKey(semester);
+        String sql = "SELECT tp.student_id, s.student_number, s.fullname, tp.total_paid, " +
+                    "COALESCE(s.status, 'active') = 'active' AND EXISTS (" +
+                    "  SELECT 1 FROM belong b WHERE b.student_id = tp.student_id AND b.school_year_id = tp.school_year_id " +
+                    "  AND COALESCE(b.status, 'active') = 'active') AS active " +
+                    "FROM top_payer tp " +
+                    "INNER JOIN student s ON tp.student_id = s.student_id " +
+                    "WHERE tp.school_year_id = ? AND tp.semester = ?";
+
+        try (Connection conn = DatabaseUtil.getConnection()) {
+            Double floor = readFloor(conn, schoolYearId, key);
+            if (floor == null) {
+                return null;
+            }
+
+            List<models.Payment> ranked = new ArrayList<>();
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setInt(1, schoolYearId);
+                pstmt.setString(2, key);
+                ResultSet rs = pstmt.executeQuery();
+                while (rs.next()) {
+                    int studentId = rs.getInt("student_id");
+                    double total = PayableEncryptionUtil.decryptAmount(rs.getString("total_paid"), studentId);
+                    if (total < floor || !rs.getBoolean("active")) {
+                        continue;
+                    }
+                    models.Payment payment = new models.Payment();
+                    payment.setStudentId(studentId);
+                    payment.setStudentIdStr(rs.getString("student_number"));
+                    payment.setStudentName(rs.getString("fullname"));
+                    payment.setAmount(total);
+                    ranked.add(payment);
+                }
+            }
+            ranked.sort((a, b) -> Double.compare(b.getAmount(), a.getAmount()));
+            return new Board(ranked, floor < ZERO);
+        } catch (SQLException e) {
+            Log.error("Error loading top payers", e);
+            return null;
+        }
+    }
+
+    /** Ranks every student's total on the rebuild's connection */
+    public interface Ranking {
+        /**
+         * @return Every student's total (status ignored), highest first, at least CAPACITY + 1
+         *         entries unless fewer students paid anything
+         */
+        List<models.Payment> rank(Connection conn) throws SQLException;
+    }
+
+    /**
+     * Build a board that does not exist yet.
+     * The board row is inserted first: postings lock a school year's board rows before applying
+     * totals (recordTotals), so they wait for this transaction, and the ranking read after the
+     * insert sees every posting that committed before it.
+     * @return true if the board was built, here or by someone else meanwhile
+     */
+    public boolean rebuild(int schoolYearId, String semester, Ranking ranking) {
+        String key = semesterKey(semester);
+
+        try (Connection conn = DatabaseUtil.getConnection()) {
+            conn.setAutoCommit(false);
+
+            try {
+                try (PreparedStatement pstmt = conn.prepareStatement(
+                        "INSERT INTO top_payer_board (school_year_id, semester, floor_paid) VALUES (?, ?, ?)")) {
+                    pstmt.setInt(1, schoolYearId);
+                    pstmt.setString(2, key);
+                    pstmt.setString(3, PayableEncryptionUtil.encryptAmount(0.0));
+                    pstmt.executeUpdate();
+                } catch (java.sql.SQLIntegrityConstraintViolationException e) {
+                    // Another workstation built it meanwhile
+                    conn.rollback();
+                    return true;
+                }
+
+                List<models.Payment> ranked = ranking.rank(conn);
+                double floor = ranked.size() > CAPACITY ? ranked.get(CAPACITY).getAmount() : 0.0;
+                try (PreparedStatement pstmt = conn.prepareStatement(
+                        "UPDATE top_payer_board SET floor_paid = ? WHERE school_year_id = ? AND semester = ?")) {
+                    pstmt.setString(1, PayableEncryptionUtil.encryptAmount(floor));
+                    pstmt.setInt(2, schoolYearId);
+                    pstmt.setString(3, key);
+                    pstmt.executeUpdate();
+                }
+                try (PreparedStatement pstmt = conn.prepareStatement(
+                        "INSERT INTO top_payer (school_year_id, semester, student_id, total_paid) VALUES (?, ?, ?, ?)")) {
+                    for (models.Payment payment : ranked.subList(0, Math.min(CAPACITY, ranked.size()))) {
+                        pstmt.setInt(1, schoolYearId);
+                        pstmt.setString(2, key);
+                        pstmt.setInt(3, payment.getStudentId());
+                        pstmt.setString(4, PayableEncryptionUtil.encryptAmount(payment.getAmount(), payment.getStudentId()));
+                        pstmt.addBatch();
+                    }
+                    pstmt.executeBatch();
+                }
+
+                conn.commit();
+                return true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            Log.error("Error rebuilding top payers", e);
+            return false;
+        }
+    }
+
+    /**
+     * Apply a student's new totals to the school year's boards, inside the posting's transaction
+     * @param totals Amount paid per semester and for "All Semesters"; a missing semester is zero
+     */
+    public void recordTotals(Connection conn, int studentId, int schoolYearId, Map<String, Double> totals) throws SQLException {
+        // Lock the school year's boards (and the gap a board being built would go in), so concurrent
+        // postings and rebuilds update them one at a time
+        Map<String, Double> floors = new HashMap<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT semester, floor_paid FROM top_payer_board WHERE school_year_id = ? FOR UPDATE")) {
+            pstmt.setInt(1, schoolYearId);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                floors.put(rs.getString("semester"), PayableEncryptionUtil.decryptAmountForWrite(rs.getString("floor_paid"), null));
+            }
+        }
+
+        for (Map.Entry<String, Double> board : floors.entrySet()) {
+            recordTotal(conn, schoolYearId, board.getKey(), board.getValue(), studentId,
+                        totals.getOrDefault(board.getKey(), 0.0));
+        }
+    }
+
+    private void recordTotal(Connection conn, int schoolYearId, String semester, double floor,
+                             int studentId, double total) throws SQLException {
+        Map<Integer, Double> entries = new HashMap<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT student_id, total_paid FROM top_payer WHERE school_year_id = ? AND semester = ?")) {
+            pstmt.setInt(1, schoolYearId);
+            pstmt.setString(2, semester);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                int id = rs.getInt("student_id");
+                entries.put(id, PayableEncryptionUtil.decryptAmountForWrite(rs.getString("total_paid"), id));
+            }
+        }
+
+        Double current = entries.get(studentId);
+        if (current != null) {
+            if (Math.abs(current - total) < ZERO) {
+                return;
+            }
+            if (total < ZERO) {
+                // Off the board at zero, which never exceeds the floor
+                deleteEntry(conn, schoolYearId, semester, studentId);
+            } else {
+                try (PreparedStatement pstmt = conn.prepareStatement(
+                        "UPDATE top_payer SET total_paid = ? WHERE school_year_id = ? AND semester = ? AND student_id = ?")) {
+                    pstmt.setString(1, PayableEncryptionUtil.encryptAmount(total, studentId));
+                    pstmt.setInt(2, schoolYearId);
+                    pstmt.setString(3, semester);
+                    pstmt.setInt(4, studentId);
+                    pstmt.executeUpdate();
+                }
+            }
+            return;
+        }
+
+        if (total < ZERO || total <= floor) {
+            return;
+        }
+        entries.put(studentId, total);
+        int evicted = -1;
+        if (entries.size() > CAPACITY) {
+            // The lowest entry (possibly this student) leaves, and raises the floor to its total
+            Map.Entry<Integer, Double> lowest = null;
+            for (Map.Entry<Integer, Double> entry : entries.entrySet()) {
+                if (lowest == null || entry.getValue() < lowest.getValue()) {
+                    lowest = entry;
+                }
+            }
+            evicted = lowest.getKey();
+            if (lowest.getValue() > floor) {
+                try (PreparedStatement pstmt = conn.prepareStatement(
+                        "UPDATE top_payer_board SET floor_paid = ? WHERE school_year_id = ? AND semester = ?")) {
+                    pstmt.setString(1, PayableEncryptionUtil.encryptAmount(lowest.getValue()));
+                    pstmt.setInt(2, schoolYearId);
+                    pstmt.setString(3, semester);
+                    pstmt.executeUpdate();
+                }
+            }
+        }
+        if (evicted == studentId) {
+            return;
+        }
+        if (evicted != -1) {
+            deleteEntry(conn, schoolYearId, semester, evicted);
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "INSERT INTO top_payer (school_year_id, semester, student_id, total_paid) VALUES (?, ?, ?, ?)")) {
+            pstmt.setInt(1, schoolYearId);
+            pstmt.setString(2, semester);
+            pstmt.setInt(3, studentId);
+            pstmt.setString(4, PayableEncryptionUtil.encryptAmount(total, studentId));
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Drop the boards of a school year (all school years when null); they are rebuilt on next use
+     */
+    public void clear(Integer schoolYearId) {
+        String sql = "DELETE FROM top_payer_board" + (schoolYearId != null ? " WHERE school_year_id = ?" : "");
+        try (Connection conn = DatabaseUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            if (schoolYearId != null) {
+                pstmt.setInt(1, schoolYearId);
+            }
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            Log.error("Error clearing top payers", e);
+        }
+    }
+
+    private void deleteEntry(Connection conn, int schoolYearId, String semester, int studentId) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "DELETE FROM top_payer WHERE school_year_id = ? AND semester = ? AND student_id = ?")) {
+            pstmt.setInt(1, schoolYearId);
+            pstmt.setString(2, semester);
+            pstmt.setInt(3, studentId);
+            pstmt.executeUpdate();
+        }
+    }
+
+    private Double readFloor(Connection conn, int schoolYearId, String semester) throws SQLException {
+        String sql = "SELECT floor_paid FROM top_payer_board WHERE school_year_id = ? AND semester = ?";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, schoolYearId);
+            pstmt.setString(2, semester);
+            ResultSet rs = pstmt.executeQuery();
+            return rs.next() ? PayableEncryptionUtil.decryptAmount(rs.getString("floor_paid")) : null;
+        }
+    }
+
+    private static String semesterKey(String semester) {
+        return semester != null ? semester : CollectionRollupDAO.ALL_SEMESTERS;
+    }
+}
@@ -6,6 +6,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import models.Admin;
 import utils.DatabaseUtil;
+import utils.Log;
 import utils.PasswordUtil;
 
 public class UserDAO {
@@ -34,8 +35,7 @@ public class UserDAO {
                 }
             }
         } catch (SQLException e) {
-            System.err.println("Error authenticating user: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error authenticating user", e);
         }
         
         return null;
@@ -60,8 +60,7 @@ public class UserDAO {
                 return admin;
             }
         } catch (SQLException e) {
-            System.err.println("Error getting admin by username: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error getting admin by username", e);
         }
         
         return null;
@@ -86,8 +85,7 @@ public class UserDAO {
                 return admin;
             }
         } catch (SQLException e) {
-            System.err.println("Error getting admin by ID: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error getting admin by ID", e);
         }
         
         return null;
@@ -114,8 +112,7 @@ public class UserDAO {
             int rowsAffected = pstmt.executeUpdate();
             return rowsAffected > 0;
         } catch (SQLException e) {
-            System.err.println("Error updating admin: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error updating admin", e);
             return false;
         }
     }
@@ -0,0 +1,68 @@
+package models;
+
+public class FeeSchedule {
+    private int feeId;
+    private int schoolYearId;
+    private String semester; // 1st Sem, 2nd Sem, Summer Sem
+    private String program; // empty = all programs
+    private String yearLevel; // empty = all year levels
+    private double amount;
+
+    public FeeSchedule() {}
+
+    public FeeSchedule(int schoolYearId, String semester, String program, String yearLevel, double amount) {
+        this.schoolYearId = schoolYearId;
+        this.semester = semester;
+        this.program = program;
+        this.yearLevel = yearLevel;
+        this.amount = amount;
+    }
+
+    public int getFeeId() {
+        return feeId;
+    }
+
+    public void setFeeId(int feeId) {
+        this.feeId = feeId;
+    }
+
+    public int getSchoolYearId() {
+        return schoolYearId;
+    }
+
+    public void setSchoolYearId(int schoolYearId) {
+        this.schoolYearId = schoolYearId;
+    }
+
+    public String getSemester() {
+        return semester;
+    }
+
+    public void setSemester(String semester) {
+        this.semester = semester;
+    }
+
+    public String getProgram() {
+        return program;
+    }
+
+    public void setProgram(String program) {
+        this.program = program;
+    }
+
+    public String getYearLevel() {
+        return yearLevel;
+    }
+
+    public void setYearLevel(String yearLevel) {
+        this.yearLevel = yearLevel;
+    }
+
+    public double getAmount() {
+        return amount;
+    }
+
+    public void setAmount(double amount) {
+        this.amount = amount;
+    }
+}
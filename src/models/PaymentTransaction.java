@@ -0,0 +1,114 @@
+package models;
+
+import java.time.LocalDateTime;
+
+public class PaymentTransaction {
+    private int transactionId;
+    private int studentId;
+    private int belongId;
+    private int schoolYearId;
+    private String entryType; // OPENING, PAYMENT, ADJUSTMENT
+    private double amount;
+    private double paidToDate;
+    private double balanceAfter;
+    private String status; // UNPAID, PARTIAL, PAID
+    private LocalDateTime postedAt;
+    private String cashier;
+
+    public PaymentTransaction() {}
+
+    /**
+     * Official receipt number printed for this entry
+     */
+    public String getReceiptNumber() {
+        return String.format("OR-%08d", transactionId);
+    }
+
+    public int getTransactionId() {
+        return transactionId;
+    }
+
+    public void setTransactionId(int transactionId) {
+        this.transactionId = transactionId;
+    }
+
+    public int getStudentId() {
+        return studentId;
+    }
+
+    public void setStudentId(int studentId) {
+        this.studentId = studentId;
+    }
+
+    public int getBelongId() {
+        return belongId;
+    }
+
+    public void setBelongId(int belongId) {
+        this.belongId = belongId;
+    }
+
+    public int getSchoolYearId() {
+        return schoolYearId;
+    }
+
+    public void setSchoolYearId(int schoolYearId) {
+        this.schoolYearId = schoolYearId;
+    }
+
+    public String getEntryType() {
+        return entryType;
+    }
+
+    public void setEntryType(String entryType) {
+        this.entryType = entryType;
+    }
+
+    public double getAmount() {
+        return amount;
+    }
+
+    public void setAmount(double amount) {
+        this.amount = amount;
+    }
+
+    public double getPaidToDate() {
+        return paidToDate;
+    }
+
+    public void setPaidToDate(double paidToDate) {
+        this.paidToDate = paidToDate;
+    }
+
+    public double getBalanceAfter() {
+        return balanceAfter;
+    }
+
+    public void setBalanceAfter(double balanceAfter) {
+        this.balanceAfter = balanceAfter;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public LocalDateTime getPostedAt() {
+        return postedAt;
+    }
+
+    public void setPostedAt(LocalDateTime postedAt) {
+        this.postedAt = postedAt;
+    }
+
+    public String getCashier() {
+        return cashier;
+    }
+
+    public void setCashier(String cashier) {
+        this.cashier = cashier;
+    }
+}
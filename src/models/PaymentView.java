@@ -15,6 +15,10 @@ public class PaymentView {
     private double amountPaid;
     private LocalDate dueDate;
     private String status;
+    private String program;
+    private String yearLevel;
+    private boolean active = true; // Student and enrollment both active (semester payment rows)
+    private long version = -1; // Payables version the row was read at (see PaymentDAO.savePayment); -1 if unknown
     
     public PaymentView() {}
     
@@ -116,6 +120,38 @@ public class PaymentView {
         this.status = status;
     }
     
+    public String getProgram() {
+        return program;
+    }
+    
+    public void setProgram(String program) {
+        this.program = program;
+    }
+    
+    public String getYearLevel() {
+        return yearLevel;
+    }
+    
+    public void setYearLevel(String yearLevel) {
+        this.yearLevel = yearLevel;
+    }
+    
+    public boolean isActive() {
+        return active;
+    }
+    
+    public void setActive(boolean active) {
+        this.active = active;
+    }
+    
+    public long getVersion() {
+        return version;
+    }
+    
+    public void setVersion(long version) {
+        this.version = version;
+    }
+    
     // Format methods for display
     public String getDownPaymentFormatted() {
         // Only show down payment if it's been entered (greater than 0)
@@ -0,0 +1,335 @@
+package utils;
+
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Tells this workstation about writes made by other workstations.
+ * Triggers on student, belong, student_payables and fee_schedule append a compact
+ * (entity, id, version) row to change_log, tagged with the origin of the connection that wrote it
+ * (see DatabaseUtil). The poller tails change_log by change_id every few seconds, applies other
+ * workstations' changes to the in-process caches (FinancialSnapshot, DashboardSummary,
+ * StudentSearchIndex, FeeScheduleCache, SessionPrefetcher) and passes them on to listeners,
+ * such as the page on screen.
+ *
+ * change_id is allocated at insert, not at commit, so a gap may still be filled by a transaction in
+ * flight; the cursor does not move past a gap until GAP_GRACE_MILLIS have passed. If the rows after
+ * the cursor were already purged (workstation offline longer than the retention), every cache is dropped.
+ *
+ * Retention: rows older than changelog.retentionHours (default 24) are deleted, and rows older than
+ * COMPACT_AFTER_MINUTES are compacted to the latest row per entity. Runs hourly here and in the
+ * BatchRunner "compact-changelog" job.
+ *
+ * System properties:
+ *   changelog.pollMillis       poll interval (default 2000); 0 disables the poller
+ *   changelog.retentionHours   hours of change_log kept (default 24)
+ */
+public class ChangeLogPoller {
+
+    /** Identifies this process's connections in change_log.origin */
+    public static final long ORIGIN = new SecureRandom().nextLong() & Long.MAX_VALUE;
+
+    private static final long POLL_INTERVAL_MILLIS = Long.getLong("changelog.pollMillis", 2000);
+    private static final long RETENTION_HOURS = Long.getLong("changelog.retentionHours", 24);
+    private static final long MAINTENANCE_INTERVAL_MINUTES = 60;
+    private static final long COMPACT_AFTER_MINUTES = 10;
+    private static final long GAP_GRACE_MILLIS = 10_000;
+    private static final int BATCH_SIZE = 500;
+    private static final int PURGE_CHUNK = 5000;
+
+    /** Changes from other workstations seen in one poll */
+    public static class Changes {
+        /** School years with changed rows; empty when allSchoolYears is set */
+        public final Set<Integer> schoolYearIds;
+        /** Set when a change could not be tied to a school year, or changes were lost */
+        public final boolean allSchoolYears;
+
+        Changes(Set<Integer> schoolYearIds, boolean allSchoolYears) {
+            this.schoolYearIds = Collections.unmodifiableSet(schoolYearIds);
+            this.allSchoolYears = allSchoolYears;
+        }
+
+        public boolean affects(Integer schoolYearId) {
+            return allSchoolYears || schoolYearId == null || schoolYearIds.contains(schoolYearId);
+        }
+    }
+
+    private static final List<Consumer<Changes>> listeners = new CopyOnWriteArrayList<>();
+
+    private static volatile ScheduledExecutorService scheduler = null;
+    private static Connection conn = null;
+    /** Every change_id up to the cursor has been handled */
+    private static volatile long cursor = -1;
+    /** Handled change_ids above the cursor (waiting behind a gap) */
+    private static final Set<Long> handled = new HashSet<>();
+
+    /**
+     * Start polling on a background thread, from the current end of the log
+     */
+    public static synchronized void start() {
+        if (scheduler != null || POLL_INTERVAL_MILLIS <= 0) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "change-log-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                poll();
+            } catch (Exception e) {
+                // Never let an exception cancel the schedule
+                Log.warn("Error polling change_log", e);
+            }
+        }, 0, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                compact();
+            } catch (Exception e) {
+                Log.warn("Error compacting change_log", e);
+            }
+        }, MAINTENANCE_INTERVAL_MINUTES, MAINTENANCE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Stop polling and close the poller's connection
+     */
+    public static synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        closeQuietly();
+    }
+
+    /**
+     * Every change_id up to this one is reflected in this process's caches
+     *
+     * @return The cursor, or -1 if the poller is not running
+     */
+    public static long position() {
+        return scheduler != null ? cursor : -1;
+    }
+
+    /**
+     * The newest change_id in change_log
+     *
+     * @return The id (0 when the log is empty), or -1 on error
+     */
+    public static long latestChangeId() {
+        try (Connection c = DatabaseUtil.getConnection()) {
+            return maxChangeId(c);
+        } catch (SQLException e) {
+            Log.warn("Could not read change_log", e);
+            return -1;
+        }
+    }
+
+    public static void addListener(Consumer<Changes> listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(Consumer<Changes> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Read the changes after the cursor and publish those made by other workstations
+     * @return Number of changes published
+     */
+    static synchronized int poll() {
+        Set<Integer> schoolYearIds = new HashSet<>();
+        boolean allSchoolYears = false;
+        int published = 0;
+        try {
+            Connection c = connection();
+            if (cursor < 0) {
+                // Caches start empty, so there is nothing to catch up on
+                cursor = maxChangeId(c);
+                return 0;
+            }
+            String sql = "SELECT change_id, entity, student_id, school_year_id, origin, changed_at, NOW(3) AS server_now " +
+                         "FROM change_log WHERE change_id > ? ORDER BY change_id LIMIT ?";
+            try (PreparedStatement pstmt = c.prepareStatement(sql)) {
+                pstmt.setLong(1, cursor);
+                pstmt.setInt(2, BATCH_SIZE);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    boolean first = true;
+                    boolean blocked = false;
+                    while (rs.next()) {
+                        long changeId = rs.getLong("change_id");
+                        boolean isNew = handled.add(changeId);
+                        if (first && isNew && changeId > cursor + 1 && minChangeId(c) > cursor + 1) {
+                            // The rows we missed were purged: nothing can be trusted
+                            Log.warn("change_log purged past this workstation's position; dropping all caches");
+                            allSchoolYears = true;
+                        }
+                        first = false;
+
+                        if (isNew) {
+                            long origin = rs.getLong("origin");
+                            if (rs.wasNull() || origin != ORIGIN) {
+                                Integer schoolYearId = (Integer) rs.getObject("school_year_id");
+                                Integer studentId = (Integer) rs.getObject("student_id");
+                                apply(rs.getString("entity"), schoolYearId, studentId);
+                                if (schoolYearId == null) {
+                                    allSchoolYears = true;
+                                } else {
+                                    schoolYearIds.add(schoolYearId);
+                                }
+                                published++;
+                            }
+                        }
+
+                        // Advance over contiguous ids, and over gaps old enough to be rolled back inserts
+                        long age = rs.getTimestamp("server_now").getTime() - rs.getTimestamp("changed_at").getTime();
+                        if (!blocked && (changeId == cursor + 1 || age >= GAP_GRACE_MILLIS)) {
+                            cursor = changeId;
+                        } else {
+                            blocked = true;
+                        }
+                    }
+                }
+            }
+            handled.removeIf(id -> id <= cursor);
+        } catch (SQLException e) {
+            Log.warn("Could not read change_log", e);
+            closeQuietly();
+            return 0;
+        }
+
+        if (allSchoolYears) {
+            FinancialSnapshot.invalidate(null);
+            StudentSearchIndex.invalidate(null);
+            FeeScheduleCache.invalidate(null);
+        }
+        if (allSchoolYears || !schoolYearIds.isEmpty()) {
+            Changes changes = new Changes(allSchoolYears ? new HashSet<>() : schoolYearIds, allSchoolYears);
+            for (Consumer<Changes> listener : listeners) {
+                try {
+                    listener.accept(changes);
+                } catch (RuntimeException e) {
+                    Log.warn("Error in change_log listener", e);
+                }
+            }
+        }
+        return published;
+    }
+
+    /**
+     * Apply one change to the in-process caches
+     */
+    private static void apply(String entity, Integer schoolYearId, Integer studentId) {
+        switch (entity) {
+            case "payable":
+                if (studentId != null) {
+                    FinancialSnapshot.onPaymentChanged(schoolYearId, studentId);
+                } else {
+                    FinancialSnapshot.invalidate(schoolYearId);
+                }
+                break;
+            case "belong":
+                StudentSearchIndex.invalidate(schoolYearId);
+                FinancialSnapshot.onPaymentChanged(schoolYearId, studentId);
+                break;
+            case "student":
+                // A student is listed under every school year they are enrolled in
+                StudentSearchIndex.invalidate(null);
+                FinancialSnapshot.onPaymentChanged(null, studentId);
+                break;
+            case "fee_schedule":
+                FeeScheduleCache.invalidate(schoolYearId);
+                break;
+            default:
+                Log.warn("Unknown change_log entity " + entity);
+        }
+    }
+
+    /**
+     * Delete rows past the retention, and older duplicates of the same entity row past the
+     * compaction age (a poller that far behind only needs the latest one)
+     * @return Number of rows deleted, or -1 on error
+     */
+    public static int compact() {
+        int deleted = 0;
+        try (Connection c = DatabaseUtil.openConnection()) {
+            try (PreparedStatement pstmt = c.prepareStatement(
+                    "DELETE FROM change_log WHERE changed_at < NOW(3) - INTERVAL ? HOUR ORDER BY change_id LIMIT ?")) {
+                pstmt.setLong(1, RETENTION_HOURS);
+                pstmt.setInt(2, PURGE_CHUNK);
+                int rows;
+                do {
+                    rows = pstmt.executeUpdate();
+                    deleted += rows;
+                } while (rows == PURGE_CHUNK);
+            }
+            try (PreparedStatement pstmt = c.prepareStatement(
+                    "DELETE older FROM change_log older " +
+                    "INNER JOIN change_log newer ON newer.entity = older.entity AND newer.entity_id = older.entity_id " +
+                    "AND newer.change_id > older.change_id " +
+                    "WHERE older.changed_at < NOW(3) - INTERVAL ? MINUTE")) {
+                pstmt.setLong(1, COMPACT_AFTER_MINUTES);
+                deleted += pstmt.executeUpdate();
+            }
+            if (deleted > 0) {
+                Log.info("change_log: removed " + deleted + " old row(s)");
+            }
+            return deleted;
+        } catch (SQLException e) {
+            Log.error("Error compacting change_log", e);
+            return -1;
+        }
+    }
+
+    private static long maxChangeId(Connection c) throws SQLException {
+        try (Statement stmt = c.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(change_id), 0) FROM change_log")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private static long minChangeId(Connection c) throws SQLException {
+        try (Statement stmt = c.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COALESCE(MIN(change_id), 0) FROM change_log")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    /**
+     * The poller's own connection, kept open between polls
+     */
+    private static Connection connection() throws SQLException {
+        if (conn == null || conn.isClosed()) {
+            conn = DatabaseUtil.openConnection();
+        }
+        return conn;
+    }
+
+    private static void closeQuietly() {
+        try {
+            if (conn != null) {
+                conn.close();
+            }
+        } catch (SQLException e) {
+            // Connection is being discarded anyway
+        } finally {
+            conn = null;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package utils;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for concurrent payment posting: optimistic version conflicts, InnoDB deadlocks
+ * and lock wait timeouts, retries and postings that gave up.
+ * PaymentDAO records into it; read with summary() or the individual getters.
+ */
+public class ContentionMetrics {
+
+    /** Thrown when a compare-and-set update finds the row changed since it was read */
+    public static class VersionConflictException extends SQLException {
+        private static final long serialVersionUID = 1L;
+
+        public VersionConflictException(String message) {
+            super(message, "40001");
+        }
+    }
+
+    public static final String VERSION_CONFLICT = "version conflict";
+    public static final String DEADLOCK = "deadlock";
+    public static final String LOCK_TIMEOUT = "lock wait timeout";
+
+    // MySQL error codes
+    private static final int ER_LOCK_DEADLOCK = 1213;
+    private static final int ER_LOCK_WAIT_TIMEOUT = 1205;
+
+    private static final LongAdder committed = new LongAdder();
+    private static final LongAdder failed = new LongAdder();
+    private static final LongAdder versionConflicts = new LongAdder();
+    private static final LongAdder deadlocks = new LongAdder();
+    private static final LongAdder lockTimeouts = new LongAdder();
+    private static final LongAdder retries = new LongAdder();
+    private static final LongAdder exhausted = new LongAdder();
+    private static final LongAdder commitNanos = new LongAdder();
+    private static final AtomicLong maxAttempts = new AtomicLong();
+
+    /**
+     * Classify an exception as a retryable contention error
+     *
+     * @return VERSION_CONFLICT, DEADLOCK, LOCK_TIMEOUT, or null when retrying would not help
+     */
+    public static String classify(SQLException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof VersionConflictException) {
+                return VERSION_CONFLICT;
+            }
+            if (t instanceof SQLException) {
+                SQLException sqlException = (SQLException) t;
+                if (sqlException.getErrorCode() == ER_LOCK_DEADLOCK || "40001".equals(sqlException.getSQLState())) {
+                    return DEADLOCK;
+                }
+                if (sqlException.getErrorCode() == ER_LOCK_WAIT_TIMEOUT) {
+                    return LOCK_TIMEOUT;
+                }
+            }
+        }
+        return null;
+    }
+
+    public static void recordCommit(int attempts, long elapsedNanos) {
+        committed.increment();
+        commitNanos.add(elapsedNanos);
+        maxAttempts.accumulateAndGet(attempts, Math::max);
+    }
+
+    public static void recordRetry(String kind) {
+        retries.increment();
+        if (VERSION_CONFLICT.equals(kind)) {
+            versionConflicts.increment();
+        } else if (DEADLOCK.equals(kind)) {
+            deadlocks.increment();
+        } else if (LOCK_TIMEOUT.equals(kind)) {
+            lockTimeouts.increment();
+        }
+    }
+
+    public static void recordExhausted() {
+        exhausted.increment();
+        failed.increment();
+    }
+
+    public static void recordFailure() {
+        failed.increment();
+    }
+
+    public static long getCommitted() {
+        return committed.sum();
+    }
+
+    public static long getFailed() {
+        return failed.sum();
+    }
+
+    public static long getVersionConflicts() {
+        return versionConflicts.sum();
+    }
+
+    public static long getDeadlocks() {
+        return deadlocks.sum();
+    }
+
+    public static long getLockTimeouts() {
+        return lockTimeouts.sum();
+    }
+
+    public static long getRetries() {
+        return retries.sum();
+    }
+
+    public static long getExhausted() {
+        return exhausted.sum();
+    }
+
+    public static void reset() {
+        committed.reset();
+        failed.reset();
+        versionConflicts.reset();
+        deadlocks.reset();
+        lockTimeouts.reset();
+        retries.reset();
+        exhausted.reset();
+        commitNanos.reset();
+        maxAttempts.set(0);
+    }
+
+    /**
+     * One-line summary for logs
+     */
+    public static String summary() {
+        long commits = committed.sum();
+        double avgMillis = commits > 0 ? commitNanos.sum() / 1_000_000.0 / commits : 0;
+        return String.format("postings: %d committed, %d failed (%d gave up after retries); " +
+                             "retries: %d (%d version conflicts, %d deadlocks, %d lock timeouts); " +
+                             "max attempts %d, avg %.1f ms per committed posting",
+                             commits, failed.sum(), exhausted.sum(), retries.sum(), versionConflicts.sum(),
+                             deadlocks.sum(), lockTimeouts.sum(), maxAttempts.get(), avgMillis);
+    }
+}
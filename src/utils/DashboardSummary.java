@@ -0,0 +1,360 @@
+package utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Materialized dashboard cards per school year and semester, stored in dashboard_summary.
+ * Replaces reading v_dashboard_summary, which re-aggregated student, belong, semester and
+ * student_payables once per card.
+ *
+ * Each row records the change_log position it was computed at. A read trusts the rows only
+ * while that is still the newest change_id, so writes from another workstation, or made while
+ * this one was closed, are seen even after a restart. Write paths in this process also mark a
+ * school year dirty (through FinancialSnapshot's change notifications, StudentDAO.addStudent
+ * and the overdue sweeper). A stale school year is refreshed from the incrementally maintained
+ * FinancialSnapshot plus one grouped count query, and its rows are rewritten. Check or rebuild
+ * the table from scratch with:
+ *
+ *   java utils.DashboardSummary [check|refresh]
+ */
+public class DashboardSummary {
+
+    public static final String ALL_SEMESTERS = "All Semesters";
+
+    private static final String[] ROW_KEYS = {"1st Sem", "2nd Sem", "Summer Sem", ALL_SEMESTERS};
+
+    /** One dashboard_summary row */
+    public static class Summary {
+        public final int totalStudents;
+        public final int studentsWhoPaid;
+        public final int overdueCount;
+        public final double totalPayable;
+        public final double totalCollected;
+        public final Timestamp lastRefreshed;
+        /** change_log position the row was computed at */
+        final long changeId;
+
+        Summary(int totalStudents, int studentsWhoPaid, int overdueCount,
+                double totalPayable, double totalCollected, Timestamp lastRefreshed, long changeId) {
+            this.totalStudents = totalStudents;
+            this.studentsWhoPaid = studentsWhoPaid;
+            this.overdueCount = overdueCount;
+            this.totalPayable = totalPayable;
+            this.totalCollected = totalCollected;
+            this.lastRefreshed = lastRefreshed;
+            this.changeId = changeId;
+        }
+
+        boolean matches(Summary other) {
+            return totalStudents == other.totalStudents
+                && studentsWhoPaid == other.studentsWhoPaid
+                && overdueCount == other.overdueCount
+                && Math.abs(totalPayable - other.totalPayable) < 0.005
+                && Math.abs(totalCollected - other.totalCollected) < 0.005;
+        }
+
+        @Override
+        public String toString() {
+            return "students=" + totalStudents + ", paid=" + studentsWhoPaid + ", overdue=" + overdueCount +
+                   ", payable=" + String.format("%.2f", totalPayable) +
+                   ", collected=" + String.format("%.2f", totalCollected);
+        }
+    }
+
+    /** Rows per school year, keyed by semester name */
+    private static final Map<Integer, Map<String, Summary>> cache = new ConcurrentHashMap<>();
+    private static final Set<Integer> dirty = ConcurrentHashMap.newKeySet();
+
+    /** Set once a change could not be tied to a school year; stored rows are then never trusted again */
+    private static volatile boolean allStale = false;
+
+    /**
+     * Mark a school year (or every school year when null) as changed.
+     * Not synchronized: it is called from inside FinancialSnapshot's lock.
+     */
+    public static void markDirty(Integer schoolYearId) {
+        if (schoolYearId == null) {
+            allStale = true;
+            cache.clear();
+        } else {
+            dirty.add(schoolYearId);
+        }
+    }
+
+    /**
+     * Dashboard figures for a school year and semester (null or "All Semesters" for the whole year)
+     *
+     * @return The summary row, or null if it could not be read or refreshed
+     */
+    public static synchronized Summary get(int schoolYearId, String semester) {
+        long latestChangeId = ChangeLogPoller.latestChangeId();
+        Map<String, Summary> rows = cache.get(schoolYearId);
+        if (!isCurrent(rows, latestChangeId) || dirty.contains(schoolYearId)) {
+            // Another workstation (or a batch job) may have refreshed the stored rows since
+            Map<String, Summary> stored = null;
+            if (!allStale && !dirty.contains(schoolYearId)) {
+                stored = loadStored(schoolYearId);
+            }
+            if (isCurrent(stored, latestChangeId)) {
+                rows = stored;
+                cache.put(schoolYearId, rows);
+            } else {
+                rows = refresh(schoolYearId);
+            }
+            if (rows == null) {
+                return null;
+            }
+        }
+        return rows.get(semester == null ? ALL_SEMESTERS : semester);
+    }
+
+    /**
+     * True if every row was computed at the newest change_log position
+     */
+    private static boolean isCurrent(Map<String, Summary> rows, long latestChangeId) {
+        if (rows == null || rows.isEmpty() || latestChangeId < 0) {
+            return false;
+        }
+        for (Summary summary : rows.values()) {
+            if (summary.changeId != latestChangeId) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * change_log position the caches reflect: the poller's cursor, or the end of the log when the
+     * poller is not running (the snapshot is then read straight from the tables). Never past the
+     * end of the log, which moves back when old rows are purged.
+     */
+    private static long computedAtChangeId() {
+        long latest = ChangeLogPoller.latestChangeId();
+        long position = ChangeLogPoller.position();
+        return position < 0 ? latest : Math.min(position, latest);
+    }
+
+    /**
+     * Recompute a school year's rows and write them to dashboard_summary
+     *
+     * @return The new rows, or null on error
+     */
+    public static synchronized Map<String, Summary> refresh(int schoolYearId) {
+        // Clear the flag first so a write landing during the refresh marks it dirty again
+        dirty.remove(schoolYearId);
+        try {
+            // Read the position before computing, so a write landing during the refresh leaves the rows stale
+            Map<String, Summary> rows = compute(schoolYearId, computedAtChangeId());
+            store(schoolYearId, rows);
+            cache.put(schoolYearId, rows);
+            return rows;
+        } catch (SQLException e) {
+            dirty.add(schoolYearId);
+            Log.error("Error refreshing dashboard summary", e);
+            return null;
+        }
+    }
+
+    /**
+     * Money and students-who-paid come from the decrypted snapshot; enrolment and overdue
+     * counts from one grouped query over the indexed status columns
+     */
+    private static Map<String, Summary> compute(int schoolYearId, long changeId) throws SQLException {
+        Map<String, int[]> counts = countStudentsAndOverdue(schoolYearId);
+        FinancialSnapshot snapshot = FinancialSnapshot.forSchoolYear(schoolYearId);
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+
+        Map<String, Summary> rows = new LinkedHashMap<>();
+        for (String key : ROW_KEYS) {
+            long[] selected = snapshot.filterActive(key, null, null, null);
+            double[] totals = snapshot.totals(selected);
+            int[] count = counts.getOrDefault(key, new int[2]);
+            rows.put(key, new Summary(count[0], snapshot.countStudentsWhoPaid(selected), count[1],
+                                      totals[0], totals[1], now, changeId));
+        }
+        return rows;
+    }
+
+    /**
+     * Enrolment and overdue counts per semester of one school year, with a rollup row for the
+     * whole year; takes the school year id. Also EXPLAINed by QueryPlanCheck.
+     */
+    static final String COUNTS_SQL = "SELECT CASE " +
+                                     "  WHEN sem.first_sem_amount > 0 AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL) THEN '1st Sem' " +
+                                     "  WHEN sem.second_sem_amount > 0 AND (sem.first_sem_amount = 0 OR sem.first_sem_amount IS NULL) AND (sem.summer_sem_amount = 0 OR sem.summer_sem_amount IS NULL) THEN '2nd Sem' " +
+                                     "  WHEN sem.summer_sem_amount > 0 AND (sem.first_sem_amount = 0 OR sem.first_sem_amount IS NULL) AND (sem.second_sem_amount = 0 OR sem.second_sem_amount IS NULL) THEN 'Summer Sem' " +
+                                     "  ELSE 'Unknown' END AS semester_name, " +
+                                     "COUNT(DISTINCT s.student_id) AS total_students, " +
+                                     "COUNT(DISTINCT CASE WHEN sp.status = 'OVERDUE' THEN s.student_id END) AS overdue_count " +
+                                     "FROM student s " +
+                                     "INNER JOIN belong b ON s.student_id = b.student_id " +
+                                     "LEFT JOIN semester sem ON b.semester_id = sem.semester_id " +
+                                     "LEFT JOIN student_payables sp ON b.belong_id = sp.belong_id " +
+                                     "WHERE COALESCE(s.status, 'active') = 'active' " +
+                                     "AND COALESCE(b.status, 'active') = 'active' " +
+                                     "AND b.school_year_id = ? " +
+                                     "GROUP BY semester_name WITH ROLLUP";
+
+    private static Map<String, int[]> countStudentsAndOverdue(int schoolYearId) throws SQLException {
+        Map<String, int[]> counts = new LinkedHashMap<>();
+        try (Connection conn = DatabaseUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(COUNTS_SQL)) {
+            pstmt.setInt(1, schoolYearId);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                // The rollup row has a NULL semester and distinct counts over the whole year
+                String semester = rs.getString("semester_name");
+                counts.put(semester != null ? semester : ALL_SEMESTERS,
+                           new int[] { rs.getInt("total_students"), rs.getInt("overdue_count") });
+            }
+        }
+        return counts;
+    }
+
+    private static void store(int schoolYearId, Map<String, Summary> rows) throws SQLException {
+        String sql = "INSERT INTO dashboard_summary (school_year_id, semester, total_students, students_who_paid, " +
+                     "overdue_count, total_payable, total_collected, last_refreshed, change_id) " +
+                     "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) " +
+                     "ON DUPLICATE KEY UPDATE total_students = VALUES(total_students), " +
+                     "students_who_paid = VALUES(students_who_paid), overdue_count = VALUES(overdue_count), " +
+                     "total_payable = VALUES(total_payable), total_collected = VALUES(total_collected), " +
+                     "last_refreshed = VALUES(last_refreshed), change_id = VALUES(change_id)";
+
+        try (Connection conn = DatabaseUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (Map.Entry<String, Summary> entry : rows.entrySet()) {
+                Summary summary = entry.getValue();
+                pstmt.setInt(1, schoolYearId);
+                pstmt.setString(2, entry.getKey());
+                pstmt.setInt(3, summary.totalStudents);
+                pstmt.setInt(4, summary.studentsWhoPaid);
+                pstmt.setInt(5, summary.overdueCount);
+                pstmt.setString(6, PayableEncryptionUtil.encryptAmount(summary.totalPayable));
+                pstmt.setString(7, PayableEncryptionUtil.encryptAmount(summary.totalCollected));
+                pstmt.setTimestamp(8, summary.lastRefreshed);
+                pstmt.setLong(9, summary.changeId);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+    }
+
+    /**
+     * Read a school year's stored rows
+     *
+     * @return The rows (empty if never refreshed), or null on error
+     */
+    private static Map<String, Summary> loadStored(int schoolYearId) {
+        String sql = "SELECT semester, total_students, students_who_paid, overdue_count, " +
+                     "total_payable, total_collected, last_refreshed, change_id " +
+                     "FROM dashboard_summary WHERE school_year_id = ?";
+
+        Map<String, Summary> rows = new LinkedHashMap<>();
+        try (Connection conn = DatabaseUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, schoolYearId);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                rows.put(rs.getString("semester"), new Summary(
+                    rs.getInt("total_students"),
+                    rs.getInt("students_who_paid"),
+                    rs.getInt("overdue_count"),
+                    PayableEncryptionUtil.decryptAmount(rs.getString("total_payable")),
+                    PayableEncryptionUtil.decryptAmount(rs.getString("total_collected")),
+                    rs.getTimestamp("last_refreshed"),
+                    rs.getLong("change_id")));
+            }
+        } catch (SQLException e) {
+            Log.error("Error loading dashboard summary", e);
+            return null;
+        }
+        return rows;
+    }
+
+    private static List<Integer> allSchoolYearIds() throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        try (Connection conn = DatabaseUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement("SELECT school_year_id FROM school_year ORDER BY school_year_id");
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                ids.add(rs.getInt("school_year_id"));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Recompute every school year from scratch and compare with the stored rows
+     *
+     * @return Number of rows that differ or are missing, or -1 on error
+     */
+    public static int checkConsistency() {
+        int mismatches = 0;
+        try {
+            for (int schoolYearId : allSchoolYearIds()) {
+                Map<String, Summary> stored = loadStored(schoolYearId);
+                FinancialSnapshot.invalidate(schoolYearId);
+                Map<String, Summary> expected = compute(schoolYearId, -1);
+                for (Map.Entry<String, Summary> entry : expected.entrySet()) {
+                    Summary actual = stored != null ? stored.get(entry.getKey()) : null;
+                    String label = "school_year_id=" + schoolYearId + " " + entry.getKey();
+                    if (actual == null) {
+                        System.err.println("MISSING " + label + ": expected " + entry.getValue());
+                        mismatches++;
+                    } else if (!actual.matches(entry.getValue())) {
+                        System.err.println("DIFF " + label + " (refreshed " + actual.lastRefreshed + "): stored " +
+                                           actual + ", expected " + entry.getValue());
+                        mismatches++;
+                    } else {
+                        System.out.println("OK " + label + " (refreshed " + actual.lastRefreshed + ")");
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            Log.error("Error checking dashboard summary", e);
+            return -1;
+        }
+        return mismatches;
+    }
+
+    /**
+     * Rebuild every school year's rows
+     */
+    public static void refreshAll() {
+        try {
+            for (int schoolYearId : allSchoolYearIds()) {
+                FinancialSnapshot.invalidate(schoolYearId);
+                refresh(schoolYearId);
+            }
+        } catch (SQLException e) {
+            Log.error("Error refreshing dashboard summary", e);
+        }
+    }
+
+    public static void main(String[] args) {
+        String command = args.length > 0 ? args[0] : "check";
+        if ("refresh".equals(command)) {
+            refreshAll();
+            System.out.println("Dashboard summary refreshed");
+        } else {
+            int mismatches = checkConsistency();
+            if (mismatches != 0) {
+                System.err.println(mismatches < 0 ? "Consistency check could not run" : mismatches + " stale dashboard summary row(s); run with 'refresh' to rebuild");
+                DatabaseUtil.closeConnection();
+                System.exit(1);
+            }
+            System.out.println("Dashboard summary is consistent");
+        }
+        DatabaseUtil.closeConnection();
+    }
+}
@@ -23,7 +23,7 @@ public class DatabaseObjectsUtil {
             File sqlFile = new File("database_triggers_views_functions.sql");
             if (sqlFile.exists()) {
                 executeSQLFile(sqlFile, conn);
-                System.out.println("Database objects initialized from SQL file!");
+                Log.info("Database objects initialized from SQL file!");
                 return;
             }
             
@@ -31,23 +31,22 @@ public class DatabaseObjectsUtil {
             InputStream is = DatabaseObjectsUtil.class.getResourceAsStream("/database_triggers_views_functions.sql");
             if (is != null) {
                 executeSQLStream(is, conn);
-                System.out.println("Database objects initialized from resources!");
+                Log.info("Database objects initialized from resources!");
                 return;
             }
             
             // Fallback: create programmatically
             createDatabaseObjectsProgrammatically(conn);
-            System.out.println("Database objects created programmatically!");
+            Log.info("Database objects created programmatically!");
             
         } catch (Exception e) {
-            System.err.println("Warning: Could not initialize database objects from file: " + e.getMessage());
+            Log.warn("Could not initialize database objects from file", e);
             // Try creating programmatically as fallback
             try {
                 createDatabaseObjectsProgrammatically(conn);
-                System.out.println("Database objects created programmatically (fallback)!");
+                Log.info("Database objects created programmatically (fallback)!");
             } catch (SQLException e2) {
-                System.err.println("Error creating database objects programmatically: " + e2.getMessage());
-                e2.printStackTrace();
+                Log.error("Error creating database objects programmatically", e2);
             }
         }
     }
@@ -126,8 +125,7 @@ public class DatabaseObjectsUtil {
                             if (!e.getMessage().contains("already exists") && 
                                 !e.getMessage().contains("Duplicate") &&
                                 !e.getMessage().contains("Unknown")) {
-                                System.err.println("Warning executing SQL: " + e.getMessage());
-                                System.err.println("Statement: " + statement.substring(0, Math.min(100, statement.length())));
+                                Log.warn("Could not execute SQL statement " + statement.substring(0, Math.min(100, statement.length())), e);
                             }
                         }
                     }
@@ -159,7 +157,7 @@ public class DatabaseObjectsUtil {
     /**
      * Create database functions
      */
-    private static void createFunctions(Statement stmt) throws SQLException {
+    static void createFunctions(Statement stmt) throws SQLException {
         // Function: calculate_total_payable
         try {
             stmt.execute("DROP FUNCTION IF EXISTS calculate_total_payable");
@@ -179,7 +177,7 @@ public class DatabaseObjectsUtil {
             );
         } catch (SQLException e) {
             if (!e.getMessage().contains("already exists")) {
-                System.err.println("Warning creating function calculate_total_payable: " + e.getMessage());
+                Log.warn("Could not create function calculate_total_payable", e);
             }
         }
         
@@ -205,7 +203,7 @@ public class DatabaseObjectsUtil {
             );
         } catch (SQLException e) {
             if (!e.getMessage().contains("already exists")) {
-                System.err.println("Warning creating function calculate_remaining_balance: " + e.getMessage());
+                Log.warn("Could not create function calculate_remaining_balance", e);
             }
         }
         
@@ -252,7 +250,7 @@ public class DatabaseObjectsUtil {
             );
         } catch (SQLException e) {
             if (!e.getMessage().contains("already exists")) {
-                System.err.println("Warning creating function determine_payment_status: " + e.getMessage());
+                Log.warn("Could not create function determine_payment_status", e);
             }
         }
         
@@ -279,7 +277,7 @@ public class DatabaseObjectsUtil {
             );
         } catch (SQLException e) {
             if (!e.getMessage().contains("already exists")) {
-                System.err.println("Warning creating function get_student_fullname: " + e.getMessage());
+                Log.warn("Could not create function get_student_fullname", e);
             }
         }
     }
@@ -287,8 +285,11 @@ public class DatabaseObjectsUtil {
     /**
      * Create database views
      */
-    private static void createViews(Statement stmt) throws SQLException {
+    static void createViews(Statement stmt) throws SQLException {
         // View: v_student_payment_summary
+        // Payables are aggregated once per belong in a derived table; calling
+        // calculate_remaining_balance/determine_payment_status per row ran correlated
+        // subqueries for every output row and blocked view merging
         try {
             stmt.execute("DROP VIEW IF EXISTS v_student_payment_summary");
             stmt.execute(
@@ -303,49 +304,63 @@ public class DatabaseObjectsUtil {
                 "    ELSE 'Unknown' " +
                 "  END AS semester_name, " +
                 "  COALESCE(sem.first_sem_amount, 0) + COALESCE(sem.second_sem_amount, 0) + COALESCE(sem.summer_sem_amount, 0) AS total_payable, " +
-                "  COALESCE(SUM(sp.amount_paid), 0) AS total_paid, " +
-                "  calculate_remaining_balance(b.belong_id) AS remaining_balance, " +
-                "  determine_payment_status(b.belong_id) AS payment_status, " +
-                "  MAX(d.due_date) AS due_date, MAX(sp.payable_id) AS latest_payable_id " +
+                "  COALESCE(pa.total_paid, 0) AS total_paid, " +
+                "  GREATEST(COALESCE(sem.first_sem_amount, 0) + COALESCE(sem.second_sem_amount, 0) + COALESCE(sem.summer_sem_amount, 0) - COALESCE(pa.total_paid, 0), 0.00) AS remaining_balance, " +
+                "  CASE " +
+                "    WHEN COALESCE(pa.total_paid, 0) >= COALESCE(sem.first_sem_amount, 0) + COALESCE(sem.second_sem_amount, 0) + COALESCE(sem.summer_sem_amount, 0) - 0.01 THEN 'PAID' " +
+                "    WHEN pa.first_due_date IS NOT NULL AND pa.first_due_date < CURDATE() THEN 'OVERDUE' " +
+                "    WHEN COALESCE(pa.total_paid, 0) > 0 THEN 'PARTIAL' " +
+                "    ELSE 'UNPAID' " +
+                "  END AS payment_status, " +
+                "  pa.due_date, pa.latest_payable_id " +
                 "FROM student s " +
                 "INNER JOIN belong b ON s.student_id = b.student_id " +
                 "INNER JOIN school_year sy ON b.school_year_id = sy.school_year_id " +
                 "INNER JOIN semester sem ON b.semester_id = sem.semester_id " +
-                "LEFT JOIN student_payables sp ON b.belong_id = sp.belong_id " +
-                "LEFT JOIN duedate d ON sp.duedate_id = d.duedate_id " +
+                "LEFT JOIN ( " +
+                "  SELECT sp.belong_id, SUM(sp.amount_paid) AS total_paid, " +
+                "    MIN(d.due_date) AS first_due_date, MAX(d.due_date) AS due_date, " +
+                "    MAX(sp.payable_id) AS latest_payable_id " +
+                "  FROM student_payables sp " +
+                "  LEFT JOIN duedate d ON sp.duedate_id = d.duedate_id " +
+                "  GROUP BY sp.belong_id " +
+                ") pa ON b.belong_id = pa.belong_id " +
                 "WHERE COALESCE(s.status, 'active') = 'active' " +
-                "  AND COALESCE(b.status, 'active') = 'active' " +
-                "GROUP BY s.student_id, s.student_number, s.major, s.year, sy.year_range, b.belong_id, sem.semester_id"
+                "  AND COALESCE(b.status, 'active') = 'active'"
             );
         } catch (SQLException e) {
-            System.err.println("Warning creating view v_student_payment_summary: " + e.getMessage());
+            Log.warn("Could not create view v_student_payment_summary", e);
         }
         
         // View: v_overdue_payments
         try {
             stmt.execute("DROP VIEW IF EXISTS v_overdue_payments");
-            // Use simpler query that doesn't rely on functions in WHERE clause for better compatibility
+            // Amount paid per belong comes from one grouped derived table instead of a function call per row
             stmt.execute(
                 "CREATE VIEW v_overdue_payments AS " +
                 "SELECT s.student_id, s.student_number, " +
                 "  COALESCE(CONCAT_WS(' ', s.first_name, s.middle_name, s.last_name), s.fullname) AS full_name, " +
                 "  sy.year_range AS school_year, b.belong_id, sp.payable_id, " +
-                "  calculate_remaining_balance(b.belong_id) AS remaining_balance, " +
+                "  GREATEST(COALESCE(sem.first_sem_amount, 0) + COALESCE(sem.second_sem_amount, 0) + COALESCE(sem.summer_sem_amount, 0) - COALESCE(pa.total_paid, 0), 0.00) AS remaining_balance, " +
                 "  d.due_date, DATEDIFF(CURDATE(), d.due_date) AS days_overdue " +
                 "FROM student s " +
                 "INNER JOIN belong b ON s.student_id = b.student_id " +
                 "INNER JOIN school_year sy ON b.school_year_id = sy.school_year_id " +
+                "LEFT JOIN semester sem ON b.semester_id = sem.semester_id " +
                 "INNER JOIN student_payables sp ON b.belong_id = sp.belong_id " +
-                "LEFT JOIN duedate d ON sp.duedate_id = d.duedate_id " +
-                "WHERE d.due_date IS NOT NULL " +
-                "  AND d.due_date < CURDATE() " +
+                "INNER JOIN duedate d ON sp.duedate_id = d.duedate_id " +
+                "LEFT JOIN ( " +
+                "  SELECT belong_id, SUM(amount_paid) AS total_paid " +
+                "  FROM student_payables " +
+                "  GROUP BY belong_id " +
+                ") pa ON b.belong_id = pa.belong_id " +
+                "WHERE d.due_date < CURDATE() " +
                 "  AND sp.status != 'PAID' " +
                 "  AND COALESCE(s.status, 'active') = 'active' " +
                 "  AND COALESCE(b.status, 'active') = 'active'"
             );
         } catch (SQLException e) {
-            System.err.println("Warning creating view v_overdue_payments: " + e.getMessage());
-            e.printStackTrace();
+            Log.warn("Could not create view v_overdue_payments", e);
         }
         
         // View: v_top_payers
@@ -377,7 +392,7 @@ public class DatabaseObjectsUtil {
                 "ORDER BY total_amount_paid DESC"
             );
         } catch (SQLException e) {
-            System.err.println("Warning creating view v_top_payers: " + e.getMessage());
+            Log.warn("Could not create view v_top_payers", e);
         }
         
         // View: v_dashboard_summary
@@ -395,7 +410,7 @@ public class DatabaseObjectsUtil {
                 "  COALESCE(SUM(sp.amount_paid), 0) AS total_payments_collected, " +
                 "  COUNT(DISTINCT CASE WHEN sp.amount_paid > 0 THEN s.student_id END) AS students_who_paid, " +
                 "  COUNT(DISTINCT s.student_id) AS total_students_enrolled, " +
-                "  COUNT(DISTINCT CASE WHEN d.due_date IS NOT NULL AND d.due_date < CURDATE() AND sp.status != 'PAID' THEN sp.payable_id END) AS overdue_payments_count " +
+                "  COUNT(DISTINCT CASE WHEN sp.status = 'OVERDUE' THEN sp.payable_id END) AS overdue_payments_count " +
                 "FROM student s " +
                 "INNER JOIN belong b ON s.student_id = b.student_id " +
                 "INNER JOIN school_year sy ON b.school_year_id = sy.school_year_id " +
@@ -407,7 +422,7 @@ public class DatabaseObjectsUtil {
                 "GROUP BY b.school_year_id, sy.year_range, sem.semester_id"
             );
         } catch (SQLException e) {
-            System.err.println("Warning creating view v_dashboard_summary: " + e.getMessage());
+            Log.warn("Could not create view v_dashboard_summary", e);
         }
         
         // View: v_latest_payments
@@ -436,7 +451,7 @@ public class DatabaseObjectsUtil {
                 "  AND COALESCE(b.status, 'active') = 'active'"
             );
         } catch (SQLException e) {
-            System.err.println("Warning creating view v_latest_payments: " + e.getMessage());
+            Log.warn("Could not create view v_latest_payments", e);
         }
         
         // View: v_payment_statistics_monthly (enhanced)
@@ -470,7 +485,7 @@ public class DatabaseObjectsUtil {
                 "ORDER BY payment_month DESC"
             );
         } catch (SQLException e) {
-            System.err.println("Warning creating view v_payment_statistics_monthly: " + e.getMessage());
+            Log.warn("Could not create view v_payment_statistics_monthly", e);
         }
         
         // View: v_student_enrollment
@@ -497,7 +512,7 @@ public class DatabaseObjectsUtil {
                 "LEFT JOIN semester sem ON b.semester_id = sem.semester_id"
             );
         } catch (SQLException e) {
-            System.err.println("Warning creating view v_student_enrollment: " + e.getMessage());
+            Log.warn("Could not create view v_student_enrollment", e);
         }
     }
     
@@ -512,14 +527,23 @@ public class DatabaseObjectsUtil {
         // If the SQL file execution fails, these won't be created programmatically
         // as they require DELIMITER handling which is complex in JDBC
         
-        System.out.println("Note: Stored procedures should be created from database_triggers_views_functions.sql file");
-        System.out.println("Procedures to be created:");
-        System.out.println("  - sp_get_students");
-        System.out.println("  - sp_add_student");
-        System.out.println("  - sp_update_student");
-        System.out.println("  - sp_deactivate_student");
-        System.out.println("  - sp_reactivate_student");
-        System.out.println("  - sp_get_student_statistics");
+        Log.info("Note: Stored procedures should be created from database_triggers_views_functions.sql file");
+        Log.info("Procedures to be created:");
+        Log.info("  - sp_get_students");
+        Log.info("  - sp_add_student");
+        Log.info("  - sp_update_student");
+        Log.info("  - sp_deactivate_student");
+        Log.info("  - sp_reactivate_student");
+        Log.info("  - sp_get_student_statistics");
+        
+        // Payments are read and written by PaymentDAO directly (encrypted, version-checked amounts)
+        for (String procedure : new String[] {"sp_get_payments", "sp_save_payment", "sp_delete_payment"}) {
+            try {
+                stmt.execute("DROP PROCEDURE IF EXISTS " + procedure);
+            } catch (SQLException e) {
+                Log.warn("Could not drop procedure " + procedure, e);
+            }
+        }
     }
 }
 
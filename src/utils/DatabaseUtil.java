@@ -8,6 +8,19 @@ import java.sql.Statement;
 
 public class DatabaseUtil {
     private static Connection connection = null;
+    
+    // Room for the GROUP_CONCAT of every encrypted amount of one student (about 50 bytes each)
+    private static final int GROUP_CONCAT_MAX_LEN = 1024 * 1024;
+    private static final int ER_TRG_ALREADY_EXISTS = 1359;
+    
+    // Set by headless tools that run the DAOs against a scratch database (see useScratchDatabase)
+    private static volatile String scratchDatabase = null;
+    
+    // Set by headless tools that call DAOs from several threads (see useConnectionPerCall)
+    private static volatile boolean connectionPerCall = false;
+    
+    // Set on threads that run DAOs beside the UI thread (see withOwnConnections)
+    private static final ThreadLocal<Boolean> ownConnections = ThreadLocal.withInitial(() -> false);
 
     public static Connection getConnection() throws SQLException {
         try {
@@ -17,16 +30,116 @@ public class DatabaseUtil {
             throw new SQLException("MySQL JDBC driver not found. Please add mysql-connector-j-X.X.X.jar to your project libraries.", e);
         }
         
+        if (connectionPerCall || ownConnections.get()) {
+            return prepareSession(DriverManager.getConnection(databaseUrl(), DatabaseConfig.DB_USER, DatabaseConfig.DB_PASSWORD));
+        }
+        
         if (connection == null || connection.isClosed()) {
-            connection = DriverManager.getConnection(
+            connection = prepareSession(DriverManager.getConnection(
                 DatabaseConfig.DB_URL,
                 DatabaseConfig.DB_USER,
                 DatabaseConfig.DB_PASSWORD
-            );
+            ));
         }
         return connection;
     }
 
+    /**
+     * Open a new connection that is not shared with the UI.
+     * Background jobs use this so closing it does not close the shared connection;
+     * the caller must close it.
+     */
+    public static Connection openConnection() throws SQLException {
+        return openConnection(databaseUrl());
+    }
+
+    /**
+     * Open a new connection for bulk writes: like openConnection, but the driver rewrites
+     * JDBC batches into multi-row statements. The caller must close it.
+     */
+    public static Connection openBatchConnection() throws SQLException {
+        return openConnection(databaseUrl() + "&rewriteBatchedStatements=true");
+    }
+
+    private static Connection openConnection(String url) throws SQLException {
+        try {
+            Class.forName(DatabaseConfig.DRIVER_CLASS);
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("MySQL JDBC driver not found. Please add mysql-connector-j-X.X.X.jar to your project libraries.", e);
+        }
+        return prepareSession(DriverManager.getConnection(
+            url,
+            DatabaseConfig.DB_USER,
+            DatabaseConfig.DB_PASSWORD
+        ));
+    }
+
+    /**
+     * Record this process as the origin of the connection's writes in change_log,
+     * so ChangeLogPoller can skip changes this workstation made itself, and raise
+     * group_concat_max_len: the DAOs GROUP_CONCAT encrypted amounts per student, and the
+     * server default (1024 bytes) silently cuts the list after about 20 of them
+     */
+    private static Connection prepareSession(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("SET @dorpay_origin = " + ChangeLogPoller.ORIGIN + ", SESSION group_concat_max_len = " + GROUP_CONCAT_MAX_LEN);
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+        return conn;
+    }
+
+    /**
+     * Point every DAO at another database on the same server, with each getConnection() call
+     * opening its own connection so DAOs can be driven from many threads at once.
+     * Only for headless tools such as PostingLoadTest, since it redirects the whole process.
+     */
+    static void useScratchDatabase(String databaseName) {
+        scratchDatabase = databaseName;
+        useConnectionPerCall();
+    }
+
+    /**
+     * Wrap a task so that, while it runs, getConnection() on its thread opens a connection of its own
+     * instead of returning the shared one. For work the desktop app runs beside the UI thread
+     * (ReadApiServer's requests, SessionPrefetcher's loads, OfflinePostingQueue's replays); the UI thread
+     * keeps the shared connection.
+     */
+    public static Runnable withOwnConnections(Runnable task) {
+        return () -> {
+            ownConnections.set(true);
+            try {
+                task.run();
+            } finally {
+                ownConnections.remove();
+            }
+        };
+    }
+
+    /**
+     * Make every getConnection() call open its own connection instead of returning the shared one.
+     * DAOs close what getConnection() returns, so the shared connection is only safe on one thread;
+     * headless tools that run DAOs from worker threads (BatchRunner) switch to this first.
+     * It applies to the whole process, UI thread included, so code running inside the desktop app
+     * uses withOwnConnections for its own threads instead.
+     */
+    public static void useConnectionPerCall() {
+        connectionPerCall = true;
+        closeConnection();
+    }
+
+    private static String databaseName() {
+        return scratchDatabase != null ? scratchDatabase : DatabaseConfig.DB_NAME;
+    }
+
+    private static String databaseUrl() {
+        if (scratchDatabase == null) {
+            return DatabaseConfig.DB_URL;
+        }
+        return DatabaseConfig.DB_URL.replace("/" + DatabaseConfig.DB_NAME + "?", "/" + scratchDatabase + "?");
+    }
+
     public static void createDatabaseIfNotExists() {
         try {
             // Connect without database to create it
@@ -38,12 +151,11 @@ public class DatabaseUtil {
                  Statement stmt = conn.createStatement()) {
                 
                 // Create database if it doesn't exist
-                stmt.execute("CREATE DATABASE IF NOT EXISTS " + DatabaseConfig.DB_NAME);
-                System.out.println("Database '" + DatabaseConfig.DB_NAME + "' checked/created successfully!");
+                stmt.execute("CREATE DATABASE IF NOT EXISTS " + databaseName());
+                Log.info("Database '" + databaseName() + "' checked/created successfully!");
             }
         } catch (Exception e) {
-            System.err.println("Error creating database: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error creating database", e);
         }
     }
 
@@ -130,6 +242,26 @@ public class DatabaseUtil {
                     }
                 }
                 
+                // FULLTEXT index for server-side student search (StudentDAO falls back to LIKE without it)
+                try {
+                    stmt.execute("ALTER TABLE student ADD FULLTEXT INDEX ft_student_search " +
+                            "(student_number, first_name, middle_name, last_name, fullname)");
+                } catch (SQLException e) {
+                    // Index exists, ignore
+                }
+                
+                // Normalized "first middle last" name (lower case, blanks skipped) for duplicate checks,
+                // kept by MySQL so StudentDAO.resolveIdentities can use an index instead of CONCAT per row
+                try {
+                    stmt.execute("ALTER TABLE student ADD COLUMN name_key VARCHAR(310) " +
+                            "GENERATED ALWAYS AS (LOWER(COALESCE(NULLIF(CONCAT_WS(' ', " +
+                            "NULLIF(TRIM(first_name), ''), NULLIF(TRIM(middle_name), ''), NULLIF(TRIM(last_name), '')), ''), " +
+                            "TRIM(fullname)))) STORED");
+                } catch (SQLException e) {
+                    // Column exists, ignore
+                }
+                addIndex(stmt, "student", "idx_student_name_key", "name_key");
+                
                 // Create SEMESTER table
                 stmt.execute("CREATE TABLE IF NOT EXISTS semester (" +
                         "semester_id INT AUTO_INCREMENT PRIMARY KEY," +
@@ -145,6 +277,7 @@ public class DatabaseUtil {
                         "school_year_id INT NOT NULL," +
                         "semester_id INT NOT NULL," +
                         "status VARCHAR(20) DEFAULT 'active'," +
+                        "version INT NOT NULL DEFAULT 0," +
                         "FOREIGN KEY (student_id) REFERENCES student(student_id) ON DELETE CASCADE," +
                         "FOREIGN KEY (school_year_id) REFERENCES school_year(school_year_id) ON DELETE CASCADE," +
                         "FOREIGN KEY (semester_id) REFERENCES semester(semester_id) ON DELETE CASCADE," +
@@ -165,6 +298,13 @@ public class DatabaseUtil {
                     }
                 }
                 
+                // Row version for optimistic concurrency (bumped whenever a payable is created for the belong row)
+                try {
+                    stmt.execute("ALTER TABLE belong ADD COLUMN version INT NOT NULL DEFAULT 0");
+                } catch (SQLException e) {
+                    // Column exists, ignore
+                }
+                
                 // Create PROMISSORY_NOTE table
                 stmt.execute("CREATE TABLE IF NOT EXISTS promissory_note (" +
                         "promissory_id INT AUTO_INCREMENT PRIMARY KEY," +
@@ -193,10 +333,199 @@ public class DatabaseUtil {
                         "remaining_balance VARCHAR(255) NOT NULL DEFAULT '0.00'," +
                         "status ENUM('UNPAID', 'PARTIAL', 'PAID', 'OVERDUE') DEFAULT 'UNPAID'," +
                         "duedate_id INT," +
+                        "version INT NOT NULL DEFAULT 0," +
                         "FOREIGN KEY (belong_id) REFERENCES belong(belong_id) ON DELETE CASCADE," +
                         "FOREIGN KEY (duedate_id) REFERENCES duedate(duedate_id) ON DELETE SET NULL" +
                         ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4");
                 
+                // Row version for optimistic concurrency: payment writes update WHERE version = <version read>
+                try {
+                    stmt.execute("ALTER TABLE student_payables ADD COLUMN version INT NOT NULL DEFAULT 0");
+                } catch (SQLException e) {
+                    // Column exists, ignore
+                }
+                
+                // Secondary indexes for the hot query paths (see database_indexes.sql)
+                addIndex(stmt, "belong", "idx_belong_school_year_status", "school_year_id, status");
+                addIndex(stmt, "student", "idx_student_status", "status");
+                addIndex(stmt, "duedate", "idx_duedate_due_date", "due_date");
+                addIndex(stmt, "student_payables", "idx_payables_status", "status");
+                addIndex(stmt, "student_payables", "idx_payables_duedate_status", "duedate_id, status");
+                
+                // Last change time of the rows behind the student and payment lists; SnapshotStore
+                // re-reads only the students changed since its cached copy was taken
+                for (String table : new String[] {"student", "belong", "student_payables"}) {
+                    try {
+                        stmt.execute("ALTER TABLE " + table + " ADD COLUMN updated_at TIMESTAMP(3) NOT NULL " +
+                                     "DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3)");
+                    } catch (SQLException e) {
+                        // Column exists, ignore
+                    }
+                }
+                addIndex(stmt, "student", "idx_student_updated_at", "updated_at");
+                addIndex(stmt, "belong", "idx_belong_school_year_updated_at", "school_year_id, updated_at");
+                addIndex(stmt, "student_payables", "idx_payables_updated_at", "updated_at");
+                
+                // Order-revealing range tags of the encrypted amounts (see PayableEncryptionUtil.rangeTag),
+                // so amount filters and ordering run in MySQL; NULL until PayableEncryptionMigration fills them
+                for (String column : new String[] {"amount_paid_tag", "remaining_balance_tag"}) {
+                    try {
+                        stmt.execute("ALTER TABLE student_payables ADD COLUMN " + column + " SMALLINT NULL");
+                    } catch (SQLException e) {
+                        // Column exists, ignore
+                    }
+                }
+                addIndex(stmt, "student_payables", "idx_payables_amount_paid_tag", "amount_paid_tag");
+                addIndex(stmt, "student_payables", "idx_payables_remaining_tag", "remaining_balance_tag");
+                // A deleted payable leaves no row behind, so it touches its enrollment instead
+                addTrigger(stmt, "trg_payables_delete_touch_belong", "AFTER DELETE ON student_payables FOR EACH ROW " +
+                           "UPDATE belong SET updated_at = CURRENT_TIMESTAMP(3) WHERE belong_id = OLD.belong_id");
+                
+                // Create DASHBOARD_SUMMARY table (materialized dashboard cards, maintained by DashboardSummary)
+                // Amount columns are VARCHAR to store encrypted values
+                stmt.execute("CREATE TABLE IF NOT EXISTS dashboard_summary (" +
+                        "school_year_id INT NOT NULL," +
+                        "semester VARCHAR(20) NOT NULL," +
+                        "total_students INT NOT NULL DEFAULT 0," +
+                        "students_who_paid INT NOT NULL DEFAULT 0," +
+                        "overdue_count INT NOT NULL DEFAULT 0," +
+                        "total_payable VARCHAR(255) NOT NULL DEFAULT '0.00'," +
+                        "total_collected VARCHAR(255) NOT NULL DEFAULT '0.00'," +
+                        "last_refreshed TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                        "change_id BIGINT NOT NULL DEFAULT -1," +
+                        "PRIMARY KEY (school_year_id, semester)," +
+                        "FOREIGN KEY (school_year_id) REFERENCES school_year(school_year_id) ON DELETE CASCADE" +
+                        ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4");
+                try {
+                    // change_log position the row was computed at; -1 (never current) for rows stored before it existed
+                    stmt.execute("ALTER TABLE dashboard_summary ADD COLUMN change_id BIGINT NOT NULL DEFAULT -1");
+                } catch (SQLException e) {
+                    // Column exists, ignore
+                }
+                
+                // Create PAYMENT_TRANSACTION table (append-only payment ledger, see PaymentLedgerDAO)
+                // Amount columns are VARCHAR to store encrypted values
+                stmt.execute("CREATE TABLE IF NOT EXISTS payment_transaction (" +
+                        "transaction_id INT AUTO_INCREMENT PRIMARY KEY," +
+                        "student_id INT NOT NULL," +
+                        "belong_id INT NOT NULL," +
+                        "school_year_id INT NOT NULL," +
+                        "entry_type ENUM('OPENING', 'PAYMENT', 'ADJUSTMENT') NOT NULL," +
+                        "amount VARCHAR(255) NOT NULL," +
+                        "paid_to_date VARCHAR(255) NOT NULL," +
+                        "balance_after VARCHAR(255) NOT NULL," +
+                        "status ENUM('UNPAID', 'PARTIAL', 'PAID') NOT NULL," +
+                        "posted_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                        "cashier VARCHAR(50)," +
+                        "INDEX idx_txn_student_belong (student_id, belong_id, transaction_id)," +
+                        "INDEX idx_txn_belong (belong_id, transaction_id)," +
+                        "INDEX idx_txn_school_year_type (school_year_id, entry_type, transaction_id)," +
+                        "INDEX idx_txn_school_year_posted (school_year_id, posted_at)," +
+                        "FOREIGN KEY (student_id) REFERENCES student(student_id) ON DELETE CASCADE," +
+                        "FOREIGN KEY (belong_id) REFERENCES belong(belong_id) ON DELETE CASCADE," +
+                        "FOREIGN KEY (school_year_id) REFERENCES school_year(school_year_id) ON DELETE CASCADE" +
+                        ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4");
+                
+                // Create COLLECTION_ROLLUP table (day/week/month collection buckets, see CollectionRollupDAO)
+                // Amount columns are VARCHAR to store encrypted values
+                stmt.execute("CREATE TABLE IF NOT EXISTS collection_rollup (" +
+                        "school_year_id INT NOT NULL," +
+                        "bucket_type ENUM('DAY', 'WEEK', 'MONTH') NOT NULL," +
+                        "semester VARCHAR(20) NOT NULL," +
+                        "bucket_start DATE NOT NULL," +
+                        "collected VARCHAR(255) NOT NULL DEFAULT '0.00'," +
+                        "entry_count INT NOT NULL DEFAULT 0," +
+                        "PRIMARY KEY (school_year_id, bucket_type, semester, bucket_start)," +
+                        "INDEX idx_rollup_bucket (bucket_type, semester, bucket_start)," +
+                        "FOREIGN KEY (school_year_id) REFERENCES school_year(school_year_id) ON DELETE CASCADE" +
+                        ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4");
+                try {
+                    encryptCollectionRollup(conn, stmt);
+                } catch (SQLException e) {
+                    Log.warn("Could not encrypt collection_rollup totals", e);
+                }
+                
+                // Create TOP_PAYER_BOARD and TOP_PAYER tables (bounded top payers per school year and semester, see TopPayersDAO)
+                // Amount columns are VARCHAR to store encrypted values
+                stmt.execute("CREATE TABLE IF NOT EXISTS top_payer_board (" +
+                        "school_year_id INT NOT NULL," +
+                        "semester VARCHAR(20) NOT NULL," +
+                        "floor_paid VARCHAR(255) NOT NULL," +
+                        "built_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                        "PRIMARY KEY (school_year_id, semester)," +
+                        "FOREIGN KEY (school_year_id) REFERENCES school_year(school_year_id) ON DELETE CASCADE" +
+                        ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4");
+                stmt.execute("CREATE TABLE IF NOT EXISTS top_payer (" +
+                        "school_year_id INT NOT NULL," +
+                        "semester VARCHAR(20) NOT NULL," +
+                        "student_id INT NOT NULL," +
+                        "total_paid VARCHAR(255) NOT NULL," +
+                        "PRIMARY KEY (school_year_id, semester, student_id)," +
+                        "FOREIGN KEY (school_year_id, semester) REFERENCES top_payer_board(school_year_id, semester) ON DELETE CASCADE," +
+                        "FOREIGN KEY (student_id) REFERENCES student(student_id) ON DELETE CASCADE" +
+                        ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4");
+                
+                // Create FEE_SCHEDULE table (fee per school year, term, program and year level, see FeeScheduleCache)
+                // An empty program or year_level applies to every program / year level; amount is VARCHAR to store the encrypted value
+                stmt.execute("CREATE TABLE IF NOT EXISTS fee_schedule (" +
+                        "fee_id INT AUTO_INCREMENT PRIMARY KEY," +
+                        "school_year_id INT NOT NULL," +
+                        "semester VARCHAR(20) NOT NULL," +
+                        "program VARCHAR(100) NOT NULL DEFAULT ''," +
+                        "year_level VARCHAR(20) NOT NULL DEFAULT ''," +
+                        "amount VARCHAR(255) NOT NULL," +
+                        "UNIQUE KEY unique_fee (school_year_id, semester, program, year_level)," +
+                        "FOREIGN KEY (school_year_id) REFERENCES school_year(school_year_id) ON DELETE CASCADE" +
+                        ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4");
+                try {
+                    encryptFeeSchedule(conn, stmt);
+                } catch (SQLException e) {
+                    Log.warn("Could not encrypt fee_schedule amounts", e);
+                }
+                
+                // Link enrollments to the scheduled fee they were assigned (NULL = amount entered by hand)
+                try {
+                    stmt.execute("ALTER TABLE belong ADD COLUMN fee_id INT NULL, " +
+                                 "ADD CONSTRAINT fk_belong_fee FOREIGN KEY (fee_id) REFERENCES fee_schedule(fee_id) ON DELETE SET NULL");
+                } catch (SQLException e) {
+                    // Column exists, ignore
+                }
+                
+                // Create POSTING_RECEIPT table (idempotency keys of cashier postings, online or replayed, see OfflinePostingQueue)
+                stmt.execute("CREATE TABLE IF NOT EXISTS posting_receipt (" +
+                        "idempotency_key CHAR(36) PRIMARY KEY," +
+                        "student_id INT NOT NULL," +
+                        "school_year_id INT NULL," +
+                        "applied_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP" +
+                        ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4");
+                
+                // Create CHANGE_LOG table (writes seen by other workstations, see ChangeLogPoller)
+                // No foreign keys: rows outlive the rows they describe
+                stmt.execute("CREATE TABLE IF NOT EXISTS change_log (" +
+                        "change_id BIGINT AUTO_INCREMENT PRIMARY KEY," +
+                        "entity VARCHAR(20) NOT NULL," +
+                        "entity_id INT NOT NULL," +
+                        "version INT NULL," +
+                        "student_id INT NULL," +
+                        "school_year_id INT NULL," +
+                        "origin BIGINT NULL," +
+                        "changed_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3)," +
+                        "INDEX idx_change_log_entity (entity, entity_id, change_id)," +
+                        "INDEX idx_change_log_changed_at (changed_at)" +
+                        ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4");
+                createChangeLogTriggers(stmt);
+                
+                // Create ENCRYPTION_CHECKPOINT table (id ranges already re-encrypted with a key, see PayableEncryptionMigration)
+                stmt.execute("CREATE TABLE IF NOT EXISTS encryption_checkpoint (" +
+                        "table_name VARCHAR(64) NOT NULL," +
+                        "key_id CHAR(8) NOT NULL," +
+                        "first_id INT NOT NULL," +
+                        "last_id INT NOT NULL," +
+                        "rows_rewritten INT NOT NULL DEFAULT 0," +
+                        "completed_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                        "PRIMARY KEY (table_name, key_id, first_id)" +
+                        ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4");
+                
                 // Migrate existing DECIMAL columns to VARCHAR if they exist
                 // This handles the case where the table was created with DECIMAL columns
                 try {
@@ -208,7 +537,7 @@ public class DatabaseUtil {
                         if ("DECIMAL".equalsIgnoreCase(typeName) || "NUMERIC".equalsIgnoreCase(typeName)) {
                             // Need to migrate: DECIMAL -> VARCHAR
                             // This will be handled by PayableEncryptionMigration
-                            System.out.println("Note: student_payables table has DECIMAL columns that need migration to encrypted VARCHAR");
+                            Log.info("Note: student_payables table has DECIMAL columns that need migration to encrypted VARCHAR");
                         }
                     }
                 } catch (SQLException e) {
@@ -224,19 +553,146 @@ public class DatabaseUtil {
                 stmt.execute("INSERT IGNORE INTO school_year (year_range) VALUES " +
                         "('2025-2026'), ('2024-2025'), ('2023-2024')");
                 
-                System.out.println("Database tables initialized successfully!");
+                Log.info("Database tables initialized successfully!");
                 
                 // Initialize triggers, views, and functions
                 DatabaseObjectsUtil.initializeDatabaseObjects(conn);
             }
         } catch (SQLException e) {
-            System.err.println("Error initializing database: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error initializing database", e);
             throw new RuntimeException("Failed to initialize database. Please check your MySQL connection settings.", e);
         }
     }
     
 
+    /**
+     * AFTER INSERT/UPDATE/DELETE triggers appending one change_log row per written row of the
+     * tables behind the cached lists; origin is the writing connection's @dorpay_origin (see prepareSession)
+     */
+    private static void createChangeLogTriggers(Statement stmt) {
+        // table, entity, id column, version, student id, school year id, extra FROM ("X" is NEW or OLD)
+        String[][] tables = {
+            {"student", "student", "student_id", "NULL", "X.student_id", "X.school_year_id", ""},
+            {"belong", "belong", "belong_id", "X.version", "X.student_id", "X.school_year_id", ""},
+            {"student_payables", "payable", "payable_id", "X.version", "b.student_id", "b.school_year_id",
+             " FROM (SELECT 1) one LEFT JOIN belong b ON b.belong_id = X.belong_id"},
+            {"fee_schedule", "fee_schedule", "fee_id", "NULL", "NULL", "X.school_year_id", ""}
+        };
+        String[][] events = {{"INSERT", "ins", "NEW"}, {"UPDATE", "upd", "NEW"}, {"DELETE", "del", "OLD"}};
+        for (String[] t : tables) {
+            for (String[] event : events) {
+                String name = "trg_change_log_" + t[0] + "_" + event[1];
+                String select = ("SELECT '" + t[1] + "', X." + t[2] + ", " + t[3] + ", " + t[4] + ", " + t[5] +
+                                 ", @dorpay_origin" + t[6]).replace("X.", event[2] + ".");
+                addTrigger(stmt, name, "AFTER " + event[0] + " ON " + t[0] + " FOR EACH ROW INSERT INTO change_log " +
+                           "(entity, entity_id, version, student_id, school_year_id, origin) " + select);
+            }
+        }
+    }
+
+    /**
+     * collection_rollup.collected used to be a plaintext DECIMAL: widen it to VARCHAR and encrypt the
+     * plain totals (this also finishes a run that stopped after the ALTER)
+     */
+    private static void encryptCollectionRollup(Connection conn, Statement stmt) throws SQLException {
+        try (java.sql.ResultSet rs = conn.getMetaData().getColumns(conn.getCatalog(), null, "collection_rollup", "collected")) {
+            if (rs.next() && "DECIMAL".equalsIgnoreCase(rs.getString("TYPE_NAME"))) {
+                stmt.execute("ALTER TABLE collection_rollup MODIFY collected VARCHAR(255) NOT NULL DEFAULT '0.00'");
+            }
+        }
+        
+        String selectSql = "SELECT school_year_id, bucket_type, semester, bucket_start, collected FROM collection_rollup " +
+                          "WHERE collected REGEXP '^-?[0-9]+([.][0-9]+)?$'";
+        String updateSql = "UPDATE collection_rollup SET collected = ? " +
+                          "WHERE school_year_id = ? AND bucket_type = ? AND semester = ? AND bucket_start = ? AND collected = ?";
+        int encrypted = 0;
+        try (java.sql.PreparedStatement select = conn.prepareStatement(selectSql);
+             java.sql.PreparedStatement update = conn.prepareStatement(updateSql);
+             java.sql.ResultSet rs = select.executeQuery()) {
+            while (rs.next()) {
+                String plain = rs.getString("collected");
+                update.setString(1, PayableEncryptionUtil.encryptAmount(Double.parseDouble(plain)));
+                update.setInt(2, rs.getInt("school_year_id"));
+                update.setString(3, rs.getString("bucket_type"));
+                update.setString(4, rs.getString("semester"));
+                update.setDate(5, rs.getDate("bucket_start"));
+                update.setString(6, plain);
+                encrypted += update.executeUpdate();
+            }
+        }
+        if (encrypted > 0) {
+            Log.info("collection_rollup: encrypted " + encrypted + " total(s)");
+        }
+    }
+
+    /**
+     * fee_schedule.amount used to be a plaintext DECIMAL: widen it to VARCHAR and encrypt the plain amounts
+     */
+    private static void encryptFeeSchedule(Connection conn, Statement stmt) throws SQLException {
+        try (java.sql.ResultSet rs = conn.getMetaData().getColumns(conn.getCatalog(), null, "fee_schedule", "amount")) {
+            if (rs.next() && "DECIMAL".equalsIgnoreCase(rs.getString("TYPE_NAME"))) {
+                stmt.execute("ALTER TABLE fee_schedule MODIFY amount VARCHAR(255) NOT NULL");
+            }
+        }
+        
+        String selectSql = "SELECT fee_id, amount FROM fee_schedule WHERE amount REGEXP '^-?[0-9]+([.][0-9]+)?$'";
+        String updateSql = "UPDATE fee_schedule SET amount = ? WHERE fee_id = ? AND amount = ?";
+        int encrypted = 0;
+        try (java.sql.PreparedStatement select = conn.prepareStatement(selectSql);
+             java.sql.PreparedStatement update = conn.prepareStatement(updateSql);
+             java.sql.ResultSet rs = select.executeQuery()) {
+            while (rs.next()) {
+                String plain = rs.getString("amount");
+                update.setString(1, PayableEncryptionUtil.encryptAmount(Double.parseDouble(plain)));
+                update.setInt(2, rs.getInt("fee_id"));
+                update.setString(3, plain);
+                encrypted += update.executeUpdate();
+            }
+        }
+        if (encrypted > 0) {
+            Log.info("fee_schedule: encrypted " + encrypted + " amount(s)");
+        }
+    }
+
+    /**
+     * Create a trigger, ignoring the error when it already exists (CREATE TRIGGER IF NOT EXISTS needs MySQL 8.0.29)
+     */
+    private static void addTrigger(Statement stmt, String name, String definition) {
+        try {
+            stmt.execute("CREATE TRIGGER " + name + " " + definition);
+        } catch (SQLException e) {
+            if (e.getErrorCode() != ER_TRG_ALREADY_EXISTS) {
+                Log.warn("Could not create " + name, e);
+            }
+        }
+    }
+
+    /**
+     * Add a secondary index, ignoring the error when it already exists
+     */
+    private static void addIndex(Statement stmt, String table, String indexName, String columns) {
+        try {
+            stmt.execute("ALTER TABLE " + table + " ADD INDEX " + indexName + " (" + columns + ")");
+        } catch (SQLException e) {
+            // Index exists, ignore
+        }
+    }
+
+    /**
+     * Current database server time, to millisecond precision (the resolution of the updated_at columns)
+     * @return The server time, or null if it could not be read
+     */
+    public static java.sql.Timestamp getServerTime() {
+        try (Connection conn = getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT NOW(3)")) {
+            return rs.next() ? rs.getTimestamp(1) : null;
+        } catch (SQLException e) {
+            Log.warn("Could not read server time", e);
+            return null;
+        }
+    }
+
     public static void closeConnection() {
         try {
             if (connection != null && !connection.isClosed()) {
@@ -244,7 +700,7 @@ public class DatabaseUtil {
                 connection = null;
             }
         } catch (SQLException e) {
-            System.err.println("Error closing connection: " + e.getMessage());
+            Log.warn("Error closing connection", e);
         }
     }
     
@@ -256,11 +712,11 @@ public class DatabaseUtil {
             Connection conn = getConnection();
             boolean isValid = conn != null && !conn.isClosed();
             if (isValid) {
-                System.out.println("Database connection successful!");
+                Log.info("Database connection successful!");
             }
             return isValid;
         } catch (SQLException e) {
-            System.err.println("Database connection failed: " + e.getMessage());
+            Log.warn("Database connection failed", e);
             return false;
         }
     }
@@ -0,0 +1,72 @@
+package utils;
+
+import dao.FeeScheduleDAO;
+import models.FeeSchedule;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory copy of fee_schedule, loaded per school year on first use.
+ * A school year has a few dozen fees at most, so lookups are a hash probe instead of
+ * a query; FeeScheduleDAO invalidates the school year whenever it writes.
+ */
+public class FeeScheduleCache {
+
+    private static final FeeScheduleDAO feeScheduleDAO = new FeeScheduleDAO();
+
+    /** Fees keyed by semester|program|year level (lower case) per school year */
+    private static final Map<Integer, Map<String, FeeSchedule>> schedules = new ConcurrentHashMap<>();
+
+    /**
+     * Scheduled fee for a student in a term.
+     * The most specific entry wins: program and year level, then program only,
+     * then year level only, then the school-wide fee for the term.
+     *
+     * @return The fee, or null when none is scheduled
+     */
+    public static FeeSchedule lookup(Integer schoolYearId, String semester, String program, String yearLevel) {
+        if (schoolYearId == null || semester == null) {
+            return null;
+        }
+        Map<String, FeeSchedule> fees = schedules.computeIfAbsent(schoolYearId, FeeScheduleCache::load);
+        String[][] candidates = {
+            {program, yearLevel},
+            {program, ""},
+            {"", yearLevel},
+            {"", ""}
+        };
+        for (String[] candidate : candidates) {
+            FeeSchedule fee = fees.get(key(semester, candidate[0], candidate[1]));
+            if (fee != null) {
+                return fee;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Drop a school year's fees so the next lookup reloads them (null drops all)
+     */
+    public static void invalidate(Integer schoolYearId) {
+        if (schoolYearId == null) {
+            schedules.clear();
+        } else {
+            schedules.remove(schoolYearId);
+        }
+    }
+
+    private static Map<String, FeeSchedule> load(int schoolYearId) {
+        Map<String, FeeSchedule> fees = new HashMap<>();
+        for (FeeSchedule fee : feeScheduleDAO.getFeeSchedules(schoolYearId)) {
+            fees.put(key(fee.getSemester(), fee.getProgram(), fee.getYearLevel()), fee);
+        }
+        return fees;
+    }
+
+    private static String key(String semester, String program, String yearLevel) {
+        return (semester + "|" + (program != null ? program.trim() : "") + "|" +
+                (yearLevel != null ? yearLevel.trim() : "")).toLowerCase();
+    }
+}
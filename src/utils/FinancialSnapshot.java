@@ -0,0 +1,507 @@
+package utils;
+
+import dao.PaymentDAO;
+import models.PaymentView;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * Columnar in-memory snapshot of payment data for one school year.
+ * One row per student and semester, stored as primitive columns; status, program,
+ * year level and semester are dictionary-encoded and each value has a long[] bitmap
+ * of the rows holding it. Filters are bitmap ANDs and totals/counts are primitive
+ * loops over the selected rows (parallel for large snapshots).
+ *
+ * Rows of deactivated students and enrollments are kept with a bitmap of their own: Reports
+ * list every student, as they did before the snapshot, while the Dashboard counts active ones
+ * (filterActive), like the enrolment figures next to it.
+ *
+ * Payment and payable writes call onPaymentChanged; the affected students' rows are
+ * re-fetched on next access instead of rebuilding the whole snapshot. The full load and
+ * the re-fetch run outside the locks, so writes and other school years do not wait for them.
+ */
+public class FinancialSnapshot {
+
+    public static final String[] SEMESTERS = {"1st Sem", "2nd Sem", "Summer Sem"};
+    public static final String[] STATUSES = {"Paid", "Partial", "UNPAID"};
+
+    /** Row capacity from which loops run in parallel; smaller snapshots are scanned on the calling thread */
+    private static final int PARALLEL_THRESHOLD = 1 << 14;
+
+    private static final long NO_DUE_DATE = Long.MIN_VALUE;
+
+    /** Changed students from which the snapshot is rebuilt instead of re-fetching them */
+    private static final int DIRTY_REBUILD_THRESHOLD = 1000;
+
+    /** Loaded snapshots keyed by school year id (-1 for all school years) */
+    private static final Map<Integer, FinancialSnapshot> snapshots = new HashMap<>();
+
+    /** Snapshots being loaded; changes seen meanwhile are queued on them, invalidation discards them */
+    private static final Map<Integer, FinancialSnapshot> loading = new HashMap<>();
+
+    /** Incremented on every change notification, so callers can tell when their copy is stale */
+    private static long version = 0;
+
+    // Row columns
+    private int size = 0;
+    private int[] studentIds = new int[64];
+    private String[] studentNumbers = new String[64];
+    private String[] studentNames = new String[64];
+    private double[] payable = new double[64];
+    private double[] paid = new double[64];
+    private double[] downPayment = new double[64];
+    private long[] dueEpochDay = new long[64];
+    private byte[] semesterCodes = new byte[64];
+    private byte[] statusCodes = new byte[64];
+    private int[] programCodes = new int[64];
+    private int[] yearCodes = new int[64];
+
+    // Dictionaries
+    private final List<String> programs = new ArrayList<>();
+    private final Map<String, Integer> programIndex = new HashMap<>();
+    private final List<String> yearLevels = new ArrayList<>();
+    private final Map<String, Integer> yearIndex = new HashMap<>();
+
+    // Bitmaps per dictionary value; live marks rows not replaced by an incremental update
+    private long[] live = new long[1];
+    private long[] active = new long[1];
+    private final long[][] semesterBitmaps = new long[SEMESTERS.length][1];
+    private final long[][] statusBitmaps = new long[STATUSES.length][1];
+    private int bitmapWords = 1;
+    private final List<long[]> programBitmaps = new ArrayList<>();
+    private final List<long[]> yearBitmaps = new ArrayList<>();
+
+    /** Row numbers of each student, for incremental replacement */
+    private final Map<Integer, List<Integer>> rowsByStudent = new HashMap<>();
+    private final Set<Integer> dirtyStudents = new HashSet<>();
+    private boolean refreshing = false;
+    private final Integer schoolYearId;
+    private int deadRows = 0;
+    private long builtAt;
+
+    private FinancialSnapshot(Integer schoolYearId) {
+        this.schoolYearId = schoolYearId;
+    }
+
+    /**
+     * Get the snapshot for a school year, applying pending student changes.
+     * A snapshot is built on first use, and rebuilt once more than half of its rows were
+     * replaced or too many students changed; the full query runs without the class lock and
+     * the result is published only if nothing invalidated it meanwhile (the caller gets it either way).
+     */
+    public static FinancialSnapshot forSchoolYear(Integer schoolYearId) {
+        Integer key = schoolYearId != null ? schoolYearId : -1;
+        FinancialSnapshot snapshot;
+        boolean build;
+        synchronized (FinancialSnapshot.class) {
+            snapshot = snapshots.get(key);
+            build = snapshot == null || (snapshot.needsRebuild() && !loading.containsKey(key));
+            if (build) {
+                snapshot = new FinancialSnapshot(schoolYearId);
+                loading.put(key, snapshot);
+            }
+        }
+
+        if (build) {
+            List<PaymentView> rows = new PaymentDAO().getSemesterPaymentRows(schoolYearId, null);
+            synchronized (FinancialSnapshot.class) {
+                snapshot.load(rows != null ? rows : List.of());
+                if (loading.get(key) == snapshot) {
+                    loading.remove(key);
+                    snapshots.put(key, snapshot);
+                }
+            }
+        }
+
+        // Students changed since the last access (or during the load) are re-read now
+        snapshot.refreshDirtyStudents();
+        return snapshot;
+    }
+
+    /**
+     * Called after a payment or payable write; the student's rows are refreshed on next access
+     */
+    public static synchronized void onPaymentChanged(Integer schoolYearId, int studentId) {
+        version++;
+        DashboardSummary.markDirty(schoolYearId);
+        SessionPrefetcher.markStale(schoolYearId);
+        for (Map<Integer, FinancialSnapshot> group : List.of(snapshots, loading)) {
+            for (Map.Entry<Integer, FinancialSnapshot> e : group.entrySet()) {
+                if (schoolYearId == null || e.getKey() == -1 || e.getKey().equals(schoolYearId)) {
+                    e.getValue().markDirty(studentId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop a school year's snapshot (or all snapshots when null) so it is rebuilt on next access
+     */
+    public static synchronized void invalidate(Integer schoolYearId) {
+        version++;
+        DashboardSummary.markDirty(schoolYearId);
+        SessionPrefetcher.markStale(schoolYearId);
+        if (schoolYearId == null) {
+            snapshots.clear();
+            loading.clear();
+        } else {
+            snapshots.remove(schoolYearId);
+            snapshots.remove(-1);
+            loading.remove(schoolYearId);
+            loading.remove(-1);
+        }
+    }
+
+    public static synchronized long getVersion() {
+        return version;
+    }
+
+    // ---------------------------------------------------------------------
+    // Filtering
+    // ---------------------------------------------------------------------
+
+    /**
+     * Select rows of active students and enrollments matching all given filter values
+     */
+    public synchronized long[] filterActive(String semester, String status, String program, String yearLevel) {
+        long[] rows = filter(semester, status, program, yearLevel);
+        and(rows, active);
+        return rows;
+    }
+
+    /**
+     * Select rows matching all given filter values, deactivated students included;
+     * null or "All..." means no filter on that column
+     */
+    public synchronized long[] filter(String semester, String status, String program, String yearLevel) {
+        long[] rows = live.clone();
+        if (semester != null && !semester.startsWith("All")) {
+            and(rows, bitmapFor(semester, SEMESTERS, semesterBitmaps));
+        }
+        if (status != null && !status.startsWith("All")) {
+            and(rows, bitmapFor(status, STATUSES, statusBitmaps));
+        }
+        if (program != null && !program.startsWith("All")) {
+            Integer code = programIndex.get(program);
+            and(rows, code != null ? programBitmaps.get(code) : new long[0]);
+        }
+        if (yearLevel != null && !yearLevel.startsWith("All")) {
+            Integer code = yearIndex.get(yearLevel);
+            and(rows, code != null ? yearBitmaps.get(code) : new long[0]);
+        }
+        return rows;
+    }
+
+    /**
+     * Totals of the selected rows: {payable, paid, remaining}
+     */
+    public synchronized double[] totals(long[] rows) {
+        return wordRange(rows).mapToObj(w -> {
+            double[] t = new double[3];
+            long word = rows[w];
+            while (word != 0) {
+                int row = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                t[0] += payable[row];
+                t[1] += paid[row];
+                t[2] += Math.max(payable[row] - paid[row], 0);
+            }
+            return t;
+        }).reduce(new double[3], (a, b) -> new double[]{a[0] + b[0], a[1] + b[1], a[2] + b[2]});
+    }
+
+    /**
+     * Remaining balance of the selected rows per due-date calendar month (index 0 = January);
+     * rows without a due date are not counted
+     */
+    public synchronized double[] remainingByDueMonth(long[] rows) {
+        double[] months = new double[12];
+        forEachRow(rows, row -> {
+            if (dueEpochDay[row] != NO_DUE_DATE) {
+                int month = LocalDate.ofEpochDay(dueEpochDay[row]).getMonthValue() - 1;
+                months[month] += Math.max(payable[row] - paid[row], 0);
+            }
+        });
+        return months;
+    }
+
+    /**
+     * Number of distinct students among the selected rows with any amount paid
+     */
+    public synchronized int countStudentsWhoPaid(long[] rows) {
+        Set<Integer> students = new HashSet<>();
+        forEachRow(rows, row -> {
+            if (paid[row] > 0) {
+                students.add(studentIds[row]);
+            }
+        });
+        return students.size();
+    }
+
+    /**
+     * Materialize selected rows as PaymentView objects, one per student (semesters merged),
+     * newest student first like PaymentDAO.getAllPaymentViews
+     */
+    public synchronized List<PaymentView> toPaymentViews(long[] rows) {
+        Map<Integer, PaymentView> byStudent = new LinkedHashMap<>();
+        forEachRow(rows, row -> {
+            PaymentView view = byStudent.get(studentIds[row]);
+            if (view == null) {
+                view = new PaymentView();
+                view.setStudentId(studentIds[row]);
+                view.setStudentNumber(studentNumbers[row]);
+                view.setStudentName(studentNames[row]);
+                view.setProgram(programs.get(programCodes[row]));
+                view.setYearLevel(yearLevels.get(yearCodes[row]));
+                byStudent.put(studentIds[row], view);
+            }
+            switch (semesterCodes[row]) {
+                case 0 -> view.setFirstSemAmount(view.getFirstSemAmount() + payable[row]);
+                case 1 -> view.setSecondSemAmount(view.getSecondSemAmount() + payable[row]);
+                case 2 -> view.setSummerSemAmount(view.getSummerSemAmount() + payable[row]);
+                default -> { }
+            }
+            view.setTotalAmount(view.getTotalAmount() + payable[row]);
+            view.setAmountPaid(view.getAmountPaid() + paid[row]);
+            view.setDownPayment(view.getDownPayment() + downPayment[row]);
+            if (dueEpochDay[row] != NO_DUE_DATE) {
+                LocalDate due = LocalDate.ofEpochDay(dueEpochDay[row]);
+                if (view.getDueDate() == null || due.isAfter(view.getDueDate())) {
+                    view.setDueDate(due);
+                }
+            }
+        });
+
+        List<PaymentView> views = new ArrayList<>(byStudent.values());
+        for (PaymentView view : views) {
+            if (Math.abs(view.getAmountPaid() - view.getTotalAmount()) < 0.01 || view.getAmountPaid() >= view.getTotalAmount()) {
+                view.setStatus("Paid");
+                view.setDueDate(null);
+            } else if (view.getAmountPaid() > 0) {
+                view.setStatus("Partial");
+            } else {
+                view.setStatus("UNPAID");
+            }
+        }
+        views.sort((a, b) -> Integer.compare(b.getStudentId(), a.getStudentId()));
+        return views;
+    }
+
+    public synchronized int getRowCount() {
+        return size - deadRows;
+    }
+
+    public synchronized long getBuiltAt() {
+        return builtAt;
+    }
+
+    // ---------------------------------------------------------------------
+    // Building
+    // ---------------------------------------------------------------------
+
+    private synchronized void load(List<PaymentView> rows) {
+        for (PaymentView row : rows) {
+            append(row);
+        }
+        builtAt = System.currentTimeMillis();
+    }
+
+    private synchronized void markDirty(int studentId) {
+        dirtyStudents.add(studentId);
+    }
+
+    /** More than half the rows were replaced by incremental updates, or too many students changed to re-fetch */
+    private synchronized boolean needsRebuild() {
+        return deadRows > size / 2 || dirtyStudents.size() > DIRTY_REBUILD_THRESHOLD;
+    }
+
+    /**
+     * Replace the rows of changed students, read with one query outside any lock. Students changed
+     * during the read stay dirty for the next access; a refresh already running on another thread
+     * is waited for, so the caller sees every change marked before it asked.
+     */
+    private void refreshDirtyStudents() {
+        Set<Integer> students;
+        synchronized (this) {
+            while (refreshing) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (dirtyStudents.isEmpty()) {
+                return;
+            }
+            students = new HashSet<>(dirtyStudents);
+            dirtyStudents.clear();
+            refreshing = true;
+        }
+
+        List<PaymentView> rows = null;
+        try {
+            rows = new PaymentDAO().getSemesterPaymentRows(schoolYearId, students);
+        } finally {
+            synchronized (this) {
+                if (rows != null) {
+                    replaceStudents(students, rows);
+                } else {
+                    dirtyStudents.addAll(students); // Read failed; try again on next access
+                }
+                refreshing = false;
+                notifyAll();
+            }
+        }
+    }
+
+    private void replaceStudents(Set<Integer> students, List<PaymentView> rows) {
+        for (Integer studentId : students) {
+            List<Integer> oldRows = rowsByStudent.remove(studentId);
+            if (oldRows != null) {
+                for (int row : oldRows) {
+                    clearBit(live, row);
+                    deadRows++;
+                }
+            }
+        }
+        for (PaymentView row : rows) {
+            append(row);
+        }
+    }
+
+    private void append(PaymentView view) {
+        ensureCapacity(size + 1);
+        int row = size++;
+
+        studentIds[row] = view.getStudentId();
+        studentNumbers[row] = view.getStudentNumber();
+        studentNames[row] = view.getStudentName();
+        payable[row] = view.getTotalAmount();
+        paid[row] = view.getAmountPaid();
+        downPayment[row] = view.getDownPayment();
+        dueEpochDay[row] = view.getDueDate() != null ? view.getDueDate().toEpochDay() : NO_DUE_DATE;
+
+        semesterCodes[row] = (byte) semesterCode(view);
+        statusCodes[row] = (byte) Math.max(Arrays.asList(STATUSES).indexOf(view.getStatus()), 0);
+        programCodes[row] = encode(view.getProgram(), programs, programIndex, programBitmaps);
+        yearCodes[row] = encode(view.getYearLevel(), yearLevels, yearIndex, yearBitmaps);
+
+        setBit(live, row);
+        if (view.isActive()) {
+            setBit(active, row);
+        }
+        if (semesterCodes[row] >= 0) {
+            setBit(semesterBitmaps[semesterCodes[row]], row);
+        }
+        setBit(statusBitmaps[statusCodes[row]], row);
+        setBit(programBitmaps.get(programCodes[row]), row);
+        setBit(yearBitmaps.get(yearCodes[row]), row);
+
+        rowsByStudent.computeIfAbsent(view.getStudentId(), id -> new ArrayList<>()).add(row);
+    }
+
+    /** Semester encoded by which amount is set, same rule as the SQL CASE; -1 if ambiguous */
+    private static int semesterCode(PaymentView view) {
+        boolean first = view.getFirstSemAmount() > 0;
+        boolean second = view.getSecondSemAmount() > 0;
+        boolean summer = view.getSummerSemAmount() > 0;
+        if (first && !second && !summer) return 0;
+        if (second && !first && !summer) return 1;
+        if (summer && !first && !second) return 2;
+        return -1;
+    }
+
+    private int encode(String value, List<String> dictionary, Map<String, Integer> index, List<long[]> bitmaps) {
+        String key = value != null ? value : "";
+        Integer code = index.get(key);
+        if (code == null) {
+            code = dictionary.size();
+            dictionary.add(key);
+            index.put(key, code);
+            bitmaps.add(new long[bitmapWords]);
+        }
+        return code;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= studentIds.length) {
+            return;
+        }
+        int newLength = Math.max(capacity, studentIds.length * 2);
+        studentIds = Arrays.copyOf(studentIds, newLength);
+        studentNumbers = Arrays.copyOf(studentNumbers, newLength);
+        studentNames = Arrays.copyOf(studentNames, newLength);
+        payable = Arrays.copyOf(payable, newLength);
+        paid = Arrays.copyOf(paid, newLength);
+        downPayment = Arrays.copyOf(downPayment, newLength);
+        dueEpochDay = Arrays.copyOf(dueEpochDay, newLength);
+        semesterCodes = Arrays.copyOf(semesterCodes, newLength);
+        statusCodes = Arrays.copyOf(statusCodes, newLength);
+        programCodes = Arrays.copyOf(programCodes, newLength);
+        yearCodes = Arrays.copyOf(yearCodes, newLength);
+
+        // Keep every bitmap as long as the row columns
+        bitmapWords = (newLength + 63) >>> 6;
+        live = Arrays.copyOf(live, bitmapWords);
+        active = Arrays.copyOf(active, bitmapWords);
+        for (long[][] group : new long[][][]{semesterBitmaps, statusBitmaps}) {
+            for (int i = 0; i < group.length; i++) {
+                group[i] = Arrays.copyOf(group[i], bitmapWords);
+            }
+        }
+        for (List<long[]> group : List.of(programBitmaps, yearBitmaps)) {
+            group.replaceAll(bitmap -> Arrays.copyOf(bitmap, bitmapWords));
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // Bitmap helpers (all bitmaps share the row capacity; empty ones may be shorter)
+    // ---------------------------------------------------------------------
+
+    private static long[] bitmapFor(String value, String[] dictionary, long[][] bitmaps) {
+        int code = Arrays.asList(dictionary).indexOf(value);
+        return code >= 0 ? bitmaps[code] : new long[0];
+    }
+
+    private static void setBit(long[] bitmap, int row) {
+        bitmap[row >>> 6] |= 1L << row;
+    }
+
+    private static void clearBit(long[] bitmap, int row) {
+        int word = row >>> 6;
+        if (word < bitmap.length) {
+            bitmap[word] &= ~(1L << row);
+        }
+    }
+
+    private static void and(long[] target, long[] other) {
+        for (int i = 0; i < target.length; i++) {
+            target[i] &= i < other.length ? other[i] : 0L;
+        }
+    }
+
+    private static IntStream wordRange(long[] rows) {
+        IntStream range = IntStream.range(0, rows.length);
+        return rows.length * 64 >= PARALLEL_THRESHOLD ? range.parallel() : range;
+    }
+
+    private static void forEachRow(long[] rows, java.util.function.IntConsumer action) {
+        for (int w = 0; w < rows.length; w++) {
+            long word = rows[w];
+            while (word != 0) {
+                action.accept((w << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package utils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Diagnostic logging for the DAOs and utilities.
+ * Callers only put the message on a bounded ring buffer; a background thread writes it to the
+ * console and to logs/accounting-system.log, so a storm of decrypt or query errors no longer
+ * does a synchronized console write per row on the UI thread. When the buffer is full new
+ * messages are dropped and counted instead of blocking the caller.
+ *
+ * Each message is rate limited by its text with numbers masked (so "payable_id 12" and
+ * "payable_id 13" count as the same message): at most MAX_PER_WINDOW are written per minute,
+ * the rest are counted and reported as one "suppressed" line with the next message after the minute.
+ * Stack traces are only written for the first occurrence in a window.
+ *
+ * System properties:
+ *   log.level     DEBUG, INFO (default), WARN or ERROR
+ *   log.dir       directory of the log file (default "logs"); "none" logs to the console only
+ *   log.maxBytes  size at which the file is rotated (default 5 MB); log.files rotated files kept (default 5)
+ */
+public final class Log {
+
+    public enum Level { DEBUG, INFO, WARN, ERROR }
+
+    private static final int QUEUE_CAPACITY = 8192;
+    private static final long WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final int MAX_PER_WINDOW = 5;
+    private static final String FILE_NAME = "accounting-system.log";
+    private static final Pattern NUMBERS = Pattern.compile("\\d+");
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+
+    private static final Level threshold = parseLevel(System.getProperty("log.level", "INFO"));
+    private static final String logDir = System.getProperty("log.dir", "logs");
+    private static final long maxBytes = Long.getLong("log.maxBytes", 5L * 1024 * 1024);
+    private static final int maxFiles = Math.max(1, Integer.getInteger("log.files", 5));
+
+    private static final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private static final Map<String, Window> windows = new ConcurrentHashMap<>();
+    private static final LongAdder dropped = new LongAdder();
+
+    private static BufferedWriter fileOut = null;
+    private static long fileBytes = 0;
+
+    private static class Entry {
+        final long time = System.currentTimeMillis();
+        final Level level;
+        final String thread = Thread.currentThread().getName();
+        final String message;
+        final Throwable stackTrace;
+
+        Entry(Level level, String message, Throwable stackTrace) {
+            this.level = level;
+            this.message = message;
+            this.stackTrace = stackTrace;
+        }
+    }
+
+    /** Rate limit state of one message key */
+    private static class Window {
+        long start;
+        int written;
+        int suppressed;
+    }
+
+    static {
+        Thread writer = new Thread(Log::drain, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "log-flush"));
+    }
+
+    private Log() {
+    }
+
+    public static void debug(String message) {
+        log(Level.DEBUG, message, null, false);
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message, null, false);
+    }
+
+    public static void warn(String message) {
+        log(Level.WARN, message, null, false);
+    }
+
+    /**
+     * Warning with the exception's message appended, without a stack trace
+     */
+    public static void warn(String message, Throwable t) {
+        log(Level.WARN, message, t, false);
+    }
+
+    public static void error(String message) {
+        log(Level.ERROR, message, null, false);
+    }
+
+    /**
+     * Error with the exception's message appended and its stack trace
+     */
+    public static void error(String message, Throwable t) {
+        log(Level.ERROR, message, t, true);
+    }
+
+    public static boolean isDebugEnabled() {
+        return threshold == Level.DEBUG;
+    }
+
+    private static void log(Level level, String message, Throwable t, boolean withStackTrace) {
+        if (level.ordinal() < threshold.ordinal()) {
+            return;
+        }
+        String key = level + NUMBERS.matcher(message).replaceAll("#");
+        long now = System.currentTimeMillis();
+        int suppressed;
+        Window window = windows.computeIfAbsent(key, k -> new Window());
+        synchronized (window) {
+            if (now - window.start >= WINDOW_MILLIS) {
+                suppressed = window.suppressed;
+                window.start = now;
+                window.written = 0;
+                window.suppressed = 0;
+            } else {
+                suppressed = 0;
+            }
+            if (window.written >= MAX_PER_WINDOW) {
+                window.suppressed++;
+                return;
+            }
+            window.written++;
+            if (window.written > 1) {
+                withStackTrace = false;
+            }
+        }
+        if (suppressed > 0) {
+            enqueue(new Entry(level, "(" + suppressed + " similar message(s) suppressed) " + message, null));
+        }
+        String text = t != null ? message + ": " + t.getMessage() : message;
+        enqueue(new Entry(level, text, withStackTrace ? t : null));
+    }
+
+    private static void enqueue(Entry entry) {
+        if (!queue.offer(entry)) {
+            dropped.increment();
+        }
+    }
+
+    private static void drain() {
+        List<Entry> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                write(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Write out whatever is still buffered; called on shutdown
+     */
+    public static void flush() {
+        List<Entry> batch = new ArrayList<>();
+        queue.drainTo(batch);
+        write(batch);
+    }
+
+    private static synchronized void write(List<Entry> batch) {
+        long lost = dropped.sumThenReset();
+        StringBuilder text = new StringBuilder();
+        StringBuilder errText = new StringBuilder();
+        if (lost > 0) {
+            String line = format(System.currentTimeMillis(), Level.WARN, "log-writer",
+                                 lost + " log message(s) dropped, buffer full");
+            text.append(line);
+            errText.append(line);
+        }
+        for (Entry entry : batch) {
+            String line = format(entry.time, entry.level, entry.thread, entry.message);
+            if (entry.stackTrace != null) {
+                StringWriter trace = new StringWriter();
+                entry.stackTrace.printStackTrace(new PrintWriter(trace));
+                line += trace;
+            }
+            text.append(line);
+            if (entry.level.ordinal() >= Level.WARN.ordinal()) {
+                errText.append(line);
+            } else {
+                System.out.print(line);
+            }
+        }
+        if (errText.length() > 0) {
+            System.err.print(errText);
+        }
+        writeFile(text.toString());
+    }
+
+    private static String format(long time, Level level, String thread, String message) {
+        LocalDateTime at = LocalDateTime.ofInstant(java.time.Instant.ofEpochMilli(time), java.time.ZoneId.systemDefault());
+        return TIME_FORMAT.format(at) + " " + level + " [" + thread + "] " + message + System.lineSeparator();
+    }
+
+    private static void writeFile(String text) {
+        if (text.isEmpty() || "none".equalsIgnoreCase(logDir)) {
+            return;
+        }
+        try {
+            if (fileOut == null || fileBytes >= maxBytes) {
+                openFile();
+            }
+            fileOut.write(text);
+            fileOut.flush();
+            fileBytes += text.getBytes(StandardCharsets.UTF_8).length;
+        } catch (IOException e) {
+            // Keep logging to the console if the file cannot be written
+            System.err.println("Error writing log file: " + e.getMessage());
+            fileOut = null;
+        }
+    }
+
+    /**
+     * Open the log file, first rotating it to .1 (and .1 to .2, ...) when it is full
+     */
+    private static void openFile() throws IOException {
+        File dir = new File(logDir);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir.getAbsolutePath());
+        }
+        if (fileOut != null) {
+            fileOut.close();
+            fileOut = null;
+        }
+        File current = new File(dir, FILE_NAME);
+        if (current.length() >= maxBytes) {
+            for (int i = maxFiles - 1; i >= 1; i--) {
+                File older = new File(dir, FILE_NAME + "." + i);
+                if (older.exists()) {
+                    Files.move(older.toPath(), new File(dir, FILE_NAME + "." + (i + 1)).toPath(),
+                               StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(current.toPath(), new File(dir, FILE_NAME + ".1").toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        fileOut = Files.newBufferedWriter(current.toPath(), StandardCharsets.UTF_8,
+                                          StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        fileBytes = current.length();
+    }
+
+    private static Level parseLevel(String value) {
+        try {
+            return Level.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return Level.INFO;
+        }
+    }
+}
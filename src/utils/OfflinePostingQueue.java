@@ -0,0 +1,482 @@
+package utils;
+
+import dao.PaymentDAO;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead queue for payment postings made while the database is unreachable, so the cashier
+ * window keeps taking payments during an outage instead of re-keying receipts afterwards.
+ *
+ * Each posting is appended to postings.wal and fsync'd before the cashier is told it was accepted.
+ * A background replayer applies pending postings in the order they were taken once the database
+ * answers again (PaymentDAO.replayPayment). Every posting carries an idempotency key, taken before
+ * the online attempt (newKey) and claimed by it, so a posting whose commit was not acknowledged,
+ * online or on replay, is not applied twice. Postings that no longer fit (the amount
+ * paid changed since the cashier saw it, or the balance is smaller than the payment) are not
+ * applied; they are written to conflicts.log for the accounting office and logged.
+ *
+ * Record format, one line each: fields separated by tabs, ending in a CRC32 of the line,
+ *   P  key  student  schoolYear  amount  increment  dueDate  status  expectedPaid  cashier  queuedAt
+ *   D  key  outcome
+ * Amounts are encrypted like the payable columns. A torn last line fails its CRC and is ignored.
+ *
+ * System properties:
+ *   postingqueue.dir  directory of the queue files (default ~/.dorpay/queue)
+ */
+public final class OfflinePostingQueue {
+
+    private static final String WAL_FILE = "postings.wal";
+    private static final String CONFLICT_FILE = "conflicts.log";
+    private static final long REPLAY_INTERVAL_SECONDS = 15;
+    /** A reachability probe is reused for this long, so a dead link is not waited on for every click */
+    private static final long PROBE_CACHE_MILLIS = 5000;
+
+    private static final String queueDir = System.getProperty("postingqueue.dir",
+        System.getProperty("user.home") + File.separator + ".dorpay" + File.separator + "queue");
+
+    /** One queued posting */
+    private static class Posting {
+        String key;
+        int studentId;
+        Integer schoolYearId;
+        double amount;
+        boolean increment;
+        LocalDate dueDate;
+        String status;
+        double expectedAmountPaid;
+        String cashier;
+        long queuedAt;
+    }
+
+    /** Pending postings by key, in queue order; null until the file is read */
+    private static LinkedHashMap<String, Posting> pending = null;
+
+    private static final LongAdder queued = new LongAdder();
+    private static final LongAdder applied = new LongAdder();
+    private static final LongAdder duplicates = new LongAdder();
+    private static final LongAdder conflicts = new LongAdder();
+    private static final LongAdder failedRounds = new LongAdder();
+    private static volatile int lastReplayCount = 0;
+    private static volatile long lastReplayMillis = 0;
+
+    private static final Object replayLock = new Object();
+    private static ScheduledExecutorService scheduler = null;
+
+    private static long lastProbeAt = 0;
+    private static boolean lastProbeReachable = true;
+
+    private OfflinePostingQueue() {
+    }
+
+    /**
+     * Replay anything left from the last session now, then keep replaying in the background
+     */
+    public static synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        // Replays post beside the UI thread, which must not share its connection with them
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(DatabaseUtil.withOwnConnections(r), "offline-posting-replay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                if (pendingCount() > 0) {
+                    replay();
+                }
+            } catch (Exception e) {
+                // Never let an exception cancel the schedule
+                Log.warn("Error replaying queued postings", e);
+            }
+        }, 0, REPLAY_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public static synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // Queueing
+    // ---------------------------------------------------------------------
+
+    /**
+     * Idempotency key for a posting: pass it to the online PaymentDAO attempt, and to enqueuePost or
+     * enqueueSave if that attempt fails
+     */
+    public static String newKey() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Queue a PaymentDAO.postPayment (amount added to what the student has paid)
+     * @param key The key the online attempt was made under (see newKey)
+     * @return The posting's reference (idempotency key), or null if it could not be written to disk
+     */
+    public static String enqueuePost(String key, int studentId, Integer schoolYearId, double amount, LocalDate dueDate) {
+        return enqueue(key, studentId, schoolYearId, amount, true, dueDate, null, 0);
+    }
+
+    /**
+     * Queue a PaymentDAO.savePayment (amount is the new total), checked on replay against the
+     * amount paid the cashier saw
+     * @param key The key the online attempt was made under (see newKey)
+     * @return The posting's reference (idempotency key), or null if it could not be written to disk
+     */
+    public static String enqueueSave(String key, int studentId, Integer schoolYearId, double amountPaid, LocalDate dueDate,
+                                     String status, double expectedAmountPaid) {
+        return enqueue(key, studentId, schoolYearId, amountPaid, false, dueDate, status, expectedAmountPaid);
+    }
+
+    private static synchronized String enqueue(String key, int studentId, Integer schoolYearId, double amount, boolean increment,
+                                               LocalDate dueDate, String status, double expectedAmountPaid) {
+        Posting posting = new Posting();
+        posting.key = key;
+        posting.studentId = studentId;
+        posting.schoolYearId = schoolYearId;
+        posting.amount = amount;
+        posting.increment = increment;
+        posting.dueDate = dueDate;
+        posting.status = status;
+        posting.expectedAmountPaid = expectedAmountPaid;
+        posting.cashier = SessionManager.getCurrentUsername();
+        posting.queuedAt = System.currentTimeMillis();
+        try {
+            load();
+            append(record(posting));
+            pending.put(posting.key, posting);
+            queued.increment();
+            Log.warn("Database unreachable; queued posting " + posting.key + " for student " + studentId);
+            return posting.key;
+        } catch (IOException e) {
+            Log.error("Could not queue posting for student " + studentId, e);
+            return null;
+        }
+    }
+
+    public static synchronized int pendingCount() {
+        try {
+            load();
+            return pending.size();
+        } catch (IOException e) {
+            Log.warn("Could not read the posting queue", e);
+            return 0;
+        }
+    }
+
+    /**
+     * Whether a new connection to the database can be opened; the answer is reused for a few seconds
+     */
+    public static boolean isDatabaseReachable() {
+        synchronized (OfflinePostingQueue.class) {
+            if (System.currentTimeMillis() - lastProbeAt < PROBE_CACHE_MILLIS) {
+                return lastProbeReachable;
+            }
+        }
+        boolean reachable;
+        try (Connection conn = DatabaseUtil.openConnection()) {
+            reachable = conn.isValid(2);
+        } catch (SQLException e) {
+            reachable = false;
+        }
+        synchronized (OfflinePostingQueue.class) {
+            lastProbeAt = System.currentTimeMillis();
+            lastProbeReachable = reachable;
+        }
+        return reachable;
+    }
+
+    // ---------------------------------------------------------------------
+    // Replay
+    // ---------------------------------------------------------------------
+
+    /**
+     * Apply pending postings in queue order. Stops at the first posting that fails for a reason other
+     * than a conflict (database gone again), so later postings are never applied before it.
+     * @return Number of postings taken off the queue (applied, duplicate or conflict)
+     */
+    public static int replay() {
+        synchronized (replayLock) {
+            List<Posting> batch;
+            synchronized (OfflinePostingQueue.class) {
+                try {
+                    load();
+                } catch (IOException e) {
+                    Log.error("Could not read the posting queue", e);
+                    return 0;
+                }
+                batch = new ArrayList<>(pending.values());
+                // Replay is how the link is found to be back; do not trust an old "down" probe
+                lastProbeAt = 0;
+            }
+            if (batch.isEmpty() || !isDatabaseReachable()) {
+                return 0;
+            }
+
+            PaymentDAO paymentDAO = new PaymentDAO();
+            long started = System.nanoTime();
+            int done = 0;
+            for (Posting posting : batch) {
+                PaymentDAO.PostingResult result = paymentDAO.replayPayment(posting.key, posting.studentId,
+                    posting.schoolYearId, posting.amount, posting.increment, posting.dueDate, posting.status,
+                    posting.expectedAmountPaid, posting.cashier, queuedAt(posting));
+                if (result.status == PaymentDAO.PostingResult.Status.FAILED) {
+                    failedRounds.increment();
+                    Log.warn("Replay of queued posting " + posting.key + " failed; " +
+                             (batch.size() - done) + " posting(s) still queued");
+                    break;
+                }
+                switch (result.status) {
+                    case APPLIED:
+                        applied.increment();
+                        break;
+                    case DUPLICATE:
+                        duplicates.increment();
+                        break;
+                    default:
+                        conflicts.increment();
+                        reportConflict(posting, result.detail);
+                }
+                if (!markDone(posting, result.status.name())) {
+                    break;
+                }
+                done++;
+            }
+
+            long millis = (System.nanoTime() - started) / 1_000_000;
+            lastReplayCount = done;
+            lastReplayMillis = millis;
+            if (done > 0) {
+                Log.info("Replayed " + done + " queued posting(s) in " + millis + " ms");
+                compact();
+            }
+            return done;
+        }
+    }
+
+    private static synchronized boolean markDone(Posting posting, String outcome) {
+        try {
+            append(String.join("\t", "D", posting.key, outcome));
+            pending.remove(posting.key);
+            return true;
+        } catch (IOException e) {
+            // Keep it pending: replaying it again is safe, it will come back as a duplicate
+            Log.error("Could not record replayed posting " + posting.key, e);
+            return false;
+        }
+    }
+
+    private static LocalDateTime queuedAt(Posting posting) {
+        return LocalDateTime.ofInstant(java.time.Instant.ofEpochMilli(posting.queuedAt), java.time.ZoneId.systemDefault());
+    }
+
+    private static void reportConflict(Posting posting, String detail) {
+        String line = LocalDateTime.now().withNano(0) + "  posting " + posting.key + " by " + posting.cashier +
+                      " queued " + queuedAt(posting).withNano(0) +
+                      ": student_id " + posting.studentId + ", school_year_id " + posting.schoolYearId + ", " +
+                      (posting.increment ? "add" : "set total") + String.format(" P%.2f", posting.amount) +
+                      " NOT APPLIED - " + detail + System.lineSeparator();
+        Log.warn("Queued posting " + posting.key + " not applied: " + detail);
+        try {
+            Files.write(new File(queueDir, CONFLICT_FILE).toPath(), line.getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            Log.error("Could not write " + CONFLICT_FILE, e);
+        }
+    }
+
+    /**
+     * Counters for the accounting office and the read API's metrics
+     */
+    public static synchronized Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        int pendingPostings = pendingCount();
+        long oldest = 0;
+        if (pending != null && !pending.isEmpty()) {
+            oldest = (System.currentTimeMillis() - pending.values().iterator().next().queuedAt) / 1000;
+        }
+        metrics.put("pending", pendingPostings);
+        metrics.put("oldestPendingSeconds", oldest);
+        metrics.put("queued", queued.sum());
+        metrics.put("applied", applied.sum());
+        metrics.put("duplicates", duplicates.sum());
+        metrics.put("conflicts", conflicts.sum());
+        metrics.put("failedReplays", failedRounds.sum());
+        metrics.put("lastReplayPostings", lastReplayCount);
+        metrics.put("lastReplayMillis", lastReplayMillis);
+        metrics.put("lastReplayPerSecond", lastReplayMillis > 0 ? lastReplayCount * 1000.0 / lastReplayMillis : (double) lastReplayCount);
+        return metrics;
+    }
+
+    // ---------------------------------------------------------------------
+    // File
+    // ---------------------------------------------------------------------
+
+    private static void load() throws IOException {
+        if (pending != null) {
+            return;
+        }
+        LinkedHashMap<String, Posting> postings = new LinkedHashMap<>();
+        File file = new File(queueDir, WAL_FILE);
+        if (file.isFile()) {
+            int lineNumber = 0;
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                lineNumber++;
+                String[] fields = verified(line);
+                if (fields == null) {
+                    Log.warn(WAL_FILE + " line " + lineNumber + " is damaged; ignored");
+                    continue;
+                }
+                if ("P".equals(fields[0]) && fields.length == 11) {
+                    Posting posting = parse(fields);
+                    postings.put(posting.key, posting);
+                } else if ("D".equals(fields[0])) {
+                    postings.remove(fields[1]);
+                }
+            }
+        }
+        pending = postings;
+        if (!pending.isEmpty()) {
+            Log.info(pending.size() + " queued posting(s) waiting to be replayed");
+        }
+    }
+
+    /**
+     * Append one record and fsync it before returning
+     */
+    private static void append(String record) throws IOException {
+        File dir = new File(queueDir);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir.getAbsolutePath());
+        }
+        String text = withChecksum(record);
+        try (FileChannel channel = FileChannel.open(new File(dir, WAL_FILE).toPath(), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long end = channel.size();
+            if (end > 0) {
+                // After a torn write, start on a new line so this record is not glued to the damaged one
+                ByteBuffer last = ByteBuffer.allocate(1);
+                channel.read(last, end - 1);
+                if (last.get(0) != '\n') {
+                    text = "\n" + text;
+                }
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                end += channel.write(buffer, end);
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Rewrite the file with only the pending postings, replacing it atomically
+     */
+    private static synchronized void compact() {
+        File file = new File(queueDir, WAL_FILE);
+        File temp = new File(queueDir, WAL_FILE + ".tmp");
+        try {
+            StringBuilder text = new StringBuilder();
+            for (Posting posting : pending.values()) {
+                text.append(withChecksum(record(posting)));
+            }
+            try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                                                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // The full log is still valid, just longer
+            Log.warn("Could not compact " + WAL_FILE, e);
+        }
+    }
+
+    private static String record(Posting p) {
+        return String.join("\t",
+            "P",
+            p.key,
+            String.valueOf(p.studentId),
+            p.schoolYearId != null ? String.valueOf(p.schoolYearId) : "",
+            PayableEncryptionUtil.encryptAmount(p.amount, p.studentId),
+            p.increment ? "1" : "0",
+            p.dueDate != null ? p.dueDate.toString() : "",
+            p.status != null ? p.status : "",
+            PayableEncryptionUtil.encryptAmount(p.expectedAmountPaid, p.studentId),
+            p.cashier != null ? p.cashier.replaceAll("[\\t\\r\\n]", " ") : "",
+            String.valueOf(p.queuedAt));
+    }
+
+    /**
+     * An amount that cannot be decrypted fails the load (the queue is kept as is) instead of replaying P0.00
+     */
+    private static Posting parse(String[] f) throws IOException {
+        Posting p = new Posting();
+        p.key = f[1];
+        p.studentId = Integer.parseInt(f[2]);
+        p.schoolYearId = f[3].isEmpty() ? null : Integer.valueOf(f[3]);
+        try {
+            p.amount = PayableEncryptionUtil.decryptAmountForWrite(f[4], p.studentId);
+            p.expectedAmountPaid = PayableEncryptionUtil.decryptAmountForWrite(f[8], p.studentId);
+        } catch (SQLException e) {
+            throw new IOException("Queued posting " + p.key + ": " + e.getMessage(), e);
+        }
+        p.increment = "1".equals(f[5]);
+        p.dueDate = f[6].isEmpty() ? null : LocalDate.parse(f[6]);
+        p.status = f[7].isEmpty() ? null : f[7];
+        p.cashier = f[9].isEmpty() ? null : f[9];
+        p.queuedAt = Long.parseLong(f[10]);
+        return p;
+    }
+
+    private static String withChecksum(String record) {
+        CRC32 crc = new CRC32();
+        crc.update(record.getBytes(StandardCharsets.UTF_8));
+        return record + "\t" + Long.toHexString(crc.getValue()) + "\n";
+    }
+
+    /**
+     * Fields of a line whose checksum matches, or null
+     */
+    private static String[] verified(String line) {
+        int tab = line.lastIndexOf('\t');
+        if (tab < 0) {
+            return null;
+        }
+        String record = line.substring(0, tab);
+        CRC32 crc = new CRC32();
+        crc.update(record.getBytes(StandardCharsets.UTF_8));
+        if (!Long.toHexString(crc.getValue()).equals(line.substring(tab + 1))) {
+            return null;
+        }
+        return record.split("\t", -1);
+    }
+}
@@ -0,0 +1,134 @@
+package utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps student_payables.status in sync with due dates.
+ * trg_check_overdue_status only fires when a duedate row is updated, so payables whose
+ * due date simply passes are never marked. The sweeper runs at startup and then hourly
+ * so reads can filter on the persisted status instead of recomputing it.
+ */
+public class OverdueStatusSweeper {
+
+    private static final long SWEEP_INTERVAL_MINUTES = 60;
+
+    /** Marks unpaid payables past their due date (also EXPLAINed by QueryPlanCheck) */
+    static final String MARK_OVERDUE_SQL = "UPDATE student_payables sp " +
+                                           "INNER JOIN duedate d ON sp.duedate_id = d.duedate_id " +
+                                           "SET sp.status = 'OVERDUE' " +
+                                           "WHERE sp.status IN ('UNPAID', 'PARTIAL') " +
+                                           "AND d.due_date < CURDATE()";
+
+    /** Overdue payables whose due date is no longer past (also EXPLAINed by QueryPlanCheck) */
+    static final String EXTENDED_SQL = "SELECT sp.payable_id, sp.amount_paid, b.student_id " +
+                                       "FROM student_payables sp " +
+                                       "INNER JOIN belong b ON sp.belong_id = b.belong_id " +
+                                       "LEFT JOIN duedate d ON sp.duedate_id = d.duedate_id " +
+                                       "WHERE sp.status = 'OVERDUE' " +
+                                       "AND (d.due_date IS NULL OR d.due_date >= CURDATE())";
+
+    private static ScheduledExecutorService scheduler = null;
+
+    /**
+     * Run a sweep now and schedule one every hour on a background thread
+     */
+    public static synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "overdue-status-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                sweep();
+            } catch (Exception e) {
+                // Never let an exception cancel the schedule
+                Log.warn("Error sweeping overdue payables", e);
+            }
+        }, 0, SWEEP_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Stop the hourly sweep
+     */
+    public static synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Mark unpaid/partial payables past their due date as OVERDUE, and move OVERDUE payables
+     * whose due date was extended back to PARTIAL or UNPAID.
+     * Uses its own connection so it can run beside the UI.
+     *
+     * @return Number of payables whose status changed
+     */
+    public static int sweep() {
+        long start = System.currentTimeMillis();
+        try (Connection conn = DatabaseUtil.openConnection()) {
+            int marked = markOverdue(conn);
+            int restored = restoreExtended(conn);
+            if (marked > 0 || restored > 0) {
+                // Status changes can span school years; dashboard cards recount on next read
+                DashboardSummary.markDirty(null);
+                Log.info("Overdue sweep: " + marked + " marked overdue, " + restored + " restored (" +
+                                   (System.currentTimeMillis() - start) + " ms)");
+            }
+            return marked + restored;
+        } catch (SQLException e) {
+            Log.error("Error sweeping overdue payables", e);
+            return 0;
+        }
+    }
+
+    /**
+     * Single set-based update; the status and due_date indexes keep it off a full scan
+     */
+    private static int markOverdue(Connection conn) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(MARK_OVERDUE_SQL)) {
+            return pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Overdue rows whose due date moved into the future (e.g. promissory note extension).
+     * amount_paid is encrypted, so PARTIAL vs UNPAID is decided here in Java.
+     */
+    private static int restoreExtended(Connection conn) throws SQLException {
+        String updateSql = "UPDATE student_payables SET status = ? WHERE payable_id = ? AND status = 'OVERDUE'";
+
+        int restored = 0;
+        try (PreparedStatement selectStmt = conn.prepareStatement(EXTENDED_SQL);
+             PreparedStatement updateStmt = conn.prepareStatement(updateSql);
+             ResultSet rs = selectStmt.executeQuery()) {
+            while (rs.next()) {
+                double amountPaid = PayableEncryptionUtil.decryptAmountForWrite(rs.getString("amount_paid"), rs.getInt("student_id"));
+                updateStmt.setString(1, amountPaid > 0 ? "PARTIAL" : "UNPAID");
+                updateStmt.setInt(2, rs.getInt("payable_id"));
+                updateStmt.addBatch();
+                restored++;
+            }
+            if (restored > 0) {
+                updateStmt.executeBatch();
+            }
+        }
+        return restored;
+    }
+
+    public static void main(String[] args) {
+        int changed = sweep();
+        System.out.println("Overdue sweep complete: " + changed + " payable(s) updated");
+        DatabaseUtil.closeConnection();
+    }
+}
@@ -42,19 +42,18 @@ public class PasswordMigration {
                             updateStmt.setInt(2, adminId);
                             updateStmt.executeUpdate();
                             
-                            System.out.println("Migrated password for admin: " + username);
+                            Log.info("Migrated password for admin: " + username);
                             migratedCount++;
                         }
                     } else {
-                        System.out.println("Password already hashed for admin: " + username);
+                        Log.info("Password already hashed for admin: " + username);
                     }
                 }
                 
-                System.out.println("Password migration completed. Migrated " + migratedCount + " passwords.");
+                Log.info("Password migration completed. Migrated " + migratedCount + " passwords.");
             }
         } catch (SQLException e) {
-            System.err.println("Error migrating passwords: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error migrating passwords", e);
         }
     }
     
@@ -77,10 +77,10 @@ public class PasswordUtil {
             // Compare hashes
             return computedHash.equals(storedHashValue);
         } catch (IllegalArgumentException e) {
-            System.err.println("Error verifying password: " + e.getMessage());
+            Log.warn("Error verifying password", e);
             return false;
         } catch (Exception e) {
-            System.err.println("Error verifying password: " + e.getMessage());
+            Log.warn("Error verifying password", e);
             return false;
         }
     }
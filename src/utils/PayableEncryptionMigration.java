@@ -4,137 +4,419 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Migration utility to encrypt existing payable amounts in the database.
- * Run this once to encrypt all existing payable data.
+ * Migration utility to encrypt existing payable amounts in the database, and to re-encrypt them
+ * with the current key after a key rotation (see PayableEncryptionUtil).
+ * 
+ * Rows are processed in id-range chunks of reencrypt.chunkSize (default 1000) on reencrypt.workers
+ * threads (default up to 4), each chunk read in one query (student id joined in) and written with one
+ * batched update and its own commit. A chunk finished with a key is recorded in encryption_checkpoint,
+ * so an interrupted run resumes where it stopped. Updates only apply if the row still holds the
+ * values read, so cashiers can keep posting during the run; dual-key reads keep every row readable.
+ * The range tags of student_payables (PayableEncryptionUtil.rangeTag) are filled in on the same pass;
+ * checkpoints are per encryption and index key, so changing either one rescans.
+ * 
+ * dashboard_summary is not rewritten here: refresh-summaries rebuilds it with the current key.
+ * The top payers boards (TopPayersDAO) are dropped after a run that rewrote rows.
  */
 public class PayableEncryptionMigration {
     
+    private static final int CHUNK_SIZE = Math.max(1, Integer.getInteger("reencrypt.chunkSize", 1000));
+    private static final int WORKERS = Math.max(1, Integer.getInteger("reencrypt.workers",
+                                                   Math.min(4, Runtime.getRuntime().availableProcessors())));
+    private static final long REPORT_INTERVAL_MILLIS = 10_000;
+    
+    /** A table with encrypted amount columns */
+    private static class Target {
+        final String table;
+        final String idColumn;
+        final String[] columns;
+        /** Range tag column of each amount column, or null */
+        final String[] tagColumns;
+        /** Student id expression and FROM clause ("t" is the table) */
+        final String studentIdColumn;
+        final String from;
+        
+        Target(String table, String idColumn, String[] columns, String[] tagColumns, String studentIdColumn, String from) {
+            this.table = table;
+            this.idColumn = idColumn;
+            this.columns = columns;
+            this.tagColumns = tagColumns;
+            this.studentIdColumn = studentIdColumn;
+            this.from = from;
+        }
+    }
+    
+    private static final Target[] TARGETS = {
+        new Target("student_payables", "payable_id",
+                   new String[] {"downpayment_amount", "amount_paid", "remaining_balance"},
+                   new String[] {null, "amount_paid_tag", "remaining_balance_tag"},
+                   "b.student_id", "student_payables t LEFT JOIN belong b ON b.belong_id = t.belong_id"),
+        new Target("payment_transaction", "transaction_id",
+                   new String[] {"amount", "paid_to_date", "balance_after"},
+                   new String[] {null, null, null},
+                   "t.student_id", "payment_transaction t")
+    };
+    
+    /** Counters of one run, shared by the workers */
+    private static class Progress {
+        final String table;
+        final long chunks;
+        final long started = System.nanoTime();
+        final AtomicLong chunksDone = new AtomicLong();
+        final AtomicLong scanned = new AtomicLong();
+        final AtomicLong rewritten = new AtomicLong();
+        final AtomicLong unreadable = new AtomicLong();
+        final AtomicLong failedChunks = new AtomicLong();
+        final AtomicLong lastReport = new AtomicLong(System.currentTimeMillis());
+        
+        Progress(String table, long chunks) {
+            this.table = table;
+            this.chunks = chunks;
+        }
+        
+        void chunkDone() {
+            chunksDone.incrementAndGet();
+            long last = lastReport.get();
+            long now = System.currentTimeMillis();
+            if (now - last >= REPORT_INTERVAL_MILLIS && lastReport.compareAndSet(last, now)) {
+                Log.info(summary());
+            }
+        }
+        
+        String summary() {
+            double seconds = Math.max((System.nanoTime() - started) / 1_000_000_000.0, 0.001);
+            return String.format("%s: %d/%d chunks, %d rows scanned, %d re-encrypted, %.0f rows/s",
+                                 table, chunksDone.get(), chunks, scanned.get(), rewritten.get(), scanned.get() / seconds);
+        }
+    }
+    
     /**
      * Migrate all existing payable amounts to encrypted format in place
-     * This converts DECIMAL columns to VARCHAR and encrypts the values directly
+     * This converts DECIMAL columns to VARCHAR, then re-encrypts every plain value and every
+     * value under an older key with the current key
+     * @return Number of rows re-encrypted, or -1 if part of the migration failed
      */
-    public static void migratePayableAmounts() {
-        System.out.println("Starting payable amounts encryption migration...");
+    public static long migratePayableAmounts() {
+        Log.info("Starting payable amounts encryption migration...");
         
         try (Connection conn = DatabaseUtil.getConnection()) {
-            conn.setAutoCommit(false);
+            // Step 1: Check if columns need type conversion (DECIMAL -> VARCHAR)
+            boolean needsTypeConversion = checkIfNeedsTypeConversion(conn);
             
-            try {
-                // Step 1: Check if columns need type conversion (DECIMAL -> VARCHAR)
-                boolean needsTypeConversion = checkIfNeedsTypeConversion(conn);
-                
-                if (needsTypeConversion) {
-                    System.out.println("Converting DECIMAL columns to VARCHAR...");
-                    convertColumnsToVarchar(conn);
+            if (needsTypeConversion) {
+                Log.info("Converting DECIMAL columns to VARCHAR...");
+                convertColumnsToVarchar(conn);
+            }
+            
+            // Step 2: Remove encrypted_* columns if they exist (we're encrypting in place now)
+            removeEncryptedColumns(conn);
+        } catch (SQLException e) {
+            Log.error("Error migrating payable amounts", e);
+            return -1;
+        }
+        
+        // Step 3: Encrypt plain values and values under an older key in place
+        return reencrypt(false);
+    }
+    
+    /**
+     * Re-encrypt every encrypted amount table with the current key
+     * @param rescan Also scan id ranges already checkpointed for the current key
+     * @return Number of rows re-encrypted, or -1 if any chunk failed (run again to resume)
+     */
+    public static long reencrypt(boolean rescan) {
+        Log.info("Re-encrypting amounts with key " + PayableEncryptionUtil.currentKeyId() + " on " + WORKERS + " worker(s)");
+        String keyId = checkpointKeyId();
+        
+        ExecutorService pool = Executors.newFixedThreadPool(WORKERS, r -> {
+            Thread thread = new Thread(r, "reencrypt");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long total = 0;
+        boolean failed = false;
+        try {
+            for (Target target : TARGETS) {
+                long rewritten = reencrypt(target, keyId, rescan, pool);
+                if (rewritten < 0) {
+                    failed = true;
+                } else {
+                    total += rewritten;
                 }
-                
-                // Step 2: Remove encrypted_* columns if they exist (we're encrypting in place now)
-                removeEncryptedColumns(conn);
-                
-                // Step 3: Encrypt existing plain values in place
-                String selectSql = "SELECT payable_id, belong_id, downpayment_amount, amount_paid, remaining_balance " +
-                                  "FROM student_payables";
-                
-                int migrated = 0;
-                int skipped = 0;
-                
-                try (PreparedStatement selectStmt = conn.prepareStatement(selectSql);
-                     ResultSet rs = selectStmt.executeQuery()) {
-                    
-                    while (rs.next()) {
-                        int payableId = rs.getInt("payable_id");
-                        int belongId = rs.getInt("belong_id");
-                        
-                        // Get values - try as string first (if already VARCHAR), then as double (if DECIMAL)
-                        String downpaymentStr = rs.getString("downpayment_amount");
-                        String amountPaidStr = rs.getString("amount_paid");
-                        String remainingStr = rs.getString("remaining_balance");
-                        
-                        // Check if already encrypted (base64 format)
-                        boolean alreadyEncrypted = PayableEncryptionUtil.isEncrypted(downpaymentStr) &&
-                                                  PayableEncryptionUtil.isEncrypted(amountPaidStr) &&
-                                                  PayableEncryptionUtil.isEncrypted(remainingStr);
-                        
-                        if (alreadyEncrypted) {
-                            // Already encrypted, skip
-                            continue;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        
+        if (total > 0) {
+            // The top payers boards hold totals under the old key; they are rebuilt on next use
+            new dao.TopPayersDAO().clear(null);
+        }
+        
+        Log.info("Migration completed!");
+        Log.info("Re-encrypted: " + total + " rows");
+        return failed ? -1 : total;
+    }
+    
+    /**
+     * Re-encrypt one table, chunk by chunk
+     * @return Number of rows re-encrypted, or -1 if a chunk failed
+     */
+    private static long reencrypt(Target target, String keyId, boolean rescan, ExecutorService pool) {
+        long minId;
+        long maxId;
+        Set<Long> completed = new HashSet<>();
+        try (Connection conn = DatabaseUtil.openConnection()) {
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT MIN(" + target.idColumn + "), MAX(" + target.idColumn + ") " +
+                                                  "FROM " + target.table)) {
+                rs.next();
+                minId = rs.getLong(1);
+                maxId = rs.getLong(2);
+                if (rs.wasNull()) {
+                    return 0; // Empty table
+                }
+            }
+            if (rescan) {
+                try (PreparedStatement pstmt = conn.prepareStatement(
+                        "DELETE FROM encryption_checkpoint WHERE table_name = ? AND key_id = ?")) {
+                    pstmt.setString(1, target.table);
+                    pstmt.setString(2, keyId);
+                    pstmt.executeUpdate();
+                }
+            } else {
+                try (PreparedStatement pstmt = conn.prepareStatement(
+                        "SELECT first_id FROM encryption_checkpoint WHERE table_name = ? AND key_id = ?")) {
+                    pstmt.setString(1, target.table);
+                    pstmt.setString(2, keyId);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            completed.add(rs.getLong(1));
                         }
-                        
-                        // Parse as double (handles both DECIMAL and plain VARCHAR numbers)
-                        double downpayment = 0.0;
-                        double amountPaid = 0.0;
-                        double remaining = 0.0;
-                        
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            Log.error("Error preparing re-encryption of " + target.table, e);
+            return -1;
+        }
+        
+        // Chunks are aligned to multiples of CHUNK_SIZE so checkpoints of earlier runs line up
+        long base = (minId - 1) / CHUNK_SIZE * CHUNK_SIZE + 1;
+        List<Long> chunks = new ArrayList<>();
+        for (long first = base; first <= maxId; first += CHUNK_SIZE) {
+            if (!completed.contains(first)) {
+                chunks.add(first);
+            }
+        }
+        if (chunks.isEmpty()) {
+            return 0;
+        }
+        
+        Progress progress = new Progress(target.table, chunks.size());
+        AtomicInteger next = new AtomicInteger();
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < Math.min(WORKERS, chunks.size()); i++) {
+            workers.add(pool.submit(() -> {
+                try (Connection conn = DatabaseUtil.openBatchConnection()) {
+                    int index;
+                    while ((index = next.getAndIncrement()) < chunks.size()) {
+                        long first = chunks.get(index);
+                        long last = first + CHUNK_SIZE - 1;
                         try {
-                            downpayment = Double.parseDouble(downpaymentStr);
-                            amountPaid = Double.parseDouble(amountPaidStr);
-                            remaining = Double.parseDouble(remainingStr);
-                        } catch (NumberFormatException e) {
-                            // If parsing fails, try getting as double from ResultSet
-                            try {
-                                downpayment = rs.getDouble("downpayment_amount");
-                                amountPaid = rs.getDouble("amount_paid");
-                                remaining = rs.getDouble("remaining_balance");
-                            } catch (Exception ex) {
-                                System.err.println("Warning: Could not parse amounts for payable_id " + payableId);
-                                skipped++;
-                                continue;
+                            // A chunk past the current end may still get rows, so it is never checkpointed
+                            processChunk(conn, target, keyId, first, last, last <= maxId, progress);
+                        } catch (SQLException e) {
+                            progress.failedChunks.incrementAndGet();
+                            Log.warn("Could not re-encrypt " + target.table + " ids " + first + "-" + last +
+                                     " (run again to resume)", e);
+                        }
+                        progress.chunkDone();
+                    }
+                } catch (SQLException e) {
+                    progress.failedChunks.incrementAndGet();
+                    Log.error("Error opening re-encryption connection", e);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> worker : workers) {
+            try {
+                worker.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return -1;
+            } catch (ExecutionException e) {
+                Log.error("Error re-encrypting " + target.table, e.getCause());
+                progress.failedChunks.incrementAndGet();
+            }
+        }
+        
+        Log.info(progress.summary());
+        if (progress.unreadable.get() > 0) {
+            Log.warn(target.table + ": " + progress.unreadable.get() + " row(s) could not be decrypted and were left as is");
+        }
+        return progress.failedChunks.get() > 0 ? -1 : progress.rewritten.get();
+    }
+    
+    /**
+     * Re-encrypt the rows of one id range in a single transaction
+     */
+    private static void processChunk(Connection conn, Target target, String keyId, long first, long last,
+                                     boolean checkpoint, Progress progress) throws SQLException {
+        String columns = "t." + String.join(", t.", target.columns);
+        for (String tagColumn : target.tagColumns) {
+            if (tagColumn != null) {
+                columns += ", t." + tagColumn;
+            }
+        }
+        String selectSql = "SELECT t." + target.idColumn + ", " + target.studentIdColumn + " AS student_id, " + columns +
+                           " FROM " + target.from + " WHERE t." + target.idColumn + " BETWEEN ? AND ?";
+        
+        // Only applies if the row still holds what was read; a posting in between already used the current key
+        StringBuilder updateSql = new StringBuilder("UPDATE " + target.table + " SET ");
+        updateSql.append(String.join(" = ?, ", target.columns)).append(" = ?");
+        for (String tagColumn : target.tagColumns) {
+            if (tagColumn != null) {
+                updateSql.append(", ").append(tagColumn).append(" = ?");
+            }
+        }
+        if (hasUpdatedAt(target)) {
+            // Keep updated_at so SnapshotStore does not re-read rows whose amounts did not change
+            updateSql.append(", updated_at = updated_at");
+        }
+        updateSql.append(" WHERE ").append(target.idColumn).append(" = ?");
+        for (String column : target.columns) {
+            updateSql.append(" AND ").append(column).append(" = ?");
+        }
+        
+        conn.setAutoCommit(false);
+        try {
+            int queued = 0;
+            try (PreparedStatement selectStmt = conn.prepareStatement(selectSql);
+                 PreparedStatement updateStmt = conn.prepareStatement(updateSql.toString())) {
+                selectStmt.setLong(1, first);
+                selectStmt.setLong(2, last);
+                try (ResultSet rs = selectStmt.executeQuery()) {
+                    while (rs.next()) {
+                        progress.scanned.incrementAndGet();
+                        int studentId = rs.getInt("student_id");
+                        String[] values = new String[target.columns.length];
+                        String[] reencrypted = new String[target.columns.length];
+                        boolean changed = false;
+                        boolean readable = true;
+                        for (int i = 0; i < values.length; i++) {
+                            values[i] = rs.getString(target.columns[i]);
+                            reencrypted[i] = PayableEncryptionUtil.reencrypt(values[i], studentId);
+                            if (reencrypted[i] == null) {
+                                readable = false;
+                            } else if (!reencrypted[i].equals(values[i])) {
+                                changed = true;
                             }
                         }
+                        Integer[] tags = new Integer[target.columns.length];
+                        for (int i = 0; i < tags.length && readable; i++) {
+                            if (target.tagColumns[i] != null) {
+                                int stored = rs.getInt(target.tagColumns[i]);
+                                boolean missing = rs.wasNull();
+                                tags[i] = PayableEncryptionUtil.rangeTag(
+                                    PayableEncryptionUtil.decryptAmount(reencrypted[i], studentId));
+                                if (missing || stored != tags[i]) {
+                                    changed = true;
+                                }
+                            }
+                        }
+                        if (!readable) {
+                            progress.unreadable.incrementAndGet();
+                            continue;
+                        }
+                        if (!changed) {
+                            continue;
+                        }
                         
-                        // Get student_id from belong record for encryption
-                        int studentId = getStudentIdFromBelong(conn, belongId);
-                        
-                        // Encrypt amounts
-                        String encryptedDownpayment = PayableEncryptionUtil.encryptAmount(downpayment, studentId);
-                        String encryptedAmountPaid = PayableEncryptionUtil.encryptAmount(amountPaid, studentId);
-                        String encryptedRemaining = PayableEncryptionUtil.encryptAmount(remaining, studentId);
-                        
-                        if (encryptedDownpayment != null && encryptedAmountPaid != null && encryptedRemaining != null) {
-                            // Update with encrypted values in the same columns
-                            String updateSql = "UPDATE student_payables SET " +
-                                             "downpayment_amount = ?, " +
-                                             "amount_paid = ?, " +
-                                             "remaining_balance = ? " +
-                                             "WHERE payable_id = ?";
-                            
-                            try (PreparedStatement updateStmt = conn.prepareStatement(updateSql)) {
-                                updateStmt.setString(1, encryptedDownpayment);
-                                updateStmt.setString(2, encryptedAmountPaid);
-                                updateStmt.setString(3, encryptedRemaining);
-                                updateStmt.setInt(4, payableId);
-                                updateStmt.executeUpdate();
-                                migrated++;
+                        int p = 1;
+                        for (String value : reencrypted) {
+                            updateStmt.setString(p++, value);
+                        }
+                        for (Integer tag : tags) {
+                            if (tag != null) {
+                                updateStmt.setInt(p++, tag);
                             }
-                        } else {
-                            skipped++;
-                            System.err.println("Warning: Failed to encrypt payable_id " + payableId);
                         }
+                        updateStmt.setLong(p++, rs.getLong(1));
+                        for (String value : values) {
+                            updateStmt.setString(p++, value);
+                        }
+                        updateStmt.addBatch();
+                        queued++;
                     }
                 }
                 
-                conn.commit();
-                System.out.println("Migration completed!");
-                System.out.println("Migrated: " + migrated + " payables");
-                if (skipped > 0) {
-                    System.out.println("Skipped: " + skipped + " payables (encryption failed or already encrypted)");
+                int rewritten = 0;
+                if (queued > 0) {
+                    for (int count : updateStmt.executeBatch()) {
+                        if (count > 0 || count == Statement.SUCCESS_NO_INFO) {
+                            rewritten++;
+                        }
+                    }
                 }
                 
-            } catch (SQLException e) {
-                conn.rollback();
-                throw e;
-            } finally {
-                conn.setAutoCommit(true);
+                if (checkpoint) {
+                    try (PreparedStatement pstmt = conn.prepareStatement(
+                            "INSERT INTO encryption_checkpoint (table_name, key_id, first_id, last_id, rows_rewritten) " +
+                            "VALUES (?, ?, ?, ?, ?) " +
+                            "ON DUPLICATE KEY UPDATE rows_rewritten = VALUES(rows_rewritten), completed_at = CURRENT_TIMESTAMP")) {
+                        pstmt.setString(1, target.table);
+                        pstmt.setString(2, keyId);
+                        pstmt.setLong(3, first);
+                        pstmt.setLong(4, last);
+                        pstmt.setInt(5, rewritten);
+                        pstmt.executeUpdate();
+                    }
+                }
+                conn.commit();
+                progress.rewritten.addAndGet(rewritten);
             }
-            
         } catch (SQLException e) {
-            System.err.println("Error migrating payable amounts: " + e.getMessage());
-            e.printStackTrace();
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
         }
     }
     
+    /**
+     * Checkpoints are kept per combination of encryption and index key
+     */
+    private static String checkpointKeyId() {
+        String keys = PayableEncryptionUtil.currentKeyId() + "/" + PayableEncryptionUtil.indexKeyId();
+        try {
+            byte[] digest = java.security.MessageDigest.getInstance("SHA-256")
+                .digest(keys.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+            return String.format("%02x%02x%02x%02x", digest[0], digest[1], digest[2], digest[3]);
+        } catch (java.security.NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private static boolean hasUpdatedAt(Target target) {
+        // See the updated_at columns in DatabaseUtil
+        return "student_payables".equals(target.table);
+    }
+    
     /**
      * Check if columns are DECIMAL type and need conversion to VARCHAR
      */
@@ -157,10 +439,10 @@ public class PayableEncryptionMigration {
             stmt.execute("ALTER TABLE student_payables MODIFY COLUMN downpayment_amount VARCHAR(255) NOT NULL DEFAULT '0.00'");
             stmt.execute("ALTER TABLE student_payables MODIFY COLUMN amount_paid VARCHAR(255) NOT NULL DEFAULT '0.00'");
             stmt.execute("ALTER TABLE student_payables MODIFY COLUMN remaining_balance VARCHAR(255) NOT NULL DEFAULT '0.00'");
-            System.out.println("Columns converted to VARCHAR successfully");
+            Log.info("Columns converted to VARCHAR successfully");
         } catch (SQLException e) {
             // Columns might already be VARCHAR or conversion might have failed
-            System.err.println("Warning: Could not convert columns (they might already be VARCHAR): " + e.getMessage());
+            Log.warn("Could not convert columns (they might already be VARCHAR)", e);
         }
     }
     
@@ -171,40 +453,25 @@ public class PayableEncryptionMigration {
         try (java.sql.Statement stmt = conn.createStatement()) {
             try {
                 stmt.execute("ALTER TABLE student_payables DROP COLUMN encrypted_downpayment");
-                System.out.println("Removed encrypted_downpayment column");
+                Log.info("Removed encrypted_downpayment column");
             } catch (SQLException e) {
                 // Column doesn't exist, ignore
             }
             try {
                 stmt.execute("ALTER TABLE student_payables DROP COLUMN encrypted_amount_paid");
-                System.out.println("Removed encrypted_amount_paid column");
+                Log.info("Removed encrypted_amount_paid column");
             } catch (SQLException e) {
                 // Column doesn't exist, ignore
             }
             try {
                 stmt.execute("ALTER TABLE student_payables DROP COLUMN encrypted_remaining_balance");
-                System.out.println("Removed encrypted_remaining_balance column");
+                Log.info("Removed encrypted_remaining_balance column");
             } catch (SQLException e) {
                 // Column doesn't exist, ignore
             }
         }
     }
     
-    /**
-     * Get student_id from belong record
-     */
-    private static int getStudentIdFromBelong(Connection conn, int belongId) throws SQLException {
-        String sql = "SELECT student_id FROM belong WHERE belong_id = ?";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setInt(1, belongId);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                return rs.getInt("student_id");
-            }
-        }
-        return 0; // Default if not found
-    }
-    
     /**
      * Main method to run migration
      */
@@ -6,33 +6,106 @@ import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
+import java.sql.SQLException;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Utility class for encrypting and decrypting payable amounts.
  * Uses AES encryption to protect financial data in the database.
  * 
- * Format: encrypted_value (base64 encoded)
+ * Format: encrypted_value (base64 encoded) for the built-in key,
+ * key_id:encrypted_value for a key configured with payable.key
+ * 
+ * Key rotation: set payable.key (or DORPAY_PAYABLE_KEY) to the new phrase and payable.previousKey
+ * (or DORPAY_PAYABLE_PREVIOUS_KEY) to the old one on every workstation, then run the BatchRunner
+ * "reencrypt" job. New values are written with the current key; values under the previous key
+ * (and the built-in key) still decrypt, so the system keeps working while rows are rewritten.
  */
 public class PayableEncryptionUtil {
     private static final String ALGORITHM = "AES";
     private static final String TRANSFORMATION = "AES/ECB/PKCS5Padding";
     private static final int KEY_SIZE = 256; // AES-256
     
-    // Secret key - in production, this should be stored securely (e.g., in a config file or environment variable)
-    // For now, using a fixed key derived from a secret phrase
+    // Built-in key, used unless payable.key is set. Its values carry no key id, so rows written
+    // before key rotation existed stay readable
     private static final String SECRET_PHRASE = "DorPayAccountingSystem2024SecureKey";
+    private static final char KEY_ID_SEPARATOR = ':';
+    
+    // Range tags (see rangeTag): buckets are about TAG_RATIO of the amount wide, at least TAG_MIN_WIDTH,
+    // each scaled by a keyed factor in [0.5, 1.5); amounts from TAG_MAX up share the last tag
+    private static final double TAG_ZERO = 0.005;
+    private static final double TAG_MIN_WIDTH = 50.0;
+    private static final double TAG_RATIO = 0.05;
+    private static final double TAG_MAX = 1_000_000_000.0;
+    /** tagBounds[t] is the first amount of tag t + 1 */
+    private static double[] tagBounds;
+    
     private static SecretKey secretKey;
+    private static String currentKeyId;
+    private static String legacyKeyId;
+    private static String indexKeyId;
+    /** Every key values can be read with, by key id */
+    private static final Map<String, SecretKey> readableKeys = new HashMap<>();
     
     static {
         try {
-            // Generate or derive secret key from phrase
-            secretKey = generateKeyFromPhrase(SECRET_PHRASE);
+            SecretKey legacyKey = generateKeyFromPhrase(SECRET_PHRASE);
+            legacyKeyId = keyId(legacyKey);
+            readableKeys.put(legacyKeyId, legacyKey);
+            
+            String previousPhrase = setting("payable.previousKey", "DORPAY_PAYABLE_PREVIOUS_KEY");
+            if (previousPhrase != null) {
+                SecretKey previousKey = generateKeyFromPhrase(previousPhrase);
+                readableKeys.put(keyId(previousKey), previousKey);
+            }
+            
+            String phrase = setting("payable.key", "DORPAY_PAYABLE_KEY");
+            secretKey = generateKeyFromPhrase(phrase != null ? phrase : SECRET_PHRASE);
+            currentKeyId = keyId(secretKey);
+            readableKeys.put(currentKeyId, secretKey);
+            
+            String indexPhrase = setting("payable.indexKey", "DORPAY_PAYABLE_INDEX_KEY");
+            SecretKey indexKey = new SecretKeySpec((indexPhrase != null ? indexPhrase : SECRET_PHRASE + "/range-tags")
+                                                   .getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+            indexKeyId = keyId(indexKey);
+            tagBounds = generateTagBounds(indexKey);
         } catch (Exception e) {
             throw new RuntimeException("Failed to initialize encryption key", e);
         }
     }
     
+    /**
+     * System property, else environment variable, else null
+     */
+    private static String setting(String property, String environment) {
+        String value = System.getProperty(property, System.getenv(environment));
+        return value == null || value.isEmpty() ? null : value;
+    }
+    
+    /**
+     * Short public identifier of a key (first 8 hex digits of the SHA-256 of the key bytes)
+     */
+    private static String keyId(SecretKey key) throws Exception {
+        byte[] digest = java.security.MessageDigest.getInstance("SHA-256").digest(key.getEncoded());
+        return String.format("%02x%02x%02x%02x", digest[0], digest[1], digest[2], digest[3]);
+    }
+    
+    /**
+     * Id of the key new values are encrypted with
+     */
+    public static String currentKeyId() {
+        return currentKeyId;
+    }
+    
+    /**
+     * Id of the key the range tag boundaries are derived from
+     */
+    public static String indexKeyId() {
+        return indexKeyId;
+    }
+    
     /**
      * Generate a secret key from a phrase using SHA-256
      */
@@ -58,10 +131,10 @@ public class PayableEncryptionUtil {
             cipher.init(Cipher.ENCRYPT_MODE, secretKey);
             
             byte[] encryptedBytes = cipher.doFinal(amountStr.getBytes(StandardCharsets.UTF_8));
-            return Base64.getEncoder().encodeToString(encryptedBytes);
+            String encoded = Base64.getEncoder().encodeToString(encryptedBytes);
+            return currentKeyId.equals(legacyKeyId) ? encoded : currentKeyId + KEY_ID_SEPARATOR + encoded;
         } catch (Exception e) {
-            System.err.println("Error encrypting amount: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error encrypting amount", e);
             return null;
         }
     }
@@ -93,22 +166,89 @@ public class PayableEncryptionUtil {
                 // Not a plain number, proceed with decryption
             }
             
-            byte[] encryptedBytes = Base64.getDecoder().decode(encryptedAmount);
-            
-            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
-            cipher.init(Cipher.DECRYPT_MODE, secretKey);
-            
-            byte[] decryptedBytes = cipher.doFinal(encryptedBytes);
-            String decryptedStr = new String(decryptedBytes, StandardCharsets.UTF_8);
-            
-            return Double.parseDouble(decryptedStr);
+            return decrypt(encryptedAmount);
         } catch (Exception e) {
-            System.err.println("Error decrypting amount: " + e.getMessage());
+            Log.warn("Error decrypting amount", e);
             // Return 0.0 on error - this allows the system to continue functioning
             return 0.0;
         }
     }
     
+    /**
+     * Decrypt a stored amount that a write is computed from. Unlike decryptAmount an unreadable value
+     * (e.g. a workstation without payable.previousKey) is an error, never 0.0 written back as a balance.
+     *
+     * @throws SQLException if the value is not empty and cannot be decrypted, to fail the caller's transaction
+     */
+    public static double decryptAmountForWrite(String encryptedAmount, Integer studentId) throws SQLException {
+        if (encryptedAmount == null || encryptedAmount.trim().isEmpty()) {
+            return 0.0;
+        }
+        try {
+            return isEncrypted(encryptedAmount) ? decrypt(encryptedAmount) : Double.parseDouble(encryptedAmount.trim());
+        } catch (Exception e) {
+            throw new SQLException("Cannot decrypt a stored amount" + (studentId != null ? " of student " + studentId : "") +
+                                   ": " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Decrypt a value with the key named by its key id (the built-in key when it has none)
+     */
+    private static double decrypt(String encryptedAmount) throws Exception {
+        SecretKey key = readableKeys.get(legacyKeyId);
+        String encoded = encryptedAmount;
+        int separator = encryptedAmount.indexOf(KEY_ID_SEPARATOR);
+        if (separator >= 0) {
+            key = readableKeys.get(encryptedAmount.substring(0, separator));
+            encoded = encryptedAmount.substring(separator + 1);
+            if (key == null) {
+                throw new IllegalStateException("Unknown payable key " + encryptedAmount.substring(0, separator) +
+                                                " (set payable.previousKey)");
+            }
+        }
+        
+        byte[] encryptedBytes = Base64.getDecoder().decode(encoded);
+        
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, key);
+        
+        byte[] decryptedBytes = cipher.doFinal(encryptedBytes);
+        String decryptedStr = new String(decryptedBytes, StandardCharsets.UTF_8);
+        
+        return Double.parseDouble(decryptedStr);
+    }
+    
+    /**
+     * Check if a value is encrypted with the current key
+     */
+    public static boolean isCurrentKey(String value) {
+        if (!isEncrypted(value)) {
+            return false;
+        }
+        int separator = value.indexOf(KEY_ID_SEPARATOR);
+        String keyId = separator >= 0 ? value.substring(0, separator) : legacyKeyId;
+        return keyId.equals(currentKeyId);
+    }
+    
+    /**
+     * Re-encrypt a plain or encrypted value with the current key
+     * 
+     * @return The value under the current key (unchanged if it already is), or null if it cannot be read
+     */
+    public static String reencrypt(String value, Integer studentId) {
+        if (isCurrentKey(value)) {
+            return value;
+        }
+        try {
+            double amount = isEncrypted(value) ? decrypt(value) : Double.parseDouble(value.trim());
+            return encryptAmount(amount, studentId);
+        } catch (Exception e) {
+            // Unlike decryptAmount, never turn an unreadable value into 0.00
+            return null;
+        }
+    }
+    
     /**
      * Decrypt a payable amount (without student ID)
      */
@@ -116,6 +256,54 @@ public class PayableEncryptionUtil {
         return decryptAmount(encryptedAmount, null);
     }
     
+    /**
+     * Bucket boundaries of the range tags, with keyed pseudo-random widths
+     */
+    private static double[] generateTagBounds(SecretKey indexKey) throws Exception {
+        javax.crypto.Mac mac = javax.crypto.Mac.getInstance("HmacSHA256");
+        mac.init(indexKey);
+        java.util.List<Double> bounds = new java.util.ArrayList<>();
+        double bound = TAG_ZERO;
+        bounds.add(bound);
+        for (int i = 0; bound < TAG_MAX; i++) {
+            byte[] h = mac.doFinal(Integer.toString(i).getBytes(StandardCharsets.UTF_8));
+            double u = ((h[0] & 0xFFL) << 24 | (h[1] & 0xFFL) << 16 | (h[2] & 0xFFL) << 8 | (h[3] & 0xFFL)) / 4294967296.0;
+            // Whole centavos, so a stored amount is never ambiguous at a boundary
+            bound = Math.round((bound + Math.max(TAG_MIN_WIDTH, bound * TAG_RATIO) * (0.5 + u)) * 100) / 100.0;
+            bounds.add(bound);
+        }
+        return bounds.stream().mapToDouble(Double::doubleValue).toArray();
+    }
+    
+    /**
+     * Range tag of an amount, stored unencrypted next to it (student_payables.*_tag) so MySQL can
+     * filter and order by amount with an index; only the rows that may match are then decrypted.
+     * Tags are order-revealing bucket numbers: a larger amount never has a smaller tag, tag 0 is
+     * exactly zero, and a tag covers amounts from tagLowerBound to tagUpperBound. Bucket boundaries
+     * come from the index key (payable.indexKey), not the encryption key, so key rotation leaves
+     * tags unchanged. The database learns the order of amounts at bucket granularity, not the amounts.
+     */
+    public static int rangeTag(double amount) {
+        // Tag the amount as stored (encryptAmount keeps two decimals)
+        int index = java.util.Arrays.binarySearch(tagBounds, java.math.BigDecimal.valueOf(amount)
+                .setScale(2, java.math.RoundingMode.HALF_UP).doubleValue());
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+    
+    /**
+     * Smallest amount with the tag
+     */
+    public static double tagLowerBound(int tag) {
+        return tag <= 0 ? 0.0 : tagBounds[Math.min(tag, tagBounds.length) - 1];
+    }
+    
+    /**
+     * Amounts with the tag are below this (infinite for the last tag)
+     */
+    public static double tagUpperBound(int tag) {
+        return tag >= tagBounds.length ? Double.POSITIVE_INFINITY : tagBounds[Math.max(tag, 0)];
+    }
+    
     /**
      * Check if a string is encrypted (base64 format)
      */
@@ -129,9 +317,9 @@ public class PayableEncryptionUtil {
             Double.parseDouble(value);
             return false; // It's a plain number
         } catch (NumberFormatException e) {
-            // Check if it's valid base64
+            // Check if it's valid base64, after the key id if there is one
             try {
-                Base64.getDecoder().decode(value);
+                Base64.getDecoder().decode(value.substring(value.indexOf(KEY_ID_SEPARATOR) + 1));
                 return true; // It's base64, likely encrypted
             } catch (IllegalArgumentException ex) {
                 return false; // Not valid base64
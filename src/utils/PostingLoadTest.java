@@ -0,0 +1,251 @@
+package utils;
+
+import dao.PaymentDAO;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load test for concurrent payment posting.
+ * Creates a scratch database with the full schema, seeds synthetic students, then lets N
+ * virtual-thread "cashiers" post random receipts through PaymentDAO.postPayment at the same time.
+ * Reports throughput, latency percentiles, retries from ContentionMetrics and checks that every
+ * student's amount_paid equals the sum of the postings that succeeded for them.
+ * The scratch database is dropped afterwards.
+ *
+ *   java utils.PostingLoadTest [cashiers] [postingsPerCashier] [students]
+ *
+ * Fewer students than cashiers means more postings for the same student at once, i.e. more contention.
+ * Every DAO call opens its own connection here (there is no pool), so latencies include connecting.
+ */
+public class PostingLoadTest {
+
+    private static final int DEFAULT_CASHIERS = 32;
+    private static final int DEFAULT_POSTINGS_PER_CASHIER = 50;
+    private static final int DEFAULT_STUDENTS = 20;
+    private static final String LOAD_DB_NAME = DatabaseConfig.DB_NAME + "_loadtest";
+    private static final String SCHOOL_YEAR = "2025-2026";
+    // Large enough that no student is capped at their payables during a run
+    private static final double PAYABLE_PER_STUDENT = 10_000_000;
+    // Every 10th student starts without a student_payables row, so the first posting creates it
+    private static final int NO_PAYABLE_EVERY = 10;
+
+    /**
+     * Seed the scratch database, run the cashiers and print the report
+     *
+     * @return true if every student's balance matched the successful postings
+     */
+    public static boolean run(int cashiers, int postingsPerCashier, int students) throws SQLException {
+        dropScratchDatabase();
+        DatabaseUtil.useScratchDatabase(LOAD_DB_NAME);
+        try {
+            DatabaseUtil.initializeDatabase();
+            int schoolYearId = seed(students);
+            ContentionMetrics.reset();
+
+            PaymentDAO paymentDAO = new PaymentDAO();
+            Map<Integer, LongAdder> postedCentavos = new ConcurrentHashMap<>();
+            long[][] latencies = new long[cashiers][];
+            LongAdder failed = new LongAdder();
+            LocalDate dueDate = LocalDate.now().plusMonths(2);
+
+            System.out.println("Running " + cashiers + " cashiers x " + postingsPerCashier + " postings over " + students + " students");
+            long start = System.nanoTime();
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int c = 0; c < cashiers; c++) {
+                    int cashier = c;
+                    executor.submit(() -> {
+                        ThreadLocalRandom random = ThreadLocalRandom.current();
+                        long[] own = new long[postingsPerCashier];
+                        for (int i = 0; i < postingsPerCashier; i++) {
+                            int studentId = 1 + random.nextInt(students);
+                            // Whole pesos so the expected totals are exact
+                            int amount = 50 + random.nextInt(451);
+                            long postingStart = System.nanoTime();
+                            boolean posted = paymentDAO.postPayment(studentId, schoolYearId, amount, dueDate);
+                            own[i] = System.nanoTime() - postingStart;
+                            if (posted) {
+                                postedCentavos.computeIfAbsent(studentId, id -> new LongAdder()).add(amount * 100L);
+                            } else {
+                                failed.increment();
+                            }
+                        }
+                        latencies[cashier] = own;
+                    });
+                }
+            }
+            long elapsedNanos = System.nanoTime() - start;
+
+            report(cashiers * postingsPerCashier, failed.sum(), elapsedNanos, latencies);
+            return checkBalances(schoolYearId, students, postedCentavos);
+        } finally {
+            DatabaseUtil.closeConnection();
+            dropScratchDatabase();
+        }
+    }
+
+    private static void report(int postings, long failed, long elapsedNanos, long[][] latencies) {
+        long[] all = Arrays.stream(latencies).filter(a -> a != null).flatMapToLong(Arrays::stream).sorted().toArray();
+        double seconds = elapsedNanos / 1_000_000_000.0;
+        System.out.println(String.format("Postings:   %d attempted, %d failed", postings, failed));
+        System.out.println(String.format("Throughput: %.1f postings/s over %.2f s", (postings - failed) / seconds, seconds));
+        System.out.println(String.format("Latency:    p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms",
+                                         percentile(all, 50), percentile(all, 90), percentile(all, 99), percentile(all, 100)));
+        System.out.println("Contention: " + ContentionMetrics.summary());
+    }
+
+    private static double percentile(long[] sortedNanos, double percentile) {
+        if (sortedNanos.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(index, 0)] / 1_000_000.0;
+    }
+
+    /**
+     * Compare each student's decrypted amount_paid with the sum of their successful postings
+     */
+    private static boolean checkBalances(int schoolYearId, int students, Map<Integer, LongAdder> postedCentavos) throws SQLException {
+        String sql = "SELECT b.student_id, sp.amount_paid " +
+                    "FROM belong b " +
+                    "INNER JOIN student_payables sp ON b.belong_id = sp.belong_id " +
+                    "WHERE b.school_year_id = ?";
+        Map<Integer, Double> paid = new HashMap<>();
+        try (Connection conn = DatabaseUtil.openConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, schoolYearId);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                int studentId = rs.getInt("student_id");
+                paid.merge(studentId, PayableEncryptionUtil.decryptAmount(rs.getString("amount_paid"), studentId), Double::sum);
+            }
+        }
+
+        List<String> mismatches = new ArrayList<>();
+        for (int studentId = 1; studentId <= students; studentId++) {
+            LongAdder posted = postedCentavos.get(studentId);
+            double expected = posted != null ? posted.sum() / 100.0 : 0;
+            double actual = paid.getOrDefault(studentId, 0.0);
+            if (Math.abs(expected - actual) >= 0.01) {
+                mismatches.add(String.format("student %d: posted P%.2f, amount_paid P%.2f", studentId, expected, actual));
+            }
+        }
+
+        if (mismatches.isEmpty()) {
+            System.out.println("Balances:   OK, amount_paid matches the successful postings for all " + students + " students");
+            return true;
+        }
+        System.err.println("Balances:   " + mismatches.size() + " of " + students + " students do not match");
+        for (String mismatch : mismatches) {
+            System.err.println("  " + mismatch);
+        }
+        return false;
+    }
+
+    /**
+     * One student, semester and belong row per student; payables start unpaid
+     *
+     * @return The school year the students are enrolled in
+     */
+    private static int seed(int students) throws SQLException {
+        try (Connection conn = DatabaseUtil.openConnection()) {
+            int schoolYearId;
+            try (PreparedStatement pstmt = conn.prepareStatement("SELECT school_year_id FROM school_year WHERE year_range = ?")) {
+                pstmt.setString(1, SCHOOL_YEAR);
+                ResultSet rs = pstmt.executeQuery();
+                if (!rs.next()) {
+                    throw new SQLException("School year " + SCHOOL_YEAR + " was not created");
+                }
+                schoolYearId = rs.getInt(1);
+            }
+
+            conn.setAutoCommit(false);
+            try (PreparedStatement studentStmt = conn.prepareStatement(
+                     "INSERT INTO student (student_id, student_number, fullname, first_name, last_name, major, year, school_year_id, status) " +
+                     "VALUES (?, ?, ?, 'Student', ?, 'BSIT', '1', ?, 'active')");
+                 PreparedStatement semesterStmt = conn.prepareStatement(
+                     "INSERT INTO semester (semester_id, first_sem_amount, second_sem_amount, summer_sem_amount) VALUES (?, ?, 0, 0)");
+                 PreparedStatement belongStmt = conn.prepareStatement(
+                     "INSERT INTO belong (belong_id, student_id, school_year_id, semester_id, status) VALUES (?, ?, ?, ?, 'active')");
+                 PreparedStatement payableStmt = conn.prepareStatement(
+                     "INSERT INTO student_payables (belong_id, downpayment_amount, amount_paid, remaining_balance, status) VALUES (?, ?, ?, ?, 'UNPAID')")) {
+                for (int id = 1; id <= students; id++) {
+                    studentStmt.setInt(1, id);
+                    studentStmt.setString(2, String.format("LT%06d", id));
+                    studentStmt.setString(3, "Student " + id);
+                    studentStmt.setString(4, String.valueOf(id));
+                    studentStmt.setInt(5, schoolYearId);
+                    studentStmt.addBatch();
+
+                    semesterStmt.setInt(1, id);
+                    semesterStmt.setDouble(2, PAYABLE_PER_STUDENT);
+                    semesterStmt.addBatch();
+
+                    belongStmt.setInt(1, id);
+                    belongStmt.setInt(2, id);
+                    belongStmt.setInt(3, schoolYearId);
+                    belongStmt.setInt(4, id);
+                    belongStmt.addBatch();
+
+                    if (id % NO_PAYABLE_EVERY != 0) {
+                        payableStmt.setInt(1, id);
+                        payableStmt.setString(2, PayableEncryptionUtil.encryptAmount(PAYABLE_PER_STUDENT, id));
+                        payableStmt.setString(3, PayableEncryptionUtil.encryptAmount(0.0, id));
+                        payableStmt.setString(4, PayableEncryptionUtil.encryptAmount(PAYABLE_PER_STUDENT, id));
+                        payableStmt.addBatch();
+                    }
+                }
+                studentStmt.executeBatch();
+                semesterStmt.executeBatch();
+                belongStmt.executeBatch();
+                payableStmt.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            return schoolYearId;
+        }
+    }
+
+    private static void dropScratchDatabase() {
+        String url = "jdbc:mysql://" + DatabaseConfig.DB_HOST + ":" + DatabaseConfig.DB_PORT +
+                     "/?useSSL=false&serverTimezone=UTC&allowPublicKeyRetrieval=true";
+        try (Connection conn = DriverManager.getConnection(url, DatabaseConfig.DB_USER, DatabaseConfig.DB_PASSWORD);
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP DATABASE IF EXISTS " + LOAD_DB_NAME);
+        } catch (SQLException e) {
+            System.err.println("Error dropping load test database " + LOAD_DB_NAME + ": " + e.getMessage());
+        }
+    }
+
+    public static void main(String[] args) {
+        int cashiers = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CASHIERS;
+        int postingsPerCashier = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_POSTINGS_PER_CASHIER;
+        int students = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_STUDENTS;
+        try {
+            boolean balanced = run(cashiers, postingsPerCashier, students);
+            System.exit(balanced ? 0 : 1);
+        } catch (SQLException e) {
+            System.err.println("Error running posting load test: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package utils;
+
+import dao.PaymentDAO;
+import dao.StudentDAO;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Query plan regression check for the hot DAO queries.
+ * Runs EXPLAIN on each query template against the configured database and fails
+ * when one of the large tables (student, belong, student_payables, duedate) is read
+ * with a full table scan. Run after schema or query changes:
+ *
+ *   java utils.QueryPlanCheck [minRows]
+ *
+ * Full scans are only reported when the optimizer expects at least minRows rows
+ * (default 1000), because MySQL rightly scans tiny tables; run it on a database
+ * with realistic data. Exits with status 1 when a plan regressed.
+ */
+public class QueryPlanCheck {
+
+    private static final int DEFAULT_MIN_ROWS = 1000;
+
+    /** Table aliases used by the DAO queries that must not be full-scanned */
+    private static final Map<String, String> GUARDED_TABLES = new LinkedHashMap<>();
+    static {
+        GUARDED_TABLES.put("s", "student");
+        GUARDED_TABLES.put("b", "belong");
+        GUARDED_TABLES.put("sp", "student_payables");
+        GUARDED_TABLES.put("d", "duedate");
+    }
+
+    /** A DAO query with sample parameter values */
+    private static class QueryTemplate {
+        final String name;
+        final String sql;
+        final Object[] params;
+
+        QueryTemplate(String name, String sql, Object... params) {
+            this.name = name;
+            this.sql = sql;
+            this.params = params;
+        }
+    }
+
+    /**
+     * The hot-path queries, built by the same methods the DAOs run them from,
+     * so a change to the DAO SQL is checked without touching this class
+     */
+    private static List<QueryTemplate> templates(int schoolYearId) {
+        List<QueryTemplate> templates = new ArrayList<>();
+        StudentDAO studentDAO = new StudentDAO();
+        PaymentDAO paymentDAO = new PaymentDAO();
+
+        templates.add(new QueryTemplate("StudentDAO.getOverdueCount",
+            studentDAO.overdueCountSql(schoolYearId, null), schoolYearId));
+        templates.add(new QueryTemplate("StudentDAO.getOverdueCount (semester)",
+            studentDAO.overdueCountSql(schoolYearId, "1st Sem"), schoolYearId));
+        templates.add(new QueryTemplate("StudentDAO.getTotalStudents",
+            studentDAO.totalStudentsSql(schoolYearId, null), schoolYearId));
+        templates.add(new QueryTemplate("PaymentDAO.getAllPaymentViews",
+            paymentDAO.paymentViewsSql(schoolYearId, null), schoolYearId));
+        templates.add(new QueryTemplate("PaymentDAO.getAllPaymentViews (semester)",
+            paymentDAO.paymentViewsSql(schoolYearId, "1st Sem"), schoolYearId));
+        templates.add(new QueryTemplate("PaymentDAO.getNotifications",
+            paymentDAO.notificationsSql(schoolYearId, true), schoolYearId));
+        templates.add(new QueryTemplate("PaymentDAO.getNotifications (all due dates)",
+            paymentDAO.notificationsSql(schoolYearId, false), schoolYearId));
+        templates.add(new QueryTemplate("PaymentDAO.getTopPayers",
+            paymentDAO.payerBoundsSql(schoolYearId, null, true), schoolYearId));
+        templates.add(new QueryTemplate("DashboardSummary.refresh",
+            DashboardSummary.COUNTS_SQL, schoolYearId));
+        templates.add(new QueryTemplate("OverdueStatusSweeper.markOverdue",
+            OverdueStatusSweeper.MARK_OVERDUE_SQL));
+        templates.add(new QueryTemplate("OverdueStatusSweeper.restoreExtended",
+            OverdueStatusSweeper.EXTENDED_SQL));
+
+        return templates;
+    }
+
+    /**
+     * Run EXPLAIN for every template and print the plan of each guarded table
+     *
+     * @return Number of templates whose plan contains a full scan of a guarded table
+     */
+    public static int check(int minRows) {
+        int regressions = 0;
+        try (Connection conn = DatabaseUtil.openConnection()) {
+            int schoolYearId = newestSchoolYearId(conn);
+
+            for (QueryTemplate template : templates(schoolYearId)) {
+                List<String> fullScans = new ArrayList<>();
+                try (PreparedStatement pstmt = conn.prepareStatement("EXPLAIN " + template.sql)) {
+                    for (int i = 0; i < template.params.length; i++) {
+                        pstmt.setObject(i + 1, template.params[i]);
+                    }
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            String alias = rs.getString("table");
+                            String accessType = rs.getString("type");
+                            String key = rs.getString("key");
+                            long rows = rs.getLong("rows");
+                            if (alias == null || !GUARDED_TABLES.containsKey(alias)) {
+                                continue;
+                            }
+                            System.out.println("  " + template.name + ": " + GUARDED_TABLES.get(alias) +
+                                               " type=" + accessType + " key=" + key + " rows=" + rows);
+                            if ("ALL".equals(accessType) && rows >= minRows) {
+                                fullScans.add(GUARDED_TABLES.get(alias) + " (" + rows + " rows)");
+                            }
+                        }
+                    }
+                } catch (SQLException e) {
+                    System.err.println("FAIL " + template.name + ": EXPLAIN failed: " + e.getMessage());
+                    regressions++;
+                    continue;
+                }
+
+                if (fullScans.isEmpty()) {
+                    System.out.println("PASS " + template.name);
+                } else {
+                    System.err.println("FAIL " + template.name + ": full table scan on " + String.join(", ", fullScans));
+                    regressions++;
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error running query plan check: " + e.getMessage());
+            e.printStackTrace();
+            return -1;
+        }
+        return regressions;
+    }
+
+    private static int newestSchoolYearId(Connection conn) throws SQLException {
+        String sql = "SELECT MAX(school_year_id) FROM school_year";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql);
+             ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 1;
+        }
+    }
+
+    public static void main(String[] args) {
+        int minRows = DEFAULT_MIN_ROWS;
+        if (args.length > 0) {
+            minRows = Integer.parseInt(args[0]);
+        }
+        int regressions = check(minRows);
+        if (regressions != 0) {
+            System.err.println(regressions < 0 ? "Query plan check could not run" : regressions + " query plan regression(s)");
+            System.exit(1);
+        }
+        System.out.println("All query plans use indexes");
+    }
+}
@@ -0,0 +1,491 @@
+package utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import dao.PaymentDAO;
+import dao.PromissoryNoteDAO;
+import dao.SchoolYearDAO;
+import dao.StudentDAO;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import models.AcademicYearSemesterBalance;
+import models.PaymentView;
+import models.SchoolYear;
+import models.Student;
+
+/**
+ * Optional read-only HTTP API for other campus systems (registrar, exam-permit kiosks),
+ * so they stop querying the database with their own SQL.
+ * Built on the JDK HttpServer with one virtual thread per request. Responses are JSON with
+ * an ETag (If-None-Match gets 304) and are cached for a few seconds, so kiosks polling the
+ * same student hit the database at most once per TTL.
+ *
+ *   GET /api/students/{student number}/balance[?schoolYear=2025-2026]
+ *   GET /api/students/{student number}/unpaid
+ *   GET /api/dashboard?schoolYear=2025-2026[&semester=1st Sem]
+ *   GET /api/metrics     request count, cache hits and latency per endpoint
+ *   GET /api/health
+ *
+ * Disabled unless started: the app starts it when -Dreadapi.port is set, or run
+ * java utils.ReadApiServer [port] [bind address] on its own. Binds to 127.0.0.1 by default;
+ * pass the LAN address (or 0.0.0.0) to serve other machines. There is no authentication,
+ * so only bind it where the network is trusted.
+ */
+public class ReadApiServer {
+
+    public static final int DEFAULT_PORT = 8085;
+    public static final String DEFAULT_BIND = "127.0.0.1";
+
+    /** How long a response is served from the cache */
+    private static final long CACHE_TTL_MILLIS = Long.getLong("readapi.cacheTtlMillis", 5000);
+    /** Cached responses kept at most; the cache is cleared when it grows past this */
+    private static final int CACHE_MAX_ENTRIES = 10_000;
+    /** Upper bounds (ms) of the latency histogram buckets; the last bucket is open-ended */
+    private static final long[] LATENCY_BOUNDS_MILLIS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500};
+
+    private static HttpServer server = null;
+
+    private static final Map<String, CachedResponse> cache = new ConcurrentHashMap<>();
+    private static final Map<String, EndpointMetrics> metrics = new ConcurrentHashMap<>();
+
+    private static final PaymentDAO paymentDAO = new PaymentDAO();
+    private static final PromissoryNoteDAO promissoryNoteDAO = new PromissoryNoteDAO();
+    private static final SchoolYearDAO schoolYearDAO = new SchoolYearDAO();
+    private static final StudentDAO studentDAO = new StudentDAO();
+
+    /** Thrown by handlers to answer with an error status and message */
+    private static class ApiException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        ApiException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private static class CachedResponse {
+        final int status;
+        final byte[] body;
+        final String etag;
+        final long expiresAt;
+
+        CachedResponse(int status, byte[] body, String etag, long expiresAt) {
+            this.status = status;
+            this.body = body;
+            this.etag = etag;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static class EndpointMetrics {
+        final LongAdder requests = new LongAdder();
+        final LongAdder cacheHits = new LongAdder();
+        final LongAdder notModified = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+        final LongAdder[] buckets = new LongAdder[LATENCY_BOUNDS_MILLIS.length + 1];
+
+        EndpointMetrics() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            requests.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            long millis = nanos / 1_000_000;
+            int bucket = 0;
+            while (bucket < LATENCY_BOUNDS_MILLIS.length && millis >= LATENCY_BOUNDS_MILLIS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+        }
+
+        /** Upper bound (ms) of the bucket holding the given percentile, -1 past the last bound */
+        long percentileMillis(double percentile) {
+            long count = requests.sum();
+            long rank = (long) Math.ceil(percentile / 100.0 * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i].sum();
+                if (seen >= rank && count > 0) {
+                    return i < LATENCY_BOUNDS_MILLIS.length ? LATENCY_BOUNDS_MILLIS[i] : -1;
+                }
+            }
+            return 0;
+        }
+    }
+
+    /** A route returns the value to serialize as the response body */
+    private interface Handler {
+        Object handle(String[] path, Map<String, String> query) throws ApiException;
+    }
+
+    /**
+     * Start serving on the given address; does nothing if already started.
+     * Requests run the DAOs on many threads, so each request thread opens connections of its own
+     * (DatabaseUtil.withOwnConnections) and the desktop UI keeps the shared one.
+     */
+    public static synchronized void start(String bindAddress, int port) throws IOException {
+        if (server != null) {
+            return;
+        }
+        HttpServer httpServer = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        ExecutorService requests = Executors.newVirtualThreadPerTaskExecutor();
+        httpServer.setExecutor(task -> requests.execute(DatabaseUtil.withOwnConnections(task)));
+        route(httpServer, "/api/students/", "students", ReadApiServer::student);
+        route(httpServer, "/api/dashboard", "dashboard", ReadApiServer::dashboard);
+        route(httpServer, "/api/metrics", "metrics", (path, query) -> metricsSnapshot());
+        route(httpServer, "/api/health", "health", (path, query) -> Map.of("status", "ok"));
+        httpServer.start();
+        server = httpServer;
+        Log.info("Read API listening on http://" + bindAddress + ":" + port + "/api/");
+    }
+
+    /**
+     * Start from system properties readapi.port and readapi.bind, if readapi.port is set
+     */
+    public static void startIfConfigured() {
+        Integer port = Integer.getInteger("readapi.port");
+        if (port == null) {
+            return;
+        }
+        try {
+            start(System.getProperty("readapi.bind", DEFAULT_BIND), port);
+        } catch (IOException e) {
+            Log.error("Error starting read API on port " + port, e);
+        }
+    }
+
+    public static synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+            cache.clear();
+        }
+    }
+
+    private static void route(HttpServer httpServer, String prefix, String endpoint, Handler handler) {
+        EndpointMetrics endpointMetrics = metrics.computeIfAbsent(endpoint, name -> new EndpointMetrics());
+        httpServer.createContext(prefix, exchange -> {
+            long start = System.nanoTime();
+            try {
+                serve(exchange, endpoint, endpointMetrics, handler);
+            } finally {
+                endpointMetrics.record(System.nanoTime() - start);
+                exchange.close();
+            }
+        });
+    }
+
+    private static void serve(HttpExchange exchange, String endpoint, EndpointMetrics endpointMetrics,
+                              Handler handler) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+            send(exchange, 405, json(error("Method not allowed")), null);
+            return;
+        }
+
+        String key = exchange.getRequestURI().toString();
+        long now = System.currentTimeMillis();
+        CachedResponse response = "metrics".equals(endpoint) ? null : cache.get(key);
+        if (response != null && response.expiresAt > now) {
+            endpointMetrics.cacheHits.increment();
+        } else {
+            int status = 200;
+            Object body;
+            try {
+                String[] path = exchange.getRequestURI().getPath().split("/");
+                body = handler.handle(path, parseQuery(exchange.getRequestURI().getRawQuery()));
+            } catch (ApiException e) {
+                status = e.status;
+                body = error(e.getMessage());
+            } catch (RuntimeException e) {
+                Log.error("Error serving " + key, e);
+                status = 500;
+                body = error("Internal error");
+            }
+            if (status >= 500) {
+                endpointMetrics.errors.increment();
+            }
+            byte[] bytes = json(body);
+            response = new CachedResponse(status, bytes, etag(bytes), now + CACHE_TTL_MILLIS);
+            if (status < 500 && !"metrics".equals(endpoint)) {
+                if (cache.size() >= CACHE_MAX_ENTRIES) {
+                    cache.clear();
+                }
+                cache.put(key, response);
+            }
+        }
+
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (response.status == 200 && response.etag.equals(ifNoneMatch)) {
+            endpointMetrics.notModified.increment();
+            exchange.getResponseHeaders().set("ETag", response.etag);
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        send(exchange, response.status, response.body, response.etag);
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body, String etag) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "max-age=" + (CACHE_TTL_MILLIS / 1000));
+        if (etag != null) {
+            exchange.getResponseHeaders().set("ETag", etag);
+        }
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // Endpoints
+    // ---------------------------------------------------------------------
+
+    /**
+     * /api/students/{number}/balance and /api/students/{number}/unpaid
+     */
+    private static Object student(String[] path, Map<String, String> query) throws ApiException {
+        // "", "api", "students", number, view
+        if (path.length != 5) {
+            throw new ApiException(404, "Unknown endpoint");
+        }
+        String studentNumber = URLDecoder.decode(path[3], StandardCharsets.UTF_8);
+        Student student = studentDAO.getStudentByStudentId(studentNumber);
+        if (student == null) {
+            throw new ApiException(404, "Student not found: " + studentNumber);
+        }
+
+        if ("balance".equals(path[4])) {
+            Integer schoolYearId = null;
+            String yearRange = query.get("schoolYear");
+            if (yearRange != null) {
+                schoolYearId = schoolYear(yearRange).getSchoolYearId();
+            }
+            PaymentView view = paymentDAO.getPaymentView(student.getStudentId(), schoolYearId);
+            if (view == null) {
+                throw new ApiException(404, "No payables for " + studentNumber);
+            }
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("studentNumber", view.getStudentNumber());
+            body.put("studentName", view.getStudentName());
+            body.put("schoolYear", yearRange);
+            body.put("firstSem", view.getFirstSemAmount());
+            body.put("secondSem", view.getSecondSemAmount());
+            body.put("summerSem", view.getSummerSemAmount());
+            body.put("totalAmount", view.getTotalAmount());
+            body.put("downPayment", view.getDownPayment());
+            body.put("amountPaid", view.getAmountPaid());
+            body.put("remainingBalance", Math.max(0, view.getTotalAmount() - view.getAmountPaid()));
+            body.put("dueDate", view.getDueDate());
+            body.put("status", view.getStatus());
+            return body;
+        }
+        if ("unpaid".equals(path[4])) {
+            List<Map<String, Object>> balances = new ArrayList<>();
+            double total = 0;
+            for (AcademicYearSemesterBalance balance :
+                     promissoryNoteDAO.getUnpaidBalancesByAcademicYearAndSemester(student.getStudentId())) {
+                Map<String, Object> row = new LinkedHashMap<>();
+                row.put("schoolYear", balance.getAcademicYear());
+                row.put("semester", balance.getSemester());
+                row.put("amount", balance.getAmount());
+                balances.add(row);
+                total += balance.getAmount();
+            }
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("studentNumber", student.getStudentNumber());
+            body.put("totalUnpaid", total);
+            body.put("balances", balances);
+            return body;
+        }
+        throw new ApiException(404, "Unknown endpoint");
+    }
+
+    /**
+     * /api/dashboard?schoolYear=...&semester=...
+     */
+    private static Object dashboard(String[] path, Map<String, String> query) throws ApiException {
+        String yearRange = query.get("schoolYear");
+        if (yearRange == null) {
+            throw new ApiException(400, "schoolYear is required");
+        }
+        String semester = query.getOrDefault("semester", DashboardSummary.ALL_SEMESTERS);
+        DashboardSummary.Summary summary = DashboardSummary.get(schoolYear(yearRange).getSchoolYearId(), semester);
+        if (summary == null) {
+            throw new ApiException(503, "Dashboard figures are not available");
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("schoolYear", yearRange);
+        body.put("semester", semester);
+        body.put("totalStudents", summary.totalStudents);
+        body.put("studentsWhoPaid", summary.studentsWhoPaid);
+        body.put("overdueCount", summary.overdueCount);
+        body.put("totalPayable", summary.totalPayable);
+        body.put("totalCollected", summary.totalCollected);
+        body.put("lastRefreshed", summary.lastRefreshed != null ? summary.lastRefreshed.toString() : null);
+        return body;
+    }
+
+    private static Map<String, Object> metricsSnapshot() {
+        Map<String, Object> body = new LinkedHashMap<>();
+        for (Map.Entry<String, EndpointMetrics> entry : new java.util.TreeMap<>(metrics).entrySet()) {
+            EndpointMetrics m = entry.getValue();
+            long requests = m.requests.sum();
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("requests", requests);
+            row.put("cacheHits", m.cacheHits.sum());
+            row.put("notModified", m.notModified.sum());
+            row.put("errors", m.errors.sum());
+            row.put("avgMillis", requests > 0 ? m.totalNanos.sum() / 1_000_000.0 / requests : 0.0);
+            row.put("p50Millis", m.percentileMillis(50));
+            row.put("p99Millis", m.percentileMillis(99));
+            row.put("maxMillis", m.maxNanos.get() / 1_000_000.0);
+            body.put(entry.getKey(), row);
+        }
+        body.put("cachedResponses", cache.size());
+        body.put("offlinePostingQueue", OfflinePostingQueue.metrics());
+        return body;
+    }
+
+    private static SchoolYear schoolYear(String yearRange) throws ApiException {
+        SchoolYear sy = schoolYearDAO.getSchoolYearByRange(yearRange);
+        if (sy == null) {
+            throw new ApiException(404, "School year not found: " + yearRange);
+        }
+        return sy;
+    }
+
+    // ---------------------------------------------------------------------
+    // JSON and HTTP helpers
+    // ---------------------------------------------------------------------
+
+    private static Map<String, Object> error(String message) {
+        return Map.of("error", message);
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode(eq >= 0 ? pair.substring(0, eq) : pair, StandardCharsets.UTF_8);
+            String value = eq >= 0 ? URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8) : "";
+            query.put(name, value);
+        }
+        return query;
+    }
+
+    /** Strong ETag from the body bytes */
+    private static String etag(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            StringBuilder hex = new StringBuilder("\"");
+            for (int i = 0; i < 12; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.append('"').toString();
+        } catch (NoSuchAlgorithmException e) {
+            return "\"" + Integer.toHexString(java.util.Arrays.hashCode(body)) + "\"";
+        }
+    }
+
+    private static byte[] json(Object value) {
+        StringBuilder out = new StringBuilder();
+        writeJson(out, value);
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void writeJson(StringBuilder out, Object value) {
+        if (value == null) {
+            out.append("null");
+        } else if (value instanceof Map) {
+            out.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) out.append(',');
+                first = false;
+                writeString(out, String.valueOf(entry.getKey()));
+                out.append(':');
+                writeJson(out, entry.getValue());
+            }
+            out.append('}');
+        } else if (value instanceof List) {
+            out.append('[');
+            boolean first = true;
+            for (Object item : (List<?>) value) {
+                if (!first) out.append(',');
+                first = false;
+                writeJson(out, item);
+            }
+            out.append(']');
+        } else if (value instanceof Double) {
+            // Amounts: two decimals, as in the rest of the system
+            out.append(String.format(java.util.Locale.ROOT, "%.2f", (Double) value));
+        } else if (value instanceof Number || value instanceof Boolean) {
+            out.append(value);
+        } else if (value instanceof LocalDate) {
+            writeString(out, value.toString());
+        } else {
+            writeString(out, value.toString());
+        }
+    }
+
+    private static void writeString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        String bind = args.length > 1 ? args[1] : DEFAULT_BIND;
+        start(bind, port);
+        // Cached answers must follow writes made by the workstations
+        ChangeLogPoller.start();
+    }
+}
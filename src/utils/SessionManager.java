@@ -51,6 +51,9 @@ public class SessionManager {
         currentUsername = null;
         currentAdminId = null;
         selectedSchoolYearId = null;
+        StudentSearchIndex.clear();
+        FinancialSnapshot.invalidate(null);
+        SessionPrefetcher.clear();
     }
     
     public static boolean isLoggedIn() {
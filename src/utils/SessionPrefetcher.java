@@ -0,0 +1,185 @@
+package utils;
+
+import dao.PayableDAO;
+import dao.PaymentDAO;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import models.PaymentView;
+import models.Student;
+import models.StudentPayableView;
+
+/**
+ * Session cache of the page datasets (payments, payables, students, notifications, reports,
+ * dashboard) for the selected school year and semester.
+ * When the selection changes, prefetch warms every dataset in that order on background threads,
+ * so moving between pages during a cashier session shows data without waiting for the query
+ * and decrypt. Each entry is stamped with the data version of its school year; writes
+ * (FinancialSnapshot and StudentSearchIndex notifications) bump the version, so a page asking
+ * afterwards gets a reload instead of the old list, and the current selection is re-warmed.
+ *
+ * Payments and students are loaded through SnapshotStore, which only re-reads the rows changed
+ * since its local copy.
+ *
+ * The background threads open connections of their own (DatabaseUtil.withOwnConnections);
+ * the UI thread keeps the shared one.
+ */
+public class SessionPrefetcher {
+
+    private static final int WORKERS = 2;
+    /** Writes in a burst (imports, bulk posting) are followed by one re-warm after this delay */
+    private static final long REWARM_DELAY_MILLIS = 500;
+
+    /** Students page default status filter */
+    private static final String DEFAULT_STUDENT_STATUS = "active";
+
+    private static class Slot {
+        final long stamp;
+        final CompletableFuture<Object> future;
+
+        Slot(long stamp, CompletableFuture<Object> future) {
+            this.stamp = stamp;
+            this.future = future;
+        }
+    }
+
+    private static final Map<String, Slot> slots = new HashMap<>();
+    /** Data version per school year id (-1 for all school years); bumped on writes */
+    private static final Map<Integer, Long> versions = new HashMap<>();
+    private static long globalVersion = 0;
+
+    private static Integer selectedSchoolYearId = null;
+    private static String selectedSemester = null;
+
+    private static ScheduledExecutorService executor = null;
+    private static ScheduledFuture<?> pendingRewarm = null;
+
+    // ---------------------------------------------------------------------
+    // Datasets
+    // ---------------------------------------------------------------------
+
+    public static CompletableFuture<List<PaymentView>> payments(Integer schoolYearId, String semester) {
+        return fetch("payments|" + schoolYearId + "|" + semester, schoolYearId,
+                     () -> SnapshotStore.payments(schoolYearId, semester));
+    }
+
+    public static CompletableFuture<List<StudentPayableView>> payables(Integer schoolYearId, String semester) {
+        return fetch("payables|" + schoolYearId + "|" + semester, schoolYearId,
+                     () -> new PayableDAO().getAllStudentPayables(schoolYearId, semester));
+    }
+
+    public static CompletableFuture<List<Student>> students(Integer schoolYearId, String status, String semester) {
+        return fetch("students|" + schoolYearId + "|" + status + "|" + semester, schoolYearId,
+                     () -> SnapshotStore.students(schoolYearId, status, semester));
+    }
+
+    public static CompletableFuture<List<PaymentView>> notifications(Integer schoolYearId, boolean within7Days) {
+        return fetch("notifications|" + schoolYearId + "|" + within7Days, schoolYearId,
+                     () -> new PaymentDAO().getNotifications(schoolYearId, within7Days));
+    }
+
+    /**
+     * Warm every dataset for the selection, in page priority order.
+     * Reports and dashboard have their own caches (FinancialSnapshot, DashboardSummary);
+     * they are only loaded here so the first visit does not pay for it.
+     */
+    public static synchronized void prefetch(Integer schoolYearId, String semester) {
+        selectedSchoolYearId = schoolYearId;
+        selectedSemester = semester;
+        if (schoolYearId == null) {
+            return;
+        }
+        payments(schoolYearId, semester);
+        payables(schoolYearId, semester);
+        students(schoolYearId, DEFAULT_STUDENT_STATUS, semester);
+        notifications(schoolYearId, false);
+        fetch("reports|" + schoolYearId, schoolYearId,
+              () -> FinancialSnapshot.forSchoolYear(schoolYearId) != null);
+        fetch("dashboard|" + schoolYearId + "|" + semester, schoolYearId,
+              () -> DashboardSummary.get(schoolYearId, semester) != null);
+    }
+
+    /**
+     * Called after a write; entries of the school year (all school years when null) are
+     * reloaded on next use and the current selection is re-warmed shortly after
+     */
+    public static synchronized void markStale(Integer schoolYearId) {
+        if (schoolYearId == null) {
+            globalVersion++;
+        } else {
+            versions.merge(schoolYearId, 1L, Long::sum);
+            // Datasets spanning all school years include this one
+            versions.merge(-1, 1L, Long::sum);
+        }
+        if (selectedSchoolYearId != null && executor != null
+                && (schoolYearId == null || schoolYearId.equals(selectedSchoolYearId))
+                && (pendingRewarm == null || pendingRewarm.isDone())) {
+            pendingRewarm = executor.schedule(() -> prefetch(selectedSchoolYearId, selectedSemester),
+                                              REWARM_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Drop everything (logout)
+     */
+    public static synchronized void clear() {
+        slots.clear();
+        globalVersion++;
+        selectedSchoolYearId = null;
+        selectedSemester = null;
+    }
+
+    // ---------------------------------------------------------------------
+    // Cache
+    // ---------------------------------------------------------------------
+
+    /**
+     * Cached or in-flight load of the key if it is still current, otherwise a new background load.
+     * Lists are returned unmodifiable since every page shares them.
+     */
+    @SuppressWarnings("unchecked")
+    private static synchronized <T> CompletableFuture<T> fetch(String key, Integer schoolYearId, Supplier<T> loader) {
+        long stamp = stamp(schoolYearId);
+        // Only an unchanged, successful or still running load is reused
+        Slot slot = slots.get(key);
+        if (slot != null && slot.stamp == stamp && !slot.future.isCompletedExceptionally()) {
+            return (CompletableFuture<T>) slot.future;
+        }
+        CompletableFuture<Object> future = CompletableFuture.supplyAsync(() -> {
+            Object value = loader.get();
+            return value instanceof List ? Collections.unmodifiableList((List<?>) value) : value;
+        }, background());
+        future.whenComplete((value, error) -> {
+            if (error != null) {
+                Log.warn("Error prefetching " + key, error);
+            }
+        });
+        slots.put(key, new Slot(stamp, future));
+        return (CompletableFuture<T>) future;
+    }
+
+    private static long stamp(Integer schoolYearId) {
+        long yearVersion = versions.getOrDefault(schoolYearId != null ? schoolYearId : -1, 0L);
+        return (globalVersion << 32) + yearVersion;
+    }
+
+    private static Executor background() {
+        if (executor == null) {
+            // Loads run beside the UI thread, which must not share its connection with them
+            executor = Executors.newScheduledThreadPool(WORKERS, r -> {
+                Thread thread = new Thread(DatabaseUtil.withOwnConnections(r), "session-prefetch");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+}
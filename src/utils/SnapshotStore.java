@@ -0,0 +1,437 @@
+package utils;
+
+import dao.PaymentDAO;
+import dao.StudentDAO;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import models.PaymentView;
+import models.Student;
+
+/**
+ * Local copy of the student and payment lists of a school year, so a workstation on a slow link
+ * can show the last known list at startup and then read only the students that changed since.
+ *
+ * Each list is stored with the server time it was read at. A sync asks the server which students of
+ * the school year changed after that time (updated_at columns, see StudentDAO.getStudentIdsChangedSince),
+ * re-reads just those rows and compares the row count with the server; any doubt falls back to a full read.
+ *
+ * The full load, the changed-rows read and the row count of a list are all built from the same
+ * direct query of its DAO (StudentDAO.allStudentsSql, PaymentDAO.paymentViewsSql), so they agree.
+ *
+ * Files are AES/GCM encrypted with a key derived from the database settings, and read through a
+ * memory mapping. Every list has two slot files written alternately, so a crash while saving
+ * leaves the previous copy readable.
+ *
+ * System properties:
+ *   snapshot.dir  directory of the snapshot files (default ~/.dorpay/snapshots); "none" disables the store
+ */
+public final class SnapshotStore {
+
+    private static final byte[] MAGIC = "DPSNAP".getBytes(StandardCharsets.US_ASCII);
+    private static final int FORMAT = 2;
+    private static final int IV_BYTES = 12;
+    private static final int TAG_BITS = 128;
+    private static final int HEADER_BYTES = MAGIC.length + 4 + 8 + IV_BYTES + 4;
+    private static final String[] SLOTS = {".a", ".b"};
+
+    /** Changes are looked up from this long before the stored time, for transactions committed late */
+    private static final long OVERLAP_MILLIS = 60_000;
+
+    private static final String snapshotDir = System.getProperty("snapshot.dir",
+        System.getProperty("user.home") + File.separator + ".dorpay" + File.separator + "snapshots");
+    private static final SecureRandom random = new SecureRandom();
+    private static SecretKey key = null;
+
+    /** Serialized form of one row type */
+    private interface Codec<T> {
+        void write(DataOutputStream out, T row) throws IOException;
+
+        T read(DataInputStream in) throws IOException;
+    }
+
+    private static class Snapshot<T> {
+        final long version;
+        final List<T> rows;
+
+        Snapshot(long version, List<T> rows) {
+            this.version = version;
+            this.rows = rows;
+        }
+    }
+
+    private SnapshotStore() {
+    }
+
+    // ---------------------------------------------------------------------
+    // Datasets
+    // ---------------------------------------------------------------------
+
+    /**
+     * Same rows as StudentDAO.getAllStudents(schoolYearId, status, semester), brought up to date
+     * from the local copy when there is one
+     */
+    public static List<Student> students(Integer schoolYearId, String status, String semester) {
+        StudentDAO dao = new StudentDAO();
+        if (schoolYearId == null || !isEnabled()) {
+            return dao.getAllStudents(schoolYearId, status, semester);
+        }
+        return sync(studentsName(schoolYearId, status, semester), STUDENT_CODEC, schoolYearId, Student::getStudentId,
+                    () -> dao.getAllStudents(schoolYearId, status, semester),
+                    ids -> dao.getAllStudents(schoolYearId, status, semester, ids),
+                    () -> dao.countAllStudents(schoolYearId, status, semester));
+    }
+
+    /**
+     * Same rows as PaymentDAO.getAllPaymentViews(schoolYearId, semester), brought up to date
+     * from the local copy when there is one
+     */
+    public static List<PaymentView> payments(Integer schoolYearId, String semester) {
+        PaymentDAO dao = new PaymentDAO();
+        if (schoolYearId == null || !isEnabled()) {
+            return dao.getAllPaymentViews(schoolYearId, semester);
+        }
+        return sync(paymentsName(schoolYearId, semester), PAYMENT_CODEC, schoolYearId, PaymentView::getStudentId,
+                    () -> dao.getAllPaymentViews(schoolYearId, semester),
+                    ids -> dao.getAllPaymentViews(schoolYearId, semester, ids),
+                    () -> dao.countAllPaymentViews(schoolYearId, semester));
+    }
+
+    /**
+     * Local copy of the student list as last saved, without asking the server
+     * @return The rows, or null if there is no readable copy
+     */
+    public static List<Student> cachedStudents(Integer schoolYearId, String status, String semester) {
+        if (schoolYearId == null || !isEnabled()) {
+            return null;
+        }
+        Snapshot<Student> snapshot = read(studentsName(schoolYearId, status, semester), STUDENT_CODEC);
+        return snapshot != null ? snapshot.rows : null;
+    }
+
+    /**
+     * Local copy of the payment list as last saved, without asking the server
+     * @return The rows, or null if there is no readable copy
+     */
+    public static List<PaymentView> cachedPayments(Integer schoolYearId, String semester) {
+        if (schoolYearId == null || !isEnabled()) {
+            return null;
+        }
+        Snapshot<PaymentView> snapshot = read(paymentsName(schoolYearId, semester), PAYMENT_CODEC);
+        return snapshot != null ? snapshot.rows : null;
+    }
+
+    public static boolean isEnabled() {
+        return !"none".equalsIgnoreCase(snapshotDir);
+    }
+
+    private static String studentsName(int schoolYearId, String status, String semester) {
+        return "students-" + schoolYearId + "-" + status + "-" + semester;
+    }
+
+    private static String paymentsName(int schoolYearId, String semester) {
+        return "payments-" + schoolYearId + "-" + semester;
+    }
+
+    // ---------------------------------------------------------------------
+    // Sync
+    // ---------------------------------------------------------------------
+
+    /**
+     * Bring the local copy of a list up to date and save it.
+     * Rows are keyed by student id and kept in student_id DESC order, like the DAO queries.
+     */
+    private static <T> List<T> sync(String name, Codec<T> codec, int schoolYearId, ToIntFunction<T> idOf,
+                                    Supplier<List<T>> fullLoad, Function<Set<Integer>, List<T>> changedLoad,
+                                    IntSupplier serverCount) {
+        // Taken first: anything changed while reading is picked up by the next sync
+        Timestamp serverTime = DatabaseUtil.getServerTime();
+        if (serverTime == null) {
+            return fullLoad.get();
+        }
+        List<T> rows = null;
+        Snapshot<T> snapshot = read(name, codec);
+        if (snapshot != null) {
+            Set<Integer> changedIds = new StudentDAO().getStudentIdsChangedSince(
+                schoolYearId, new Timestamp(snapshot.version - OVERLAP_MILLIS));
+            if (changedIds != null) {
+                rows = new ArrayList<>();
+                for (T row : snapshot.rows) {
+                    if (!changedIds.contains(idOf.applyAsInt(row))) {
+                        rows.add(row);
+                    }
+                }
+                if (!changedIds.isEmpty()) {
+                    rows.addAll(changedLoad.apply(changedIds));
+                    rows.sort(Comparator.comparingInt(idOf).reversed());
+                }
+                // Deleted students leave nothing to detect them by, and a failed re-read returns no rows
+                int count = serverCount.getAsInt();
+                if (count != rows.size()) {
+                    Log.info("Snapshot " + name + " has " + rows.size() + " row(s), server has " + count + "; reloading");
+                    rows = null;
+                } else {
+                    Log.debug("Snapshot " + name + ": " + changedIds.size() + " changed student(s)");
+                }
+            }
+        }
+        if (rows == null) {
+            rows = fullLoad.get();
+        }
+        // An empty list is not worth keeping and may be the result of a failed query
+        if (!rows.isEmpty()) {
+            write(name, codec, new Snapshot<>(serverTime.getTime(), rows));
+        }
+        return rows;
+    }
+
+    // ---------------------------------------------------------------------
+    // Files
+    // ---------------------------------------------------------------------
+
+    /**
+     * Newest readable slot of a list, or null
+     */
+    private static synchronized <T> Snapshot<T> read(String name, Codec<T> codec) {
+        Snapshot<T> newest = null;
+        for (String slot : SLOTS) {
+            Snapshot<T> snapshot = readSlot(slotFile(name, slot), name, codec);
+            if (snapshot != null && (newest == null || snapshot.version > newest.version)) {
+                newest = snapshot;
+            }
+        }
+        return newest;
+    }
+
+    private static <T> Snapshot<T> readSlot(File file, String name, Codec<T> codec) {
+        if (!file.isFile() || file.length() < HEADER_BYTES) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] magic = new byte[MAGIC.length];
+            mapped.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || mapped.getInt() != FORMAT) {
+                return null;
+            }
+            long version = mapped.getLong();
+            byte[] iv = new byte[IV_BYTES];
+            mapped.get(iv);
+            int length = mapped.getInt();
+            if (length <= 0 || length > mapped.remaining()) {
+                return null;
+            }
+            mapped.limit(mapped.position() + length);
+
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, key(), new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD(aad(name, version));
+            ByteBuffer plain = ByteBuffer.allocate(cipher.getOutputSize(length));
+            cipher.doFinal(mapped, plain);
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(plain.array(), 0, plain.position()));
+            int count = in.readInt();
+            List<T> rows = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                rows.add(codec.read(in));
+            }
+            return new Snapshot<>(version, rows);
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            // Torn write, other database or old format: treat as missing
+            Log.warn("Ignoring unreadable snapshot " + file.getName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Save over the older slot (or the missing one), leaving the newer copy intact
+     */
+    private static synchronized <T> void write(String name, Codec<T> codec, Snapshot<T> snapshot) {
+        try {
+            File dir = new File(snapshotDir);
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Cannot create " + dir.getAbsolutePath());
+            }
+            File target = null;
+            long oldest = Long.MAX_VALUE;
+            for (String slot : SLOTS) {
+                File file = slotFile(name, slot);
+                Snapshot<T> existing = readSlot(file, name, codec);
+                long version = existing != null ? existing.version : Long.MIN_VALUE;
+                if (version < oldest) {
+                    oldest = version;
+                    target = file;
+                }
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(snapshot.rows.size());
+            for (T row : snapshot.rows) {
+                codec.write(out, row);
+            }
+            out.flush();
+
+            byte[] iv = new byte[IV_BYTES];
+            random.nextBytes(iv);
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, key(), new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD(aad(name, snapshot.version));
+            byte[] encrypted = cipher.doFinal(bytes.toByteArray());
+
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + encrypted.length);
+            buffer.put(MAGIC).putInt(FORMAT).putLong(snapshot.version).put(iv).putInt(encrypted.length).put(encrypted);
+            buffer.flip();
+            // Not truncated first: Windows refuses to shrink a file that is still mapped;
+            // the length in the header tells where the data ends
+            try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                                                        StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, buffer.position());
+                }
+                channel.force(false);
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            Log.warn("Could not save snapshot " + name, e);
+        }
+    }
+
+    private static File slotFile(String name, String slot) {
+        return new File(snapshotDir, name.replaceAll("[^A-Za-z0-9_-]", "_") + slot + ".snap");
+    }
+
+    /** Binds the ciphertext to its list and version, so slots cannot be swapped or relabelled */
+    private static byte[] aad(String name, long version) {
+        return (name + "|" + version).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Key derived from the database settings, so a copy only opens for the database it came from
+     */
+    private static synchronized SecretKey key() throws GeneralSecurityException {
+        if (key == null) {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            String phrase = "DorPaySnapshot|" + DatabaseConfig.DB_URL + "|" + DatabaseConfig.DB_USER + "|" +
+                            DatabaseConfig.DB_PASSWORD;
+            key = new SecretKeySpec(sha.digest(phrase.getBytes(StandardCharsets.UTF_8)), "AES");
+        }
+        return key;
+    }
+
+    // ---------------------------------------------------------------------
+    // Codecs
+    // ---------------------------------------------------------------------
+
+    private static final Codec<Student> STUDENT_CODEC = new Codec<Student>() {
+        @Override
+        public void write(DataOutputStream out, Student s) throws IOException {
+            out.writeInt(s.getStudentId());
+            writeString(out, s.getStudentNumber());
+            writeString(out, s.getFirstName());
+            writeString(out, s.getMiddleName());
+            writeString(out, s.getLastName());
+            writeString(out, s.getMajor());
+            writeString(out, s.getYear());
+            out.writeInt(s.getSchoolYearId() != null ? s.getSchoolYearId() : -1);
+            writeString(out, s.getStatus());
+            writeString(out, s.getSemester());
+        }
+
+        @Override
+        public Student read(DataInputStream in) throws IOException {
+            Student s = new Student();
+            s.setStudentId(in.readInt());
+            s.setStudentNumber(readString(in));
+            s.setFirstName(readString(in));
+            s.setMiddleName(readString(in));
+            s.setLastName(readString(in));
+            s.setMajor(readString(in));
+            s.setYear(readString(in));
+            int schoolYearId = in.readInt();
+            s.setSchoolYearId(schoolYearId >= 0 ? schoolYearId : null);
+            s.setStatus(readString(in));
+            s.setSemester(readString(in));
+            return s;
+        }
+    };
+
+    private static final Codec<PaymentView> PAYMENT_CODEC = new Codec<PaymentView>() {
+        @Override
+        public void write(DataOutputStream out, PaymentView v) throws IOException {
+            out.writeInt(v.getPaymentId());
+            out.writeInt(v.getStudentId());
+            writeString(out, v.getStudentNumber());
+            writeString(out, v.getStudentName());
+            out.writeDouble(v.getDownPayment());
+            out.writeDouble(v.getFirstSemAmount());
+            out.writeDouble(v.getSecondSemAmount());
+            out.writeDouble(v.getSummerSemAmount());
+            out.writeDouble(v.getTotalAmount());
+            out.writeDouble(v.getAmountPaid());
+            writeString(out, v.getDueDate() != null ? v.getDueDate().toString() : null);
+            writeString(out, v.getStatus());
+            writeString(out, v.getProgram());
+            writeString(out, v.getYearLevel());
+            out.writeLong(v.getVersion());
+        }
+
+        @Override
+        public PaymentView read(DataInputStream in) throws IOException {
+            PaymentView v = new PaymentView();
+            v.setPaymentId(in.readInt());
+            v.setStudentId(in.readInt());
+            v.setStudentNumber(readString(in));
+            v.setStudentName(readString(in));
+            v.setDownPayment(in.readDouble());
+            v.setFirstSemAmount(in.readDouble());
+            v.setSecondSemAmount(in.readDouble());
+            v.setSummerSemAmount(in.readDouble());
+            v.setTotalAmount(in.readDouble());
+            v.setAmountPaid(in.readDouble());
+            String dueDate = readString(in);
+            v.setDueDate(dueDate != null ? LocalDate.parse(dueDate) : null);
+            v.setStatus(readString(in));
+            v.setProgram(readString(in));
+            v.setYearLevel(readString(in));
+            v.setVersion(in.readLong());
+            return v;
+        }
+    };
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
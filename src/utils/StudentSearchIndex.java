@@ -0,0 +1,268 @@
+package utils;
+
+import dao.StudentDAO;
+import models.Student;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * In-memory student search index, one per school year.
+ * Every suffix of the tokens from student number, first/middle/last name, full name and program
+ * is kept in a sorted map of posting lists (student ids as bit sets), so a search word is answered
+ * by a prefix lookup on the suffixes (a substring match, like the LIKE '%term%' search) and words
+ * by set intersections instead of a LIKE query against MySQL.
+ * The index is built lazily on first use, outside the lock, and kept in sync by StudentDAO write
+ * methods; a build that overlapped a write answers its own search but is not kept.
+ */
+public class StudentSearchIndex {
+
+    /** Loaded indexes keyed by school year id */
+    private static final Map<Integer, YearIndex> indexes = new HashMap<>();
+    
+    /** Bumped by every write, so a build that overlapped one is not published */
+    private static long generation = 0;
+
+    /**
+     * Search students in a school year.
+     * Every word of the search term must be a substring of a token of the student
+     * (number, name parts, full name or program). Year is matched exactly, major by substring,
+     * the same as StudentDAO.searchStudents.
+     *
+     * @return Matching student ids (empty set when nothing matches)
+     */
+    public static Set<Integer> search(Integer schoolYearId, String searchTerm, String year, String major) {
+        YearIndex index = getOrBuild(schoolYearId);
+        synchronized (StudentSearchIndex.class) {
+            return search(index, searchTerm, year, major);
+        }
+    }
+    
+    private static Set<Integer> search(YearIndex index, String searchTerm, String year, String major) {
+        BitSet result = index.match(searchTerm);
+
+        String majorFilter = major != null && !major.trim().isEmpty() ? major.trim().toLowerCase(Locale.ROOT) : null;
+        String yearFilter = year != null && !year.trim().isEmpty() ? year.trim() : null;
+
+        Set<Integer> ids = new HashSet<>();
+        for (int id = result.nextSetBit(0); id >= 0; id = result.nextSetBit(id + 1)) {
+            Entry entry = index.entries.get(id);
+            if (entry == null) {
+                continue;
+            }
+            if (yearFilter != null && !yearFilter.equals(entry.year)) {
+                continue;
+            }
+            if (majorFilter != null && !entry.major.contains(majorFilter)) {
+                continue;
+            }
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    /**
+     * Add or re-index a student after an update.
+     * Every loaded school year that already contains the student is refreshed, and the
+     * student's own school year index gets the student if it is loaded.
+     */
+    public static synchronized void upsert(Student student) {
+        if (student == null || student.getStudentId() <= 0) {
+            return;
+        }
+        SessionPrefetcher.markStale(student.getSchoolYearId());
+        generation++;
+        for (Map.Entry<Integer, YearIndex> e : indexes.entrySet()) {
+            YearIndex index = e.getValue();
+            boolean ownYear = student.getSchoolYearId() != null && student.getSchoolYearId().equals(e.getKey());
+            if (index.entries.containsKey(student.getStudentId()) || ownYear) {
+                index.put(student);
+            }
+        }
+    }
+
+    /**
+     * Remove a student from every loaded index (student deactivated)
+     */
+    public static synchronized void remove(int studentId) {
+        SessionPrefetcher.markStale(null);
+        generation++;
+        for (YearIndex index : indexes.values()) {
+            index.remove(studentId);
+        }
+    }
+
+    /**
+     * Drop the index of one school year so it is rebuilt on next search.
+     * Used when enrollment changes cannot be applied incrementally (new student without id,
+     * semester-level deactivation or reactivation).
+     */
+    public static synchronized void invalidate(Integer schoolYearId) {
+        SessionPrefetcher.markStale(schoolYearId);
+        generation++;
+        if (schoolYearId == null) {
+            indexes.clear();
+        } else {
+            indexes.remove(schoolYearId);
+        }
+    }
+
+    /**
+     * Drop all loaded indexes
+     */
+    public static synchronized void clear() {
+        generation++;
+        indexes.clear();
+    }
+
+    /**
+     * The loaded index of a school year, or a new one built without holding the lock
+     * (the load is a full student query; writes and other searches must not wait for it)
+     */
+    private static YearIndex getOrBuild(Integer schoolYearId) {
+        Integer key = schoolYearId != null ? schoolYearId : -1;
+        long builtAt;
+        synchronized (StudentSearchIndex.class) {
+            YearIndex index = indexes.get(key);
+            if (index != null) {
+                return index;
+            }
+            builtAt = generation;
+        }
+
+        YearIndex built = new YearIndex();
+        for (Student student : new StudentDAO().getSearchableStudents(schoolYearId)) {
+            built.put(student);
+        }
+
+        synchronized (StudentSearchIndex.class) {
+            YearIndex index = indexes.get(key);
+            if (index != null) {
+                return index;
+            }
+            if (generation == builtAt) {
+                indexes.put(key, built);
+            }
+            return built;
+        }
+    }
+
+    /**
+     * Split text into lowercase tokens on whitespace and punctuation.
+     * The whole value is also kept as a token so "24-00" still matches "2024-0012".
+     */
+    private static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        String normalized = text.trim().toLowerCase(Locale.ROOT);
+        if (normalized.isEmpty()) {
+            return tokens;
+        }
+        tokens.add(normalized);
+        for (String part : normalized.split("[^\\p{L}\\p{N}]+")) {
+            if (!part.isEmpty() && !part.equals(normalized)) {
+                tokens.add(part);
+            }
+        }
+        return tokens;
+    }
+
+    /** Indexed fields of one student */
+    private static class Entry {
+        final List<String> tokens;
+        final String year;
+        final String major;
+
+        Entry(List<String> tokens, String year, String major) {
+            this.tokens = tokens;
+            this.year = year;
+            this.major = major;
+        }
+    }
+
+    /** Token posting lists and per-student entries for one school year */
+    private static class YearIndex {
+        final TreeMap<String, BitSet> postings = new TreeMap<>();
+        final Map<Integer, Entry> entries = new HashMap<>();
+        final BitSet all = new BitSet();
+
+        void put(Student student) {
+            int id = student.getStudentId();
+            remove(id);
+
+            List<String> tokens = new ArrayList<>();
+            tokens.addAll(tokenize(student.getStudentNumber()));
+            tokens.addAll(tokenize(student.getFirstName()));
+            tokens.addAll(tokenize(student.getMiddleName()));
+            tokens.addAll(tokenize(student.getLastName()));
+            tokens.addAll(tokenize(student.getFullname()));
+            tokens.addAll(tokenize(student.getMajor()));
+
+            for (String token : tokens) {
+                for (int i = 0; i < token.length(); i++) {
+                    postings.computeIfAbsent(token.substring(i), t -> new BitSet()).set(id);
+                }
+            }
+            String year = student.getYear() != null ? student.getYear().trim() : "";
+            String major = student.getMajor() != null ? student.getMajor().toLowerCase(Locale.ROOT) : "";
+            entries.put(id, new Entry(tokens, year, major));
+            all.set(id);
+        }
+
+        void remove(int id) {
+            Entry old = entries.remove(id);
+            if (old == null) {
+                return;
+            }
+            for (String token : old.tokens) {
+                for (int i = 0; i < token.length(); i++) {
+                    String suffix = token.substring(i);
+                    BitSet ids = postings.get(suffix);
+                    if (ids != null) {
+                        ids.clear(id);
+                        if (ids.isEmpty()) {
+                            postings.remove(suffix);
+                        }
+                    }
+                }
+            }
+            all.clear(id);
+        }
+
+        /** Intersect the substring matches (prefixes of a suffix) of every word in the search term */
+        BitSet match(String searchTerm) {
+            List<String> words = new ArrayList<>();
+            if (searchTerm != null) {
+                for (String word : searchTerm.trim().toLowerCase(Locale.ROOT).split("\\s+")) {
+                    if (!word.isEmpty()) {
+                        words.add(word);
+                    }
+                }
+            }
+
+            BitSet result = (BitSet) all.clone();
+            for (String word : words) {
+                BitSet wordMatches = new BitSet();
+                SortedMap<String, BitSet> range = postings.subMap(word, word + Character.MAX_VALUE);
+                for (BitSet ids : range.values()) {
+                    wordMatches.or(ids);
+                }
+                result.and(wordMatches);
+                if (result.isEmpty()) {
+                    break;
+                }
+            }
+            return result;
+        }
+    }
+}
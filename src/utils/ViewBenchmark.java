@@ -0,0 +1,290 @@
+package utils;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+/**
+ * Benchmark for the reporting views.
+ * Seeds a scratch database with N belong rows (default 50000), creates the old
+ * function-based views next to the set-based ones from DatabaseObjectsUtil.createViews,
+ * and times a full read of each. The scratch database is dropped afterwards.
+ *
+ *   java utils.ViewBenchmark [belongRows]
+ */
+public class ViewBenchmark {
+
+    private static final int DEFAULT_BELONG_ROWS = 50000;
+    private static final int RUNS = 3;
+    private static final int BATCH_SIZE = 1000;
+    private static final String BENCH_DB_NAME = DatabaseConfig.DB_NAME + "_bench";
+
+    /** Previous definitions: one stored function call (and its correlated SELECTs) per output row */
+    private static final String LEGACY_SUMMARY_VIEW =
+        "CREATE VIEW v_student_payment_summary_legacy AS " +
+        "SELECT s.student_id, s.student_number, b.belong_id, " +
+        "  COALESCE(sem.first_sem_amount, 0) + COALESCE(sem.second_sem_amount, 0) + COALESCE(sem.summer_sem_amount, 0) AS total_payable, " +
+        "  COALESCE(SUM(sp.amount_paid), 0) AS total_paid, " +
+        "  calculate_remaining_balance(b.belong_id) AS remaining_balance, " +
+        "  determine_payment_status(b.belong_id) AS payment_status, " +
+        "  MAX(d.due_date) AS due_date, MAX(sp.payable_id) AS latest_payable_id " +
+        "FROM student s " +
+        "INNER JOIN belong b ON s.student_id = b.student_id " +
+        "INNER JOIN school_year sy ON b.school_year_id = sy.school_year_id " +
+        "INNER JOIN semester sem ON b.semester_id = sem.semester_id " +
+        "LEFT JOIN student_payables sp ON b.belong_id = sp.belong_id " +
+        "LEFT JOIN duedate d ON sp.duedate_id = d.duedate_id " +
+        "WHERE COALESCE(s.status, 'active') = 'active' " +
+        "  AND COALESCE(b.status, 'active') = 'active' " +
+        "GROUP BY s.student_id, s.student_number, sy.year_range, b.belong_id, sem.semester_id";
+
+    private static final String LEGACY_OVERDUE_VIEW =
+        "CREATE VIEW v_overdue_payments_legacy AS " +
+        "SELECT s.student_id, b.belong_id, sp.payable_id, " +
+        "  calculate_remaining_balance(b.belong_id) AS remaining_balance, " +
+        "  d.due_date, DATEDIFF(CURDATE(), d.due_date) AS days_overdue " +
+        "FROM student s " +
+        "INNER JOIN belong b ON s.student_id = b.student_id " +
+        "INNER JOIN school_year sy ON b.school_year_id = sy.school_year_id " +
+        "INNER JOIN student_payables sp ON b.belong_id = sp.belong_id " +
+        "LEFT JOIN duedate d ON sp.duedate_id = d.duedate_id " +
+        "WHERE d.due_date IS NOT NULL " +
+        "  AND d.due_date < CURDATE() " +
+        "  AND sp.status != 'PAID' " +
+        "  AND COALESCE(s.status, 'active') = 'active' " +
+        "  AND COALESCE(b.status, 'active') = 'active'";
+
+    private static final String SUMMARY_QUERY =
+        "SELECT COUNT(*), SUM(remaining_balance), SUM(payment_status = 'OVERDUE') FROM ";
+    private static final String OVERDUE_QUERY =
+        "SELECT COUNT(*), SUM(remaining_balance), SUM(days_overdue) FROM ";
+
+    /**
+     * Seed the scratch database, time both view generations and print the results
+     */
+    public static void run(int belongRows) throws SQLException {
+        createScratchDatabase();
+        try (Connection conn = openScratchConnection();
+             Statement stmt = conn.createStatement()) {
+            createTables(stmt);
+            long seedStart = System.currentTimeMillis();
+            seed(conn, belongRows);
+            System.out.println("Seeded " + belongRows + " belong rows in " + (System.currentTimeMillis() - seedStart) + " ms");
+
+            DatabaseObjectsUtil.createFunctions(stmt);
+            DatabaseObjectsUtil.createViews(stmt);
+            stmt.execute(LEGACY_SUMMARY_VIEW);
+            stmt.execute(LEGACY_OVERDUE_VIEW);
+            stmt.execute("ANALYZE TABLE student, belong, semester, duedate, student_payables");
+
+            compare(conn, "v_student_payment_summary", SUMMARY_QUERY);
+            compare(conn, "v_overdue_payments", OVERDUE_QUERY);
+        } finally {
+            dropScratchDatabase();
+        }
+    }
+
+    private static void compare(Connection conn, String view, String query) throws SQLException {
+        String[] legacy = time(conn, query + view + "_legacy");
+        String[] setBased = time(conn, query + view);
+        System.out.println(view + ":");
+        System.out.println("  function-based: " + legacy[0] + " ms  (rows=" + legacy[1] + ")");
+        System.out.println("  set-based:      " + setBased[0] + " ms  (rows=" + setBased[1] + ")");
+        if (!legacy[1].equals(setBased[1])) {
+            System.err.println("  WARNING: results differ between the two views");
+        }
+    }
+
+    /**
+     * Best of RUNS full reads
+     *
+     * @return {elapsed ms, result row rendered as text}
+     */
+    private static String[] time(Connection conn, String sql) throws SQLException {
+        long best = Long.MAX_VALUE;
+        String result = "";
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            try (PreparedStatement pstmt = conn.prepareStatement(sql);
+                 ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    result = rs.getLong(1) + ", balance=" + rs.getBigDecimal(2) + ", " + rs.getLong(3);
+                }
+            }
+            best = Math.min(best, (System.nanoTime() - start) / 1_000_000);
+        }
+        return new String[] { String.valueOf(best), result };
+    }
+
+    private static void createTables(Statement stmt) throws SQLException {
+        stmt.execute("CREATE TABLE school_year (" +
+                "school_year_id INT AUTO_INCREMENT PRIMARY KEY," +
+                "year_range VARCHAR(20) NOT NULL UNIQUE," +
+                "is_active BOOLEAN DEFAULT TRUE)");
+        stmt.execute("CREATE TABLE student (" +
+                "student_id INT AUTO_INCREMENT PRIMARY KEY," +
+                "student_number VARCHAR(50) UNIQUE NOT NULL," +
+                "fullname VARCHAR(100) NOT NULL," +
+                "first_name VARCHAR(100), middle_name VARCHAR(100), last_name VARCHAR(100)," +
+                "major VARCHAR(100), year VARCHAR(20), dep VARCHAR(100), college VARCHAR(100)," +
+                "school_year_id INT," +
+                "status VARCHAR(20) DEFAULT 'active'," +
+                "INDEX idx_student_status (status))");
+        stmt.execute("CREATE TABLE semester (" +
+                "semester_id INT AUTO_INCREMENT PRIMARY KEY," +
+                "first_sem_amount DECIMAL(10,2) DEFAULT 0.00," +
+                "second_sem_amount DECIMAL(10,2) DEFAULT 0.00," +
+                "summer_sem_amount DECIMAL(10,2) DEFAULT 0.00)");
+        stmt.execute("CREATE TABLE belong (" +
+                "belong_id INT AUTO_INCREMENT PRIMARY KEY," +
+                "student_id INT NOT NULL," +
+                "school_year_id INT NOT NULL," +
+                "semester_id INT NOT NULL," +
+                "status VARCHAR(20) DEFAULT 'active'," +
+                "UNIQUE KEY unique_belong (student_id, school_year_id, semester_id)," +
+                "INDEX idx_belong_school_year_status (school_year_id, status)," +
+                "INDEX idx_belong_semester (semester_id))");
+        stmt.execute("CREATE TABLE duedate (" +
+                "duedate_id INT AUTO_INCREMENT PRIMARY KEY," +
+                "due_date DATE NOT NULL," +
+                "message TEXT," +
+                "promissory_id INT," +
+                "INDEX idx_duedate_due_date (due_date))");
+        stmt.execute("CREATE TABLE student_payables (" +
+                "payable_id INT AUTO_INCREMENT PRIMARY KEY," +
+                "belong_id INT NOT NULL," +
+                "downpayment_amount VARCHAR(255) NOT NULL DEFAULT '0.00'," +
+                "amount_paid VARCHAR(255) NOT NULL DEFAULT '0.00'," +
+                "remaining_balance VARCHAR(255) NOT NULL DEFAULT '0.00'," +
+                "status ENUM('UNPAID', 'PARTIAL', 'PAID', 'OVERDUE') DEFAULT 'UNPAID'," +
+                "duedate_id INT," +
+                "INDEX idx_payables_belong (belong_id)," +
+                "INDEX idx_payables_status (status)," +
+                "INDEX idx_payables_duedate_status (duedate_id, status))");
+    }
+
+    /**
+     * One student, semester, belong, due date and payable per row.
+     * Amounts are stored in plain text so the SQL SUMs in both view generations agree.
+     */
+    private static void seed(Connection conn, int belongRows) throws SQLException {
+        Random random = new Random(42);
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("INSERT INTO school_year (year_range) VALUES ('2025-2026')");
+        }
+        try (PreparedStatement studentStmt = conn.prepareStatement(
+                 "INSERT INTO student (student_id, student_number, fullname, first_name, last_name, major, year, status) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+             PreparedStatement semesterStmt = conn.prepareStatement(
+                 "INSERT INTO semester (semester_id, first_sem_amount, second_sem_amount, summer_sem_amount) VALUES (?, ?, ?, ?)");
+             PreparedStatement belongStmt = conn.prepareStatement(
+                 "INSERT INTO belong (belong_id, student_id, school_year_id, semester_id, status) VALUES (?, ?, 1, ?, ?)");
+             PreparedStatement duedateStmt = conn.prepareStatement(
+                 "INSERT INTO duedate (duedate_id, due_date) VALUES (?, DATE_ADD(CURDATE(), INTERVAL ? DAY))");
+             PreparedStatement payableStmt = conn.prepareStatement(
+                 "INSERT INTO student_payables (belong_id, downpayment_amount, amount_paid, remaining_balance, status, duedate_id) VALUES (?, ?, ?, ?, ?, ?)")) {
+            for (int id = 1; id <= belongRows; id++) {
+                double total = 5000 + random.nextInt(20) * 500;
+                double paid = random.nextInt(4) == 0 ? total : random.nextInt(3) * total / 4;
+                String status = paid >= total ? "PAID" : (paid > 0 ? "PARTIAL" : "UNPAID");
+
+                studentStmt.setInt(1, id);
+                studentStmt.setString(2, String.format("S%07d", id));
+                studentStmt.setString(3, "Student " + id);
+                studentStmt.setString(4, "Student");
+                studentStmt.setString(5, String.valueOf(id));
+                studentStmt.setString(6, "Program " + (id % 12));
+                studentStmt.setString(7, String.valueOf(1 + id % 4));
+                studentStmt.setString(8, id % 50 == 0 ? "deactivated" : "active");
+                studentStmt.addBatch();
+
+                semesterStmt.setInt(1, id);
+                semesterStmt.setDouble(2, id % 3 == 0 ? total : 0);
+                semesterStmt.setDouble(3, id % 3 == 1 ? total : 0);
+                semesterStmt.setDouble(4, id % 3 == 2 ? total : 0);
+                semesterStmt.addBatch();
+
+                belongStmt.setInt(1, id);
+                belongStmt.setInt(2, id);
+                belongStmt.setInt(3, id);
+                belongStmt.setString(4, "active");
+                belongStmt.addBatch();
+
+                duedateStmt.setInt(1, id);
+                duedateStmt.setInt(2, random.nextInt(120) - 60);
+                duedateStmt.addBatch();
+
+                payableStmt.setInt(1, id);
+                payableStmt.setString(2, String.format("%.2f", paid));
+                payableStmt.setString(3, String.format("%.2f", paid));
+                payableStmt.setString(4, String.format("%.2f", total - paid));
+                payableStmt.setString(5, status);
+                payableStmt.setInt(6, id);
+                payableStmt.addBatch();
+
+                if (id % BATCH_SIZE == 0 || id == belongRows) {
+                    studentStmt.executeBatch();
+                    semesterStmt.executeBatch();
+                    belongStmt.executeBatch();
+                    duedateStmt.executeBatch();
+                    payableStmt.executeBatch();
+                    conn.commit();
+                }
+            }
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private static Connection openScratchConnection() throws SQLException {
+        String url = DatabaseConfig.DB_URL.replace("/" + DatabaseConfig.DB_NAME + "?", "/" + BENCH_DB_NAME + "?") +
+                     "&rewriteBatchedStatements=true";
+        return DriverManager.getConnection(url, DatabaseConfig.DB_USER, DatabaseConfig.DB_PASSWORD);
+    }
+
+    private static Connection openServerConnection() throws SQLException {
+        try {
+            Class.forName(DatabaseConfig.DRIVER_CLASS);
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("MySQL JDBC driver not found. Please add mysql-connector-j-X.X.X.jar to your project libraries.", e);
+        }
+        String url = "jdbc:mysql://" + DatabaseConfig.DB_HOST + ":" + DatabaseConfig.DB_PORT +
+                     "/?useSSL=false&serverTimezone=UTC&allowPublicKeyRetrieval=true";
+        return DriverManager.getConnection(url, DatabaseConfig.DB_USER, DatabaseConfig.DB_PASSWORD);
+    }
+
+    private static void createScratchDatabase() throws SQLException {
+        try (Connection conn = openServerConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP DATABASE IF EXISTS " + BENCH_DB_NAME);
+            stmt.execute("CREATE DATABASE " + BENCH_DB_NAME + " CHARACTER SET utf8mb4");
+        }
+    }
+
+    private static void dropScratchDatabase() {
+        try (Connection conn = openServerConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP DATABASE IF EXISTS " + BENCH_DB_NAME);
+        } catch (SQLException e) {
+            System.err.println("Error dropping benchmark database " + BENCH_DB_NAME + ": " + e.getMessage());
+        }
+    }
+
+    public static void main(String[] args) {
+        int belongRows = DEFAULT_BELONG_ROWS;
+        if (args.length > 0) {
+            belongRows = Integer.parseInt(args[0]);
+        }
+        try {
+            run(belongRows);
+        } catch (SQLException e) {
+            System.err.println("Error running view benchmark: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
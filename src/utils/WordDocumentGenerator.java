@@ -122,7 +122,7 @@ public class WordDocumentGenerator {
             
             return rtfPict.toString();
         } catch (Exception e) {
-            System.err.println("Error converting image to RTF: " + e.getMessage());
+            Log.warn("Error converting image to RTF", e);
             return null;
         }
     }
@@ -139,7 +139,7 @@ public class WordDocumentGenerator {
             if (resourceUrl != null) {
                 File imageFile = new File(resourceUrl.toURI());
                 if (imageFile.exists() && imageFile.isFile()) {
-                    System.out.println("Found image file from classpath: " + imageFile.getAbsolutePath());
+                    Log.debug("Found image file from classpath: " + imageFile.getAbsolutePath());
                     return imageFile;
                 }
             }
@@ -166,12 +166,12 @@ public class WordDocumentGenerator {
         for (String path : possiblePaths) {
             File imageFile = new File(path);
             if (imageFile.exists() && imageFile.isFile()) {
-                System.out.println("Found image file: " + imageFile.getAbsolutePath());
+                Log.debug("Found image file: " + imageFile.getAbsolutePath());
                 return imageFile;
             }
         }
         
-        System.out.println("Image file not found: " + fileName);
+        Log.debug("Image file not found: " + fileName);
         return null;
     }
     
@@ -415,8 +415,7 @@ public class WordDocumentGenerator {
             
             return file;
         } catch (Exception e) {
-            System.err.println("Error generating document: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error generating document", e);
             return null;
         }
     }
@@ -498,7 +497,7 @@ public class WordDocumentGenerator {
             
             return rtfImage.toString();
         } catch (Exception e) {
-            System.err.println("Error creating background image: " + e.getMessage());
+            Log.warn("Error creating background image", e);
             return null;
         }
     }
@@ -659,8 +658,7 @@ public class WordDocumentGenerator {
             
             return file;
         } catch (Exception e) {
-            System.err.println("Error generating letter: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error generating letter", e);
             return null;
         }
     }